@@ -0,0 +1,45 @@
+package org.ontal.imgutil.benchmarks;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Benchmarks entry point accepting the standard JMH command line options.
+ * Unlike the plain JMH runner it always attaches the GC profiler, so every
+ * result comes with its allocation rate and normalized allocation per
+ * operation.
+ */
+public final class BenchmarkMain {
+
+    private BenchmarkMain() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLineOptions cmd = new CommandLineOptions(args);
+        if(cmd.shouldHelp()) {
+            cmd.showHelp();
+            return;
+        }
+        if(cmd.shouldListProfilers()) {
+            cmd.listProfilers();
+            return;
+        }
+
+        final OptionsBuilder options = new OptionsBuilder();
+        options.parent(cmd);
+        final boolean profiled = cmd.getProfilers().stream()
+                .anyMatch(p -> p.getKlass().equals("gc") || p.getKlass().equals(GCProfiler.class.getName()));
+        if(!profiled) {
+            options.addProfiler(GCProfiler.class);
+        }
+
+        final Runner runner = new Runner(options.build());
+        if(cmd.shouldList() || cmd.shouldListWithParams()) {
+            runner.list();
+            return;
+        }
+        runner.run();
+    }
+}
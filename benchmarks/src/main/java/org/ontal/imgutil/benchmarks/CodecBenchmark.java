@@ -0,0 +1,72 @@
+package org.ontal.imgutil.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.ontal.imgutil.ImageFormat;
+import org.ontal.imgutil.ImageScaler;
+import org.ontal.imgutil.TransformSpec;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Full decode, transform and encode path for every image format, the
+ * source image being encoded in the same format as the output one.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Benchmark)
+public class CodecBenchmark {
+
+    @Param({ "PNG", "JPG", "JPEG", "BMP", "GIF" })
+    private ImageFormat imageFormat;
+
+    @Param({ "VGA", "HD", "MP12", "MP50" })
+    private SourceSize sourceSize;
+
+    @Param({ "200x200", "1024x768" })
+    private String target;
+
+    private byte[] imageBytes;
+    private TransformSpec spec;
+
+    @Setup
+    public void setUp() throws IOException {
+        final String[] dims = target.split("x");
+        spec = TransformSpec.adjust(Integer.parseInt(dims[0]), Integer.parseInt(dims[1]));
+        final ImageType imageType = imageFormat == ImageFormat.GIF ? ImageType.TYPE_BYTE_INDEXED : ImageType.TYPE_3BYTE_BGR;
+        imageBytes = SyntheticImages.encode(sourceSize, imageType, imageFormat);
+    }
+
+    /**
+     * Decodes the whole image before transforming it.
+     */
+    @Benchmark
+    public byte[] decodeTransformEncode() throws IOException {
+        return new ImageScaler(imageBytes)
+                .transform(spec)
+                .toByteArray(imageFormat);
+    }
+
+    /**
+     * Decodes only the region and resolution the transformation needs.
+     */
+    @Benchmark
+    public byte[] decodeRegionTransformEncode() throws IOException {
+        return new ImageScaler(imageBytes, spec)
+                .transform(spec)
+                .toByteArray(imageFormat);
+    }
+}
@@ -0,0 +1,65 @@
+package org.ontal.imgutil.benchmarks;
+
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+
+/**
+ * Benchmarked source image pixel layouts.
+ */
+public enum ImageType {
+
+    /**
+     * {@link BufferedImage#TYPE_INT_RGB}
+     */
+    TYPE_INT_RGB,
+
+    /**
+     * {@link BufferedImage#TYPE_INT_ARGB}
+     */
+    TYPE_INT_ARGB,
+
+    /**
+     * {@link BufferedImage#TYPE_3BYTE_BGR}, as decoded from JPEG files
+     */
+    TYPE_3BYTE_BGR,
+
+    /**
+     * {@link BufferedImage#TYPE_BYTE_INDEXED}, as decoded from GIF files
+     */
+    TYPE_BYTE_INDEXED,
+
+    /**
+     * Banded RGB bytes, one array per band, reported as
+     * {@link BufferedImage#TYPE_CUSTOM}.
+     */
+    TYPE_CUSTOM;
+
+    /**
+     * Creates an empty image of this type.
+     *
+     * @param width image width
+     * @param height image height
+     * @return image
+     */
+    public BufferedImage create(final int width, final int height) {
+        switch(this) {
+            case TYPE_INT_RGB:
+                return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            case TYPE_INT_ARGB:
+                return new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+            case TYPE_3BYTE_BGR:
+                return new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+            case TYPE_BYTE_INDEXED:
+                return new BufferedImage(width, height, BufferedImage.TYPE_BYTE_INDEXED);
+            default:
+                final ComponentColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                        false, false, Transparency.OPAQUE, DataBuffer.TYPE_BYTE);
+                return new BufferedImage(cm, Raster.createBandedRaster(DataBuffer.TYPE_BYTE, width, height, 3, null),
+                        false, null);
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package org.ontal.imgutil.benchmarks;
+
+/**
+ * Benchmarked source image sizes.
+ */
+public enum SourceSize {
+
+    /**
+     * 640x480, 0.3 MP
+     */
+    VGA(640, 480),
+
+    /**
+     * 1920x1080, 2 MP
+     */
+    HD(1920, 1080),
+
+    /**
+     * 4000x3000, 12 MP
+     */
+    MP12(4000, 3000),
+
+    /**
+     * 8660x5773, 50 MP
+     */
+    MP50(8660, 5773);
+
+    private final int width;
+    private final int height;
+
+    private SourceSize(final int width, final int height) {
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+}
@@ -0,0 +1,96 @@
+package org.ontal.imgutil.benchmarks;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+import org.ontal.imgutil.ImageFormat;
+
+/**
+ * Generates deterministic photo-like benchmark images, so the benchmarks
+ * don't need any input files. Images combine smooth gradients, hard edges
+ * and fine noise, giving the resampling filters and the encoders realistic
+ * work.
+ */
+public final class SyntheticImages {
+
+    private static final long SEED = 20120501L;
+
+    private SyntheticImages() {
+    }
+
+    /**
+     * Creates image of the provided size and type.
+     *
+     * @param size image size
+     * @param type image type
+     * @return image
+     */
+    public static BufferedImage create(final SourceSize size, final ImageType type) {
+        final BufferedImage rgb = createRgb(size.getWidth(), size.getHeight(), type == ImageType.TYPE_INT_ARGB);
+        if(type == ImageType.TYPE_INT_RGB || type == ImageType.TYPE_INT_ARGB) {
+            return rgb;
+        }
+
+        final BufferedImage image = type.create(size.getWidth(), size.getHeight());
+        final Graphics2D g = image.createGraphics();
+        try {
+            g.drawImage(rgb, 0, 0, null);
+        }
+        finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * Creates image of the provided size and type encoded in the provided
+     * format.
+     *
+     * @param size image size
+     * @param type image type
+     * @param imageFormat image format
+     * @return image bytes
+     * @throws IOException if the image can't be encoded in the format
+     */
+    public static byte[] encode(final SourceSize size, final ImageType type, final ImageFormat imageFormat)
+            throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        if(!ImageIO.write(create(size, type), imageFormat.getName(), baos)) {
+            throw new IOException("No image writer available for " + imageFormat + " able to encode " + type);
+        }
+        return baos.toByteArray();
+    }
+
+    private static BufferedImage createRgb(final int width, final int height, final boolean alpha) {
+        final BufferedImage image = new BufferedImage(width, height,
+                alpha ? BufferedImage.TYPE_INT_ARGB : BufferedImage.TYPE_INT_RGB);
+        final int[] pixels = ((DataBufferInt)image.getRaster().getDataBuffer()).getData();
+        final Random random = new Random(SEED);
+        final int cell = Math.max(16, width / 24);
+
+        for(int y = 0; y < height; y++) {
+            final int gy = y * 255 / height;
+            for(int x = 0; x < width; x++) {
+                final int gx = x * 255 / width;
+                final int noise = random.nextInt(24) - 12;
+                final boolean checker = ((x / cell) + (y / cell)) % 2 == 0;
+                final int r = clamp(gx + noise + (checker ? 40 : 0));
+                final int g = clamp(gy + noise);
+                final int b = clamp(255 - (gx + gy) / 2 + noise);
+                final int a = alpha ? clamp(128 + (gx - gy) / 2) : 255;
+                pixels[y * width + x] = a << 24 | r << 16 | g << 8 | b;
+            }
+        }
+        return image;
+    }
+
+    private static int clamp(final int value) {
+        return value < 0 ? 0 : value > 255 ? 255 : value;
+    }
+}
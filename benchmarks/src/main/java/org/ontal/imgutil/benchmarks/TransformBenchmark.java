@@ -0,0 +1,77 @@
+package org.ontal.imgutil.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.TimeUnit;
+
+import org.ontal.imgutil.Dimension;
+import org.ontal.imgutil.ImageScaler;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Transformations of already decoded images across source sizes, target
+ * sizes and pixel layouts.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx6g")
+@State(Scope.Benchmark)
+public class TransformBenchmark {
+
+    @Param({ "VGA", "HD", "MP12", "MP50" })
+    private SourceSize sourceSize;
+
+    @Param({ "200x200", "1024x768" })
+    private String target;
+
+    @Param({ "TYPE_INT_RGB", "TYPE_INT_ARGB", "TYPE_3BYTE_BGR", "TYPE_BYTE_INDEXED", "TYPE_CUSTOM" })
+    private ImageType imageType;
+
+    private ImageScaler scaler;
+    private int width;
+    private int height;
+
+    @Setup
+    public void setUp() {
+        final String[] dims = target.split("x");
+        width = Integer.parseInt(dims[0]);
+        height = Integer.parseInt(dims[1]);
+        scaler = new ImageScaler(SyntheticImages.create(sourceSize, imageType));
+    }
+
+    @Benchmark
+    public BufferedImage fit() {
+        return scaler.fit(width, height).getImage();
+    }
+
+    @Benchmark
+    public BufferedImage expand() {
+        return scaler.expand(width, height).getImage();
+    }
+
+    @Benchmark
+    public BufferedImage adjust() {
+        return scaler.adjust(width, height).getImage();
+    }
+
+    @Benchmark
+    public BufferedImage limit() {
+        return scaler.limit(Dimension.WIDTH, width).getImage();
+    }
+
+    @Benchmark
+    public BufferedImage tile() {
+        return scaler.tile(width, height).getImage();
+    }
+}
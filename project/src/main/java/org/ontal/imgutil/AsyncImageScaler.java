@@ -0,0 +1,385 @@
+package org.ontal.imgutil;
+
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.ontal.imgutil.scaling.Resampler;
+
+/**
+ * Asynchronous facade of the {@link ImageScaler} for non blocking servers.
+ * Every operation returns a {@link CompletableFuture} right away and runs on
+ * the executor of its stage: decoding and encoding, which wait for I/O on
+ * top of their own CPU work, run on the decode and encode executors, while
+ * the purely CPU bound resampling runs on the transform executor, so a
+ * bounded CPU pool is never blocked by I/O and the calling thread, e.g. an
+ * event loop, is never blocked at all.
+ * <br><br>
+ * Cancelling a returned future, or completing it in any other way, aborts
+ * the stages that haven't started yet, including the later stages of the
+ * {@link #render(byte[], Rendition)} pipelines. Stages already running are
+ * not interrupted and their results are discarded.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * final AsyncImageScaler scaler = new AsyncImageScaler()
+ *         .withTransformExecutor(Executors.newFixedThreadPool(8))
+ *         .withDecodeExecutor(ioExecutor)
+ *         .withEncodeExecutor(ioExecutor);
+ * scaler.render(uploadedImageBytes, new Rendition(TransformSpec.adjust(200, 200), ImageFormat.JPG))
+ *         .thenAccept(response::send);
+ * </pre>
+ * The scaler is immutable, the <code>with*</code> methods return configured
+ * copies, and can be used for any number of images, including concurrently.
+ * Tasks rejected by an executor, e.g. because its queue is full, complete
+ * the returned future exceptionally with the rejection.
+ */
+public class AsyncImageScaler {
+
+    private final Executor decodeExecutor;
+    private final Executor transformExecutor;
+    private final Executor encodeExecutor;
+    private final Resampler resampler;
+
+    /**
+     * Creates scaler decoding and encoding on the shared I/O pool and
+     * resampling on the common fork join pool with the default resampler.
+     */
+    public AsyncImageScaler() {
+        this(IoExecutor.INSTANCE, ForkJoinPool.commonPool(), IoExecutor.INSTANCE, Resampler.getDefault());
+    }
+
+    private AsyncImageScaler(final Executor decodeExecutor, final Executor transformExecutor,
+            final Executor encodeExecutor, final Resampler resampler) {
+        this.decodeExecutor = decodeExecutor;
+        this.transformExecutor = transformExecutor;
+        this.encodeExecutor = encodeExecutor;
+        this.resampler = resampler;
+    }
+
+    /**
+     * Creates a scaler instance reading and decoding the images on the
+     * provided executor. Default is a shared pool of daemon threads bounded
+     * to the number of available processors, on Java 21+ it can be a
+     * virtual thread executor, e.g.
+     * <code>Executors.newVirtualThreadPerTaskExecutor()</code>.
+     *
+     * @param executor decode executor
+     * @return async image scaler
+     */
+    public AsyncImageScaler withDecodeExecutor(final Executor executor) {
+        return new AsyncImageScaler(validateExecutor(executor), transformExecutor, encodeExecutor, resampler);
+    }
+
+    /**
+     * Creates a scaler instance resampling the images on the provided
+     * executor, which should be bounded to the number of cores dedicated to
+     * image processing. Default is the common fork join pool.
+     *
+     * @param executor transform executor
+     * @return async image scaler
+     */
+    public AsyncImageScaler withTransformExecutor(final Executor executor) {
+        return new AsyncImageScaler(decodeExecutor, validateExecutor(executor), encodeExecutor, resampler);
+    }
+
+    /**
+     * Creates a scaler instance encoding and writing the images on the
+     * provided executor. Default is the same shared pool as the default
+     * decode executor.
+     *
+     * @param executor encode executor
+     * @return async image scaler
+     */
+    public AsyncImageScaler withEncodeExecutor(final Executor executor) {
+        return new AsyncImageScaler(decodeExecutor, transformExecutor, validateExecutor(executor), resampler);
+    }
+
+    /**
+     * Creates a scaler instance using the provided resampler for the
+     * transformations. Default is the default resampler.
+     *
+     * @param resampler resampler
+     * @return async image scaler
+     */
+    public AsyncImageScaler withResampler(final Resampler resampler) {
+        if(resampler == null) {
+            throw new IllegalArgumentException("Resampler argument cannot be null");
+        }
+        return new AsyncImageScaler(decodeExecutor, transformExecutor, encodeExecutor, resampler);
+    }
+
+    /**
+     * Decodes the image bytes, see {@link ImageScaler#ImageScaler(byte[])}.
+     *
+     * @param imageBytes image bytes
+     * @return future image scaler
+     */
+    public CompletableFuture<ImageScaler> read(final byte[] imageBytes) {
+        return supply(decodeExecutor, () -> new ImageScaler(imageBytes).withResampler(resampler));
+    }
+
+    /**
+     * Decodes the part of the image bytes needed for the provided
+     * transformation, see {@link ImageScaler#ImageScaler(byte[], TransformSpec)}.
+     *
+     * @param imageBytes image bytes
+     * @param spec transformation spec
+     * @return future image scaler
+     */
+    public CompletableFuture<ImageScaler> read(final byte[] imageBytes, final TransformSpec spec) {
+        return supply(decodeExecutor, () -> new ImageScaler(imageBytes, spec).withResampler(resampler));
+    }
+
+    /**
+     * Decodes the image buffer, see {@link ImageScaler#ImageScaler(ByteBuffer)}.
+     * The buffer must not be modified until the returned future completes.
+     *
+     * @param imageBuffer image buffer
+     * @return future image scaler
+     */
+    public CompletableFuture<ImageScaler> read(final ByteBuffer imageBuffer) {
+        return supply(decodeExecutor, () -> new ImageScaler(imageBuffer).withResampler(resampler));
+    }
+
+    /**
+     * Reads and decodes the image input stream, see
+     * {@link ImageScaler#ImageScaler(InputStream)}. The stream is closed.
+     *
+     * @param imageInputStream image input stream
+     * @return future image scaler
+     */
+    public CompletableFuture<ImageScaler> read(final InputStream imageInputStream) {
+        return supply(decodeExecutor, () -> new ImageScaler(imageInputStream).withResampler(resampler));
+    }
+
+    /**
+     * Reads and decodes the image file, see {@link ImageScaler#ImageScaler(Path)}.
+     *
+     * @param imagePath image file path
+     * @return future image scaler
+     */
+    public CompletableFuture<ImageScaler> read(final Path imagePath) {
+        return supply(decodeExecutor, () -> new ImageScaler(imagePath).withResampler(resampler));
+    }
+
+    /**
+     * Reads and decodes the part of the image file needed for the provided
+     * transformation, see {@link ImageScaler#ImageScaler(Path, TransformSpec)}.
+     *
+     * @param imagePath image file path
+     * @param spec transformation spec
+     * @return future image scaler
+     */
+    public CompletableFuture<ImageScaler> read(final Path imagePath, final TransformSpec spec) {
+        return supply(decodeExecutor, () -> new ImageScaler(imagePath, spec).withResampler(resampler));
+    }
+
+    /**
+     * Applies the transformation to the input image of the scaler, see
+     * {@link ImageScaler#transform(TransformSpec)}.
+     *
+     * @param scaler image scaler
+     * @param spec transformation spec
+     * @return future image scaler holding the produced image
+     */
+    public CompletableFuture<ImageScaler> transform(final ImageScaler scaler, final TransformSpec spec) {
+        return supply(transformExecutor, () -> scaler.transform(spec));
+    }
+
+    /**
+     * Applies the transformation chain to the input image of the scaler,
+     * see {@link ImageScaler#transform(TransformChain)}.
+     *
+     * @param scaler image scaler
+     * @param chain transformation chain
+     * @return future image scaler holding the produced image
+     */
+    public CompletableFuture<ImageScaler> transform(final ImageScaler scaler, final TransformChain chain) {
+        return supply(transformExecutor, () -> scaler.transform(chain));
+    }
+
+    /**
+     * Encodes the image produced by the scaler into a byte array, see
+     * {@link ImageScaler#toByteArray(ImageFormat, EncodeOptions)}.
+     *
+     * @param scaler image scaler holding the produced image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @return future image bytes
+     */
+    public CompletableFuture<byte[]> toByteArray(final ImageScaler scaler, final ImageFormat imageFormat,
+            final EncodeOptions options) {
+        return supply(encodeExecutor, () -> scaler.toByteArray(imageFormat, options));
+    }
+
+    /**
+     * Writes the image produced by the scaler into the output stream, see
+     * {@link ImageScaler#writeTo(ImageFormat, EncodeOptions, OutputStream)}.
+     *
+     * @param scaler image scaler holding the produced image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param outputStream output stream
+     * @return future completed when the image is written
+     */
+    public CompletableFuture<Void> writeTo(final ImageScaler scaler, final ImageFormat imageFormat,
+            final EncodeOptions options, final OutputStream outputStream) {
+        return supply(encodeExecutor, () -> {
+            scaler.writeTo(imageFormat, options, outputStream);
+            return null;
+        });
+    }
+
+    /**
+     * Writes the image produced by the scaler into the channel, see
+     * {@link ImageScaler#writeTo(ImageFormat, EncodeOptions, WritableByteChannel)}.
+     *
+     * @param scaler image scaler holding the produced image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param channel channel
+     * @return future completed when the image is written
+     */
+    public CompletableFuture<Void> writeTo(final ImageScaler scaler, final ImageFormat imageFormat,
+            final EncodeOptions options, final WritableByteChannel channel) {
+        return supply(encodeExecutor, () -> {
+            scaler.writeTo(imageFormat, options, channel);
+            return null;
+        });
+    }
+
+    /**
+     * Decodes, transforms and encodes the image bytes as described by the
+     * rendition, decoding only the part of the image the transformation
+     * needs. Every stage runs on its own executor and the later stages are
+     * not started once the returned future is cancelled.
+     *
+     * @param imageBytes image bytes
+     * @param rendition rendition description
+     * @return future encoded image bytes
+     */
+    public CompletableFuture<byte[]> render(final byte[] imageBytes, final Rendition rendition) {
+        if(rendition == null) {
+            throw new IllegalArgumentException("Rendition argument cannot be null");
+        }
+        return render(() -> new ImageScaler(imageBytes, rendition.getSpec()), rendition);
+    }
+
+    /**
+     * Reads, transforms and encodes the image file as described by the
+     * rendition, see {@link #render(byte[], Rendition)}.
+     *
+     * @param imagePath image file path
+     * @param rendition rendition description
+     * @return future encoded image bytes
+     */
+    public CompletableFuture<byte[]> render(final Path imagePath, final Rendition rendition) {
+        if(rendition == null) {
+            throw new IllegalArgumentException("Rendition argument cannot be null");
+        }
+        return render(() -> new ImageScaler(imagePath, rendition.getSpec()), rendition);
+    }
+
+    private CompletableFuture<byte[]> render(final Callable<ImageScaler> reader, final Rendition rendition) {
+        final CompletableFuture<byte[]> result = new CompletableFuture<>();
+        run(decodeExecutor, result, reader, scaler ->
+                run(transformExecutor, result, () -> scaler.withResampler(resampler).transform(rendition.getSpec()),
+                        transformed -> run(encodeExecutor, result,
+                                () -> transformed.toByteArray(rendition.getImageFormat(), rendition.getOptions()),
+                                result::complete)));
+        return result;
+    }
+
+    private static <T> CompletableFuture<T> supply(final Executor executor, final Callable<T> task) {
+        final CompletableFuture<T> result = new CompletableFuture<>();
+        run(executor, result, task, result::complete);
+        return result;
+    }
+
+    /**
+     * Runs the task on the executor unless the result is already completed,
+     * e.g. cancelled, by the time the task is started, and passes its value
+     * to the consumer. Failures complete the result exceptionally.
+     *
+     * @param executor executor
+     * @param result future result of the whole operation
+     * @param task stage task
+     * @param next consumer of the stage value
+     */
+    private static <T> void run(final Executor executor, final CompletableFuture<?> result, final Callable<T> task,
+            final Consumer<T> next) {
+        try {
+            executor.execute(() -> {
+                if(result.isDone()) {
+                    return;
+                }
+                final T value;
+                try {
+                    value = task.call();
+                }
+                catch(final Throwable e) {
+                    result.completeExceptionally(e);
+                    return;
+                }
+                next.accept(value);
+            });
+        }
+        catch(final RuntimeException e) {
+            // rejected by the executor
+            result.completeExceptionally(e);
+        }
+    }
+
+    private static Executor validateExecutor(final Executor executor) {
+        if(executor == null) {
+            throw new IllegalArgumentException("Executor argument cannot be null");
+        }
+        return executor;
+    }
+
+    /**
+     * Default executor of the I/O stages, created on first use. The threads
+     * are bounded to the number of available processors, since decoding
+     * and encoding take CPU time as well besides waiting for I/O, and the
+     * tasks waiting for them to the queue capacity, over which the tasks are
+     * rejected.
+     */
+    private static final class IoExecutor {
+
+        static final int QUEUE_CAPACITY = 1024;
+
+        static final ExecutorService INSTANCE = create();
+
+        private static ExecutorService create() {
+            final int threads = Runtime.getRuntime().availableProcessors();
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<>(QUEUE_CAPACITY), new ThreadFactory() {
+
+                        private final AtomicInteger count = new AtomicInteger();
+
+                        @Override
+                        public Thread newThread(final Runnable r) {
+                            final Thread thread = new Thread(r, "async-image-scaler-io-" + count.incrementAndGet());
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
+        }
+    }
+}
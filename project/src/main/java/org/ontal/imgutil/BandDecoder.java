@@ -0,0 +1,150 @@
+package org.ontal.imgutil;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+
+import org.ontal.imgutil.scaling.BandResampler;
+import org.ontal.imgutil.scaling.PixelFormats;
+
+/**
+ * Decodes the first image available to an image reader in horizontal bands
+ * of consecutive rows using the reader source region, optionally with
+ * source subsampling. Every band is reserved in the total limit of the
+ * default {@link PixelBudget} while it's being processed, the per image
+ * limit doesn't apply as the whole image is never held in memory.
+ * <br><br>
+ * Readers of the sequential formats, e.g. JPEG and PNG, decode the rows
+ * above the band again for every band, so taller bands make the decoding
+ * faster, while readers of the formats with random access to the rows
+ * decode every row once.
+ */
+final class BandDecoder implements BandResampler.Source, Closeable {
+
+    private final ImageReader reader;
+    private final ImageFormat imageFormat;
+    private final TransformSpec.Mode mode;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int subsampling;
+    private final int width;
+    private final int height;
+    private final int bandRows;
+    private final PixelBudget budget = PixelBudget.getDefault();
+
+    private int nextRow;
+    private long reserved;
+
+    /**
+     * Creates band decoder. The reader is disposed when the decoder is
+     * closed.
+     *
+     * @param reader image reader
+     * @param subsampling source subsampling factor
+     * @param bandPixels maximum number of decoded pixels per band
+     * @param mode transformation type the image is decoded for, if known
+     * @throws IOException if an error occurs while reading the image header
+     */
+    BandDecoder(final ImageReader reader, final int subsampling, final long bandPixels, final TransformSpec.Mode mode)
+            throws IOException {
+        this.reader = reader;
+        this.subsampling = subsampling;
+        this.mode = mode;
+        imageFormat = ImageFormat.getByExtension(reader.getFormatName());
+        sourceWidth = reader.getWidth(0);
+        sourceHeight = reader.getHeight(0);
+        width = (sourceWidth + subsampling - 1) / subsampling;
+        height = (sourceHeight + subsampling - 1) / subsampling;
+        bandRows = (int)Math.max(1, Math.min(height, bandPixels / width));
+    }
+
+    /**
+     * Returns source image width.
+     *
+     * @return width in pixels before subsampling
+     */
+    int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    /**
+     * Returns source image height.
+     *
+     * @return height in pixels before subsampling
+     */
+    int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * Returns decoded image width.
+     *
+     * @return width in pixels after subsampling
+     */
+    int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns decoded image height.
+     *
+     * @return height in pixels after subsampling
+     */
+    int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the bitmap type the bands are processed in, without decoding
+     * any pixels.
+     *
+     * @return image type
+     * @throws IOException if an error occurs while reading the image header
+     */
+    int getImageType() throws IOException {
+        final Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        if(!types.hasNext()) {
+            throw new IOException("Unsupported image type");
+        }
+        return PixelFormats.getWorkingType(types.next().createBufferedImage(1, 1));
+    }
+
+    /**
+     * Decodes the next band, releasing the budget reserved for the previous
+     * one.
+     */
+    @Override
+    public BufferedImage next() throws IOException {
+        if(nextRow >= height) {
+            throw new IOException("No more bands to read");
+        }
+        budget.release(reserved);
+        reserved = 0;
+
+        final int rows = Math.min(bandRows, height - nextRow);
+        final int top = nextRow * subsampling;
+        final ImageReadParam param = reader.getDefaultReadParam();
+        param.setSourceRegion(new Rectangle(0, top, sourceWidth, Math.min(rows * subsampling, sourceHeight - top)));
+        if(subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+
+        reserved = budget.acquire((long)width * rows);
+        final BufferedImage band = ImageDecoder.decode(reader, param, imageFormat, mode);
+        nextRow += rows;
+        return band;
+    }
+
+    @Override
+    public void close() {
+        budget.release(reserved);
+        reserved = 0;
+        reader.dispose();
+    }
+}
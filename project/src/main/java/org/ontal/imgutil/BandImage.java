@@ -0,0 +1,173 @@
+package org.ontal.imgutil;
+
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Vector;
+
+import org.ontal.imgutil.scaling.BandResampler;
+
+/**
+ * Scaled image whose rows are produced by a {@link BandResampler} when the
+ * image writer asks for them, so only a strip of the rows is held in memory
+ * at a time. The rows have to be read in ascending order, which is the
+ * order the writers of the non interlaced formats read them in.
+ */
+final class BandImage implements RenderedImage {
+
+    private final BandResampler bands;
+    private final int stripRows;
+    private final int imageType;
+    private final ColorModel colorModel;
+    private final SampleModel sampleModel;
+
+    private BufferedImage strip;
+    private int stripRow;
+
+    /**
+     * Creates band image.
+     *
+     * @param bands band resampler producing the rows
+     * @param stripRows number of rows produced at a time
+     * @throws IOException if an error occurs while reading the first source band
+     */
+    BandImage(final BandResampler bands, final int stripRows) throws IOException {
+        this.bands = bands;
+        this.stripRows = Math.max(1, Math.min(stripRows, bands.getHeight()));
+        imageType = bands.getResultType();
+        final BufferedImage sample = new BufferedImage(1, 1, imageType);
+        colorModel = sample.getColorModel();
+        sampleModel = sample.getSampleModel().createCompatibleSampleModel(bands.getWidth(), 1);
+    }
+
+    /**
+     * Returns the requested rows, producing the following strip when they
+     * are past the current one.
+     *
+     * @throws UncheckedIOException if an error occurs while reading the source bands
+     */
+    @Override
+    public Raster getData(final Rectangle rect) {
+        if(strip == null || rect.y < stripRow || rect.y + rect.height > stripRow + strip.getHeight()) {
+            final int rows = Math.min(Math.max(stripRows, rect.height), getHeight() - rect.y);
+            if(strip == null || strip.getHeight() != rows) {
+                strip = new BufferedImage(getWidth(), rows, imageType);
+            }
+            try {
+                bands.resample(rect.y, strip);
+            }
+            catch(final IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            stripRow = rect.y;
+        }
+        return strip.getRaster().createChild(rect.x, rect.y - stripRow, rect.width, rect.height, rect.x, rect.y, null);
+    }
+
+    @Override
+    public Raster getData() {
+        return getData(new Rectangle(0, 0, getWidth(), getHeight()));
+    }
+
+    @Override
+    public WritableRaster copyData(final WritableRaster raster) {
+        throw new UnsupportedOperationException("Band image rows can only be read");
+    }
+
+    @Override
+    public Raster getTile(final int tileX, final int tileY) {
+        return getData();
+    }
+
+    @Override
+    public Vector<RenderedImage> getSources() {
+        return null;
+    }
+
+    @Override
+    public Object getProperty(final String name) {
+        return Image.UndefinedProperty;
+    }
+
+    @Override
+    public String[] getPropertyNames() {
+        return null;
+    }
+
+    @Override
+    public ColorModel getColorModel() {
+        return colorModel;
+    }
+
+    @Override
+    public SampleModel getSampleModel() {
+        return sampleModel;
+    }
+
+    @Override
+    public int getWidth() {
+        return bands.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return bands.getHeight();
+    }
+
+    @Override
+    public int getMinX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinY() {
+        return 0;
+    }
+
+    @Override
+    public int getNumXTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getNumYTiles() {
+        return 1;
+    }
+
+    @Override
+    public int getMinTileX() {
+        return 0;
+    }
+
+    @Override
+    public int getMinTileY() {
+        return 0;
+    }
+
+    @Override
+    public int getTileWidth() {
+        return getWidth();
+    }
+
+    @Override
+    public int getTileHeight() {
+        return getHeight();
+    }
+
+    @Override
+    public int getTileGridXOffset() {
+        return 0;
+    }
+
+    @Override
+    public int getTileGridYOffset() {
+        return 0;
+    }
+}
@@ -0,0 +1,76 @@
+package org.ontal.imgutil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.Supplier;
+
+/**
+ * Batch processing input image source.
+ */
+public interface BatchInput {
+
+    /**
+     * Returns input name used for naming the produced output files.
+     *
+     * @return input name
+     */
+    String getName();
+
+    /**
+     * Opens the input image data stream. The stream is closed by the caller.
+     *
+     * @return image input stream
+     * @throws IOException if an error occurs while opening the stream
+     */
+    InputStream openStream() throws IOException;
+
+    /**
+     * Creates batch input reading the image from the provided file path.
+     *
+     * @param imagePath image file path
+     * @return batch input
+     */
+    static BatchInput of(final Path imagePath) {
+        return new BatchInput() {
+
+            @Override
+            public String getName() {
+                return imagePath.getFileName().toString();
+            }
+
+            @Override
+            public InputStream openStream() throws IOException {
+                return Files.newInputStream(imagePath);
+            }
+        };
+    }
+
+    /**
+     * Creates batch input reading the image from the streams provided by the
+     * supplier.
+     *
+     * @param name input name
+     * @param streamSupplier image input stream supplier
+     * @return batch input
+     */
+    static BatchInput of(final String name, final Supplier<InputStream> streamSupplier) {
+        return new BatchInput() {
+
+            @Override
+            public String getName() {
+                return name;
+            }
+
+            @Override
+            public InputStream openStream() throws IOException {
+                final InputStream is = streamSupplier.get();
+                if(is == null) {
+                    throw new IOException("No input stream available for " + name);
+                }
+                return is;
+            }
+        };
+    }
+}
@@ -0,0 +1,551 @@
+package org.ontal.imgutil;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.ontal.imgutil.scaling.RasterPool;
+import org.ontal.imgutil.scaling.Resampler;
+import org.ontal.imgutil.scaling.ScalingPlan;
+
+/**
+ * Parallel batch processor producing a set of renditions for every input
+ * image. Images are decoded, transformed and encoded in separate pipelined
+ * stages connected with bounded queues, so a slow stage makes the previous
+ * ones wait instead of piling up decoded images in memory. On top of that
+ * the total size of the decoded images and their renditions in flight is
+ * limited by a memory budget which is checked against the image header
+ * before decoding.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * final BatchReport report = new BatchProcessor(Paths.get("/tmp/thumbnails"))
+ *         .rendition("small", new Rendition(TransformSpec.adjust(200, 200), ImageFormat.JPG))
+ *         .rendition("large", new Rendition(TransformSpec.limit(Dimension.WIDTH, 1024), ImageFormat.JPG))
+ *         .transformThreads(8)
+ *         .memoryLimit(512L * 1024 * 1024)
+ *         .process(Paths.get("/tmp/originals"));
+ * </pre>
+ * Output files are named after the input name without extension followed by
+ * an underscore and the rendition name. A configured processor can be used
+ * for any number of batches, including concurrent ones.
+ */
+public class BatchProcessor {
+
+    private final static Logger log = Logger.getLogger(BatchProcessor.class.getName());
+
+    private static final int BYTES_PER_PIXEL = 4;
+    private static final int PERMIT_SIZE = 1024;
+    private static final Task END = new Task(null);
+
+    private final Path outputDirectory;
+    private final Map<String, Rendition> renditions = new LinkedHashMap<>();
+
+    private int decodeThreads = 2;
+    private int transformThreads = Runtime.getRuntime().availableProcessors();
+    private int encodeThreads = 2;
+    private int queueCapacity = 16;
+    private long memoryLimit = Runtime.getRuntime().maxMemory() / 2;
+    private ThreadFactory ioThreadFactory = Executors.defaultThreadFactory();
+    private StreamCache streamCache = StreamCache.MEMORY;
+    private RasterPool rasterPool;
+    private Consumer<BatchResult> resultListener = result -> {};
+
+    /**
+     * Creates batch processor writing the produced renditions into the
+     * provided output directory.
+     *
+     * @param outputDirectory output directory path
+     */
+    public BatchProcessor(final Path outputDirectory) {
+        if(outputDirectory == null) {
+            throw new IllegalArgumentException("Output directory argument cannot be null");
+        }
+        this.outputDirectory = outputDirectory;
+    }
+
+    /**
+     * Adds a rendition to be produced for every input image.
+     *
+     * @param name rendition name used as output file name suffix
+     * @param rendition rendition description
+     * @return batch processor
+     */
+    public BatchProcessor rendition(final String name, final Rendition rendition) {
+        if(name == null || name.isEmpty()) {
+            throw new IllegalArgumentException("Invalid rendition name argument");
+        }
+        if(rendition == null) {
+            throw new IllegalArgumentException("Rendition argument cannot be null");
+        }
+        renditions.put(name, rendition);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads reading and decoding input images.
+     * Default is 2.
+     *
+     * @param threads number of threads
+     * @return batch processor
+     */
+    public BatchProcessor decodeThreads(final int threads) {
+        decodeThreads = validateThreads(threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads transforming decoded images. Default is the
+     * number of available processors.
+     *
+     * @param threads number of threads
+     * @return batch processor
+     */
+    public BatchProcessor transformThreads(final int threads) {
+        transformThreads = validateThreads(threads);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads encoding and writing output images.
+     * Default is 2.
+     *
+     * @param threads number of threads
+     * @return batch processor
+     */
+    public BatchProcessor encodeThreads(final int threads) {
+        encodeThreads = validateThreads(threads);
+        return this;
+    }
+
+    /**
+     * Sets the capacity of each of the queues between the processing stages.
+     * Default is 16.
+     *
+     * @param capacity queue capacity
+     * @return batch processor
+     */
+    public BatchProcessor queueCapacity(final int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Invalid queue capacity argument");
+        }
+        queueCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets the maximum total size of the decoded images and their renditions
+     * being processed at the same time, estimated as 4 bytes per pixel of
+     * the decoded image and of the planned renditions. An image bigger
+     * than the limit is still processed, but only when no other image is in
+     * flight. Default is half of the maximum heap size.
+     *
+     * @param bytes memory limit in bytes
+     * @return batch processor
+     */
+    public BatchProcessor memoryLimit(final long bytes) {
+        if(bytes < PERMIT_SIZE) {
+            throw new IllegalArgumentException("Invalid memory limit argument");
+        }
+        memoryLimit = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the factory creating the threads of the decoding and encoding
+     * stages, which spend most of their time waiting for I/O. On Java 21+ it
+     * can be a virtual thread factory, e.g.
+     * <code>Thread.ofVirtual().factory()</code>.
+     *
+     * @param threadFactory I/O thread factory
+     * @return batch processor
+     */
+    public BatchProcessor ioThreadFactory(final ThreadFactory threadFactory) {
+        if(threadFactory == null) {
+            throw new IllegalArgumentException("Thread factory argument cannot be null");
+        }
+        ioThreadFactory = threadFactory;
+        return this;
+    }
+
+    /**
+     * Sets the cache holding the data read from the input streams while the
+     * images are decoded. Default is {@link StreamCache#MEMORY}.
+     *
+     * @param cache input stream cache
+     * @return batch processor
+     */
+    public BatchProcessor streamCache(final StreamCache cache) {
+        if(cache == null) {
+            throw new IllegalArgumentException("Stream cache argument cannot be null");
+        }
+        streamCache = cache;
+        return this;
+    }
+
+    /**
+     * Sets the pool the transformations allocate their images from. The
+     * rendition images are released back to it once they are encoded, so
+     * batches of same sized renditions reuse the same rasters instead of
+     * allocating new ones for every image. Default is no pool.
+     *
+     * @param pool raster pool
+     * @return batch processor
+     */
+    public BatchProcessor rasterPool(final RasterPool pool) {
+        if(pool == null) {
+            throw new IllegalArgumentException("Raster pool argument cannot be null");
+        }
+        rasterPool = pool;
+        return this;
+    }
+
+    /**
+     * Sets the listener notified of every completed or failed input image.
+     * The listener is invoked from the processing threads.
+     *
+     * @param listener result listener
+     * @return batch processor
+     */
+    public BatchProcessor resultListener(final Consumer<BatchResult> listener) {
+        if(listener == null) {
+            throw new IllegalArgumentException("Listener argument cannot be null");
+        }
+        resultListener = listener;
+        return this;
+    }
+
+    /**
+     * Processes all the image files found in the provided directory and its
+     * subdirectories. Only files with one of the {@link ImageFormat}
+     * extensions are taken into account.
+     *
+     * @param inputDirectory input directory path
+     * @return batch report
+     * @throws IOException if an error occurs while walking the directory
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public BatchReport process(final Path inputDirectory) throws IOException, InterruptedException {
+        try(final Stream<Path> paths = Files.walk(inputDirectory)) {
+            return process(() -> paths
+                    .filter(Files::isRegularFile)
+                    .filter(BatchProcessor::isImageFile)
+                    .map(BatchInput::of)
+                    .iterator());
+        }
+    }
+
+    /**
+     * Processes all the provided inputs. Inputs are consumed lazily as the
+     * pipeline accepts them, so the iterable may be backed by a queue or any
+     * other unbounded source. The calling thread is blocked until all inputs
+     * are processed.
+     *
+     * @param inputs batch inputs
+     * @return batch report
+     * @throws IOException if the output directory cannot be created
+     * @throws InterruptedException if the calling thread is interrupted
+     */
+    public BatchReport process(final Iterable<? extends BatchInput> inputs) throws IOException, InterruptedException {
+        if(renditions.isEmpty()) {
+            throw new IllegalStateException("Bad state. At least one rendition should be added before processing.");
+        }
+        Files.createDirectories(outputDirectory);
+        return new Run(new LinkedHashMap<>(renditions)).execute(inputs);
+    }
+
+    private static int validateThreads(final int threads) {
+        if(threads <= 0) {
+            throw new IllegalArgumentException("Invalid number of threads argument");
+        }
+        return threads;
+    }
+
+    private static boolean isImageFile(final Path path) {
+        final String fileName = path.getFileName().toString();
+        final int dot = fileName.lastIndexOf('.');
+        return dot > 0 && ImageFormat.getByExtension(fileName.substring(dot + 1)) != null;
+    }
+
+    private static String baseName(final String name) {
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * Single input image processing state passed between the stages.
+     */
+    private static final class Task {
+
+        private final BatchInput input;
+        private final long startNanos = System.nanoTime();
+        private int permits;
+        private BufferedImage image;
+        private List<BufferedImage> images;
+
+        private Task(final BatchInput input) {
+            this.input = input;
+        }
+    }
+
+    /**
+     * Pipeline stage step. Returns the task to be passed to the next stage or
+     * <code>null</code> if the task is completed or failed.
+     */
+    private interface Step {
+
+        Task apply(Task task) throws InterruptedException;
+    }
+
+    /**
+     * Processing state of a single batch.
+     */
+    private final class Run {
+
+        private final Map<String, Rendition> renditions;
+        private final List<TransformSpec> specs;
+        private final int hintWidth;
+        private final int hintHeight;
+        private final int maxPermits;
+        private final Semaphore memory;
+        private final RasterPool rasterPool;
+        private final Resampler resampler;
+        private final BlockingQueue<Task> inputQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Task> decodedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final BlockingQueue<Task> transformedQueue = new ArrayBlockingQueue<>(queueCapacity);
+        private final AtomicLong succeeded = new AtomicLong();
+        private final List<BatchResult> failures = Collections.synchronizedList(new ArrayList<>());
+
+        private Run(final Map<String, Rendition> renditions) {
+            this.renditions = renditions;
+            specs = renditions.values().stream()
+                    .map(Rendition::getSpec)
+                    .collect(Collectors.toList());
+
+            // decode at a reduced resolution only when none of the renditions needs the full one
+            int width = 0;
+            int height = 0;
+            for(final TransformSpec spec : specs) {
+                if(spec.getMode() == TransformSpec.Mode.TILE) {
+                    width = 0;
+                    height = 0;
+                    break;
+                }
+                if(spec.getMode() == TransformSpec.Mode.LIMIT) {
+                    if(Dimension.WIDTH.equals(spec.getDimension())) {
+                        width = Math.max(width, spec.getSize());
+                    }
+                    else {
+                        height = Math.max(height, spec.getSize());
+                    }
+                }
+                else {
+                    width = Math.max(width, spec.getWidth());
+                    height = Math.max(height, spec.getHeight());
+                }
+            }
+            hintWidth = width;
+            hintHeight = height;
+
+            maxPermits = (int)Math.min(memoryLimit / PERMIT_SIZE, Integer.MAX_VALUE);
+            memory = new Semaphore(maxPermits, true);
+            rasterPool = BatchProcessor.this.rasterPool;
+            resampler = rasterPool == null ? Resampler.getDefault() : Resampler.getDefault().withRasterPool(rasterPool);
+        }
+
+        private BatchReport execute(final Iterable<? extends BatchInput> inputs) throws InterruptedException {
+            final long startNanos = System.nanoTime();
+            final ExecutorService decoders = start(decodeThreads, ioThreadFactory, inputQueue, decodedQueue, this::decode);
+            final ExecutorService transformers = start(transformThreads, Executors.defaultThreadFactory(),
+                    decodedQueue, transformedQueue, this::transform);
+            final ExecutorService encoders = start(encodeThreads, ioThreadFactory, transformedQueue, null, this::encode);
+
+            try {
+                for(final BatchInput input : inputs) {
+                    inputQueue.put(new Task(input));
+                }
+                finish(inputQueue, decoders);
+                finish(decodedQueue, transformers);
+                finish(transformedQueue, encoders);
+            }
+            finally {
+                // stops the workers waiting for tasks when the inputs failed or the calling thread was interrupted
+                decoders.shutdownNow();
+                transformers.shutdownNow();
+                encoders.shutdownNow();
+            }
+
+            return new BatchReport(succeeded.get(), new ArrayList<>(failures), System.nanoTime() - startNanos);
+        }
+
+        private ExecutorService start(final int threads, final ThreadFactory threadFactory,
+                final BlockingQueue<Task> in, final BlockingQueue<Task> out, final Step step) {
+            final ExecutorService executor = Executors.newFixedThreadPool(threads, threadFactory);
+            for(int i = 0; i < threads; i++) {
+                executor.execute(() -> {
+                    try {
+                        while(true) {
+                            final Task task = in.take();
+                            if(task == END) {
+                                // let the other workers of the stage see the end of the input as well
+                                in.put(END);
+                                return;
+                            }
+                            Task next = null;
+                            try {
+                                next = step.apply(task);
+                            }
+                            catch(final InterruptedException e) {
+                                throw e;
+                            }
+                            catch(final OutOfMemoryError e) {
+                                fail(task, new IOException("Not enough memory to process the image", e));
+                            }
+                            catch(final Throwable e) {
+                                // any other error, e.g. a codec linkage one, fails the task only and keeps the worker
+                                fail(task, e instanceof Exception ? (Exception)e
+                                        : new IOException("Unexpected error while processing the image", e));
+                            }
+                            if(next != null && out != null) {
+                                out.put(next);
+                            }
+                        }
+                    }
+                    catch(final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                });
+            }
+            return executor;
+        }
+
+        private void finish(final BlockingQueue<Task> in, final ExecutorService executor) throws InterruptedException {
+            in.put(END);
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+
+        private Task decode(final Task task) throws InterruptedException {
+            try(final InputStream is = task.input.openStream();
+                    final ImageInputStream iis = ImageDecoder.stream(is, streamCache)) {
+                final ImageReader reader = ImageDecoder.open(iis);
+                try {
+                    final int width = reader.getWidth(0);
+                    final int height = reader.getHeight(0);
+                    final int subsampling = ImageDecoder.calculateSubsampling(width, height, hintWidth, hintHeight);
+                    final long pixels = estimatePixels((width + subsampling - 1) / subsampling,
+                            (height + subsampling - 1) / subsampling);
+
+                    final int permits = (int)Math.min((pixels * BYTES_PER_PIXEL + PERMIT_SIZE - 1) / PERMIT_SIZE, maxPermits);
+                    memory.acquire(permits);
+                    task.permits = permits;
+                    task.image = ImageDecoder.read(reader, hintWidth, hintHeight);
+                }
+                finally {
+                    reader.dispose();
+                }
+                return task;
+            }
+            catch(final IOException | RuntimeException e) {
+                fail(task, e);
+                return null;
+            }
+        }
+
+        /**
+         * Estimates the number of pixels held in memory while processing an
+         * image of the provided decoded dimensions: the decoded image, the
+         * planned renditions and their scaled images.
+         */
+        private long estimatePixels(final int width, final int height) {
+            long pixels = (long)width * height;
+            for(final TransformSpec spec : specs) {
+                final ScalingPlan plan = spec.getTransformer().plan(width, height, BufferedImage.TYPE_INT_RGB, spec);
+                pixels += (long)plan.getOutputWidth() * plan.getOutputHeight()
+                        + (long)plan.getCropWidth() * plan.getCropHeight();
+            }
+            return pixels;
+        }
+
+        private Task transform(final Task task) {
+            try {
+                task.images = new ImageScaler(task.image).withResampler(resampler).renderImages(specs);
+                task.image = null;
+                return task;
+            }
+            catch(final RuntimeException e) {
+                fail(task, e);
+                return null;
+            }
+        }
+
+        private Task encode(final Task task) {
+            try {
+                final String baseName = baseName(task.input.getName());
+                final List<Path> outputPaths = new ArrayList<>(renditions.size());
+                int i = 0;
+                for(final Map.Entry<String, Rendition> entry : renditions.entrySet()) {
+                    final ImageFormat imageFormat = entry.getValue().getImageFormat();
+                    final Path outputPath = outputDirectory.resolve(
+                            baseName + "_" + entry.getKey() + "." + imageFormat.getFileExtension());
+                    ImageScaler.write(task.images.get(i++), imageFormat, entry.getValue().getOptions(), outputPath);
+                    outputPaths.add(outputPath);
+                }
+                if(rasterPool != null) {
+                    for(final BufferedImage image : task.images) {
+                        rasterPool.release(image);
+                    }
+                }
+                succeeded.incrementAndGet();
+                complete(task, new BatchResult(task.input.getName(), outputPaths, null, System.nanoTime() - task.startNanos));
+            }
+            catch(final IOException | RuntimeException e) {
+                fail(task, e);
+            }
+            return null;
+        }
+
+        private void fail(final Task task, final Exception e) {
+            log.log(Level.WARNING, "Failed to process " + task.input.getName() + ": " + e.getMessage(), e);
+            final BatchResult result = new BatchResult(task.input.getName(), null, e, System.nanoTime() - task.startNanos);
+            failures.add(result);
+            complete(task, result);
+        }
+
+        private void complete(final Task task, final BatchResult result) {
+            memory.release(task.permits);
+            task.permits = 0;
+            task.image = null;
+            task.images = null;
+            try {
+                resultListener.accept(result);
+            }
+            catch(final RuntimeException e) {
+                log.log(Level.WARNING, e.getMessage(), e);
+            }
+        }
+    }
+}
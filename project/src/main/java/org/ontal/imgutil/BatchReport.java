@@ -0,0 +1,80 @@
+package org.ontal.imgutil;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Batch processing summary.
+ */
+public final class BatchReport {
+
+    private final long succeeded;
+    private final List<BatchResult> failures;
+    private final long elapsedNanos;
+
+    BatchReport(final long succeeded, final List<BatchResult> failures, final long elapsedNanos) {
+        this.succeeded = succeeded;
+        this.failures = Collections.unmodifiableList(failures);
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns the number of processed input images.
+     *
+     * @return number of processed images
+     */
+    public long getProcessed() {
+        return succeeded + failures.size();
+    }
+
+    /**
+     * Returns the number of successfully processed input images.
+     *
+     * @return number of succeeded images
+     */
+    public long getSucceeded() {
+        return succeeded;
+    }
+
+    /**
+     * Returns the number of input images that failed to be processed.
+     *
+     * @return number of failed images
+     */
+    public long getFailed() {
+        return failures.size();
+    }
+
+    /**
+     * Returns the results of the input images that failed to be processed.
+     *
+     * @return failed results
+     */
+    public List<BatchResult> getFailures() {
+        return failures;
+    }
+
+    /**
+     * Returns the total batch processing time.
+     *
+     * @return elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the overall batch throughput.
+     *
+     * @return processed images per second
+     */
+    public double getThroughput() {
+        return elapsedNanos == 0 ? 0 : getProcessed() * 1_000_000_000d / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d processed (%d succeeded, %d failed) in %.3f s, %.2f images/s",
+                getProcessed(), getSucceeded(), getFailed(), elapsedNanos / 1_000_000_000d, getThroughput());
+    }
+}
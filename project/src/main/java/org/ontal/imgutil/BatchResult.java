@@ -0,0 +1,74 @@
+package org.ontal.imgutil;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Batch processing result of a single input image.
+ */
+public final class BatchResult {
+
+    private final String name;
+    private final List<Path> outputPaths;
+    private final Exception error;
+    private final long elapsedNanos;
+
+    BatchResult(final String name, final List<Path> outputPaths, final Exception error, final long elapsedNanos) {
+        this.name = name;
+        this.outputPaths = outputPaths == null ? Collections.emptyList() : Collections.unmodifiableList(outputPaths);
+        this.error = error;
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * Returns input name.
+     *
+     * @return input name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Returns the paths of the produced output files.
+     *
+     * @return output paths, empty if the processing failed
+     */
+    public List<Path> getOutputPaths() {
+        return outputPaths;
+    }
+
+    /**
+     * Returns the error that caused the processing to fail.
+     *
+     * @return error or <code>null</code> if the processing succeeded
+     */
+    public Exception getError() {
+        return error;
+    }
+
+    /**
+     * Checks if the input image was processed successfully.
+     *
+     * @return <code>true</code> if the processing succeeded, otherwise <code>false</code>
+     */
+    public boolean isSuccess() {
+        return error == null;
+    }
+
+    /**
+     * Returns the time elapsed since the input was taken for processing until
+     * it was completed or failed, including the time spent in queues.
+     *
+     * @return elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return name + (isSuccess() ? " -> " + outputPaths : " failed: " + error);
+    }
+}
@@ -0,0 +1,64 @@
+package org.ontal.imgutil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * Image input stream reading straight from a byte buffer, e.g. a wrapped
+ * image byte array or a memory mapped image file. Image readers seek back
+ * and forth within the image data, which is done by moving the stream
+ * position only, without copying the data into a cache. The stream reads
+ * the buffer from its position to its limit without changing them.
+ */
+final class BufferImageInputStream extends ImageInputStreamImpl {
+
+    private final ByteBuffer buffer;
+
+    /**
+     * Creates stream reading the remaining bytes of the provided buffer.
+     *
+     * @param buffer source buffer
+     */
+    BufferImageInputStream(final ByteBuffer buffer) {
+        this.buffer = buffer.slice();
+    }
+
+    @Override
+    public long length() {
+        return buffer.limit();
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if(streamPos >= buffer.limit()) {
+            return -1;
+        }
+        return buffer.get((int)streamPos++) & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if(len == 0) {
+            return 0;
+        }
+        if(streamPos >= buffer.limit()) {
+            return -1;
+        }
+        final int count = (int)Math.min(len, buffer.limit() - streamPos);
+        if(buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + (int)streamPos, b, off, count);
+        }
+        else {
+            buffer.position((int)streamPos);
+            buffer.get(b, off, count);
+        }
+        streamPos += count;
+        return count;
+    }
+}
@@ -0,0 +1,142 @@
+package org.ontal.imgutil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * Image output stream writing straight into a byte buffer. Image writers
+ * seek back to patch already written data, e.g. PNG chunk lengths, which is
+ * done in place without any intermediate cache. The stream either writes
+ * into a caller supplied buffer starting at its position, failing when the
+ * buffer is full, or into its own heap array growing as needed. The
+ * position of a caller supplied buffer is not changed.
+ */
+final class BufferImageOutputStream extends ImageOutputStreamImpl {
+
+    private static final int INITIAL_CAPACITY = 64 * 1024;
+
+    private final boolean growable;
+    private ByteBuffer buffer;
+    private final int base;
+    private long length;
+
+    /**
+     * Creates stream writing into its own growing heap array.
+     *
+     * @param capacity initial capacity in bytes, <code>0</code> for the default one
+     */
+    BufferImageOutputStream(final int capacity) {
+        this.buffer = ByteBuffer.allocate(capacity > 0 ? capacity : INITIAL_CAPACITY);
+        this.base = 0;
+        this.growable = true;
+    }
+
+    /**
+     * Creates stream writing into the provided buffer starting at its
+     * current position.
+     *
+     * @param buffer target buffer
+     */
+    BufferImageOutputStream(final ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.base = buffer.position();
+        this.growable = false;
+    }
+
+    /**
+     * Returns the written bytes as an array of the exact length.
+     *
+     * @return written bytes
+     */
+    byte[] toByteArray() {
+        return Arrays.copyOf(buffer.array(), (int)length);
+    }
+
+    /**
+     * Returns the array holding the written bytes, valid up to
+     * {@link #length()} bytes, of a growable stream.
+     *
+     * @return backing array
+     */
+    byte[] array() {
+        return buffer.array();
+    }
+
+    @Override
+    public long length() {
+        return length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if(streamPos >= length) {
+            return -1;
+        }
+        return buffer.get(base + (int)streamPos++) & 0xff;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if(streamPos >= length) {
+            return -1;
+        }
+        final int count = (int)Math.min(len, length - streamPos);
+        if(buffer.hasArray()) {
+            System.arraycopy(buffer.array(), buffer.arrayOffset() + base + (int)streamPos, b, off, count);
+        }
+        else {
+            final ByteBuffer view = buffer.duplicate();
+            view.position(base + (int)streamPos);
+            view.get(b, off, count);
+        }
+        streamPos += count;
+        return count;
+    }
+
+    @Override
+    public void write(final int b) throws IOException {
+        checkClosed();
+        flushBits();
+        ensureCapacity(streamPos + 1);
+        buffer.put(base + (int)streamPos++, (byte)b);
+        length = Math.max(length, streamPos);
+    }
+
+    @Override
+    public void write(final byte[] b, final int off, final int len) throws IOException {
+        checkClosed();
+        flushBits();
+        ensureCapacity(streamPos + len);
+        if(buffer.hasArray()) {
+            System.arraycopy(b, off, buffer.array(), buffer.arrayOffset() + base + (int)streamPos, len);
+        }
+        else {
+            final ByteBuffer view = buffer.duplicate();
+            view.position(base + (int)streamPos);
+            view.put(b, off, len);
+        }
+        streamPos += len;
+        length = Math.max(length, streamPos);
+    }
+
+    private void ensureCapacity(final long required) throws IOException {
+        if(base + required <= buffer.limit()) {
+            return;
+        }
+        if(!growable) {
+            throw new IOException("Insufficient buffer capacity, " + (buffer.limit() - base) + " bytes available");
+        }
+        if(required > Integer.MAX_VALUE - 8) {
+            throw new IOException("Image too big to be written into an array");
+        }
+        final long capacity = Math.max(required, Math.min((long)buffer.capacity() * 2, Integer.MAX_VALUE - 8));
+        buffer = ByteBuffer.wrap(Arrays.copyOf(buffer.array(), (int)capacity));
+    }
+}
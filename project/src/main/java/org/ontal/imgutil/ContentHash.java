@@ -0,0 +1,145 @@
+package org.ontal.imgutil;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+
+/**
+ * Immutable 128 bit content hash of a byte sequence (MurmurHash3 x64
+ * variant). It's not a cryptographic hash, but it's fast enough to be
+ * computed over the whole encoded image on every request and its width
+ * makes accidental collisions between different images negligible.
+ */
+final class ContentHash {
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private final long high;
+    private final long low;
+
+    private ContentHash(final long high, final long low) {
+        this.high = high;
+        this.low = low;
+    }
+
+    /**
+     * Computes the hash of the provided bytes.
+     *
+     * @param data bytes
+     * @return content hash
+     */
+    static ContentHash of(final byte[] data) {
+        return of(data, 0, data.length);
+    }
+
+    /**
+     * Computes the hash of the provided byte range.
+     *
+     * @param data bytes
+     * @param offset range offset
+     * @param length range length
+     * @return content hash
+     */
+    static ContentHash of(final byte[] data, final int offset, final int length) {
+        long h1 = 0;
+        long h2 = 0;
+
+        final int end = offset + (length & ~15);
+        for(int i = offset; i < end; i += 16) {
+            h1 ^= mixK1((long)LONGS.get(data, i));
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+            h2 ^= mixK2((long)LONGS.get(data, i + 8));
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        long k1 = 0;
+        long k2 = 0;
+        final int tail = length & 15;
+        for(int i = 0; i < tail; i++) {
+            final long b = data[end + i] & 0xffL;
+            if(i < 8) {
+                k1 |= b << (i * 8);
+            }
+            else {
+                k2 |= b << ((i - 8) * 8);
+            }
+        }
+        if(tail > 8) {
+            h2 ^= mixK2(k2);
+        }
+        if(tail > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        h1 ^= length;
+        h2 ^= length;
+        h1 += h2;
+        h2 += h1;
+        h1 = fmix(h1);
+        h2 = fmix(h2);
+        h1 += h2;
+        h2 += h1;
+        return new ContentHash(h1, h2);
+    }
+
+    private static long mixK1(long k1) {
+        k1 *= C1;
+        k1 = Long.rotateLeft(k1, 31);
+        return k1 * C2;
+    }
+
+    private static long mixK2(long k2) {
+        k2 *= C2;
+        k2 = Long.rotateLeft(k2, 33);
+        return k2 * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof ContentHash)) {
+            return false;
+        }
+        final ContentHash other = (ContentHash)obj;
+        return high == other.high && low == other.low;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(high ^ low);
+    }
+
+    /**
+     * Returns the hash as 32 lowercase hexadecimal digits.
+     */
+    @Override
+    public String toString() {
+        final String h = Long.toHexString(high);
+        final String l = Long.toHexString(low);
+        final StringBuilder sb = new StringBuilder(32);
+        for(int i = h.length(); i < 16; i++) {
+            sb.append('0');
+        }
+        sb.append(h);
+        for(int i = l.length(); i < 16; i++) {
+            sb.append('0');
+        }
+        return sb.append(l).toString();
+    }
+}
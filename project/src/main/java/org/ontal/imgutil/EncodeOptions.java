@@ -0,0 +1,131 @@
+package org.ontal.imgutil;
+
+import java.util.Objects;
+
+/**
+ * Immutable image encoding parameters. Every parameter applies to the
+ * formats supporting it only and is ignored by the others: the quality
+ * applies to JPEG, the compression level to PNG and the progressive mode to
+ * JPEG (progressive scans), PNG and GIF (interlacing). Unset parameters keep
+ * the image writer defaults.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * EncodeOptions.DEFAULT.quality(0.8f).progressive(true)
+ * </pre>
+ */
+public final class EncodeOptions {
+
+    /**
+     * Image writer defaults.
+     */
+    public static final EncodeOptions DEFAULT = new EncodeOptions(-1f, -1, false);
+
+    private final float quality;
+    private final int compressionLevel;
+    private final boolean progressive;
+
+    private EncodeOptions(final float quality, final int compressionLevel, final boolean progressive) {
+        this.quality = quality;
+        this.compressionLevel = compressionLevel;
+        this.progressive = progressive;
+    }
+
+    /**
+     * Returns options with the provided JPEG quality.
+     *
+     * @param quality quality between <code>0</code> (smallest file) and <code>1</code> (best quality)
+     * @return encoding options
+     */
+    public EncodeOptions quality(final float quality) {
+        if(!(quality >= 0f && quality <= 1f)) {
+            throw new IllegalArgumentException("Invalid quality argument");
+        }
+        return new EncodeOptions(quality, compressionLevel, progressive);
+    }
+
+    /**
+     * Returns options with the provided PNG compression level.
+     *
+     * @param compressionLevel deflate level between <code>0</code> (no compression) and <code>9</code> (best
+     *         compression)
+     * @return encoding options
+     */
+    public EncodeOptions compressionLevel(final int compressionLevel) {
+        if(compressionLevel < 0 || compressionLevel > 9) {
+            throw new IllegalArgumentException("Invalid compression level argument");
+        }
+        return new EncodeOptions(quality, compressionLevel, progressive);
+    }
+
+    /**
+     * Returns options with the provided progressive mode.
+     *
+     * @param progressive <code>true</code> to write progressive JPEG or interlaced PNG and GIF images
+     * @return encoding options
+     */
+    public EncodeOptions progressive(final boolean progressive) {
+        return new EncodeOptions(quality, compressionLevel, progressive);
+    }
+
+    /**
+     * Returns JPEG quality.
+     *
+     * @return quality or <code>-1</code> if the writer default is used
+     */
+    public float getQuality() {
+        return quality;
+    }
+
+    /**
+     * Returns PNG compression level.
+     *
+     * @return compression level or <code>-1</code> if the writer default is used
+     */
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    /**
+     * Checks if the images are written progressively.
+     *
+     * @return <code>true</code> if progressive, otherwise <code>false</code>
+     */
+    public boolean isProgressive() {
+        return progressive;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof EncodeOptions)) {
+            return false;
+        }
+        final EncodeOptions other = (EncodeOptions)obj;
+        return Float.compare(quality, other.quality) == 0
+                && compressionLevel == other.compressionLevel
+                && progressive == other.progressive;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(quality, compressionLevel, progressive);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        if(quality >= 0f) {
+            sb.append("q").append(Math.round(quality * 100));
+        }
+        if(compressionLevel >= 0) {
+            sb.append(sb.length() > 0 ? "," : "").append("z").append(compressionLevel);
+        }
+        if(progressive) {
+            sb.append(sb.length() > 0 ? "," : "").append("progressive");
+        }
+        return sb.length() > 0 ? sb.toString() : "default";
+    }
+}
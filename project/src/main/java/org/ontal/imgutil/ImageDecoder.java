@@ -0,0 +1,441 @@
+package org.ontal.imgutil;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+
+import org.ontal.imgutil.metrics.Metrics;
+import org.ontal.imgutil.metrics.Stage;
+import org.ontal.imgutil.scaling.PixelFormats;
+import org.ontal.imgutil.scaling.ScalingPlan;
+import org.ontal.imgutil.scaling.SourceWindow;
+import org.ontal.imgutil.scaling.TransformImage;
+
+/**
+ * Image decoding helper. Reads images through an {@link ImageReader} so the
+ * decoder can skip source pixels when the final output dimensions are
+ * already known, instead of always decoding the full resolution bitmap.
+ * Image bytes, buffers and files are read directly from memory, and input
+ * streams through the {@link StreamCache} selected by the caller, regardless
+ * of {@link ImageIO#setUseCache(boolean)}.
+ */
+final class ImageDecoder {
+
+    /**
+     * Minimum ratio between the decoded and the requested dimensions. Keeping
+     * at least twice the requested pixels leaves the resampling filter enough
+     * data to produce a clean result.
+     */
+    static final int QUALITY_FACTOR = 2;
+
+    private ImageDecoder() {
+    }
+
+    /**
+     * Decodes the first image available in the provided image input stream.
+     * When target dimensions are provided, the image is decoded using the
+     * largest source subsampling factor that still keeps the decoded image at
+     * least {@link #QUALITY_FACTOR} times bigger than the target along both
+     * dimensions. Target dimensions lower or equal to zero are ignored.
+     *
+     * @param iis image input stream
+     * @param width target width in pixels
+     * @param height target height in pixels
+     * @return decoded image
+     * @throws IOException if an error occurs while reading or the image format is not supported
+     */
+    static BufferedImage read(final ImageInputStream iis, final int width, final int height) throws IOException {
+        final ImageReader reader = open(iis);
+        try {
+            return read(reader, width, height);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Decodes the part of the first image available in the provided image
+     * input stream that is needed for the provided transformation, see
+     * {@link #read(ImageReader, TransformSpec)}.
+     *
+     * @param iis image input stream
+     * @param spec transformation spec
+     * @return decoded image or its region with the plan of the transformation
+     * @throws IOException if an error occurs while reading or the image format is not supported
+     */
+    static PlannedImage read(final ImageInputStream iis, final TransformSpec spec) throws IOException {
+        final ImageReader reader = open(iis);
+        try {
+            return read(reader, spec);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Creates an image input stream reading the image bytes directly,
+     * without any cache.
+     *
+     * @param imageBytes image bytes
+     * @return image input stream
+     */
+    static ImageInputStream stream(final byte[] imageBytes) {
+        if(imageBytes == null) {
+            throw new IllegalArgumentException("Image bytes argument cannot be null");
+        }
+        return new BufferImageInputStream(ByteBuffer.wrap(imageBytes));
+    }
+
+    /**
+     * Creates an image input stream reading the remaining bytes of the
+     * buffer directly, without any cache. The buffer position is not
+     * changed.
+     *
+     * @param imageBuffer image buffer
+     * @return image input stream
+     */
+    static ImageInputStream stream(final ByteBuffer imageBuffer) {
+        if(imageBuffer == null) {
+            throw new IllegalArgumentException("Image buffer argument cannot be null");
+        }
+        return new BufferImageInputStream(imageBuffer);
+    }
+
+    /**
+     * Creates an image input stream reading the memory mapped image file,
+     * so the file data is read by the reader straight from the page cache.
+     * Files too big to be mapped at once are read through a random access
+     * file instead.
+     *
+     * @param imagePath image file path
+     * @return image input stream
+     * @throws IOException if an error occurs while opening the file
+     */
+    static ImageInputStream stream(final Path imagePath) throws IOException {
+        try(final FileChannel channel = FileChannel.open(imagePath, StandardOpenOption.READ)) {
+            final long size = channel.size();
+            if(size > Integer.MAX_VALUE) {
+                return new FileImageInputStream(imagePath.toFile());
+            }
+            return new BufferImageInputStream(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+        }
+    }
+
+    /**
+     * Creates an image input stream reading the input stream through the
+     * provided cache. The input stream is not closed with the image input
+     * stream.
+     *
+     * @param inputStream input stream
+     * @param cache input stream cache
+     * @return image input stream
+     * @throws IOException if the cache can't be created
+     */
+    static ImageInputStream stream(final InputStream inputStream, final StreamCache cache) throws IOException {
+        if(inputStream == null) {
+            throw new IllegalArgumentException("Image input stream argument cannot be null");
+        }
+        return cache.open(inputStream);
+    }
+
+    /**
+     * Creates an image reader for the provided image input stream. Only the
+     * image header is available at this point, which allows inspecting the
+     * image dimensions before decoding it. The caller is responsible for
+     * disposing the reader.
+     *
+     * @param iis image input stream
+     * @return image reader
+     * @throws IOException if the image format is not supported
+     */
+    static ImageReader open(final ImageInputStream iis) throws IOException {
+        if(iis == null) {
+            throw new IOException("Unable to create image input stream");
+        }
+
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if(!readers.hasNext()) {
+            throw new IOException("Unsupported image format");
+        }
+
+        final ImageReader reader = readers.next();
+        reader.setInput(iis, true, true);
+        return reader;
+    }
+
+    /**
+     * Reads the header of the first image available in the provided image
+     * input stream without decoding any pixels. The frame count of GIF
+     * images requires skipping through all the frames, which is still much
+     * cheaper than decoding them.
+     *
+     * @param iis image input stream
+     * @return image information
+     * @throws IOException if an error occurs while reading or the image format is not supported
+     */
+    static ImageInfo probe(final ImageInputStream iis) throws IOException {
+        if(iis == null) {
+            throw new IOException("Unable to create image input stream");
+        }
+
+        final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+        if(!readers.hasNext()) {
+            throw new IOException("Unsupported image format");
+        }
+
+        final ImageReader reader = readers.next();
+        try {
+            reader.setInput(iis, false, true);
+            final String formatName = reader.getFormatName();
+            final ImageFormat imageFormat = ImageFormat.getByExtension(formatName);
+
+            int imageType = BufferedImage.TYPE_CUSTOM;
+            ImageTypeSpecifier typeSpecifier = reader.getRawImageType(0);
+            if(typeSpecifier == null) {
+                final Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+                typeSpecifier = types.hasNext() ? types.next() : null;
+            }
+            if(typeSpecifier != null) {
+                imageType = typeSpecifier.getBufferedImageType();
+            }
+
+            int frameCount = reader.getNumImages(false);
+            if(frameCount < 0) {
+                frameCount = imageFormat == ImageFormat.GIF ? reader.getNumImages(true) : 1;
+            }
+            return new ImageInfo(imageFormat, formatName, reader.getWidth(0), reader.getHeight(0), imageType, frameCount);
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    /**
+     * Decodes the first image available to the provided reader using the
+     * same subsampling rules as {@link #read(ImageInputStream, int, int)}.
+     *
+     * @param reader image reader
+     * @param width target width in pixels
+     * @param height target height in pixels
+     * @return decoded image
+     * @throws IOException if an error occurs while reading
+     */
+    static BufferedImage read(final ImageReader reader, final int width, final int height) throws IOException {
+        final int sourceWidth = reader.getWidth(0);
+        final int sourceHeight = reader.getHeight(0);
+        final int subsampling = calculateSubsampling(sourceWidth, sourceHeight, width, height);
+        return decode(reader, reader.getDefaultReadParam(), sourceWidth, sourceHeight, subsampling, null);
+    }
+
+    /**
+     * Decodes the part of the first image available to the provided reader
+     * that is needed for the provided transformation. The image is
+     * subsampled according to the dimensions it is scaled to and when the
+     * transformation crops the image only the source pixels contributing to
+     * the visible region are decoded, see
+     * {@link TransformImage#getSourceWindow(ScalingPlan, int, int)}. The
+     * returned plan is the plan of the whole image, holding the decoded
+     * source window, so the transformation produces the same geometry as
+     * for the whole image.
+     *
+     * @param reader image reader
+     * @param spec transformation spec
+     * @return decoded image or its region with the plan of the transformation
+     * @throws IOException if an error occurs while reading
+     */
+    static PlannedImage read(final ImageReader reader, final TransformSpec spec) throws IOException {
+        final int sourceWidth = reader.getWidth(0);
+        final int sourceHeight = reader.getHeight(0);
+        final TransformImage transformer = spec.getTransformer();
+        final ScalingPlan plan = transformer.plan(sourceWidth, sourceHeight, BufferedImage.TYPE_INT_RGB, spec);
+
+        int subsampling = 1;
+        if(spec.getMode() != TransformSpec.Mode.TILE || spec.getTileWidth() > 0) {
+            subsampling = calculateSubsampling(sourceWidth, sourceHeight, plan.getScaledWidth(), plan.getScaledHeight());
+        }
+        SourceWindow window;
+        Rectangle region;
+        while(true) {
+            // a bigger subsampling required by the pixel budget changes the window
+            window = transformer.getSourceWindow(plan, subsample(sourceWidth, subsampling),
+                    subsample(sourceHeight, subsampling));
+            region = new Rectangle(window.getX() * subsampling, window.getY() * subsampling,
+                    Math.min(window.getWidth() * subsampling, sourceWidth - window.getX() * subsampling),
+                    Math.min(window.getHeight() * subsampling, sourceHeight - window.getY() * subsampling));
+            final int fitting = PixelBudget.getDefault().fit(region.width, region.height, subsampling);
+            if(fitting == subsampling) {
+                break;
+            }
+            subsampling = fitting;
+        }
+
+        final ImageReadParam param = reader.getDefaultReadParam();
+        if(!window.isWhole()) {
+            param.setSourceRegion(region);
+        }
+        final BufferedImage image = decodeSubsampled(reader, param, region.width, region.height, subsampling,
+                spec.getMode());
+        if(image.getWidth() != window.getWidth() || image.getHeight() != window.getHeight()) {
+            throw new IIOException("Decoded image of " + image.getWidth() + "x" + image.getHeight()
+                    + " pixels doesn't match the source window " + window);
+        }
+        return new PlannedImage(image, transformer.plan(sourceWidth, sourceHeight, PixelFormats.getWorkingType(image), spec)
+                .withSourceWindow(window));
+    }
+
+    /**
+     * Returns the number of pixels the provided source size is decoded at
+     * with the provided subsampling.
+     */
+    private static int subsample(final int size, final int subsampling) {
+        return (size + subsampling - 1) / subsampling;
+    }
+
+    /**
+     * Decodes the first image available to the provided reader within the
+     * default {@link PixelBudget}, which may increase the subsampling or
+     * reject the image.
+     *
+     * @param reader image reader
+     * @param param read parameters with the source region already set
+     * @param width decoded region width in pixels
+     * @param height decoded region height in pixels
+     * @param subsampling requested subsampling factor
+     * @param mode transformation type the image is decoded for, if known
+     * @return decoded image
+     * @throws IOException if an error occurs while reading or the image exceeds the pixel budget
+     */
+    private static BufferedImage decode(final ImageReader reader, final ImageReadParam param, final int width,
+            final int height, final int subsampling, final TransformSpec.Mode mode) throws IOException {
+        return decodeSubsampled(reader, param, width, height, PixelBudget.getDefault().fit(width, height, subsampling),
+                mode);
+    }
+
+    /**
+     * Decodes the first image available to the provided reader with the
+     * provided subsampling, already fitting the default {@link PixelBudget},
+     * holding the pixels of the total budget while the image is decoded.
+     *
+     * @param reader image reader
+     * @param param read parameters with the source region already set
+     * @param width decoded region width in pixels
+     * @param height decoded region height in pixels
+     * @param subsampling subsampling factor fitting the pixel budget
+     * @param mode transformation type the image is decoded for, if known
+     * @return decoded image
+     * @throws IOException if an error occurs while reading
+     */
+    private static BufferedImage decodeSubsampled(final ImageReader reader, final ImageReadParam param,
+            final int width, final int height, final int subsampling, final TransformSpec.Mode mode)
+            throws IOException {
+        if(subsampling > 1) {
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        }
+
+        // the reservation covers the decoding only, the caller owns the decoded image
+        final PixelBudget budget = PixelBudget.getDefault();
+        final long reserved = budget.acquire(PixelBudget.decodedPixels(width, height, subsampling));
+        try {
+            return decode(reader, param, ImageFormat.getByExtension(reader.getFormatName()), mode);
+        }
+        finally {
+            budget.release(reserved);
+        }
+    }
+
+    /**
+     * Decodes the first image available to the provided reader with the
+     * provided read parameters and converts it into its working bitmap
+     * type, without checking the {@link PixelBudget}.
+     *
+     * @param reader image reader
+     * @param param read parameters
+     * @param imageFormat image format, if known
+     * @param mode transformation type the image is decoded for, if known
+     * @return decoded image
+     * @throws IOException if an error occurs while reading
+     */
+    static BufferedImage decode(final ImageReader reader, final ImageReadParam param, final ImageFormat imageFormat,
+            final TransformSpec.Mode mode) throws IOException {
+        final Metrics.Probe probe = Metrics.start();
+        final BufferedImage image = reader.read(0, param);
+        probe.stopDecode(mode, imageFormat, image);
+        return normalize(image, mode);
+    }
+
+    /**
+     * Converts the decoded image into the working bitmap type of the
+     * resampler, so palette, 16 bit and custom images are converted once
+     * instead of on every transformation applied to them.
+     *
+     * @param image decoded image
+     * @param mode transformation type the image is decoded for, if known
+     * @return normalized image or the decoded image itself if no conversion is needed
+     */
+    private static BufferedImage normalize(final BufferedImage image, final TransformSpec.Mode mode) {
+        if(!PixelFormats.requiresNormalization(image.getType())) {
+            return image;
+        }
+        final Metrics.Probe probe = Metrics.start();
+        final BufferedImage normalizedImage = PixelFormats.normalize(image);
+        probe.stop(Stage.NORMALIZE, mode, image, normalizedImage);
+        return normalizedImage;
+    }
+
+    /**
+     * Calculates the largest subsampling factor applicable to the source
+     * image without going below the target dimensions multiplied by the
+     * {@link #QUALITY_FACTOR}.
+     *
+     * @param sourceWidth source width in pixels
+     * @param sourceHeight source height in pixels
+     * @param width target width in pixels
+     * @param height target height in pixels
+     * @return subsampling factor, <code>1</code> if no subsampling is possible
+     */
+    static int calculateSubsampling(final int sourceWidth, final int sourceHeight, final int width, final int height) {
+        if(width <= 0 && height <= 0) {
+            return 1;
+        }
+
+        int subsampling = Integer.MAX_VALUE;
+        if(width > 0) {
+            subsampling = Math.min(subsampling, sourceWidth / (width * QUALITY_FACTOR));
+        }
+        if(height > 0) {
+            subsampling = Math.min(subsampling, sourceHeight / (height * QUALITY_FACTOR));
+        }
+        return Math.max(subsampling, 1);
+    }
+
+    /**
+     * Decoded image, or the decoded region of it, together with the plan of
+     * the transformation it was decoded for.
+     */
+    static final class PlannedImage {
+
+        final BufferedImage image;
+        final ScalingPlan plan;
+
+        PlannedImage(final BufferedImage image, final ScalingPlan plan) {
+            this.image = image;
+            this.plan = plan;
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package org.ontal.imgutil;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.util.EnumMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.ontal.imgutil.metrics.Metrics;
+import org.ontal.imgutil.scaling.PixelFormats;
+
+/**
+ * Image encoding helper. Writes images through image writers kept in a per
+ * format pool, so the writers are looked up in the service registry once
+ * instead of on every call, and applies the {@link EncodeOptions} to them.
+ * Images with alpha are composed over a white background for the formats
+ * that can't encode alpha. Output streams are never cached in temporary
+ * files.
+ */
+final class ImageEncoder {
+
+    /**
+     * Maximum number of idle writers kept per format.
+     */
+    static final int MAX_POOLED_WRITERS = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+    private static final Map<ImageFormat, Queue<ImageWriter>> POOL = new EnumMap<>(ImageFormat.class);
+
+    static {
+        for(final ImageFormat imageFormat : ImageFormat.values()) {
+            POOL.put(imageFormat, new ArrayBlockingQueue<>(MAX_POOLED_WRITERS));
+        }
+    }
+
+    private ImageEncoder() {
+    }
+
+    /**
+     * Encodes the image into a byte array.
+     *
+     * @param image image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @return image bytes
+     * @throws IOException if an error occurs while writing or the image can't be written in the format
+     */
+    static byte[] toByteArray(final BufferedImage image, final ImageFormat imageFormat, final EncodeOptions options)
+            throws IOException {
+        return write(image, imageFormat, options).toByteArray();
+    }
+
+    /**
+     * Encodes the image into a growing heap buffer.
+     *
+     * @param image image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @return closed stream holding the image bytes
+     * @throws IOException if an error occurs while writing or the image can't be written in the format
+     */
+    static BufferImageOutputStream write(final BufferedImage image, final ImageFormat imageFormat,
+            final EncodeOptions options) throws IOException {
+        final BufferImageOutputStream ios = new BufferImageOutputStream(0);
+        write(image, imageFormat, options, ios);
+        ios.close();
+        return ios;
+    }
+
+    /**
+     * Encodes the image into the provided output stream, which is flushed
+     * but not closed. Rendered images other than the buffered ones are
+     * handed to the writer as they are, so writers pulling their pixels row
+     * by row, e.g. the PNG one, never need all of them at once.
+     *
+     * @param image image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param os output stream
+     * @throws IOException if an error occurs while writing or the image can't be written in the format
+     */
+    static void write(final RenderedImage image, final ImageFormat imageFormat, final EncodeOptions options,
+            final OutputStream os) throws IOException {
+        final ImageOutputStream ios = new MemoryCacheImageOutputStream(os);
+        try {
+            write(image, imageFormat, options, ios);
+        }
+        finally {
+            ios.close();
+        }
+        os.flush();
+    }
+
+    /**
+     * Encodes the image into the provided channel, which is not closed.
+     *
+     * @param image image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param channel channel
+     * @throws IOException if an error occurs while writing or the image can't be written in the format
+     */
+    static void write(final BufferedImage image, final ImageFormat imageFormat, final EncodeOptions options,
+            final WritableByteChannel channel) throws IOException {
+        final BufferImageOutputStream ios = write(image, imageFormat, options);
+        final ByteBuffer buffer = ByteBuffer.wrap(ios.array(), 0, (int)ios.length());
+        while(buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Encodes the image into the provided buffer starting at its position
+     * and advances the position past the written bytes. The buffer is left
+     * unchanged if the image doesn't fit.
+     *
+     * @param image image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param buffer buffer
+     * @return number of bytes written
+     * @throws IOException if an error occurs while writing, the image can't be written in the format or the
+     *         buffer capacity is insufficient
+     */
+    static int write(final BufferedImage image, final ImageFormat imageFormat, final EncodeOptions options,
+            final ByteBuffer buffer) throws IOException {
+        final BufferImageOutputStream ios = new BufferImageOutputStream(buffer);
+        write(image, imageFormat, options, ios);
+        ios.close();
+        buffer.position(buffer.position() + (int)ios.length());
+        return (int)ios.length();
+    }
+
+    /**
+     * Encodes the image into the provided image output stream using a
+     * pooled writer.
+     */
+    private static void write(final RenderedImage image, final ImageFormat imageFormat, final EncodeOptions options,
+            final ImageOutputStream ios) throws IOException {
+        final Metrics.Probe probe = Metrics.start();
+        final ImageWriter writer = borrow(imageFormat);
+        boolean reusable = false;
+        try {
+            RenderedImage outputImage = image;
+            if(!writer.getOriginatingProvider().canEncodeImage(outputImage) && outputImage instanceof BufferedImage) {
+                // formats without alpha support get the image composed over a white background
+                outputImage = PixelFormats.flatten((BufferedImage)outputImage, Color.WHITE);
+            }
+            if(!writer.getOriginatingProvider().canEncodeImage(outputImage)) {
+                reusable = true;
+                throw new IOException("No image writer available for " + imageFormat + " able to encode image type "
+                        + ImageTypeSpecifier.createFromRenderedImage(image).getBufferedImageType());
+            }
+            writer.setOutput(ios);
+            writer.write(null, new IIOImage(outputImage, null, null), createParam(writer, imageFormat, options));
+            ios.flush();
+            reusable = true;
+        }
+        finally {
+            release(imageFormat, writer, reusable);
+        }
+        probe.stopEncode(imageFormat, image);
+    }
+
+    /**
+     * Creates the writer parameters corresponding to the options.
+     *
+     * @return writer parameters or <code>null</code> to use the writer defaults
+     */
+    private static ImageWriteParam createParam(final ImageWriter writer, final ImageFormat imageFormat,
+            final EncodeOptions options) {
+        if(options == null || options.equals(EncodeOptions.DEFAULT)) {
+            return null;
+        }
+
+        final ImageWriteParam param = writer.getDefaultWriteParam();
+        if(param.canWriteProgressive()) {
+            param.setProgressiveMode(options.isProgressive() ? ImageWriteParam.MODE_DEFAULT : ImageWriteParam.MODE_DISABLED);
+        }
+        if(param.canWriteCompressed()) {
+            if(options.getQuality() >= 0f && (imageFormat == ImageFormat.JPG || imageFormat == ImageFormat.JPEG)) {
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality(options.getQuality());
+            }
+            else if(options.getCompressionLevel() >= 0 && imageFormat == ImageFormat.PNG) {
+                // the png writer uses deflate level 9 - round(9 * quality)
+                param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+                param.setCompressionQuality((9 - options.getCompressionLevel()) / 9f);
+            }
+        }
+        return param;
+    }
+
+    private static ImageWriter borrow(final ImageFormat imageFormat) throws IOException {
+        final ImageWriter writer = POOL.get(imageFormat).poll();
+        if(writer != null) {
+            return writer;
+        }
+
+        final Iterator<ImageWriter> writers = ImageIO.getImageWritersByFormatName(imageFormat.getName());
+        if(!writers.hasNext()) {
+            throw new IOException("No image writer available for " + imageFormat);
+        }
+        return writers.next();
+    }
+
+    private static void release(final ImageFormat imageFormat, final ImageWriter writer, final boolean reusable) {
+        if(reusable) {
+            writer.reset();
+            if(POOL.get(imageFormat).offer(writer)) {
+                return;
+            }
+        }
+        writer.dispose();
+    }
+}
@@ -0,0 +1,96 @@
+package org.ontal.imgutil;
+
+/**
+ * Immutable image header information obtained without decoding any pixels,
+ * see {@link ImageScaler#probe(byte[])}.
+ */
+public final class ImageInfo {
+
+    private final ImageFormat imageFormat;
+    private final String formatName;
+    private final int width;
+    private final int height;
+    private final int imageType;
+    private final int frameCount;
+
+    ImageInfo(final ImageFormat imageFormat, final String formatName, final int width, final int height,
+            final int imageType, final int frameCount) {
+        this.imageFormat = imageFormat;
+        this.formatName = formatName;
+        this.width = width;
+        this.height = height;
+        this.imageType = imageType;
+        this.frameCount = frameCount;
+    }
+
+    /**
+     * Returns image format.
+     *
+     * @return image format or <code>null</code> if the format is readable but isn't one of {@link ImageFormat}
+     */
+    public ImageFormat getImageFormat() {
+        return imageFormat;
+    }
+
+    /**
+     * Returns image format name reported by the image reader, e.g.
+     * <code>JPEG</code> or <code>png</code>.
+     *
+     * @return format name
+     */
+    public String getFormatName() {
+        return formatName;
+    }
+
+    /**
+     * Returns image width.
+     *
+     * @return width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns image height.
+     *
+     * @return height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns image pixel count.
+     *
+     * @return width multiplied by height
+     */
+    public long getPixelCount() {
+        return (long)width * height;
+    }
+
+    /**
+     * Returns the bitmap type the image decodes into.
+     *
+     * @return {@link java.awt.image.BufferedImage} type, <code>TYPE_CUSTOM</code> if it doesn't match a predefined
+     *         type
+     */
+    public int getImageType() {
+        return imageType;
+    }
+
+    /**
+     * Returns number of frames, e.g. of an animated GIF. Only the first frame
+     * is used by the transformations.
+     *
+     * @return frame count
+     */
+    public int getFrameCount() {
+        return frameCount;
+    }
+
+    @Override
+    public String toString() {
+        return formatName + ":" + width + "x" + height + ":type=" + imageType + ":frames=" + frameCount;
+    }
+}
@@ -1,23 +1,32 @@
 package org.ontal.imgutil;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
-import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
 
-import org.ontal.imgutil.scaling.AdjustImage;
-import org.ontal.imgutil.scaling.ExpandImage;
-import org.ontal.imgutil.scaling.FitImage;
-import org.ontal.imgutil.scaling.LimitImage;
-import org.ontal.imgutil.scaling.TileImage;
+import org.ontal.imgutil.scaling.ChainImage;
+import org.ontal.imgutil.scaling.ChainPlan;
+import org.ontal.imgutil.scaling.PixelFormats;
+import org.ontal.imgutil.scaling.Resampler;
+import org.ontal.imgutil.scaling.ScalingPlan;
 import org.ontal.imgutil.scaling.TransformImage;
 
 /**
@@ -30,6 +39,10 @@ import org.ontal.imgutil.scaling.TransformImage;
  * After the transformation is done, user can call any of the available for
  * convience methods to obtain/save the resulting image.
  * <br><br>
+ * Instances are immutable: every transformation returns a new instance
+ * holding the produced image, so the same instance can be shared between
+ * threads and transformed any number of times.
+ * <br><br>
  * Usage example:
  * <pre>
  * // get scaled BufferedImage
@@ -41,6 +54,31 @@ import org.ontal.imgutil.scaling.TransformImage;
  * new ImageScaler(Paths.get("/tmp/originalImage.jpg"))
  *         .fit(200, 200, new int[] { 192, 205, 224 })
  *         .saveAs(ImageFormat.JPG, Paths.get("/tmp"), "scaledImage");
+ *
+ * // produce a set of thumbnail sizes decoding and resampling the original only once
+ * new ImageScaler(Paths.get("/tmp/originalImage.jpg"))
+ *         .render(Arrays.asList(
+ *                 new Rendition(TransformSpec.limit(Dimension.WIDTH, 1024), ImageFormat.JPG),
+ *                 new Rendition(TransformSpec.limit(Dimension.WIDTH, 512), ImageFormat.JPG),
+ *                 new Rendition(TransformSpec.adjust(128, 128), ImageFormat.PNG)));
+ *
+ * // decode a large image at a reduced resolution when only a thumbnail is needed
+ * new ImageScaler(Paths.get("/tmp/originalImage.jpg"), 200, 200)
+ *         .adjust(200, 200)
+ *         .getImage();
+ *
+ * // crop, limit and pad the image with a single resampling
+ * new ImageScaler(Paths.get("/tmp/originalImage.jpg"))
+ *         .transform(TransformChain.of(TransformSpec.adjust(600, 600))
+ *                 .then(TransformSpec.limit(Dimension.WIDTH, 400))
+ *                 .then(TransformSpec.fit(500, 500)))
+ *         .getImage();
+ *
+ * // decode only the part of the image visible in a square thumbnail
+ * final TransformSpec spec = TransformSpec.adjust(200, 200);
+ * new ImageScaler(Paths.get("/tmp/panorama.jpg"), spec)
+ *         .transform(spec)
+ *         .getImage();
  * </pre>
  *
  * @author akaine
@@ -51,7 +89,11 @@ public class ImageScaler {
     private final static Logger log = Logger.getLogger(ImageScaler.class.getName());
 
     private final BufferedImage inputImage;
-    private BufferedImage outputImage;
+    private final ScalingPlan decodedPlan;
+    private final BufferedImage outputImage;
+    private final Resampler resampler;
+    private final TransformSpec.Quality quality;
+    private final TransformSpec.Sharpening sharpening;
 
     /**
      * Creates image scaler instance reading the input image bytes.
@@ -60,13 +102,55 @@ public class ImageScaler {
      * @throws IOException if an error occurs while reading
      */
     public ImageScaler(final byte[] imageBytes) throws IOException {
-        try(final ByteArrayInputStream bais = new ByteArrayInputStream(imageBytes)) {
-            inputImage = ImageIO.read(bais);
-        }
-        catch(final IOException e) {
-            log.log(Level.SEVERE, e.getMessage(), e);
-            throw e;
-        }
+        this(imageBytes, 0, 0);
+    }
+
+    /**
+     * Creates image scaler instance reading the input image bytes at a reduced
+     * resolution that is still sufficient for scaling the image down to the
+     * provided target dimensions. Any target dimension lower or equal to zero
+     * is not taken into account.
+     *
+     * @param imageBytes image bytes
+     * @param width target width in pixels
+     * @param height target height in pixels
+     * @throws IOException if an error occurs while reading
+     */
+    public ImageScaler(final byte[] imageBytes, final int width, final int height) throws IOException {
+        this(decode(() -> ImageDecoder.stream(imageBytes), decoder(width, height)));
+    }
+
+    /**
+     * Creates image scaler instance reading only the part of the input image
+     * bytes needed for the provided transformation, at a reduced resolution
+     * that is still sufficient for it. When the transformation crops the
+     * image, e.g. adjusting a panorama into a square, only the source pixels
+     * contributing to the visible region are decoded, so the input image of
+     * the instance is that region and the instance is meant to perform the
+     * provided transformation only. The transformation keeps the plan of the
+     * whole image, so it produces the same dimensions and crop as for the
+     * whole image, see {@link #plan(TransformSpec)}. Other transformations
+     * are applied to the decoded region as if it was the whole image.
+     *
+     * @param imageBytes image bytes
+     * @param spec transformation spec
+     * @throws IOException if an error occurs while reading
+     */
+    public ImageScaler(final byte[] imageBytes, final TransformSpec spec) throws IOException {
+        this(decode(() -> ImageDecoder.stream(imageBytes), decoder(spec)));
+    }
+
+    /**
+     * Creates image scaler instance reading the input image from the provided
+     * buffer, e.g. a direct buffer filled from a socket, from its position to
+     * its limit. The buffer is read directly without being copied and its
+     * position is not changed.
+     *
+     * @param imageBuffer image buffer
+     * @throws IOException if an error occurs while reading
+     */
+    public ImageScaler(final ByteBuffer imageBuffer) throws IOException {
+        this(decode(() -> ImageDecoder.stream(imageBuffer), decoder(0, 0)));
     }
 
     /**
@@ -77,13 +161,48 @@ public class ImageScaler {
      * @throws IOException if an error occurs while reading
      */
     public ImageScaler(final InputStream imageInputStream) throws IOException {
-        try(final InputStream is = imageInputStream) {
-            inputImage = ImageIO.read(is);
-        }
-        catch(final IOException e) {
-            log.log(Level.SEVERE, e.getMessage(), e);
-            throw e;
-        }
+        this(imageInputStream, 0, 0);
+    }
+
+    /**
+     * Creates image scaler instance reading the input image from the provided
+     * input stream at a reduced resolution that is still sufficient for
+     * scaling the image down to the provided target dimensions. Any target
+     * dimension lower or equal to zero is not taken into account.
+     *
+     * @param imageInputStream image input stream
+     * @param width target width in pixels
+     * @param height target height in pixels
+     * @throws IOException if an error occurs while reading
+     */
+    public ImageScaler(final InputStream imageInputStream, final int width, final int height) throws IOException {
+        this(decode(imageInputStream, StreamCache.MEMORY, decoder(width, height)));
+    }
+
+    /**
+     * Creates image scaler instance reading the input image from the provided
+     * input stream through the provided cache. The other input stream
+     * constructors use the {@link StreamCache#MEMORY} cache.
+     *
+     * @param imageInputStream image input stream
+     * @param cache input stream cache
+     * @throws IOException if an error occurs while reading
+     */
+    public ImageScaler(final InputStream imageInputStream, final StreamCache cache) throws IOException {
+        this(decode(imageInputStream, validateCache(cache), decoder(0, 0)));
+    }
+
+    /**
+     * Creates image scaler instance reading only the part of the input image
+     * needed for the provided transformation from the provided input stream,
+     * see {@link #ImageScaler(byte[], TransformSpec)}.
+     *
+     * @param imageInputStream image input stream
+     * @param spec transformation spec
+     * @throws IOException if an error occurs while reading
+     */
+    public ImageScaler(final InputStream imageInputStream, final TransformSpec spec) throws IOException {
+        this(decode(imageInputStream, StreamCache.MEMORY, decoder(spec)));
     }
 
     /**
@@ -94,11 +213,247 @@ public class ImageScaler {
      * @throws IOException if an error occurs while reading
      */
     public ImageScaler(final Path imagePath) throws IOException {
-        inputImage = ImageIO.read(imagePath.toAbsolutePath().toFile());
+        this(imagePath, 0, 0);
     }
 
+    /**
+     * Creates image scaler instance reading the input image from the provided
+     * file path at a reduced resolution that is still sufficient for scaling
+     * the image down to the provided target dimensions. Any target dimension
+     * lower or equal to zero is not taken into account.
+     *
+     * @param imagePath image file path
+     * @param width target width in pixels
+     * @param height target height in pixels
+     * @throws IOException if an error occurs while reading
+     */
+    public ImageScaler(final Path imagePath, final int width, final int height) throws IOException {
+        this(decode(() -> ImageDecoder.stream(imagePath), decoder(width, height)));
+    }
+
+    /**
+     * Creates image scaler instance reading only the part of the input image
+     * needed for the provided transformation from the provided file path,
+     * see {@link #ImageScaler(byte[], TransformSpec)}.
+     *
+     * @param imagePath image file path
+     * @param spec transformation spec
+     * @throws IOException if an error occurs while reading
+     */
+    public ImageScaler(final Path imagePath, final TransformSpec spec) throws IOException {
+        this(decode(() -> ImageDecoder.stream(imagePath), decoder(spec)));
+    }
+
+    /**
+     * Creates image scaler instance using the provided image as the input
+     * image.
+     *
+     * @param image input image
+     */
     public ImageScaler(final BufferedImage image) {
-        inputImage = image;
+        this(image, null, null, Resampler.getDefault(), TransformSpec.Quality.DEFAULT, TransformSpec.Sharpening.AUTO);
+    }
+
+    /**
+     * Creates image scaler instance using the provided image decoded for a
+     * transformation as the input image.
+     *
+     * @param plannedImage decoded image with the plan of the transformation
+     */
+    ImageScaler(final ImageDecoder.PlannedImage plannedImage) {
+        this(plannedImage.image, plannedImage.plan, null, Resampler.getDefault(), TransformSpec.Quality.DEFAULT,
+                TransformSpec.Sharpening.AUTO);
+    }
+
+    /**
+     * Opens the image input stream to decode the input image from.
+     */
+    @FunctionalInterface
+    private interface StreamSource {
+
+        ImageInputStream open() throws IOException;
+    }
+
+    /**
+     * Decodes the input image from the image input stream.
+     */
+    @FunctionalInterface
+    private interface StreamDecoder<T> {
+
+        T decode(ImageInputStream iis) throws IOException;
+    }
+
+    /**
+     * Decodes the input image from the image input stream opened by the
+     * source, closing the stream and logging any failure.
+     *
+     * @param source image input stream source
+     * @param decoder image decoder
+     * @return decoded image
+     * @throws IOException if an error occurs while reading
+     */
+    private static <T> T decode(final StreamSource source, final StreamDecoder<T> decoder) throws IOException {
+        try(final ImageInputStream iis = source.open()) {
+            return decoder.decode(iis);
+        }
+        catch(final IOException e) {
+            log.log(Level.SEVERE, e.getMessage(), e);
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes the input image from the input stream through the provided
+     * cache, see {@link #decode(StreamSource, StreamDecoder)}. The input
+     * stream is closed.
+     */
+    private static <T> T decode(final InputStream imageInputStream, final StreamCache cache,
+            final StreamDecoder<T> decoder) throws IOException {
+        try(final InputStream is = imageInputStream) {
+            return decode(() -> ImageDecoder.stream(is, cache), decoder);
+        }
+    }
+
+    /**
+     * Returns the decoder reading the image at a reduced resolution still
+     * sufficient for the provided target dimensions.
+     */
+    private static StreamDecoder<BufferedImage> decoder(final int width, final int height) {
+        return iis -> ImageDecoder.read(iis, width, height);
+    }
+
+    /**
+     * Returns the decoder reading only the part of the image needed for the
+     * provided transformation.
+     */
+    private static StreamDecoder<ImageDecoder.PlannedImage> decoder(final TransformSpec spec) {
+        if(spec == null) {
+            throw new IllegalArgumentException("Transformation spec argument cannot be null");
+        }
+        return iis -> ImageDecoder.read(iis, spec);
+    }
+
+    private static StreamCache validateCache(final StreamCache cache) {
+        if(cache == null) {
+            throw new IllegalArgumentException("Stream cache argument cannot be null");
+        }
+        return cache;
+    }
+
+    private ImageScaler(final BufferedImage inputImage, final ScalingPlan decodedPlan, final BufferedImage outputImage,
+            final Resampler resampler, final TransformSpec.Quality quality, final TransformSpec.Sharpening sharpening) {
+        this.inputImage = inputImage;
+        this.decodedPlan = decodedPlan;
+        this.outputImage = outputImage;
+        this.resampler = resampler;
+        this.quality = quality;
+        this.sharpening = sharpening;
+    }
+
+    /**
+     * Reads the format, dimensions, bitmap type and frame count of the
+     * provided image bytes from the image header without decoding any
+     * pixels, e.g. to reject images with excessive dimensions or to plan the
+     * decoding concurrency.
+     *
+     * @param imageBytes image bytes
+     * @return image information
+     * @throws IOException if an error occurs while reading or the image format is not supported
+     */
+    public static ImageInfo probe(final byte[] imageBytes) throws IOException {
+        try(final ImageInputStream iis = ImageDecoder.stream(imageBytes)) {
+            return ImageDecoder.probe(iis);
+        }
+    }
+
+    /**
+     * Reads the image header from the provided buffer without changing its
+     * position, see {@link #probe(byte[])}.
+     *
+     * @param imageBuffer image buffer
+     * @return image information
+     * @throws IOException if an error occurs while reading or the image format is not supported
+     */
+    public static ImageInfo probe(final ByteBuffer imageBuffer) throws IOException {
+        try(final ImageInputStream iis = ImageDecoder.stream(imageBuffer)) {
+            return ImageDecoder.probe(iis);
+        }
+    }
+
+    /**
+     * Reads the image header from the provided input stream, see
+     * {@link #probe(byte[])}. The stream is closed.
+     *
+     * @param imageInputStream image input stream
+     * @return image information
+     * @throws IOException if an error occurs while reading or the image format is not supported
+     */
+    public static ImageInfo probe(final InputStream imageInputStream) throws IOException {
+        try(final InputStream is = imageInputStream;
+                final ImageInputStream iis = ImageDecoder.stream(is, StreamCache.MEMORY)) {
+            return ImageDecoder.probe(iis);
+        }
+    }
+
+    /**
+     * Reads the image header from the provided file path, see
+     * {@link #probe(byte[])}.
+     *
+     * @param imagePath image file path
+     * @return image information
+     * @throws IOException if an error occurs while reading or the image format is not supported
+     */
+    public static ImageInfo probe(final Path imagePath) throws IOException {
+        try(final ImageInputStream iis = ImageDecoder.stream(imagePath)) {
+            return ImageDecoder.probe(iis);
+        }
+    }
+
+    /**
+     * Creates an image scaler instance with the same input image using the
+     * provided resampler for all the following transformations, e.g. to
+     * change the image size starting from which a single image is resampled
+     * using multiple cores.
+     *
+     * @param resampler resampler
+     * @return image scaler
+     */
+    public ImageScaler withResampler(final Resampler resampler) {
+        if(resampler == null) {
+            throw new IllegalArgumentException("Resampler argument cannot be null");
+        }
+        return new ImageScaler(inputImage, decodedPlan, outputImage, resampler, quality, sharpening);
+    }
+
+    /**
+     * Creates an image scaler instance with the same input image using the
+     * provided resampling quality for all the following transformations
+     * whose specs use the default one, e.g. the nearest neighbour sampling
+     * for fast previews or Lanczos3 for the best looking images.
+     *
+     * @param quality resampling quality
+     * @return image scaler
+     */
+    public ImageScaler withQuality(final TransformSpec.Quality quality) {
+        if(quality == null) {
+            throw new IllegalArgumentException("Quality argument cannot be null");
+        }
+        return new ImageScaler(inputImage, decodedPlan, outputImage, resampler, quality, sharpening);
+    }
+
+    /**
+     * Creates an image scaler instance with the same input image using the
+     * provided sharpening for all the following transformations whose specs
+     * use the automatic one.
+     *
+     * @param sharpening sharpening
+     * @return image scaler
+     */
+    public ImageScaler withSharpening(final TransformSpec.Sharpening sharpening) {
+        if(sharpening == null) {
+            throw new IllegalArgumentException("Sharpening argument cannot be null");
+        }
+        return new ImageScaler(inputImage, decodedPlan, outputImage, resampler, quality, sharpening);
     }
 
     /**
@@ -129,9 +484,22 @@ public class ImageScaler {
      * @return scaled image
      */
     public ImageScaler fit(final int width, final int height, final int[] rgb) {
-        final TransformImage transformer = new FitImage(inputImage);
-        outputImage = transformer.transform(width, height, rgb);
-        return this;
+        return transform(TransformSpec.fit(width, height, rgb));
+    }
+
+    /**
+     * Scales image fitting it into the output dimensions with its original
+     * ratio conserved the same way as {@link #fit(int, int)}, but produces
+     * the scaled image only, without the background borders. The position
+     * of the scaled image on the output canvas can be obtained via
+     * {@link #plan(TransformSpec)}, e.g. for letterboxing it with CSS.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return scaled image
+     */
+    public ImageScaler fitBorderless(final int width, final int height) {
+        return transform(TransformSpec.fitBorderless(width, height));
     }
 
     /**
@@ -144,9 +512,7 @@ public class ImageScaler {
      * @return scaled image
      */
     public ImageScaler expand(final int width, final int height) {
-        final TransformImage transformer = new ExpandImage(inputImage);
-        outputImage = transformer.transform(width, height);
-        return this;
+        return transform(TransformSpec.expand(width, height));
     }
 
     /**
@@ -160,9 +526,7 @@ public class ImageScaler {
      * @return scaled image
      */
     public ImageScaler adjust(final int width, final int height) {
-        final TransformImage transformer = new AdjustImage(inputImage);
-        outputImage = transformer.transform(width, height);
-        return this;
+        return transform(TransformSpec.adjust(width, height));
     }
 
     /**
@@ -175,9 +539,7 @@ public class ImageScaler {
      * @return scaled image
      */
     public ImageScaler limit(final Dimension dimension, final int size) {
-        final TransformImage transformer = new LimitImage(inputImage);
-        outputImage = transformer.transform(dimension, size);
-        return this;
+        return transform(TransformSpec.limit(dimension, size));
     }
 
     /**
@@ -190,9 +552,214 @@ public class ImageScaler {
      * @return tiled image
      */
     public ImageScaler tile(final int width, final int height) {
-        final TransformImage transformer = new TileImage(inputImage);
-        outputImage = transformer.transform(width, height);
-        return this;
+        return transform(TransformSpec.tile(width, height));
+    }
+
+    /**
+     * Scales input image to the provided tile dimensions and uses it as a
+     * tile filling the output image with its copies, e.g. for generating
+     * pattern backgrounds.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @param tileWidth tile width in pixels
+     * @param tileHeight tile height in pixels
+     * @return tiled image
+     */
+    public ImageScaler tile(final int width, final int height, final int tileWidth, final int tileHeight) {
+        return transform(TransformSpec.tile(width, height, tileWidth, tileHeight));
+    }
+
+    /**
+     * Applies the scaling transformation described by the provided spec.
+     *
+     * @param spec transformation spec
+     * @return scaled image
+     */
+    public ImageScaler transform(final TransformSpec spec) {
+        if(spec == null) {
+            throw new IllegalArgumentException("Transformation spec argument cannot be null");
+        }
+        final TransformSpec effectiveSpec = applySettings(spec);
+        final TransformImage transformer = effectiveSpec.getMode().newTransformer(resampler);
+        return new ImageScaler(inputImage, decodedPlan, transformer.transform(inputImage, plan(transformer, effectiveSpec)),
+                resampler, quality, sharpening);
+    }
+
+    /**
+     * Applies the scaling transformation described by the provided spec
+     * writing the produced image into the provided destination image, e.g.
+     * a reused or pooled one, see {@link TransformImage#transform(BufferedImage, TransformSpec, BufferedImage)}.
+     *
+     * @param spec transformation spec
+     * @param destinationImage destination image of the output dimensions
+     * @return scaled image, held in the destination image
+     */
+    public ImageScaler transform(final TransformSpec spec, final BufferedImage destinationImage) {
+        if(spec == null) {
+            throw new IllegalArgumentException("Transformation spec argument cannot be null");
+        }
+        final TransformSpec effectiveSpec = applySettings(spec);
+        final TransformImage transformer = effectiveSpec.getMode().newTransformer(resampler);
+        return new ImageScaler(inputImage, decodedPlan,
+                transformer.transform(inputImage, plan(transformer, effectiveSpec), destinationImage),
+                resampler, quality, sharpening);
+    }
+
+    /**
+     * Applies the chain of scaling transformations with a single resampling
+     * of the input image, see {@link TransformChain}.
+     *
+     * @param chain transformation chain
+     * @return scaled image
+     */
+    public ImageScaler transform(final TransformChain chain) {
+        if(chain == null) {
+            throw new IllegalArgumentException("Transformation chain argument cannot be null");
+        }
+        return new ImageScaler(inputImage, decodedPlan,
+                new ChainImage(resampler).transform(inputImage, applySettings(chain)), resampler, quality, sharpening);
+    }
+
+    /**
+     * Applies the quality and the sharpening of this instance to the chain
+     * steps.
+     */
+    private List<TransformSpec> applySettings(final TransformChain chain) {
+        return chain.getSteps().stream()
+                .map(this::applySettings)
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Applies the quality and the sharpening of this instance to the spec
+     * if it uses the default ones.
+     */
+    private TransformSpec applySettings(final TransformSpec spec) {
+        return applySettings(spec, quality, sharpening);
+    }
+
+    /**
+     * Applies the provided quality and sharpening to the spec if it uses the
+     * default ones.
+     *
+     * @param spec transformation spec
+     * @param quality resampling quality
+     * @param sharpening sharpening
+     * @return transformation spec
+     */
+    static TransformSpec applySettings(final TransformSpec spec, final TransformSpec.Quality quality,
+            final TransformSpec.Sharpening sharpening) {
+        TransformSpec effectiveSpec = spec;
+        if(spec.getQuality() == TransformSpec.Quality.DEFAULT && quality != TransformSpec.Quality.DEFAULT) {
+            effectiveSpec = effectiveSpec.quality(quality);
+        }
+        if(spec.getSharpening() == TransformSpec.Sharpening.AUTO && sharpening != TransformSpec.Sharpening.AUTO) {
+            effectiveSpec = effectiveSpec.sharpening(sharpening);
+        }
+        return effectiveSpec;
+    }
+
+    /**
+     * Calculates the geometry of the transformation described by the
+     * provided spec for the input image without performing it: the output
+     * dimensions, the dimensions the input image is scaled to and its
+     * position on the output image. When only a region of the image was
+     * decoded for the spec, that's the plan of the whole image holding the
+     * decoded source window.
+     *
+     * @param spec transformation spec
+     * @return scaling plan
+     */
+    public ScalingPlan plan(final TransformSpec spec) {
+        if(spec == null) {
+            throw new IllegalArgumentException("Transformation spec argument cannot be null");
+        }
+        return plan(spec.getMode().newTransformer(resampler), spec);
+    }
+
+    /**
+     * Returns the plan the input image was decoded for if it's the plan of
+     * the provided spec, otherwise plans the spec for the input image.
+     */
+    private ScalingPlan plan(final TransformImage transformer, final TransformSpec spec) {
+        if(decodedPlan != null && decodedPlan.getSpec().equals(spec)) {
+            return decodedPlan;
+        }
+        return transformer.plan(inputImage, spec);
+    }
+
+    /**
+     * Calculates the geometry of the provided transformation chain for the
+     * input image without performing it: the region of the input image that
+     * is resampled, its dimensions and position on the output image.
+     *
+     * @param chain transformation chain
+     * @return plans of the chain segments, a single one unless the chain tiles before its last step
+     */
+    public List<ChainPlan> plan(final TransformChain chain) {
+        if(chain == null) {
+            throw new IllegalArgumentException("Transformation chain argument cannot be null");
+        }
+        return new ChainImage(resampler).plan(inputImage.getWidth(), inputImage.getHeight(),
+                PixelFormats.getWorkingType(inputImage), applySettings(chain));
+    }
+
+    /**
+     * Produces a transformed image for each of the provided specs. Bigger
+     * images are produced first and smaller ones are resampled from the
+     * closest big enough intermediate image instead of the original one,
+     * as long as the intermediate image was neither sharpened nor resampled
+     * with a quality other than the default or the Lanczos one, which
+     * makes generating a whole set of sizes roughly as expensive as
+     * generating the biggest one. The produced image of this instance is
+     * not affected.
+     *
+     * @param specs transformation specs
+     * @return transformed images in the same order as the specs
+     */
+    public List<BufferedImage> renderImages(final List<TransformSpec> specs) {
+        if(specs == null || specs.contains(null)) {
+            throw new IllegalArgumentException("Transformation spec arguments cannot be null");
+        }
+        return new RenditionLadder(inputImage, resampler).transform(specs.stream()
+                .map(this::applySettings)
+                .collect(Collectors.toList()));
+    }
+
+    /**
+     * Produces and encodes a transformed image for each of the provided
+     * renditions. Images are produced the same way as in
+     * {@link #renderImages(List)} and then encoded in parallel.
+     *
+     * @param renditions rendition descriptions
+     * @return image bytes in the same order as the renditions
+     * @throws IOException if an error occurs while writing
+     */
+    public List<byte[]> render(final List<Rendition> renditions) throws IOException {
+        if(renditions == null || renditions.contains(null)) {
+            throw new IllegalArgumentException("Rendition arguments cannot be null");
+        }
+        final List<TransformSpec> specs = renditions.stream()
+                .map(Rendition::getSpec)
+                .collect(Collectors.toList());
+        final List<BufferedImage> images = renderImages(specs);
+        try {
+            return IntStream.range(0, images.size())
+                    .parallel()
+                    .mapToObj(i -> {
+                        try {
+                            return write(images.get(i), renditions.get(i).getImageFormat(), renditions.get(i).getOptions());
+                        }
+                        catch(final IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    })
+                    .collect(Collectors.toList());
+        }
+        catch(final UncheckedIOException e) {
+            throw e.getCause();
+        }
     }
 
     /**
@@ -203,17 +770,69 @@ public class ImageScaler {
      * @throws IOException if an error occurs while writing
      */
     public byte[] toByteArray(final ImageFormat imageFormat) throws IOException {
-        if(outputImage == null) {
-            throw new IllegalStateException("Bad state. This operation should be invoked after a transformation.");
-        }
-        try(final ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
-            ImageIO.write(outputImage, imageFormat.getName(), baos);
-            baos.flush();
-            return baos.toByteArray();
-        }
-        catch(final IOException e) {
-            throw e;
-        }
+        return toByteArray(imageFormat, EncodeOptions.DEFAULT);
+    }
+
+    /**
+     * Converts the produced image into a byte array using the provided
+     * encoding options.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @return image bytes
+     * @throws IOException if an error occurs while writing
+     */
+    public byte[] toByteArray(final ImageFormat imageFormat, final EncodeOptions options) throws IOException {
+        checkOutputImage();
+        return ImageEncoder.toByteArray(outputImage, imageFormat, options);
+    }
+
+    /**
+     * Writes the produced image into the provided output stream. The stream
+     * is flushed but not closed.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param outputStream output stream
+     * @throws IOException if an error occurs while writing
+     */
+    public void writeTo(final ImageFormat imageFormat, final EncodeOptions options, final OutputStream outputStream)
+            throws IOException {
+        checkOutputImage();
+        ImageEncoder.write(outputImage, imageFormat, options, outputStream);
+    }
+
+    /**
+     * Writes the produced image into the provided channel, e.g. a socket or
+     * file channel. The channel is not closed.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param channel channel
+     * @throws IOException if an error occurs while writing
+     */
+    public void writeTo(final ImageFormat imageFormat, final EncodeOptions options, final WritableByteChannel channel)
+            throws IOException {
+        checkOutputImage();
+        ImageEncoder.write(outputImage, imageFormat, options, channel);
+    }
+
+    /**
+     * Writes the produced image into the provided buffer starting at its
+     * position, which is advanced past the written bytes. Nothing is
+     * consumed from the buffer if the image doesn't fit into its remaining
+     * capacity.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param buffer buffer
+     * @return number of bytes written
+     * @throws IOException if an error occurs while writing or the buffer capacity is insufficient
+     */
+    public int writeTo(final ImageFormat imageFormat, final EncodeOptions options, final ByteBuffer buffer)
+            throws IOException {
+        checkOutputImage();
+        return ImageEncoder.write(outputImage, imageFormat, options, buffer);
     }
 
     /**
@@ -225,14 +844,43 @@ public class ImageScaler {
      * @throws IOException if an error occurs while writing
      */
     public String encode(final ImageFormat imageFormat) throws IOException {
-        if(outputImage == null) {
-            throw new IllegalStateException("Bad state. This operation should be invoked after a transformation.");
+        return encode(imageFormat, EncodeOptions.DEFAULT);
+    }
+
+    /**
+     * Encodes the produced image into a base64 string appending the mime type
+     * header, ready to be used in HTML, using the provided encoding options.
+     * The image bytes are base64 encoded straight into a buffer of the exact
+     * final size.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @return base64 encoded image
+     * @throws IOException if an error occurs while writing
+     */
+    public String encode(final ImageFormat imageFormat, final EncodeOptions options) throws IOException {
+        checkOutputImage();
+        final BufferImageOutputStream ios = ImageEncoder.write(outputImage, imageFormat, options);
+        final byte[] header = ("data:" + imageFormat.getMimeType() + ";base64, ").getBytes(StandardCharsets.US_ASCII);
+        final int length = (int)ios.length();
+        final byte[] data = Arrays.copyOf(header, header.length + 4 * ((length + 2) / 3));
+
+        final ByteBuffer target = ByteBuffer.wrap(data, header.length, data.length - header.length);
+        try(final OutputStream os = Base64.getEncoder().wrap(new OutputStream() {
+
+            @Override
+            public void write(final int b) {
+                target.put((byte)b);
+            }
+
+            @Override
+            public void write(final byte[] b, final int off, final int len) {
+                target.put(b, off, len);
+            }
+        })) {
+            os.write(ios.array(), 0, length);
         }
-        final byte[] data = toByteArray(imageFormat);
-        final StringBuffer sb = new StringBuffer();
-        sb.append("data:").append(imageFormat.getMimeType()).append(";base64, ");
-        sb.append(Base64.getEncoder().encodeToString(data));
-        return sb.toString();
+        return new String(data, StandardCharsets.US_ASCII);
     }
 
     /**
@@ -245,11 +893,80 @@ public class ImageScaler {
      * @throws IOException if an error occurs while writing
      */
     public void saveAs(final ImageFormat imageFormat, final Path outputDirectoryPath, final String name) throws IOException {
+        saveAs(imageFormat, EncodeOptions.DEFAULT, outputDirectoryPath, name);
+    }
+
+    /**
+     * Saves the prodiced image in local file system using the provided
+     * encoding options, output directory path and name.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param outputDirectoryPath output directory path
+     * @param name image file name without extension
+     * @throws IOException if an error occurs while writing
+     */
+    public void saveAs(final ImageFormat imageFormat, final EncodeOptions options, final Path outputDirectoryPath,
+            final String name) throws IOException {
+        checkOutputImage();
+        write(outputImage, imageFormat, options,
+                Paths.get(outputDirectoryPath.toAbsolutePath().toString(), name + "." + imageFormat.getFileExtension()));
+    }
+
+    /**
+     * Decodes, transforms and encodes the provided image bytes as described
+     * by the rendition, decoding only the part of the image the
+     * transformation needs.
+     *
+     * @param imageBytes input image bytes
+     * @param rendition rendition description
+     * @param resampler resampler
+     * @return encoded image bytes
+     * @throws IOException if an error occurs while reading or writing
+     */
+    static byte[] produce(final byte[] imageBytes, final Rendition rendition, final Resampler resampler)
+            throws IOException {
+        return new ImageScaler(imageBytes, rendition.getSpec())
+                .withResampler(resampler)
+                .transform(rendition.getSpec())
+                .toByteArray(rendition.getImageFormat(), rendition.getOptions());
+    }
+
+    /**
+     * Converts the provided image into a byte array.
+     *
+     * @param image image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @return image bytes
+     * @throws IOException if an error occurs while writing
+     */
+    static byte[] write(final BufferedImage image, final ImageFormat imageFormat, final EncodeOptions options)
+            throws IOException {
+        return ImageEncoder.toByteArray(image, imageFormat, options);
+    }
+
+    /**
+     * Writes the provided image into a file, replacing it if it exists.
+     *
+     * @param image image
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param path file path
+     * @throws IOException if an error occurs while writing
+     */
+    static void write(final BufferedImage image, final ImageFormat imageFormat, final EncodeOptions options,
+            final Path path) throws IOException {
+        try(final FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ImageEncoder.write(image, imageFormat, options, channel);
+        }
+    }
+
+    private void checkOutputImage() {
         if(outputImage == null) {
             throw new IllegalStateException("Bad state. This operation should be invoked after a transformation.");
         }
-        ImageIO.write(outputImage, imageFormat.getFileExtension(),
-                Paths.get(outputDirectoryPath.toAbsolutePath().toString(), name + "." + imageFormat.getFileExtension()).toFile());
     }
 
     /**
@@ -0,0 +1,628 @@
+package org.ontal.imgutil;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.Collectors;
+
+import javax.imageio.ImageReader;
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+import org.ontal.imgutil.scaling.ChainImage;
+import org.ontal.imgutil.scaling.ChainPlan;
+import org.ontal.imgutil.scaling.PixelFormats;
+import org.ontal.imgutil.scaling.Resampler;
+import org.ontal.imgutil.scaling.ScalingPlan;
+
+/**
+ * Image scaler deferring all the work until the produced image is needed.
+ * Creating an instance and applying transformations only records the image
+ * source and the transformation steps, the image is decoded and transformed
+ * by the first call of {@link #getImage()}, {@link #toByteArray(ImageFormat)},
+ * {@link #writeTo(ImageFormat, EncodeOptions, OutputStream)},
+ * {@link #encode(ImageFormat)} or {@link #saveAs(ImageFormat, Path, String)},
+ * and the produced image is kept for the following calls. Requests that end
+ * up needing the image dimensions only, e.g. to reject an oversized upload,
+ * or nothing at all, e.g. cache hits, never decode any pixels.
+ * <br><br>
+ * As the transformations are known when the image is decoded, the cheapest
+ * decoding is picked for them: a single transformation decodes only the
+ * region of the image it needs at a reduced resolution, see
+ * {@link ImageScaler#ImageScaler(byte[], TransformSpec)}, and several
+ * transformations are performed as a {@link TransformChain} on the image
+ * decoded at the lowest resolution sufficient for the whole chain. Input
+ * streams are read into memory by the first operation needing them, so the
+ * instances created from the same instance share the read bytes.
+ * <br><br>
+ * Instances are immutable and thread safe, the same way as the
+ * {@link ImageScaler} ones.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * final LazyImageScaler scaler = new LazyImageScaler(uploadedImageBytes).adjust(200, 200);
+ * if(scaler.probe().getWidth() &gt; 10_000) {
+ *     // rejected without decoding
+ * }
+ * final byte[] thumbnail = scaler.toByteArray(ImageFormat.JPG);
+ * </pre>
+ */
+public class LazyImageScaler {
+
+    private final static Logger log = Logger.getLogger(LazyImageScaler.class.getName());
+
+    private final Source source;
+    private final TransformChain chain;
+    private final Resampler resampler;
+    private final TransformSpec.Quality quality;
+    private final TransformSpec.Sharpening sharpening;
+
+    private volatile ImageScaler scaler;
+
+    /**
+     * Creates lazy image scaler instance reading the input image bytes when
+     * needed.
+     *
+     * @param imageBytes image bytes
+     */
+    public LazyImageScaler(final byte[] imageBytes) {
+        this(new Source(imageBytes, null, null, null));
+        if(imageBytes == null) {
+            throw new IllegalArgumentException("Image bytes argument cannot be null");
+        }
+    }
+
+    /**
+     * Creates lazy image scaler instance reading the input image from the
+     * provided input stream when needed. The stream is read at most once and
+     * closed.
+     *
+     * @param imageInputStream image input stream
+     */
+    public LazyImageScaler(final InputStream imageInputStream) {
+        this(new Source(null, imageInputStream, null, null));
+        if(imageInputStream == null) {
+            throw new IllegalArgumentException("Image input stream argument cannot be null");
+        }
+    }
+
+    /**
+     * Creates lazy image scaler instance reading the input image from the
+     * provided file path when needed.
+     *
+     * @param imagePath image file path
+     */
+    public LazyImageScaler(final Path imagePath) {
+        this(new Source(null, null, imagePath, null));
+        if(imagePath == null) {
+            throw new IllegalArgumentException("Image path argument cannot be null");
+        }
+    }
+
+    /**
+     * Creates lazy image scaler instance using the provided image as the
+     * input image.
+     *
+     * @param image input image
+     */
+    public LazyImageScaler(final BufferedImage image) {
+        this(new Source(null, null, null, image));
+        if(image == null) {
+            throw new IllegalArgumentException("Image argument cannot be null");
+        }
+    }
+
+    private LazyImageScaler(final Source source) {
+        this(source, null, Resampler.getDefault(), TransformSpec.Quality.DEFAULT, TransformSpec.Sharpening.AUTO);
+    }
+
+    private LazyImageScaler(final Source source, final TransformChain chain, final Resampler resampler,
+            final TransformSpec.Quality quality, final TransformSpec.Sharpening sharpening) {
+        this.source = source;
+        this.chain = chain;
+        this.resampler = resampler;
+        this.quality = quality;
+        this.sharpening = sharpening;
+    }
+
+    /**
+     * Creates a lazy image scaler instance with the same source and
+     * transformations using the provided resampler, see
+     * {@link ImageScaler#withResampler(Resampler)}.
+     *
+     * @param resampler resampler
+     * @return lazy image scaler
+     */
+    public LazyImageScaler withResampler(final Resampler resampler) {
+        if(resampler == null) {
+            throw new IllegalArgumentException("Resampler argument cannot be null");
+        }
+        return new LazyImageScaler(source, chain, resampler, quality, sharpening);
+    }
+
+    /**
+     * Creates a lazy image scaler instance with the same source and
+     * transformations using the provided resampling quality, see
+     * {@link ImageScaler#withQuality(TransformSpec.Quality)}.
+     *
+     * @param quality resampling quality
+     * @return lazy image scaler
+     */
+    public LazyImageScaler withQuality(final TransformSpec.Quality quality) {
+        if(quality == null) {
+            throw new IllegalArgumentException("Quality argument cannot be null");
+        }
+        return new LazyImageScaler(source, chain, resampler, quality, sharpening);
+    }
+
+    /**
+     * Creates a lazy image scaler instance with the same source and
+     * transformations using the provided sharpening, see
+     * {@link ImageScaler#withSharpening(TransformSpec.Sharpening)}.
+     *
+     * @param sharpening sharpening
+     * @return lazy image scaler
+     */
+    public LazyImageScaler withSharpening(final TransformSpec.Sharpening sharpening) {
+        if(sharpening == null) {
+            throw new IllegalArgumentException("Sharpening argument cannot be null");
+        }
+        return new LazyImageScaler(source, chain, resampler, quality, sharpening);
+    }
+
+    /**
+     * Records the Fit transformation, see {@link ImageScaler#fit(int, int)}.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return lazy image scaler
+     */
+    public LazyImageScaler fit(final int width, final int height) {
+        return transform(TransformSpec.fit(width, height));
+    }
+
+    /**
+     * Records the Fit transformation, see {@link ImageScaler#fit(int, int, int[])}.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @param rgb excess area background color
+     * @return lazy image scaler
+     */
+    public LazyImageScaler fit(final int width, final int height, final int[] rgb) {
+        return transform(TransformSpec.fit(width, height, rgb));
+    }
+
+    /**
+     * Records the borderless Fit transformation, see
+     * {@link ImageScaler#fitBorderless(int, int)}.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return lazy image scaler
+     */
+    public LazyImageScaler fitBorderless(final int width, final int height) {
+        return transform(TransformSpec.fitBorderless(width, height));
+    }
+
+    /**
+     * Records the Expand transformation, see {@link ImageScaler#expand(int, int)}.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return lazy image scaler
+     */
+    public LazyImageScaler expand(final int width, final int height) {
+        return transform(TransformSpec.expand(width, height));
+    }
+
+    /**
+     * Records the Adjust transformation, see {@link ImageScaler#adjust(int, int)}.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return lazy image scaler
+     */
+    public LazyImageScaler adjust(final int width, final int height) {
+        return transform(TransformSpec.adjust(width, height));
+    }
+
+    /**
+     * Records the Limit transformation, see {@link ImageScaler#limit(Dimension, int)}.
+     *
+     * @param dimension limit dimension
+     * @param size dimension size in pixels
+     * @return lazy image scaler
+     */
+    public LazyImageScaler limit(final Dimension dimension, final int size) {
+        return transform(TransformSpec.limit(dimension, size));
+    }
+
+    /**
+     * Records the Tile transformation, see {@link ImageScaler#tile(int, int)}.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return lazy image scaler
+     */
+    public LazyImageScaler tile(final int width, final int height) {
+        return transform(TransformSpec.tile(width, height));
+    }
+
+    /**
+     * Records the Tile transformation, see {@link ImageScaler#tile(int, int, int, int)}.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @param tileWidth tile width in pixels
+     * @param tileHeight tile height in pixels
+     * @return lazy image scaler
+     */
+    public LazyImageScaler tile(final int width, final int height, final int tileWidth, final int tileHeight) {
+        return transform(TransformSpec.tile(width, height, tileWidth, tileHeight));
+    }
+
+    /**
+     * Records the scaling transformation described by the provided spec.
+     * It's applied to the image produced by the previously recorded
+     * transformations, if any.
+     *
+     * @param spec transformation spec
+     * @return lazy image scaler
+     */
+    public LazyImageScaler transform(final TransformSpec spec) {
+        if(spec == null) {
+            throw new IllegalArgumentException("Transformation spec argument cannot be null");
+        }
+        return new LazyImageScaler(source, chain == null ? TransformChain.of(spec) : chain.then(spec),
+                resampler, quality, sharpening);
+    }
+
+    /**
+     * Records the transformations of the provided chain.
+     *
+     * @param chain transformation chain
+     * @return lazy image scaler
+     */
+    public LazyImageScaler transform(final TransformChain chain) {
+        if(chain == null) {
+            throw new IllegalArgumentException("Transformation chain argument cannot be null");
+        }
+        TransformChain chained = this.chain;
+        for(final TransformSpec spec : chain.getSteps()) {
+            chained = chained == null ? TransformChain.of(spec) : chained.then(spec);
+        }
+        return new LazyImageScaler(source, chained, resampler, quality, sharpening);
+    }
+
+    /**
+     * Reads the format, dimensions, bitmap type and frame count of the input
+     * image from the image header without decoding any pixels, see
+     * {@link ImageScaler#probe(byte[])}. The format of the images provided
+     * as {@link BufferedImage} is <code>null</code>.
+     *
+     * @return image information
+     * @throws IOException if an error occurs while reading or the image format is not supported
+     */
+    public ImageInfo probe() throws IOException {
+        if(source.image != null) {
+            return new ImageInfo(null, null, source.image.getWidth(), source.image.getHeight(),
+                    source.image.getType(), 1);
+        }
+        try(final ImageInputStream iis = source.open()) {
+            return ImageDecoder.probe(iis);
+        }
+    }
+
+    /**
+     * Calculates the geometry of the recorded transformations for the input
+     * image from the image header without decoding any pixels, see
+     * {@link ImageScaler#plan(TransformChain)}.
+     *
+     * @return plans of the chain segments, a single one unless the chain tiles before its last step
+     * @throws IOException if an error occurs while reading or the image format is not supported
+     */
+    public List<ChainPlan> plan() throws IOException {
+        checkChain();
+        if(source.image != null) {
+            return new ImageScaler(source.image).withResampler(resampler).withQuality(quality)
+                    .withSharpening(sharpening).plan(chain);
+        }
+        try(final ImageInputStream iis = source.open()) {
+            final ImageReader reader = ImageDecoder.open(iis);
+            try {
+                return plan(reader);
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+    }
+
+    /**
+     * Calculates the geometry of the recorded transformations for the image
+     * available to the reader.
+     */
+    private List<ChainPlan> plan(final ImageReader reader) throws IOException {
+        final Iterator<ImageTypeSpecifier> types = reader.getImageTypes(0);
+        final int imageType = types.hasNext() ?
+                PixelFormats.getWorkingType(types.next().createBufferedImage(1, 1)) : BufferedImage.TYPE_INT_RGB;
+        return new ChainImage(resampler).plan(reader.getWidth(0), reader.getHeight(0), imageType,
+                chain.getSteps().stream()
+                        .map(spec -> ImageScaler.applySettings(spec, quality, sharpening))
+                        .collect(Collectors.toList()));
+    }
+
+    /**
+     * Decodes and transforms the input image unless it's already done.
+     *
+     * @return image scaler holding the produced image
+     * @throws IOException if an error occurs while reading
+     */
+    private ImageScaler scaler() throws IOException {
+        ImageScaler result = scaler;
+        if(result == null) {
+            synchronized(this) {
+                result = scaler;
+                if(result == null) {
+                    result = produce();
+                    scaler = result;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Decodes the input image in the cheapest way sufficient for the
+     * recorded transformations and performs them.
+     */
+    private ImageScaler produce() throws IOException {
+        final List<TransformSpec> steps = chain.getSteps();
+        final ImageScaler decodedScaler;
+        if(source.image != null) {
+            decodedScaler = new ImageScaler(source.image);
+        }
+        else {
+            try(final ImageInputStream iis = source.open()) {
+                if(steps.size() == 1) {
+
+                    // decoded for the step as performed, so the transformation keeps the plan of the whole image
+                    decodedScaler = new ImageScaler(ImageDecoder.read(iis,
+                            ImageScaler.applySettings(steps.get(0), quality, sharpening)));
+                }
+                else {
+                    decodedScaler = new ImageScaler(read(iis));
+                }
+            }
+            catch(final IOException e) {
+                log.log(Level.SEVERE, e.getMessage(), e);
+                throw e;
+            }
+        }
+
+        final ImageScaler inputScaler = decodedScaler
+                .withResampler(resampler)
+                .withQuality(quality)
+                .withSharpening(sharpening);
+        return steps.size() == 1 ? inputScaler.transform(steps.get(0)) : inputScaler.transform(chain);
+    }
+
+    /**
+     * Decodes the image at the lowest resolution sufficient for the
+     * resampling of the first chain segment.
+     */
+    private BufferedImage read(final ImageInputStream iis) throws IOException {
+        final ImageReader reader = ImageDecoder.open(iis);
+        try {
+            final ChainPlan plan = plan(reader).get(0);
+            final ScalingPlan contentPlan = plan.getContentPlan();
+            if(contentPlan == null || !plan.isResampled()) {
+                return ImageDecoder.read(reader, 0, 0);
+            }
+            return ImageDecoder.read(reader, contentPlan.getScaledWidth(), contentPlan.getScaledHeight());
+        }
+        finally {
+            reader.dispose();
+        }
+    }
+
+    private void checkChain() {
+        if(chain == null) {
+            throw new IllegalStateException("Bad state. This operation should be invoked after a transformation.");
+        }
+    }
+
+    /**
+     * Obtains the produced image, decoding and transforming the input image
+     * if it's not done yet.
+     *
+     * @return image or <code>null</code> if no transformation is recorded
+     * @throws IOException if an error occurs while reading
+     */
+    public BufferedImage getImage() throws IOException {
+        return chain == null ? null : scaler().getImage();
+    }
+
+    /**
+     * Converts the produced image into a byte array, see
+     * {@link ImageScaler#toByteArray(ImageFormat)}.
+     *
+     * @param imageFormat image format
+     * @return image bytes
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public byte[] toByteArray(final ImageFormat imageFormat) throws IOException {
+        return toByteArray(imageFormat, EncodeOptions.DEFAULT);
+    }
+
+    /**
+     * Converts the produced image into a byte array using the provided
+     * encoding options, see
+     * {@link ImageScaler#toByteArray(ImageFormat, EncodeOptions)}.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @return image bytes
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public byte[] toByteArray(final ImageFormat imageFormat, final EncodeOptions options) throws IOException {
+        checkChain();
+        return scaler().toByteArray(imageFormat, options);
+    }
+
+    /**
+     * Writes the produced image into the provided output stream, see
+     * {@link ImageScaler#writeTo(ImageFormat, EncodeOptions, OutputStream)}.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param outputStream output stream
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public void writeTo(final ImageFormat imageFormat, final EncodeOptions options, final OutputStream outputStream)
+            throws IOException {
+        checkChain();
+        scaler().writeTo(imageFormat, options, outputStream);
+    }
+
+    /**
+     * Writes the produced image into the provided channel, see
+     * {@link ImageScaler#writeTo(ImageFormat, EncodeOptions, WritableByteChannel)}.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param channel channel
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public void writeTo(final ImageFormat imageFormat, final EncodeOptions options, final WritableByteChannel channel)
+            throws IOException {
+        checkChain();
+        scaler().writeTo(imageFormat, options, channel);
+    }
+
+    /**
+     * Writes the produced image into the provided buffer, see
+     * {@link ImageScaler#writeTo(ImageFormat, EncodeOptions, ByteBuffer)}.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param buffer buffer
+     * @return number of bytes written
+     * @throws IOException if an error occurs while reading or writing or the buffer capacity is insufficient
+     */
+    public int writeTo(final ImageFormat imageFormat, final EncodeOptions options, final ByteBuffer buffer)
+            throws IOException {
+        checkChain();
+        return scaler().writeTo(imageFormat, options, buffer);
+    }
+
+    /**
+     * Encodes the produced image into a base64 string, see
+     * {@link ImageScaler#encode(ImageFormat)}.
+     *
+     * @param imageFormat image format
+     * @return base64 encoded image
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public String encode(final ImageFormat imageFormat) throws IOException {
+        return encode(imageFormat, EncodeOptions.DEFAULT);
+    }
+
+    /**
+     * Encodes the produced image into a base64 string using the provided
+     * encoding options, see {@link ImageScaler#encode(ImageFormat, EncodeOptions)}.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @return base64 encoded image
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public String encode(final ImageFormat imageFormat, final EncodeOptions options) throws IOException {
+        checkChain();
+        return scaler().encode(imageFormat, options);
+    }
+
+    /**
+     * Saves the produced image in local file system, see
+     * {@link ImageScaler#saveAs(ImageFormat, Path, String)}.
+     *
+     * @param imageFormat image format
+     * @param outputDirectoryPath output directory path
+     * @param name image file name without extension
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public void saveAs(final ImageFormat imageFormat, final Path outputDirectoryPath, final String name) throws IOException {
+        saveAs(imageFormat, EncodeOptions.DEFAULT, outputDirectoryPath, name);
+    }
+
+    /**
+     * Saves the produced image in local file system using the provided
+     * encoding options, see
+     * {@link ImageScaler#saveAs(ImageFormat, EncodeOptions, Path, String)}.
+     *
+     * @param imageFormat image format
+     * @param options encoding options
+     * @param outputDirectoryPath output directory path
+     * @param name image file name without extension
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public void saveAs(final ImageFormat imageFormat, final EncodeOptions options, final Path outputDirectoryPath,
+            final String name) throws IOException {
+        checkChain();
+        scaler().saveAs(imageFormat, options, outputDirectoryPath, name);
+    }
+
+    /**
+     * Input image source shared by all the instances created from the same
+     * instance. Input streams are read into memory on first use, so the
+     * image can be read any number of times.
+     */
+    private static final class Source {
+
+        private final Path path;
+        private final BufferedImage image;
+
+        private byte[] bytes;
+        private InputStream inputStream;
+
+        Source(final byte[] bytes, final InputStream inputStream, final Path path, final BufferedImage image) {
+            this.bytes = bytes;
+            this.inputStream = inputStream;
+            this.path = path;
+            this.image = image;
+        }
+
+        /**
+         * Opens the encoded image.
+         *
+         * @return image input stream
+         * @throws IOException if an error occurs while reading
+         */
+        synchronized ImageInputStream open() throws IOException {
+            if(path != null) {
+                return ImageDecoder.stream(path);
+            }
+            if(inputStream != null) {
+                try(final InputStream is = inputStream) {
+                    bytes = is.readAllBytes();
+                }
+                finally {
+                    inputStream = null;
+                }
+            }
+            if(bytes == null) {
+                throw new IOException("Image input stream could not be read");
+            }
+            return ImageDecoder.stream(bytes);
+        }
+    }
+}
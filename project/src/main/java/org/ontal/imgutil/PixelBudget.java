@@ -0,0 +1,217 @@
+package org.ontal.imgutil;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * Limits the number of pixels decoded from the input images, protecting the
+ * heap against images whose headers claim huge dimensions. The per image
+ * limit applies to the pixels actually decoded, i.e. after the region and
+ * subsampling reductions of the target dimension aware constructors, and
+ * the images over the limit are either rejected before decoding or decoded
+ * with subsampling so they fit. The total limit applies to the pixels of
+ * all the images being decoded at the same time: decoding waits until
+ * enough of the budget is released by the other decodings.
+ * <br><br>
+ * The total budget is released as soon as an image is decoded, not when
+ * the decoded image is discarded, so it bounds the concurrent decodings
+ * only. The decoded images kept alive by the callers, e.g. the ones being
+ * transformed or encoded, are bounded by the number of images the
+ * application processes at the same time, such as the size of its worker
+ * pool.
+ * <br><br>
+ * The budget in effect is the process wide default used by all the
+ * {@link ImageScaler} constructors reading image data:
+ * <pre>
+ * PixelBudget.setDefault(new PixelBudget(50_000_000, 200_000_000, PixelBudget.Policy.REJECT));
+ * </pre>
+ */
+public final class PixelBudget {
+
+    /**
+     * Handling of images over the per image limit.
+     */
+    public enum Policy {
+
+        /**
+         * Fail with an {@link IOException} without decoding the image.
+         */
+        REJECT,
+
+        /**
+         * Decode the image with the smallest subsampling that fits it into
+         * the limit.
+         */
+        SUBSAMPLE
+    }
+
+    /**
+     * Budget without any limits, the default one.
+     */
+    public static final PixelBudget UNLIMITED = new PixelBudget(Long.MAX_VALUE, Long.MAX_VALUE, Policy.REJECT);
+
+    private static volatile PixelBudget defaultBudget = UNLIMITED;
+
+    private final long maxImagePixels;
+    private final long maxTotalPixels;
+    private final Policy policy;
+    private long pixelsInUse;
+
+    /**
+     * Creates pixel budget.
+     *
+     * @param maxImagePixels maximum number of pixels decoded from a single image
+     * @param maxTotalPixels maximum number of pixels decoded from all the images at the same time
+     * @param policy handling of images over the per image limit
+     */
+    public PixelBudget(final long maxImagePixels, final long maxTotalPixels, final Policy policy) {
+        if(maxImagePixels <= 0) {
+            throw new IllegalArgumentException("Invalid maximum image pixels argument");
+        }
+        if(maxTotalPixels < maxImagePixels) {
+            throw new IllegalArgumentException("Invalid maximum total pixels argument");
+        }
+        if(policy == null) {
+            throw new IllegalArgumentException("Policy argument cannot be null");
+        }
+        this.maxImagePixels = maxImagePixels;
+        this.maxTotalPixels = maxTotalPixels;
+        this.policy = policy;
+    }
+
+    /**
+     * Sets the budget used by all the image decodings.
+     *
+     * @param budget pixel budget, {@link #UNLIMITED} to remove the limits
+     */
+    public static void setDefault(final PixelBudget budget) {
+        if(budget == null) {
+            throw new IllegalArgumentException("Pixel budget argument cannot be null");
+        }
+        defaultBudget = budget;
+    }
+
+    /**
+     * Returns the budget used by all the image decodings.
+     *
+     * @return pixel budget
+     */
+    public static PixelBudget getDefault() {
+        return defaultBudget;
+    }
+
+    /**
+     * Returns maximum number of pixels decoded from a single image.
+     *
+     * @return maximum image pixels
+     */
+    public long getMaxImagePixels() {
+        return maxImagePixels;
+    }
+
+    /**
+     * Returns maximum number of pixels decoded from all the images at the
+     * same time, not counting the already decoded images.
+     *
+     * @return maximum total pixels
+     */
+    public long getMaxTotalPixels() {
+        return maxTotalPixels;
+    }
+
+    /**
+     * Returns handling of images over the per image limit.
+     *
+     * @return policy
+     */
+    public Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * Returns the number of pixels of the images being decoded at the
+     * moment, which helps planning the concurrency.
+     *
+     * @return pixels in use
+     */
+    public synchronized long getPixelsInUse() {
+        return pixelsInUse;
+    }
+
+    /**
+     * Checks the decoded pixels of an image against the per image limit.
+     *
+     * @param width decoded region width in pixels before subsampling
+     * @param height decoded region height in pixels before subsampling
+     * @param subsampling requested subsampling factor
+     * @return subsampling factor fitting the image into the limit
+     * @throws IOException if the image is over the limit and the policy is to reject it
+     */
+    int fit(final int width, final int height, final int subsampling) throws IOException {
+        if(decodedPixels(width, height, subsampling) <= maxImagePixels) {
+            return subsampling;
+        }
+        if(policy == Policy.REJECT) {
+            throw new IOException("Image of " + width + "x" + height + " pixels exceeds the budget of "
+                    + maxImagePixels + " pixels");
+        }
+
+        int fitting = Math.max(subsampling, (int)Math.ceil(Math.sqrt((double)width * height / maxImagePixels)));
+        while(decodedPixels(width, height, fitting) > maxImagePixels) {
+            fitting++;
+        }
+        return fitting;
+    }
+
+    /**
+     * Reserves pixels of the total budget, waiting until they are
+     * available. Images bigger than the whole budget reserve all of it.
+     *
+     * @param pixels decoded pixels
+     * @return reserved pixels to be released
+     * @throws InterruptedIOException if the calling thread is interrupted while waiting
+     */
+    long acquire(final long pixels) throws InterruptedIOException {
+        if(maxTotalPixels == Long.MAX_VALUE) {
+            return 0;
+        }
+        final long amount = Math.min(pixels, maxTotalPixels);
+        synchronized(this) {
+            while(pixelsInUse + amount > maxTotalPixels) {
+                try {
+                    wait();
+                }
+                catch(final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while waiting for the pixel budget");
+                }
+            }
+            pixelsInUse += amount;
+        }
+        return amount;
+    }
+
+    /**
+     * Releases pixels reserved by {@link #acquire(long)}.
+     *
+     * @param amount reserved pixels
+     */
+    void release(final long amount) {
+        if(amount == 0) {
+            return;
+        }
+        synchronized(this) {
+            pixelsInUse -= amount;
+            notifyAll();
+        }
+    }
+
+    static long decodedPixels(final int width, final int height, final int subsampling) {
+        return (long)((width + subsampling - 1) / subsampling) * ((height + subsampling - 1) / subsampling);
+    }
+
+    @Override
+    public String toString() {
+        return "PixelBudget[image=" + maxImagePixels + ", total=" + maxTotalPixels + ", " + policy + "]";
+    }
+}
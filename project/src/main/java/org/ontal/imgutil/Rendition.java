@@ -0,0 +1,96 @@
+package org.ontal.imgutil;
+
+import java.util.Objects;
+
+/**
+ * Immutable rendition description: a scaling transformation together with
+ * the format and options the transformed image should be encoded with.
+ */
+public final class Rendition {
+
+    private final TransformSpec spec;
+    private final ImageFormat imageFormat;
+    private final EncodeOptions options;
+
+    /**
+     * Creates rendition description encoded with the image writer defaults.
+     *
+     * @param spec scaling transformation
+     * @param imageFormat output image format
+     */
+    public Rendition(final TransformSpec spec, final ImageFormat imageFormat) {
+        this(spec, imageFormat, EncodeOptions.DEFAULT);
+    }
+
+    /**
+     * Creates rendition description.
+     *
+     * @param spec scaling transformation
+     * @param imageFormat output image format
+     * @param options encoding options
+     */
+    public Rendition(final TransformSpec spec, final ImageFormat imageFormat, final EncodeOptions options) {
+        if(spec == null) {
+            throw new IllegalArgumentException("Transformation spec argument cannot be null");
+        }
+        if(imageFormat == null) {
+            throw new IllegalArgumentException("Image format argument cannot be null");
+        }
+        if(options == null) {
+            throw new IllegalArgumentException("Encoding options argument cannot be null");
+        }
+        this.spec = spec;
+        this.imageFormat = imageFormat;
+        this.options = options;
+    }
+
+    /**
+     * Returns scaling transformation.
+     *
+     * @return scaling transformation
+     */
+    public TransformSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Returns output image format.
+     *
+     * @return output image format
+     */
+    public ImageFormat getImageFormat() {
+        return imageFormat;
+    }
+
+    /**
+     * Returns encoding options.
+     *
+     * @return encoding options
+     */
+    public EncodeOptions getOptions() {
+        return options;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof Rendition)) {
+            return false;
+        }
+        final Rendition other = (Rendition)obj;
+        return spec.equals(other.spec) && imageFormat == other.imageFormat && options.equals(other.options);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(spec, imageFormat, options);
+    }
+
+    @Override
+    public String toString() {
+        final String name = spec + "." + imageFormat.getFileExtension();
+        return options.equals(EncodeOptions.DEFAULT) ? name : name + "@" + options;
+    }
+}
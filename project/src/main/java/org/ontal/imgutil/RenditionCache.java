@@ -0,0 +1,307 @@
+package org.ontal.imgutil;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.ontal.imgutil.scaling.Resampler;
+
+/**
+ * In-memory cache of encoded renditions keyed by the content hash of the
+ * input image bytes and the rendition description (transformation spec,
+ * image format and encoding options), the image formats being compared by
+ * their MIME type so the aliases such as <code>JPG</code> and
+ * <code>JPEG</code> share their renditions. The cache is bounded by the total size
+ * of the encoded images and evicts the least recently used ones. Concurrent
+ * requests for the same missing rendition are coalesced: only one of them
+ * decodes, transforms and encodes the image while the others wait for its
+ * result.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * final RenditionCache cache = new RenditionCache(256L * 1024 * 1024);
+ * final byte[] thumbnail = cache.get(originalImageBytes, new Rendition(TransformSpec.adjust(200, 200), ImageFormat.JPG));
+ * </pre>
+ * The returned arrays are shared between all the callers and must not be
+ * modified. A {@link RenditionStore} can be placed behind the cache, in
+ * which case the missing renditions are loaded from the store, which in
+ * turn produces them only if they aren't stored yet.
+ */
+public final class RenditionCache {
+
+    private final long maxBytes;
+    private final Resampler resampler;
+    private final RenditionStore store;
+
+    private final Map<Key, byte[]> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final ConcurrentMap<Key, CompletableFuture<byte[]>> pending = new ConcurrentHashMap<>();
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates cache holding up to the provided number of encoded bytes.
+     *
+     * @param maxBytes maximum total size of the cached images in bytes
+     */
+    public RenditionCache(final long maxBytes) {
+        this(maxBytes, Resampler.getDefault());
+    }
+
+    /**
+     * Creates cache holding up to the provided number of encoded bytes and
+     * producing the missing renditions with the provided resampler.
+     *
+     * @param maxBytes maximum total size of the cached images in bytes
+     * @param resampler resampler
+     */
+    public RenditionCache(final long maxBytes, final Resampler resampler) {
+        if(maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid maximum size argument");
+        }
+        if(resampler == null) {
+            throw new IllegalArgumentException("Resampler argument cannot be null");
+        }
+        this.maxBytes = maxBytes;
+        this.resampler = resampler;
+        this.store = null;
+    }
+
+    /**
+     * Creates cache holding up to the provided number of encoded bytes and
+     * loading the missing renditions from the provided store.
+     *
+     * @param maxBytes maximum total size of the cached images in bytes
+     * @param store rendition store
+     */
+    public RenditionCache(final long maxBytes, final RenditionStore store) {
+        if(maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid maximum size argument");
+        }
+        if(store == null) {
+            throw new IllegalArgumentException("Rendition store argument cannot be null");
+        }
+        this.maxBytes = maxBytes;
+        this.resampler = null;
+        this.store = store;
+    }
+
+    /**
+     * Returns the encoded rendition of the provided image, producing and
+     * caching it if it's not cached yet.
+     *
+     * @param imageBytes input image bytes
+     * @param spec scaling transformation
+     * @param imageFormat output image format
+     * @return encoded image bytes, not to be modified
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public byte[] get(final byte[] imageBytes, final TransformSpec spec, final ImageFormat imageFormat)
+            throws IOException {
+        return get(imageBytes, new Rendition(spec, imageFormat));
+    }
+
+    /**
+     * Returns the encoded rendition of the provided image, producing and
+     * caching it if it's not cached yet.
+     *
+     * @param imageBytes input image bytes
+     * @param rendition rendition description
+     * @return encoded image bytes, not to be modified
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public byte[] get(final byte[] imageBytes, final Rendition rendition) throws IOException {
+        if(imageBytes == null) {
+            throw new IllegalArgumentException("Image bytes argument cannot be null");
+        }
+        if(rendition == null) {
+            throw new IllegalArgumentException("Rendition argument cannot be null");
+        }
+
+        final Key key = new Key(ContentHash.of(imageBytes), rendition);
+        byte[] data = lookup(key);
+        if(data != null) {
+            hits.incrementAndGet();
+            return data;
+        }
+
+        final CompletableFuture<byte[]> future = new CompletableFuture<>();
+        final CompletableFuture<byte[]> running = pending.putIfAbsent(key, future);
+        if(running != null) {
+            hits.incrementAndGet();
+            return await(running);
+        }
+
+        try {
+            // another request may have completed between the lookup and the registration
+            data = lookup(key);
+            if(data == null) {
+                misses.incrementAndGet();
+                data = store != null
+                        ? store.load(key.hash, rendition, imageBytes)
+                        : ImageScaler.produce(imageBytes, rendition, resampler);
+                put(key, data);
+            }
+            else {
+                hits.incrementAndGet();
+            }
+            future.complete(data);
+            return data;
+        }
+        catch(final IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            pending.remove(key, future);
+        }
+    }
+
+    private synchronized byte[] lookup(final Key key) {
+        return entries.get(key);
+    }
+
+    private synchronized void put(final Key key, final byte[] data) {
+        if(data.length > maxBytes) {
+            return;
+        }
+        final byte[] previous = entries.put(key, data);
+        if(previous != null) {
+            bytes -= previous.length;
+        }
+        bytes += data.length;
+
+        final Iterator<byte[]> it = entries.values().iterator();
+        while(bytes > maxBytes && it.hasNext()) {
+            bytes -= it.next().length;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+    }
+
+    private static byte[] await(final CompletableFuture<byte[]> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rendition");
+        }
+        catch(final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Removes all the cached renditions. Counters are not reset.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Returns the number of requests served from the cache or by waiting for
+     * a concurrent request for the same rendition.
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that produced the rendition or loaded
+     * it from the store.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of renditions evicted to keep the cache within its
+     * maximum size.
+     *
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the total size of the cached images.
+     *
+     * @return size in bytes
+     */
+    public synchronized long getSize() {
+        return bytes;
+    }
+
+    /**
+     * Returns the number of cached renditions.
+     *
+     * @return number of cached renditions
+     */
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+
+    @Override
+    public String toString() {
+        return "RenditionCache[entries=" + getEntryCount() + ", bytes=" + getSize() + "/" + maxBytes
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    private static final class Key {
+
+        private final ContentHash hash;
+        private final TransformSpec spec;
+        private final String mimeType;
+        private final EncodeOptions options;
+
+        Key(final ContentHash hash, final Rendition rendition) {
+            this.hash = hash;
+            spec = rendition.getSpec();
+            // format aliases produce the same encoded image
+            mimeType = rendition.getImageFormat().getMimeType();
+            options = rendition.getOptions();
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(this == obj) {
+                return true;
+            }
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key)obj;
+            return hash.equals(other.hash) && spec.equals(other.spec) && mimeType.equals(other.mimeType)
+                    && options.equals(other.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(hash, spec, mimeType, options);
+        }
+    }
+}
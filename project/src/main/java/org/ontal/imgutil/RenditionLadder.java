@@ -0,0 +1,150 @@
+package org.ontal.imgutil;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import org.ontal.imgutil.scaling.Resampler;
+import org.ontal.imgutil.scaling.ScalingPlan;
+import org.ontal.imgutil.scaling.TransformImage;
+
+/**
+ * Produces several transformations of the same input image. Transformations
+ * are performed from the biggest to the smallest one, each of them
+ * resampling the smallest already scaled image that is still big enough
+ * instead of the full size input image. Only the unsharpened images
+ * resampled with the default or the Lanczos filter are reused as sources,
+ * other qualities and the sharpening would leak into the smaller images.
+ */
+final class RenditionLadder {
+
+    /**
+     * Minimum ratio between an intermediate image and the target dimensions
+     * for the intermediate image to be used as a resampling source.
+     */
+    static final int CASCADE_FACTOR = 2;
+
+    private final BufferedImage inputImage;
+    private final Resampler resampler;
+    private final List<BufferedImage> intermediates = new ArrayList<>();
+
+    RenditionLadder(final BufferedImage inputImage, final Resampler resampler) {
+        this.inputImage = inputImage;
+        this.resampler = resampler;
+    }
+
+    /**
+     * Performs all the provided transformations.
+     *
+     * @param specs transformation specs
+     * @return transformed images in the same order as the specs
+     */
+    List<BufferedImage> transform(final List<TransformSpec> specs) {
+        final ScalingPlan[] plans = new ScalingPlan[specs.size()];
+        final Integer[] order = new Integer[specs.size()];
+        for(int i = 0; i < order.length; i++) {
+            plans[i] = specs.get(i).getMode().newTransformer(resampler).plan(inputImage, specs.get(i));
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> areaOf(plans[i])).reversed());
+
+        final BufferedImage[] images = new BufferedImage[specs.size()];
+        final List<BufferedImage> scaledImages = new ArrayList<>(specs.size());
+        for(final int i : order) {
+            final TransformImage transformer = specs.get(i).getMode().newTransformer(resampler);
+            final BufferedImage scaledImage = transformer.scale(findSource(plans[i]), plans[i]);
+            images[i] = transformer.compose(scaledImage, plans[i]);
+
+            if(scaledImage != inputImage) {
+                scaledImages.add(scaledImage);
+                if(isCascadeSource(transformer, plans[i]) && keepsRatio(scaledImage)) {
+                    intermediates.add(scaledImage);
+                }
+            }
+        }
+        if(resampler.getRasterPool() != null) {
+            release(scaledImages, images);
+        }
+        return Arrays.asList(images);
+    }
+
+    /**
+     * Returns the scaled images not shared with any of the output images to
+     * the raster pool.
+     *
+     * @param scaledImages scaled images
+     * @param images output images
+     */
+    private void release(final List<BufferedImage> scaledImages, final BufferedImage[] images) {
+        for(final BufferedImage scaledImage : scaledImages) {
+            boolean shared = false;
+            for(final BufferedImage image : images) {
+                shared |= image.getRaster().getDataBuffer() == scaledImage.getRaster().getDataBuffer();
+            }
+            if(!shared) {
+                resampler.getRasterPool().release(scaledImage);
+            }
+        }
+    }
+
+    /**
+     * Finds the smallest available image that can be used as a resampling
+     * source for the provided plan.
+     *
+     * @param plan scaling plan
+     * @return resampling source
+     */
+    private BufferedImage findSource(final ScalingPlan plan) {
+        if(plan.getSpec().getMode() == TransformSpec.Mode.TILE) {
+            return inputImage;
+        }
+
+        BufferedImage source = inputImage;
+        for(final BufferedImage image : intermediates) {
+            if(image.getWidth() >= plan.getScaledWidth() * CASCADE_FACTOR
+                    && image.getHeight() >= plan.getScaledHeight() * CASCADE_FACTOR
+                    && areaOf(image) < areaOf(source)) {
+                source = image;
+            }
+        }
+        return source;
+    }
+
+    /**
+     * Checks if the image scaled with the provided plan can be used as a
+     * resampling source of the smaller transformations, i.e. it was resampled
+     * with the default or the Lanczos filter and not sharpened.
+     *
+     * @param transformer transformer of the plan
+     * @param plan scaling plan
+     * @return <code>true</code> if the scaled image can be reused, otherwise <code>false</code>
+     */
+    private static boolean isCascadeSource(final TransformImage transformer, final ScalingPlan plan) {
+        final TransformSpec.Quality quality = plan.getSpec().getQuality();
+        return (quality == TransformSpec.Quality.DEFAULT || quality == TransformSpec.Quality.LANCZOS)
+                && transformer.getSharpeningAmount(plan) == 0f;
+    }
+
+    private static long areaOf(final ScalingPlan plan) {
+        return (long)plan.getScaledWidth() * plan.getScaledHeight();
+    }
+
+    private static long areaOf(final BufferedImage image) {
+        return (long)image.getWidth() * image.getHeight();
+    }
+
+    /**
+     * Checks if the scaled image keeps the input image ratio, allowing one
+     * pixel rounding error.
+     *
+     * @param image scaled image
+     * @return <code>true</code> if the ratio is the same, otherwise <code>false</code>
+     */
+    private boolean keepsRatio(final BufferedImage image) {
+        final long expected = (long)image.getHeight() * inputImage.getWidth();
+        final long actual = (long)image.getWidth() * inputImage.getHeight();
+        return Math.abs(expected - actual) <= Math.max(inputImage.getWidth(), inputImage.getHeight());
+    }
+}
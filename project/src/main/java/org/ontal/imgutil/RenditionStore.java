@@ -0,0 +1,506 @@
+package org.ontal.imgutil;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ontal.imgutil.scaling.Resampler;
+
+/**
+ * Persistent store of encoded renditions in a content addressed directory
+ * layout: every rendition is kept in a file named after the rendition
+ * description inside a directory named after the content hash of the input
+ * image bytes. Stored renditions survive restarts and can be shared by
+ * several processes using the same directory, since the files are written
+ * into temporary files first and then atomically moved into place.
+ * <br><br>
+ * Stored renditions are served by memory mapping or transferring the files
+ * straight into a channel, without decoding anything. The total size of the
+ * stored files is kept under a cap by a background thread removing the
+ * least recently used files, whose modification time is refreshed when they
+ * are served.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * final RenditionStore store = new RenditionStore(Paths.get("/var/cache/renditions"), 10L * 1024 * 1024 * 1024);
+ * store.transferTo(originalImageBytes, new Rendition(TransformSpec.adjust(200, 200), ImageFormat.JPG), socketChannel);
+ * </pre>
+ */
+public final class RenditionStore implements Closeable {
+
+    private final static Logger log = Logger.getLogger(RenditionStore.class.getName());
+
+    /**
+     * Interval between full directory scans correcting the tracked size,
+     * e.g. for files written by other processes, and evicting files if
+     * needed.
+     */
+    static final long EVICTION_INTERVAL_SECONDS = 60;
+
+    /**
+     * Fraction of the maximum size the store is trimmed down to when it
+     * exceeds the maximum size.
+     */
+    static final double EVICTION_WATERMARK = 0.9;
+
+    private static final String TEMP_SUFFIX = ".tmp";
+    private static final long TOUCH_INTERVAL_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+    private final Path directory;
+    private final long maxBytes;
+    private final Resampler resampler;
+
+    private final ConcurrentMap<Path, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+    private final AtomicLong size = new AtomicLong();
+    private final AtomicBoolean evictionScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService evictor;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Creates store keeping the renditions in the provided directory.
+     *
+     * @param directory store directory path, created if it doesn't exist
+     * @param maxBytes maximum total size of the stored files in bytes
+     * @throws IOException if the directory can't be created
+     */
+    public RenditionStore(final Path directory, final long maxBytes) throws IOException {
+        this(directory, maxBytes, Resampler.getDefault());
+    }
+
+    /**
+     * Creates store keeping the renditions in the provided directory and
+     * producing the missing ones with the provided resampler.
+     *
+     * @param directory store directory path, created if it doesn't exist
+     * @param maxBytes maximum total size of the stored files in bytes
+     * @param resampler resampler
+     * @throws IOException if the directory can't be created
+     */
+    public RenditionStore(final Path directory, final long maxBytes, final Resampler resampler) throws IOException {
+        if(directory == null) {
+            throw new IllegalArgumentException("Directory argument cannot be null");
+        }
+        if(maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid maximum size argument");
+        }
+        if(resampler == null) {
+            throw new IllegalArgumentException("Resampler argument cannot be null");
+        }
+        this.directory = Files.createDirectories(directory);
+        this.maxBytes = maxBytes;
+        this.resampler = resampler;
+        this.evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+            final Thread thread = new Thread(r, "rendition-store-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        evictor.scheduleWithFixedDelay(this::evict, 0, EVICTION_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns the encoded rendition of the provided image as a read-only
+     * memory mapped buffer, producing and storing it if it's not stored yet.
+     * A just produced rendition is returned from memory.
+     *
+     * @param imageBytes input image bytes
+     * @param rendition rendition description
+     * @return encoded image bytes
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public ByteBuffer get(final byte[] imageBytes, final Rendition rendition) throws IOException {
+        return read(imageBytes, rendition, (path, data) -> {
+            if(data != null) {
+                return ByteBuffer.wrap(data).asReadOnlyBuffer();
+            }
+            try(final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            }
+        });
+    }
+
+    /**
+     * Transfers the encoded rendition of the provided image into the
+     * provided channel, producing and storing it if it's not stored yet.
+     * The channel is not closed.
+     *
+     * @param imageBytes input image bytes
+     * @param rendition rendition description
+     * @param target target channel
+     * @return number of bytes transferred
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public long transferTo(final byte[] imageBytes, final Rendition rendition, final WritableByteChannel target)
+            throws IOException {
+        if(target == null) {
+            throw new IllegalArgumentException("Target channel argument cannot be null");
+        }
+        return read(imageBytes, rendition, (path, data) -> {
+            if(data != null) {
+                final ByteBuffer buffer = ByteBuffer.wrap(data);
+                while(buffer.hasRemaining()) {
+                    target.write(buffer);
+                }
+                return (long)data.length;
+            }
+            try(final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                final long length = channel.size();
+                long position = 0;
+                while(position < length) {
+                    position += channel.transferTo(position, length - position, target);
+                }
+                return length;
+            }
+        });
+    }
+
+    /**
+     * Returns the encoded rendition bytes, producing and storing the
+     * rendition if it's not stored yet.
+     *
+     * @param hash content hash of the input image bytes
+     * @param rendition rendition description
+     * @param imageBytes input image bytes
+     * @return encoded image bytes
+     * @throws IOException if an error occurs while reading or writing
+     */
+    byte[] load(final ContentHash hash, final Rendition rendition, final byte[] imageBytes) throws IOException {
+        return read(hash, rendition, imageBytes, (path, data) -> data != null ? data : Files.readAllBytes(path));
+    }
+
+    private <T> T read(final byte[] imageBytes, final Rendition rendition, final FileReader<T> reader)
+            throws IOException {
+        if(imageBytes == null) {
+            throw new IllegalArgumentException("Image bytes argument cannot be null");
+        }
+        if(rendition == null) {
+            throw new IllegalArgumentException("Rendition argument cannot be null");
+        }
+        return read(ContentHash.of(imageBytes), rendition, imageBytes, reader);
+    }
+
+    private <T> T read(final ContentHash hash, final Rendition rendition, final byte[] imageBytes,
+            final FileReader<T> reader) throws IOException {
+        final Path path = resolve(hash, rendition);
+        for(int attempt = 0;; attempt++) {
+            final byte[] data = obtain(path, rendition, imageBytes);
+            try {
+                return reader.read(path, data);
+            }
+            catch(final NoSuchFileException e) {
+                // evicted between the lookup and the read, produce it once more
+                if(attempt > 0) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Makes sure the rendition is stored, producing it if needed.
+     * Concurrent requests for the same missing rendition are coalesced.
+     *
+     * @return produced rendition bytes or <code>null</code> if the rendition was already stored
+     */
+    private byte[] obtain(final Path path, final Rendition rendition, final byte[] imageBytes) throws IOException {
+        if(isStored(path)) {
+            hits.incrementAndGet();
+            return null;
+        }
+
+        final CompletableFuture<Void> future = new CompletableFuture<>();
+        final CompletableFuture<Void> running = pending.putIfAbsent(path, future);
+        if(running != null) {
+            hits.incrementAndGet();
+            await(running);
+            return null;
+        }
+
+        try {
+            byte[] data = null;
+            if(isStored(path)) {
+                hits.incrementAndGet();
+            }
+            else {
+                misses.incrementAndGet();
+                data = ImageScaler.produce(imageBytes, rendition, resampler);
+                write(path, data);
+            }
+            future.complete(null);
+            return data;
+        }
+        catch(final IOException | RuntimeException | Error e) {
+            future.completeExceptionally(e);
+            throw e;
+        }
+        finally {
+            pending.remove(path, future);
+        }
+    }
+
+    private Path resolve(final ContentHash hash, final Rendition rendition) {
+        final String name = hash.toString();
+        return directory.resolve(name.substring(0, 2)).resolve(name).resolve(fileName(rendition));
+    }
+
+    /**
+     * Builds a portable file name from the rendition description. The
+     * extension is the MIME subtype of the format, so the format aliases
+     * producing the same bytes, e.g. jpg and jpeg, share the same file.
+     */
+    private static String fileName(final Rendition rendition) {
+        final StringBuilder sb = new StringBuilder(sanitize(rendition.getSpec().toString()));
+        if(!rendition.getOptions().equals(EncodeOptions.DEFAULT)) {
+            sb.append('_').append(sanitize(rendition.getOptions().toString()));
+        }
+        final String mimeType = rendition.getImageFormat().getMimeType();
+        return sb.append('.').append(mimeType.substring(mimeType.indexOf('/') + 1)).toString();
+    }
+
+    private static String sanitize(final String value) {
+        final char[] chars = value.toCharArray();
+        for(int i = 0; i < chars.length; i++) {
+            final char c = chars[i];
+            if(!(c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z' || c >= '0' && c <= '9')) {
+                chars[i] = '_';
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Checks if the rendition file exists, refreshing its modification time
+     * if it hasn't been refreshed recently.
+     */
+    private boolean isStored(final Path path) throws IOException {
+        try {
+            final long modified = Files.readAttributes(path, BasicFileAttributes.class).lastModifiedTime().toMillis();
+            final long now = System.currentTimeMillis();
+            if(now - modified > TOUCH_INTERVAL_MILLIS) {
+                Files.setLastModifiedTime(path, FileTime.fromMillis(now));
+            }
+            return true;
+        }
+        catch(final NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private void write(final Path path, final byte[] data) throws IOException {
+        final Path temp = Files.createTempFile(Files.createDirectories(path.getParent()),
+                path.getFileName().toString(), TEMP_SUFFIX);
+        try {
+            try(final FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                final ByteBuffer buffer = ByteBuffer.wrap(data);
+                while(buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            try {
+                Files.move(temp, path, StandardCopyOption.ATOMIC_MOVE);
+            }
+            catch(final AtomicMoveNotSupportedException e) {
+                Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+        catch(final IOException | RuntimeException e) {
+            Files.deleteIfExists(temp);
+            throw e;
+        }
+
+        if(size.addAndGet(data.length) > maxBytes && evictionScheduled.compareAndSet(false, true)) {
+            try {
+                evictor.execute(this::evict);
+            }
+            catch(final RuntimeException e) {
+                // closed store, nothing to schedule on
+                evictionScheduled.set(false);
+            }
+        }
+    }
+
+    /**
+     * Scans the store directory updating the tracked size, removes stale
+     * temporary files and evicts the least recently used renditions if the
+     * store is over its maximum size.
+     */
+    private void evict() {
+        try {
+            final List<StoredFile> files = new ArrayList<>();
+            final long now = System.currentTimeMillis();
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+
+                @Override
+                public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) throws IOException {
+                    final long modified = attrs.lastModifiedTime().toMillis();
+                    if(!file.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                        files.add(new StoredFile(file, attrs.size(), modified));
+                    }
+                    else if(now - modified > STALE_TEMP_MILLIS) {
+                        Files.deleteIfExists(file);
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(final Path file, final IOException e) {
+                    // removed concurrently
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+
+            long total = files.stream().mapToLong(f -> f.size).sum();
+            if(total > maxBytes) {
+                files.sort(Comparator.comparingLong(f -> f.modified));
+                final long target = (long)(maxBytes * EVICTION_WATERMARK);
+                for(final StoredFile file : files) {
+                    if(total <= target) {
+                        break;
+                    }
+                    try {
+                        if(Files.deleteIfExists(file.path)) {
+                            evictions.incrementAndGet();
+                        }
+                        total -= file.size;
+                    }
+                    catch(final IOException e) {
+                        log.log(Level.FINE, "Failed to evict " + file.path + ": " + e.getMessage(), e);
+                    }
+                }
+            }
+            size.set(total);
+        }
+        catch(final IOException | RuntimeException e) {
+            log.log(Level.WARNING, "Failed to scan rendition store " + directory + ": " + e.getMessage(), e);
+        }
+        finally {
+            evictionScheduled.set(false);
+        }
+    }
+
+    private static <T> T await(final CompletableFuture<T> future) throws IOException {
+        try {
+            return future.get();
+        }
+        catch(final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for the rendition");
+        }
+        catch(final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if(cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            }
+            if(cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * Returns the number of requests served from stored files or by waiting
+     * for a concurrent request for the same rendition.
+     *
+     * @return hit count
+     */
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of requests that produced the rendition.
+     *
+     * @return miss count
+     */
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of files evicted to keep the store within its
+     * maximum size.
+     *
+     * @return eviction count
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
+
+    /**
+     * Returns the approximate total size of the stored files, as of the last
+     * directory scan plus the files written since then.
+     *
+     * @return size in bytes
+     */
+    public long getSize() {
+        return size.get();
+    }
+
+    /**
+     * Stops the background eviction. Stored files are kept.
+     */
+    @Override
+    public void close() {
+        evictor.shutdownNow();
+    }
+
+    @Override
+    public String toString() {
+        return "RenditionStore[" + directory + ", bytes=" + size + "/" + maxBytes
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+
+    /**
+     * Reads the rendition either from the file or from the just produced
+     * bytes if available.
+     */
+    @FunctionalInterface
+    private interface FileReader<T> {
+
+        T read(Path path, byte[] data) throws IOException;
+    }
+
+    private static final class StoredFile {
+
+        private final Path path;
+        private final long size;
+        private final long modified;
+
+        StoredFile(final Path path, final long size, final long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+}
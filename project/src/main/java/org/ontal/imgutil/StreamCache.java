@@ -0,0 +1,54 @@
+package org.ontal.imgutil;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.FileCacheImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Cache holding the data read from an input stream, which image readers
+ * need as they seek back within the image data. Unlike
+ * {@link ImageIO#setUseCache(boolean)} the cache is selected per scaler
+ * and applies to the input streams only: image bytes, buffers and files are
+ * always read directly, without any cache.
+ */
+public enum StreamCache {
+
+    /**
+     * Keeps the read data in memory, no temporary files are created.
+     */
+    MEMORY {
+
+        @Override
+        ImageInputStream open(final InputStream inputStream) {
+            return new MemoryCacheImageInputStream(inputStream);
+        }
+    },
+
+    /**
+     * Keeps the read data in a temporary file in the ImageIO cache
+     * directory, for streams of images too big to have their encoded data
+     * held in memory.
+     */
+    FILE {
+
+        @Override
+        ImageInputStream open(final InputStream inputStream) throws IOException {
+            return new FileCacheImageInputStream(inputStream, ImageIO.getCacheDirectory());
+        }
+    };
+
+    /**
+     * Creates an image input stream reading the provided input stream
+     * through this cache. The input stream is not closed with the image
+     * input stream.
+     *
+     * @param inputStream input stream
+     * @return image input stream
+     * @throws IOException if the cache file can't be created
+     */
+    abstract ImageInputStream open(InputStream inputStream) throws IOException;
+}
@@ -0,0 +1,273 @@
+package org.ontal.imgutil;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.ontal.imgutil.scaling.BandResampler;
+import org.ontal.imgutil.scaling.Resampler;
+import org.ontal.imgutil.scaling.ScalingPlan;
+import org.ontal.imgutil.scaling.SourceWindow;
+import org.ontal.imgutil.scaling.TransformImage;
+
+/**
+ * Scaling of images too big to be decoded into memory, e.g. gigapixel
+ * scans, maps or stitched panoramas, for the Expand, Limit and Fit
+ * transformations. The input image is decoded in horizontal bands using the
+ * image reader source region, with source subsampling when the scaled image
+ * is small enough, and the bands are scaled by a {@link BandResampler}
+ * holding only the rows the resampling filter needs, so the memory used is
+ * proportional to a band and to the scaled image rather than to the input
+ * image. The produced images are identical to the ones produced by an
+ * {@link ImageScaler} created for the spec, i.e. with
+ * {@link ImageScaler#ImageScaler(byte[], TransformSpec)}, which decodes the
+ * image with the same subsampling, except for the nearest neighbour,
+ * bilinear and progressive qualities which need the whole image and fall
+ * back to the closest resampling filter. They differ from the ones scaled
+ * from the fully decoded image once the subsampling applies.
+ * <br><br>
+ * When encoding into PNG without interlacing and the output image is the
+ * scaled image itself, i.e. for the Expand, Limit and borderless Fit
+ * transformations without sharpening, the scaled rows are produced while
+ * the image writer asks for them, so the scaled image isn't held in memory
+ * either.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * try(final OutputStream os = Files.newOutputStream(Paths.get("/tmp/map-preview.png"))) {
+ *     new StreamingScaler()
+ *             .bandPixels(32_000_000)
+ *             .transform(Paths.get("/tmp/map.tif"), TransformSpec.limit(Dimension.WIDTH, 8192),
+ *                     ImageFormat.PNG, EncodeOptions.DEFAULT, os);
+ * }
+ * </pre>
+ * A configured scaler can be used for any number of images, including
+ * concurrently.
+ */
+public class StreamingScaler {
+
+    /**
+     * Default maximum number of decoded pixels per band.
+     */
+    public static final long DEFAULT_BAND_PIXELS = 16_000_000;
+
+    /**
+     * Number of scaled rows produced at a time for the image writer.
+     */
+    static final int STRIP_ROWS = 64;
+
+    private volatile long bandPixels = DEFAULT_BAND_PIXELS;
+    private volatile Resampler resampler = Resampler.getDefault();
+    private volatile StreamCache streamCache = StreamCache.MEMORY;
+
+    /**
+     * Sets the maximum number of decoded pixels per band. Taller bands use
+     * more memory but are decoded faster, as the readers of the sequential
+     * formats decode the rows above every band again. Default is
+     * {@link #DEFAULT_BAND_PIXELS}.
+     *
+     * @param pixels band pixels
+     * @return streaming scaler
+     */
+    public StreamingScaler bandPixels(final long pixels) {
+        if(pixels <= 0) {
+            throw new IllegalArgumentException("Invalid band pixels argument");
+        }
+        bandPixels = pixels;
+        return this;
+    }
+
+    /**
+     * Sets the resampler whose filter scales the images. Default is the
+     * default resampler.
+     *
+     * @param resampler resampler
+     * @return streaming scaler
+     */
+    public StreamingScaler resampler(final Resampler resampler) {
+        if(resampler == null) {
+            throw new IllegalArgumentException("Resampler argument cannot be null");
+        }
+        this.resampler = resampler;
+        return this;
+    }
+
+    /**
+     * Sets the cache holding the data read from the input streams while the
+     * bands are decoded. The readers of the sequential formats seek back to
+     * the start of the image data for every band, so the whole encoded image
+     * ends up in the cache. Default is {@link StreamCache#MEMORY}, the
+     * {@link StreamCache#FILE} cache suits encoded images too big for the
+     * heap. Files are always read directly.
+     *
+     * @param cache input stream cache
+     * @return streaming scaler
+     */
+    public StreamingScaler streamCache(final StreamCache cache) {
+        if(cache == null) {
+            throw new IllegalArgumentException("Stream cache argument cannot be null");
+        }
+        streamCache = cache;
+        return this;
+    }
+
+    /**
+     * Reads the image from the provided file path in bands and transforms
+     * it as described by the spec.
+     *
+     * @param imagePath image file path
+     * @param spec Expand, Limit or Fit transformation spec
+     * @return output image
+     * @throws IOException if an error occurs while reading
+     */
+    public BufferedImage transform(final Path imagePath, final TransformSpec spec) throws IOException {
+        checkSpec(spec);
+        try(final ImageInputStream iis = ImageDecoder.stream(imagePath)) {
+            return transform(iis, spec);
+        }
+    }
+
+    /**
+     * Reads the image from the provided input stream in bands and
+     * transforms it as described by the spec. The stream is closed.
+     *
+     * @param imageInputStream image input stream
+     * @param spec Expand, Limit or Fit transformation spec
+     * @return output image
+     * @throws IOException if an error occurs while reading
+     */
+    public BufferedImage transform(final InputStream imageInputStream, final TransformSpec spec) throws IOException {
+        checkSpec(spec);
+        try(final InputStream is = imageInputStream;
+                final ImageInputStream iis = ImageDecoder.stream(is, streamCache)) {
+            return transform(iis, spec);
+        }
+    }
+
+    /**
+     * Reads the image from the provided file path in bands, transforms it as
+     * described by the spec and writes it into the provided output stream,
+     * which is flushed but not closed.
+     *
+     * @param imagePath image file path
+     * @param spec Expand, Limit or Fit transformation spec
+     * @param imageFormat output image format
+     * @param options encoding options
+     * @param outputStream output stream
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public void transform(final Path imagePath, final TransformSpec spec, final ImageFormat imageFormat,
+            final EncodeOptions options, final OutputStream outputStream) throws IOException {
+        checkSpec(spec);
+        try(final ImageInputStream iis = ImageDecoder.stream(imagePath)) {
+            transform(iis, spec, imageFormat, options, outputStream);
+        }
+    }
+
+    /**
+     * Reads the image from the provided input stream in bands, transforms it
+     * as described by the spec and writes it into the provided output
+     * stream, which is flushed but not closed. The input stream is closed.
+     *
+     * @param imageInputStream image input stream
+     * @param spec Expand, Limit or Fit transformation spec
+     * @param imageFormat output image format
+     * @param options encoding options
+     * @param outputStream output stream
+     * @throws IOException if an error occurs while reading or writing
+     */
+    public void transform(final InputStream imageInputStream, final TransformSpec spec, final ImageFormat imageFormat,
+            final EncodeOptions options, final OutputStream outputStream) throws IOException {
+        checkSpec(spec);
+        try(final InputStream is = imageInputStream;
+                final ImageInputStream iis = ImageDecoder.stream(is, streamCache)) {
+            transform(iis, spec, imageFormat, options, outputStream);
+        }
+    }
+
+    private BufferedImage transform(final ImageInputStream iis, final TransformSpec spec) throws IOException {
+        final TransformImage transformer = spec.getMode().newTransformer(resampler);
+        try(final BandDecoder decoder = open(iis, transformer, spec)) {
+            final ScalingPlan plan = plan(decoder, transformer, spec);
+            return transformer.compose(transformer.scale(decoder, plan), plan);
+        }
+    }
+
+    private void transform(final ImageInputStream iis, final TransformSpec spec, final ImageFormat imageFormat,
+            final EncodeOptions options, final OutputStream outputStream) throws IOException {
+        if(imageFormat == null) {
+            throw new IllegalArgumentException("Image format argument cannot be null");
+        }
+        if(outputStream == null) {
+            throw new IllegalArgumentException("Output stream argument cannot be null");
+        }
+
+        final TransformImage transformer = spec.getMode().newTransformer(resampler);
+        try(final BandDecoder decoder = open(iis, transformer, spec)) {
+            final ScalingPlan plan = plan(decoder, transformer, spec);
+            final boolean progressive = options != null && options.isProgressive();
+            final boolean composed = spec.getMode() == TransformSpec.Mode.FIT && !spec.isBorderless();
+            if(imageFormat != ImageFormat.PNG || progressive || composed || transformer.getSharpeningAmount(plan) > 0f) {
+                ImageEncoder.write(transformer.compose(transformer.scale(decoder, plan), plan),
+                        imageFormat, options, outputStream);
+                return;
+            }
+
+            try {
+                ImageEncoder.write(new BandImage(transformer.bands(decoder, plan), STRIP_ROWS),
+                        imageFormat, options, outputStream);
+            }
+            catch(final UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    /**
+     * Plans the transformation of the whole source image, as the
+     * {@link ImageScaler} created for the spec does, with the subsampled
+     * image as the source window.
+     */
+    private static ScalingPlan plan(final BandDecoder decoder, final TransformImage transformer,
+            final TransformSpec spec) throws IOException {
+        return transformer.plan(decoder.getSourceWidth(), decoder.getSourceHeight(), decoder.getImageType(), spec)
+                .withSourceWindow(SourceWindow.of(decoder.getWidth(), decoder.getHeight()));
+    }
+
+    /**
+     * Creates the band decoder subsampling the image according to the
+     * dimensions it is scaled to.
+     */
+    private BandDecoder open(final ImageInputStream iis, final TransformImage transformer, final TransformSpec spec)
+            throws IOException {
+        final ImageReader reader = ImageDecoder.open(iis);
+        try {
+            final int sourceWidth = reader.getWidth(0);
+            final int sourceHeight = reader.getHeight(0);
+            final ScalingPlan plan = transformer.plan(sourceWidth, sourceHeight, BufferedImage.TYPE_INT_RGB, spec);
+            final int subsampling = ImageDecoder.calculateSubsampling(sourceWidth, sourceHeight,
+                    plan.getScaledWidth(), plan.getScaledHeight());
+            return new BandDecoder(reader, subsampling, bandPixels, spec.getMode());
+        }
+        catch(final IOException | RuntimeException e) {
+            reader.dispose();
+            throw e;
+        }
+    }
+
+    private static void checkSpec(final TransformSpec spec) {
+        if(spec == null) {
+            throw new IllegalArgumentException("Transformation spec argument cannot be null");
+        }
+        if(spec.getMode() != TransformSpec.Mode.EXPAND && spec.getMode() != TransformSpec.Mode.LIMIT
+                && spec.getMode() != TransformSpec.Mode.FIT) {
+            throw new IllegalArgumentException("Streaming not supported for " + spec.getMode() + " transformations");
+        }
+    }
+}
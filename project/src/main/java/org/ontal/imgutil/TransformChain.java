@@ -0,0 +1,92 @@
+package org.ontal.imgutil;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Immutable sequence of scaling transformations applied one after another,
+ * e.g. cropping the image to a square, limiting its width and fitting it
+ * onto a canvas. The steps are composed into a single transformation, so
+ * the input image is resampled only once and no intermediate images are
+ * produced, see {@link org.ontal.imgutil.scaling.ChainImage}.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * new ImageScaler(Paths.get("/tmp/originalImage.jpg"))
+ *         .transform(TransformChain.of(TransformSpec.adjust(600, 600))
+ *                 .then(TransformSpec.limit(Dimension.WIDTH, 400))
+ *                 .then(TransformSpec.fit(500, 500, new int[] { 192, 205, 224 })))
+ *         .getImage();
+ * </pre>
+ */
+public final class TransformChain {
+
+    private final List<TransformSpec> steps;
+
+    private TransformChain(final List<TransformSpec> steps) {
+        this.steps = Collections.unmodifiableList(steps);
+    }
+
+    /**
+     * Creates transformation chain of the provided steps.
+     *
+     * @param steps transformation specs applied one after another
+     * @return transformation chain
+     */
+    public static TransformChain of(final TransformSpec... steps) {
+        if(steps == null || steps.length == 0 || Arrays.asList(steps).contains(null)) {
+            throw new IllegalArgumentException("Invalid transformation steps argument");
+        }
+        return new TransformChain(new ArrayList<>(Arrays.asList(steps)));
+    }
+
+    /**
+     * Returns the same chain followed by the provided step.
+     *
+     * @param spec transformation spec
+     * @return transformation chain
+     */
+    public TransformChain then(final TransformSpec spec) {
+        if(spec == null) {
+            throw new IllegalArgumentException("Transformation spec argument cannot be null");
+        }
+        final List<TransformSpec> chained = new ArrayList<>(steps);
+        chained.add(spec);
+        return new TransformChain(chained);
+    }
+
+    /**
+     * Returns the transformation steps.
+     *
+     * @return transformation specs
+     */
+    public List<TransformSpec> getSteps() {
+        return steps;
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof TransformChain)) {
+            return false;
+        }
+        return steps.equals(((TransformChain)obj).steps);
+    }
+
+    @Override
+    public int hashCode() {
+        return steps.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        return steps.stream()
+                .map(TransformSpec::toString)
+                .collect(Collectors.joining(" > "));
+    }
+}
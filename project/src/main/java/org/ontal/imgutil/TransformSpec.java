@@ -0,0 +1,532 @@
+package org.ontal.imgutil;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.Function;
+
+import org.ontal.imgutil.scaling.AdjustImage;
+import org.ontal.imgutil.scaling.ExpandImage;
+import org.ontal.imgutil.scaling.FitImage;
+import org.ontal.imgutil.scaling.LimitImage;
+import org.ontal.imgutil.scaling.Resampler;
+import org.ontal.imgutil.scaling.TileImage;
+import org.ontal.imgutil.scaling.TransformImage;
+
+/**
+ * Immutable scaling transformation description. Holds the transformation
+ * type together with all the parameters required to perform it, so the same
+ * transformation can be described and validated once and applied to any
+ * number of images from any number of threads.
+ */
+public final class TransformSpec {
+
+    /**
+     * Scaling transformation types together with their shared stateless
+     * transformers.
+     */
+    public enum Mode {
+        FIT(FitImage::new),
+        EXPAND(ExpandImage::new),
+        ADJUST(AdjustImage::new),
+        LIMIT(LimitImage::new),
+        TILE(TileImage::new);
+
+        private final Function<Resampler, TransformImage> factory;
+        private final TransformImage transformer;
+
+        private Mode(final Function<Resampler, TransformImage> factory) {
+            this.factory = factory;
+            this.transformer = factory.apply(Resampler.getDefault());
+        }
+
+        /**
+         * Returns the shared transformer implementing this transformation
+         * type with the default resampler.
+         *
+         * @return transformer
+         */
+        public TransformImage getTransformer() {
+            return transformer;
+        }
+
+        /**
+         * Creates a transformer implementing this transformation type with
+         * the provided resampler.
+         *
+         * @param resampler resampler
+         * @return transformer
+         */
+        public TransformImage newTransformer(final Resampler resampler) {
+            return resampler == Resampler.getDefault() ? transformer : factory.apply(resampler);
+        }
+    }
+
+    /**
+     * Resampling quality, trading the output quality for speed.
+     */
+    public enum Quality {
+
+        /**
+         * Filter of the resampler the transformer uses, Lanczos3 by default.
+         */
+        DEFAULT,
+
+        /**
+         * Nearest neighbour sampling, the fastest and the most aliased.
+         */
+        NEAREST,
+
+        /**
+         * Bilinear interpolation of the four nearest source pixels.
+         */
+        BILINEAR,
+
+        /**
+         * Box filter, averaging the covered source pixels when downscaling.
+         */
+        BOX,
+
+        /**
+         * Bicubic filter.
+         */
+        BICUBIC,
+
+        /**
+         * Lanczos3 filter, the sharpest and the slowest.
+         */
+        LANCZOS,
+
+        /**
+         * Repeated 2x box downscales while the image is at least twice the
+         * scaled dimensions followed by a final pass with the default filter.
+         */
+        PROGRESSIVE
+    }
+
+    /**
+     * Unsharp mask applied to the scaled image.
+     */
+    public enum Sharpening {
+
+        /**
+         * Soft mask applied to the images becoming too small only.
+         */
+        AUTO(0.15f),
+
+        /**
+         * No sharpening.
+         */
+        NONE(0f),
+
+        /**
+         * Soft mask.
+         */
+        SOFT(0.15f),
+
+        /**
+         * Normal mask.
+         */
+        NORMAL(0.3f),
+
+        /**
+         * Strong mask.
+         */
+        STRONG(0.45f);
+
+        private final float amount;
+
+        private Sharpening(final float amount) {
+            this.amount = amount;
+        }
+
+        /**
+         * Returns the unsharp mask amount.
+         *
+         * @return amount, <code>0</code> for no sharpening
+         */
+        public float getAmount() {
+            return amount;
+        }
+    }
+
+    private final Mode mode;
+    private final int width;
+    private final int height;
+    private final Dimension dimension;
+    private final int size;
+    private final int[] rgb;
+    private final boolean borderless;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final Quality quality;
+    private final Sharpening sharpening;
+
+    private TransformSpec(final Mode mode, final int width, final int height,
+            final Dimension dimension, final int size, final int[] rgb) {
+        this(mode, width, height, dimension, size, rgb, false, 0, 0);
+    }
+
+    private TransformSpec(final Mode mode, final int width, final int height,
+            final Dimension dimension, final int size, final int[] rgb, final boolean borderless,
+            final int tileWidth, final int tileHeight) {
+        this(mode, width, height, dimension, size, rgb, borderless, tileWidth, tileHeight,
+                Quality.DEFAULT, Sharpening.AUTO);
+    }
+
+    private TransformSpec(final Mode mode, final int width, final int height,
+            final Dimension dimension, final int size, final int[] rgb, final boolean borderless,
+            final int tileWidth, final int tileHeight, final Quality quality, final Sharpening sharpening) {
+        this.mode = mode;
+        this.width = width;
+        this.height = height;
+        this.dimension = dimension;
+        this.size = size;
+        this.rgb = rgb == null ? null : rgb.clone();
+        this.borderless = borderless;
+        this.tileWidth = tileWidth;
+        this.tileHeight = tileHeight;
+        this.quality = quality;
+        this.sharpening = sharpening;
+    }
+
+    /**
+     * Describes a fit transformation using the default background color.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return transformation spec
+     * @see ImageScaler#fit(int, int)
+     */
+    public static TransformSpec fit(final int width, final int height) {
+        return fit(width, height, null);
+    }
+
+    /**
+     * Describes a fit transformation using the provided background color.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @param rgb excess area background color
+     * @return transformation spec
+     * @see ImageScaler#fit(int, int, int[])
+     */
+    public static TransformSpec fit(final int width, final int height, final int[] rgb) {
+        validateDimensions(width, height);
+        if(rgb != null) {
+            if(rgb.length != 3) {
+                throw new IllegalArgumentException("Invalid output rgb argument");
+            }
+            for(int i = 0; i < 3; i++) {
+                if(rgb[i] < 0 || rgb[i] > 255) {
+                    throw new IllegalArgumentException("Invalid output rgb color index");
+                }
+            }
+        }
+        return new TransformSpec(Mode.FIT, width, height, null, 0, rgb);
+    }
+
+    /**
+     * Describes a fit transformation producing the scaled image only,
+     * without the background borders. The position of the scaled image on
+     * the output canvas is available from the scaling plan, e.g. for callers
+     * placing the image onto the background themselves.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return transformation spec
+     * @see ImageScaler#fitBorderless(int, int)
+     * @see ImageScaler#plan(TransformSpec)
+     */
+    public static TransformSpec fitBorderless(final int width, final int height) {
+        validateDimensions(width, height);
+        return new TransformSpec(Mode.FIT, width, height, null, 0, null, true, 0, 0);
+    }
+
+    /**
+     * Describes an expand transformation.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return transformation spec
+     * @see ImageScaler#expand(int, int)
+     */
+    public static TransformSpec expand(final int width, final int height) {
+        validateDimensions(width, height);
+        return new TransformSpec(Mode.EXPAND, width, height, null, 0, null);
+    }
+
+    /**
+     * Describes an adjust transformation.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return transformation spec
+     * @see ImageScaler#adjust(int, int)
+     */
+    public static TransformSpec adjust(final int width, final int height) {
+        validateDimensions(width, height);
+        return new TransformSpec(Mode.ADJUST, width, height, null, 0, null);
+    }
+
+    /**
+     * Describes a limit transformation.
+     *
+     * @param dimension limit dimension
+     * @param size dimension size in pixels
+     * @return transformation spec
+     * @see ImageScaler#limit(Dimension, int)
+     */
+    public static TransformSpec limit(final Dimension dimension, final int size) {
+        if(dimension == null) {
+            throw new IllegalArgumentException("Dimension argument cannot be null");
+        }
+        if(size <= 0) {
+            throw new IllegalArgumentException("Invalid dimension size argument");
+        }
+        return new TransformSpec(Mode.LIMIT, 0, 0, dimension, size, null);
+    }
+
+    /**
+     * Describes a tile transformation.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @return transformation spec
+     * @see ImageScaler#tile(int, int)
+     */
+    public static TransformSpec tile(final int width, final int height) {
+        validateDimensions(width, height);
+        return new TransformSpec(Mode.TILE, width, height, null, 0, null);
+    }
+
+    /**
+     * Describes a tile transformation scaling the input image to the
+     * provided tile dimensions before using it as a tile.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     * @param tileWidth tile width in pixels
+     * @param tileHeight tile height in pixels
+     * @return transformation spec
+     * @see ImageScaler#tile(int, int, int, int)
+     */
+    public static TransformSpec tile(final int width, final int height, final int tileWidth, final int tileHeight) {
+        validateDimensions(width, height);
+        if(tileWidth <= 0) {
+            throw new IllegalArgumentException("Invalid tile width argument");
+        }
+        if(tileHeight <= 0) {
+            throw new IllegalArgumentException("Invalid tile height argument");
+        }
+        return new TransformSpec(Mode.TILE, width, height, null, 0, null, false, tileWidth, tileHeight);
+    }
+
+    /**
+     * Returns the same transformation using the provided resampling quality.
+     *
+     * @param quality resampling quality
+     * @return transformation spec
+     */
+    public TransformSpec quality(final Quality quality) {
+        if(quality == null) {
+            throw new IllegalArgumentException("Quality argument cannot be null");
+        }
+        return new TransformSpec(mode, width, height, dimension, size, rgb, borderless, tileWidth, tileHeight,
+                quality, sharpening);
+    }
+
+    /**
+     * Returns the same transformation using the provided sharpening.
+     *
+     * @param sharpening sharpening
+     * @return transformation spec
+     */
+    public TransformSpec sharpening(final Sharpening sharpening) {
+        if(sharpening == null) {
+            throw new IllegalArgumentException("Sharpening argument cannot be null");
+        }
+        return new TransformSpec(mode, width, height, dimension, size, rgb, borderless, tileWidth, tileHeight,
+                quality, sharpening);
+    }
+
+    /**
+     * Validates output dimensions and throws an
+     * {@link IllegalArgumentException} if any of the validations fail.
+     *
+     * @param width output width in pixels
+     * @param height output height in pixels
+     */
+    private static void validateDimensions(final int width, final int height) {
+        if(width <= 0) {
+            throw new IllegalArgumentException("Invalid output width argument");
+        }
+        if(height <= 0) {
+            throw new IllegalArgumentException("Invalid output height argument");
+        }
+    }
+
+    /**
+     * Returns transformation type.
+     *
+     * @return transformation type
+     */
+    public Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns output width, not used by the limit transformation.
+     *
+     * @return output width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns output height, not used by the limit transformation.
+     *
+     * @return output height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns limit dimension, used by the limit transformation only.
+     *
+     * @return limit dimension
+     */
+    public Dimension getDimension() {
+        return dimension;
+    }
+
+    /**
+     * Returns limit dimension size, used by the limit transformation only.
+     *
+     * @return dimension size in pixels
+     */
+    public int getSize() {
+        return size;
+    }
+
+    /**
+     * Returns background color, used by the fit transformation only.
+     *
+     * @return excess area background color or <code>null</code> if the default one is used
+     */
+    public int[] getRgb() {
+        return rgb == null ? null : rgb.clone();
+    }
+
+    /**
+     * Checks if the background borders are left out, used by the fit
+     * transformation only.
+     *
+     * @return <code>true</code> if only the scaled image is produced, otherwise <code>false</code>
+     */
+    public boolean isBorderless() {
+        return borderless;
+    }
+
+    /**
+     * Returns tile width, used by the tile transformation only.
+     *
+     * @return tile width in pixels or <code>0</code> if the input image is not scaled
+     */
+    public int getTileWidth() {
+        return tileWidth;
+    }
+
+    /**
+     * Returns tile height, used by the tile transformation only.
+     *
+     * @return tile height in pixels or <code>0</code> if the input image is not scaled
+     */
+    public int getTileHeight() {
+        return tileHeight;
+    }
+
+    /**
+     * Returns resampling quality.
+     *
+     * @return resampling quality
+     */
+    public Quality getQuality() {
+        return quality;
+    }
+
+    /**
+     * Returns sharpening.
+     *
+     * @return sharpening
+     */
+    public Sharpening getSharpening() {
+        return sharpening;
+    }
+
+    /**
+     * Returns the transformer implementing this transformation.
+     *
+     * @return transformer
+     */
+    public TransformImage getTransformer() {
+        return mode.getTransformer();
+    }
+
+    @Override
+    public boolean equals(final Object obj) {
+        if(this == obj) {
+            return true;
+        }
+        if(!(obj instanceof TransformSpec)) {
+            return false;
+        }
+        final TransformSpec other = (TransformSpec)obj;
+        return mode == other.mode
+                && width == other.width
+                && height == other.height
+                && dimension == other.dimension
+                && size == other.size
+                && Arrays.equals(rgb, other.rgb)
+                && borderless == other.borderless
+                && tileWidth == other.tileWidth
+                && tileHeight == other.tileHeight
+                && quality == other.quality
+                && sharpening == other.sharpening;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Objects.hash(mode, width, height, dimension, size, borderless, tileWidth, tileHeight,
+                quality, sharpening) + Arrays.hashCode(rgb);
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder(describe());
+        if(quality != Quality.DEFAULT) {
+            sb.append(':').append(quality.name().toLowerCase());
+        }
+        if(sharpening != Sharpening.AUTO) {
+            sb.append(":sharpen=").append(sharpening.name().toLowerCase());
+        }
+        return sb.toString();
+    }
+
+    private String describe() {
+        switch(mode) {
+            case FIT:
+                if(borderless) {
+                    return "fit:" + width + "x" + height + ":borderless";
+                }
+                return "fit:" + width + "x" + height + (rgb == null ? "" : ":" + rgb[0] + "," + rgb[1] + "," + rgb[2]);
+            case LIMIT:
+                return "limit:" + dimension + "=" + size;
+            case TILE:
+                return "tile:" + width + "x" + height + (tileWidth == 0 ? "" : ":" + tileWidth + "x" + tileHeight);
+            default:
+                return mode.name().toLowerCase() + ":" + width + "x" + height;
+        }
+    }
+}
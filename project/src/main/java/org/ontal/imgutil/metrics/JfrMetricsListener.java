@@ -0,0 +1,78 @@
+package org.ontal.imgutil.metrics;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/**
+ * Listener committing every stage as a JDK Flight Recorder event named
+ * <code>org.ontal.imgutil.Stage</code>, so the stages can be analyzed
+ * together with the GC, I/O and thread events of the same recording.
+ * Events are only created while a recording has them enabled.
+ */
+public final class JfrMetricsListener implements MetricsListener {
+
+    @Override
+    public void stageCompleted(final StageEvent event) {
+        final StageJfrEvent jfrEvent = new StageJfrEvent();
+        if(!jfrEvent.isEnabled()) {
+            return;
+        }
+        jfrEvent.stage = event.getStage().name();
+        jfrEvent.mode = event.getMode() == null ? null : event.getMode().name();
+        jfrEvent.imageFormat = event.getImageFormat() == null ? null : event.getImageFormat().name();
+        jfrEvent.inputWidth = event.getInputWidth();
+        jfrEvent.inputHeight = event.getInputHeight();
+        jfrEvent.outputWidth = event.getOutputWidth();
+        jfrEvent.outputHeight = event.getOutputHeight();
+        jfrEvent.imageType = event.getImageType();
+        jfrEvent.elapsed = event.getElapsedNanos();
+        jfrEvent.allocated = event.getAllocatedBytes();
+        jfrEvent.commit();
+    }
+
+    @Name("org.ontal.imgutil.Stage")
+    @Label("Image Processing Stage")
+    @Category("Ontal Image Scaling")
+    @Description("Completed image decoding, scaling, composing or encoding stage")
+    @StackTrace(false)
+    static final class StageJfrEvent extends Event {
+
+        @Label("Stage")
+        String stage;
+
+        @Label("Transformation")
+        String mode;
+
+        @Label("Image Format")
+        String imageFormat;
+
+        @Label("Input Width")
+        int inputWidth;
+
+        @Label("Input Height")
+        int inputHeight;
+
+        @Label("Output Width")
+        int outputWidth;
+
+        @Label("Output Height")
+        int outputHeight;
+
+        @Label("Image Type")
+        int imageType;
+
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        @Label("Allocated")
+        @DataAmount(DataAmount.BYTES)
+        long allocated;
+    }
+}
@@ -0,0 +1,183 @@
+package org.ontal.imgutil.metrics;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.lang.management.ManagementFactory;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageTypeSpecifier;
+
+import org.ontal.imgutil.ImageFormat;
+import org.ontal.imgutil.TransformSpec;
+
+/**
+ * Holds the process wide {@link MetricsListener} and measures the image
+ * processing stages for it. Until a listener is installed stages are not
+ * measured: {@link #start()} returns a shared no-op probe, so the
+ * instrumented code neither reads clocks nor allocates.
+ * <br><br>
+ * Usage example:
+ * <pre>
+ * Metrics.setListener(event -&gt; histograms.get(event.getStage()).record(event.getElapsedNanos()));
+ * Metrics.setListener(new JfrMetricsListener());
+ * </pre>
+ */
+public final class Metrics {
+
+    private final static Logger log = Logger.getLogger(Metrics.class.getName());
+
+    private static final com.sun.management.ThreadMXBean THREADS = initThreads();
+
+    private static volatile MetricsListener listener = MetricsListener.NONE;
+
+    private Metrics() {
+    }
+
+    /**
+     * Installs the listener receiving the events of all the stages.
+     *
+     * @param metricsListener listener, {@link MetricsListener#NONE} to disable the measuring
+     */
+    public static void setListener(final MetricsListener metricsListener) {
+        if(metricsListener == null) {
+            throw new IllegalArgumentException("Metrics listener argument cannot be null");
+        }
+        listener = metricsListener;
+    }
+
+    /**
+     * Returns the installed listener.
+     *
+     * @return listener
+     */
+    public static MetricsListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Starts measuring a stage.
+     *
+     * @return probe to be stopped when the stage is completed
+     */
+    public static Probe start() {
+        final MetricsListener current = listener;
+        if(current == MetricsListener.NONE) {
+            return Probe.NONE;
+        }
+        return new Probe(current, System.nanoTime(), allocatedBytes());
+    }
+
+    private static long allocatedBytes() {
+        return THREADS != null ? THREADS.getThreadAllocatedBytes(Thread.currentThread().getId()) : -1;
+    }
+
+    private static com.sun.management.ThreadMXBean initThreads() {
+        try {
+            final java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if(threads instanceof com.sun.management.ThreadMXBean) {
+                final com.sun.management.ThreadMXBean hotspotThreads = (com.sun.management.ThreadMXBean)threads;
+                if(hotspotThreads.isThreadAllocatedMemorySupported() && hotspotThreads.isThreadAllocatedMemoryEnabled()) {
+                    return hotspotThreads;
+                }
+            }
+        }
+        catch(final RuntimeException | LinkageError e) {
+            log.log(Level.FINE, "Thread allocation measuring unavailable: " + e.getMessage(), e);
+        }
+        return null;
+    }
+
+    /**
+     * Measurement of a single stage in progress.
+     */
+    public static final class Probe {
+
+        static final Probe NONE = new Probe(null, 0, 0);
+
+        private final MetricsListener listener;
+        private final long startNanos;
+        private final long startBytes;
+
+        private Probe(final MetricsListener listener, final long startNanos, final long startBytes) {
+            this.listener = listener;
+            this.startNanos = startNanos;
+            this.startBytes = startBytes;
+        }
+
+        /**
+         * Completes a transformation stage.
+         *
+         * @param stage stage
+         * @param mode transformation type
+         * @param inputImage stage input image
+         * @param outputImage stage output image
+         */
+        public void stop(final Stage stage, final TransformSpec.Mode mode, final BufferedImage inputImage,
+                final BufferedImage outputImage) {
+            stop(stage, mode, null, inputImage.getWidth(), inputImage.getHeight(),
+                    outputImage.getWidth(), outputImage.getHeight(), outputImage.getType());
+        }
+
+        /**
+         * Completes a transformation stage whose input image isn't held in
+         * memory, e.g. one read in bands.
+         *
+         * @param stage stage
+         * @param mode transformation type
+         * @param inputWidth stage input width in pixels
+         * @param inputHeight stage input height in pixels
+         * @param outputImage stage output image
+         */
+        public void stop(final Stage stage, final TransformSpec.Mode mode, final int inputWidth, final int inputHeight,
+                final BufferedImage outputImage) {
+            stop(stage, mode, null, inputWidth, inputHeight,
+                    outputImage.getWidth(), outputImage.getHeight(), outputImage.getType());
+        }
+
+        /**
+         * Completes the decoding stage.
+         *
+         * @param mode transformation type the image is decoded for, if known
+         * @param imageFormat decoded image format, if known
+         * @param outputImage decoded image
+         */
+        public void stopDecode(final TransformSpec.Mode mode, final ImageFormat imageFormat,
+                final BufferedImage outputImage) {
+            stop(Stage.DECODE, mode, imageFormat, 0, 0, outputImage.getWidth(), outputImage.getHeight(),
+                    outputImage.getType());
+        }
+
+        /**
+         * Completes the encoding stage.
+         *
+         * @param imageFormat encoded image format
+         * @param inputImage encoded image, e.g. a buffered image or one producing its rows on demand
+         */
+        public void stopEncode(final ImageFormat imageFormat, final RenderedImage inputImage) {
+            if(listener == null) {
+                return;
+            }
+            final int imageType = inputImage instanceof BufferedImage ? ((BufferedImage)inputImage).getType()
+                    : ImageTypeSpecifier.createFromRenderedImage(inputImage).getBufferedImageType();
+            stop(Stage.ENCODE, null, imageFormat, inputImage.getWidth(), inputImage.getHeight(), 0, 0, imageType);
+        }
+
+        private void stop(final Stage stage, final TransformSpec.Mode mode, final ImageFormat imageFormat,
+                final int inputWidth, final int inputHeight, final int outputWidth, final int outputHeight,
+                final int imageType) {
+            if(listener == null) {
+                return;
+            }
+            final long elapsedNanos = System.nanoTime() - startNanos;
+            final long allocated = startBytes < 0 ? -1 : allocatedBytes() - startBytes;
+            try {
+                listener.stageCompleted(new StageEvent(stage, mode, imageFormat, inputWidth, inputHeight,
+                        outputWidth, outputHeight, imageType, elapsedNanos, allocated));
+            }
+            catch(final RuntimeException e) {
+                log.log(Level.WARNING, "Metrics listener failed: " + e.getMessage(), e);
+            }
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package org.ontal.imgutil.metrics;
+
+/**
+ * Receives an event for every completed image processing stage. Listeners
+ * are invoked synchronously from the thread that performed the stage, so
+ * they should be fast and thread safe, e.g. recording into a histogram.
+ * Listeners are installed via {@link Metrics#setListener(MetricsListener)}.
+ */
+@FunctionalInterface
+public interface MetricsListener {
+
+    /**
+     * Listener ignoring all the events. While it's installed stages are not
+     * measured at all.
+     */
+    MetricsListener NONE = event -> {};
+
+    /**
+     * Invoked when a stage is completed.
+     *
+     * @param event stage event
+     */
+    void stageCompleted(StageEvent event);
+}
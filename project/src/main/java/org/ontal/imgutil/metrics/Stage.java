@@ -0,0 +1,34 @@
+package org.ontal.imgutil.metrics;
+
+/**
+ * Image processing stages reported to the {@link MetricsListener}.
+ */
+public enum Stage {
+
+    /**
+     * Reading and decoding the input image.
+     */
+    DECODE,
+
+    /**
+     * Converting the decoded image into the working bitmap type, reported
+     * only for the images that required a conversion.
+     */
+    NORMALIZE,
+
+    /**
+     * Resampling the image to the scaled dimensions, including sharpening.
+     */
+    SCALE,
+
+    /**
+     * Producing the output image from the scaled one, e.g. cropping it,
+     * drawing it onto the background canvas or tiling it.
+     */
+    COMPOSE,
+
+    /**
+     * Encoding the output image.
+     */
+    ENCODE
+}
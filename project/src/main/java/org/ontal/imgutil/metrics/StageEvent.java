@@ -0,0 +1,137 @@
+package org.ontal.imgutil.metrics;
+
+import org.ontal.imgutil.ImageFormat;
+import org.ontal.imgutil.TransformSpec;
+
+/**
+ * Immutable description of a completed image processing stage.
+ */
+public final class StageEvent {
+
+    private final Stage stage;
+    private final TransformSpec.Mode mode;
+    private final ImageFormat imageFormat;
+    private final int inputWidth;
+    private final int inputHeight;
+    private final int outputWidth;
+    private final int outputHeight;
+    private final int imageType;
+    private final long elapsedNanos;
+    private final long allocatedBytes;
+
+    StageEvent(final Stage stage, final TransformSpec.Mode mode, final ImageFormat imageFormat,
+            final int inputWidth, final int inputHeight, final int outputWidth, final int outputHeight,
+            final int imageType, final long elapsedNanos, final long allocatedBytes) {
+        this.stage = stage;
+        this.mode = mode;
+        this.imageFormat = imageFormat;
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.imageType = imageType;
+        this.elapsedNanos = elapsedNanos;
+        this.allocatedBytes = allocatedBytes;
+    }
+
+    /**
+     * Returns processing stage.
+     *
+     * @return stage
+     */
+    public Stage getStage() {
+        return stage;
+    }
+
+    /**
+     * Returns transformation type.
+     *
+     * @return transformation type or <code>null</code> if the stage isn't performed for a known transformation,
+     *         e.g. decoding the full image
+     */
+    public TransformSpec.Mode getMode() {
+        return mode;
+    }
+
+    /**
+     * Returns decoded or encoded image format.
+     *
+     * @return image format or <code>null</code> for the transformation stages or unknown input formats
+     */
+    public ImageFormat getImageFormat() {
+        return imageFormat;
+    }
+
+    /**
+     * Returns stage input width, zero for the decoding stage.
+     *
+     * @return input width in pixels
+     */
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    /**
+     * Returns stage input height, zero for the decoding stage.
+     *
+     * @return input height in pixels
+     */
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    /**
+     * Returns stage output width, zero for the encoding stage.
+     *
+     * @return output width in pixels
+     */
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    /**
+     * Returns stage output height, zero for the encoding stage.
+     *
+     * @return output height in pixels
+     */
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * Returns the bitmap type of the stage output image, or of the input
+     * image for the encoding stage.
+     *
+     * @return {@link java.awt.image.BufferedImage} type
+     */
+    public int getImageType() {
+        return imageType;
+    }
+
+    /**
+     * Returns stage duration.
+     *
+     * @return elapsed time in nanoseconds
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * Returns the number of bytes allocated by the thread performing the
+     * stage. Allocations of helper threads, e.g. parallel resampling bands,
+     * are not included.
+     *
+     * @return allocated bytes or <code>-1</code> if the JVM doesn't support allocation measuring
+     */
+    public long getAllocatedBytes() {
+        return allocatedBytes;
+    }
+
+    @Override
+    public String toString() {
+        return stage + (mode == null ? "" : ":" + mode) + (imageFormat == null ? "" : ":" + imageFormat)
+                + " " + inputWidth + "x" + inputHeight + "->" + outputWidth + "x" + outputHeight
+                + " type=" + imageType + " " + elapsedNanos + "ns " + allocatedBytes + "B";
+    }
+}
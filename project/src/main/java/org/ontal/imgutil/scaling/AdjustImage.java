@@ -2,9 +2,6 @@ package org.ontal.imgutil.scaling;
 
 import java.awt.image.BufferedImage;
 
-import com.mortennobel.imagescaling.AdvancedResizeOp;
-import com.mortennobel.imagescaling.ResampleOp;
-
 /**
  * Adjust scaling transformation implementation class.
  *
@@ -13,35 +10,67 @@ import com.mortennobel.imagescaling.ResampleOp;
  */
 public class AdjustImage extends TransformImage {
 
-    public AdjustImage(final BufferedImage inputImage) {
-        super(inputImage);
+    public AdjustImage() {
+        super();
+    }
+
+    public AdjustImage(final Resampler resampler) {
+        super(resampler);
     }
 
     @Override
-    protected BufferedImage process() {
+    protected int calculateScaledWidth(final int inputWidth, final float inputRatio,
+            final int outputWidth, final int outputHeight, final float outputRatio) {
+        if(inputRatio > outputRatio) {
+            // output image is thinner
+            return (int)Math.floor(outputHeight * inputRatio);
+        }
+        // output image is wider
+        return outputWidth;
+    }
 
-        int width, height;
+    @Override
+    protected int calculateScaledHeight(final int inputHeight, final float inputRatio,
+            final int outputWidth, final int outputHeight, final float outputRatio) {
         if(inputRatio > outputRatio) {
             // output image is thinner
-            width = (int)Math.floor(outputHeight * inputRatio);
-            height = outputHeight;
+            return outputHeight;
         }
-        else {
-            // output image is wider
-            width = outputWidth;
-            height = (int)Math.floor(outputWidth / inputRatio);
+        // output image is wider
+        return (int)Math.floor(outputWidth / inputRatio);
+    }
+
+    @Override
+    protected boolean isScaledOutput(final ScalingPlan plan) {
+        return true;
+    }
+
+    /**
+     * Resamples only the visible part of a cropped scaled image straight
+     * into the destination image when it isn't sharpened, since the unsharp
+     * mask of the visible part depends on the pixels around it.
+     */
+    @Override
+    protected boolean transformInto(final BufferedImage inputImage, final ScalingPlan plan,
+            final BufferedImage destinationImage) {
+        if(plan.isCropped() && getSharpeningAmount(plan) == 0f
+                && destinationImage.getType() == Resampler.getResultType(inputImage)) {
+            scaleInto(inputImage, plan, plan.getCropX(), plan.getCropY(), destinationImage);
+            return true;
         }
+        return super.transformInto(inputImage, plan, destinationImage);
+    }
+
+    @Override
+    protected BufferedImage composeImage(final BufferedImage scaledImage, final ScalingPlan plan) {
+        if(scaledImage.getWidth() == plan.getOutputWidth() && scaledImage.getHeight() == plan.getOutputHeight()) {
 
-        // scale input image maintaining its ratio, sharpen it if it's becoming too small
-        final ResampleOp resampleOp = new ResampleOp(width, height);
-        resampleOp.setUnsharpenMask(requiresUnsharpening(width, height) ? 
-                AdvancedResizeOp.UnsharpenMask.Soft : AdvancedResizeOp.UnsharpenMask.None);
-        final BufferedImage image = resampleOp.filter(inputImage, null);
+            // only the visible part was scaled
+            return scaledImage;
+        }
 
         // crop image to fit into output dimensions
-        final int x = (int)Math.floor((double)(width - outputWidth) / 2);
-        final int y = (int)Math.floor((double)(height - outputHeight) / 2);
-        return image.getSubimage(x, y, outputWidth, outputHeight);
+        return scaledImage.getSubimage(-plan.getX(), -plan.getY(), plan.getOutputWidth(), plan.getOutputHeight());
     }
 
 }
@@ -0,0 +1,225 @@
+package org.ontal.imgutil.scaling;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import com.mortennobel.imagescaling.ImageUtils;
+
+/**
+ * Streaming counterpart of the {@link Resampler} for images too big to be
+ * held in memory. The source image is pulled from a {@link Source} in
+ * horizontal bands of consecutive rows, every source row is resampled
+ * horizontally as soon as it's read into a rolling window of work rows, and
+ * every output row is resampled vertically as soon as the window holds all
+ * the rows contributing to it. The window only holds as many rows as the
+ * filter support spans, so the memory used doesn't depend on the source
+ * image height, and the produced rows are identical to the ones the
+ * resampler produces from the whole image made of the same bands, e.g. the
+ * subsampled image when the bands are decoded with source subsampling.
+ * <br><br>
+ * Output rows have to be requested in ascending order, which is the order
+ * the source bands are read in. Instances are not thread safe.
+ */
+public final class BandResampler {
+
+    /**
+     * Supplier of the consecutive source image bands.
+     */
+    public interface Source {
+
+        /**
+         * Reads the next band of source rows, starting right after the last
+         * row of the previous band.
+         *
+         * @return band image of the source image width
+         * @throws IOException if an error occurs while reading
+         */
+        BufferedImage next() throws IOException;
+    }
+
+    private final Source source;
+    private final int sourceWidth;
+    private final int sourceHeight;
+    private final int width;
+    private final Resampler.Contributors horizontal;
+    private final Resampler.Contributors vertical;
+    // last source row each output row waits for, never decreasing
+    private final int[] lastRows;
+    private final int windowRows;
+
+    private int channels;
+    private int resultType;
+    private byte[] workPixels;
+    private int[] offsets;
+    private float[] weights;
+    private BufferedImage band;
+    private int bandRow;
+    private int nextRow;
+    private int nextOutputRow;
+
+    BandResampler(final Resampler resampler, final Source source, final int sourceWidth, final int sourceHeight,
+            final int width, final int height) {
+        if(source == null) {
+            throw new IllegalArgumentException("Source argument cannot be null");
+        }
+        if(sourceWidth <= 0 || sourceHeight <= 0) {
+            throw new IllegalArgumentException("Invalid source dimensions " + sourceWidth + "x" + sourceHeight);
+        }
+        if(width < 3 || height < 3) {
+            throw new IllegalArgumentException("Invalid output dimensions " + width + "x" + height + ", must be at least 3x3");
+        }
+        this.source = source;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+        this.width = width;
+        horizontal = resampler.getContributors(sourceWidth, width);
+        vertical = resampler.getContributors(sourceHeight, height);
+
+        lastRows = new int[height];
+        int last = 0;
+        int window = 1;
+        for(int y = 0; y < height; y++) {
+            int first = sourceHeight - 1;
+            for(int j = 0, offset = y * vertical.size; j < vertical.count[y]; j++) {
+                final int row = vertical.pixels[offset + j];
+                // rows outside the image have zero weights
+                if(row >= 0 && row < sourceHeight) {
+                    first = Math.min(first, row);
+                    last = Math.max(last, row);
+                }
+            }
+            lastRows[y] = last;
+            window = Math.max(window, last - Math.min(first, last) + 1);
+        }
+        windowRows = window;
+    }
+
+    /**
+     * Returns the output width.
+     *
+     * @return output width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns the output height.
+     *
+     * @return output height in pixels
+     */
+    public int getHeight() {
+        return lastRows.length;
+    }
+
+    /**
+     * Returns the number of source rows kept resampled horizontally at a
+     * time.
+     *
+     * @return window rows
+     */
+    public int getWindowRows() {
+        return windowRows;
+    }
+
+    /**
+     * Returns the bitmap type of the produced rows, which reads the first
+     * source band if it hasn't been read yet.
+     *
+     * @return image type, one of <code>TYPE_3BYTE_BGR</code>, <code>TYPE_4BYTE_ABGR</code>
+     *         or <code>TYPE_BYTE_GRAY</code>
+     * @throws IOException if an error occurs while reading
+     */
+    public int getResultType() throws IOException {
+        if(workPixels == null) {
+            nextBand();
+        }
+        return resultType;
+    }
+
+    /**
+     * Produces the output rows starting at the provided one into the
+     * destination image, one row per destination row, reading as many
+     * source bands as needed. The rows before the provided one that haven't
+     * been requested are skipped.
+     *
+     * @param fromRow first output row, not before the end of the previously produced rows
+     * @param destinationImage destination image of the output width and of the type returned by
+     *         {@link #getResultType()}, e.g. the whole scaled image or a strip of it
+     * @return destination image
+     * @throws IOException if an error occurs while reading
+     */
+    public BufferedImage resample(final int fromRow, final BufferedImage destinationImage) throws IOException {
+        final int toRow = fromRow + destinationImage.getHeight();
+        if(fromRow < nextOutputRow || toRow > getHeight()) {
+            throw new IllegalArgumentException("Invalid rows " + fromRow + "-" + toRow + ", next row is "
+                    + nextOutputRow + " of " + getHeight());
+        }
+        if(destinationImage.getWidth() != width || destinationImage.getType() != getResultType()) {
+            throw new IllegalArgumentException("Invalid destination image " + destinationImage.getWidth() + "x"
+                    + destinationImage.getHeight() + " of type " + destinationImage.getType());
+        }
+
+        final Resampler.Samples output = new Resampler.Samples(destinationImage);
+        final int rowLength = width * channels;
+        for(int y = fromRow; y < toRow; y++) {
+            advance(lastRows[y]);
+            final int max = vertical.count[y];
+            final int offset = y * vertical.size;
+            for(int j = 0; j < max; j++) {
+                final int row = vertical.pixels[offset + j];
+                final boolean inside = row >= 0 && row < sourceHeight;
+                offsets[j] = (inside ? row % windowRows : 0) * rowLength;
+                weights[j] = inside ? vertical.weights[offset + j] : 0f;
+            }
+            Kernels.get().resampleColumns(workPixels, offsets, weights, max, rowLength, channels,
+                    output.data, output.origin + (y - fromRow) * output.scanlineStride);
+        }
+        nextOutputRow = toRow;
+        return destinationImage;
+    }
+
+    /**
+     * Resamples the source rows up to the provided one into the window,
+     * reading the following bands when the current one is exhausted.
+     */
+    private void advance(final int lastRow) throws IOException {
+        while(nextRow <= lastRow) {
+            if(band == null || nextRow >= bandRow + band.getHeight()) {
+                nextBand();
+            }
+            final int toRow = Math.min(lastRow + 1, bandRow + band.getHeight());
+            Kernels.get().resampleRows(band, nextRow - bandRow, toRow - bandRow, horizontal, 0, width, channels,
+                    workPixels, bandRow, windowRows);
+            nextRow = toRow;
+        }
+        if(nextRow >= sourceHeight) {
+            band = null;
+        }
+    }
+
+    private void nextBand() throws IOException {
+        final int row = band == null ? nextRow : bandRow + band.getHeight();
+        final BufferedImage nextBand = source.next();
+        if(nextBand == null || nextBand.getHeight() <= 0 || row + nextBand.getHeight() > sourceHeight) {
+            throw new IOException("Invalid source band at row " + row + " of " + sourceHeight);
+        }
+        if(nextBand.getWidth() != sourceWidth) {
+            throw new IOException("Invalid source band width " + nextBand.getWidth() + ", expected " + sourceWidth);
+        }
+        final BufferedImage normalizedBand = PixelFormats.normalize(nextBand);
+        final int bandChannels = ImageUtils.nrChannels(normalizedBand);
+        if(workPixels == null) {
+            channels = bandChannels;
+            resultType = Resampler.getResultType(normalizedBand);
+            workPixels = new byte[windowRows * width * channels];
+            offsets = new int[vertical.size];
+            weights = new float[vertical.size];
+        }
+        else if(bandChannels != channels) {
+            throw new IOException("Invalid source band with " + bandChannels + " channels, expected " + channels);
+        }
+        band = normalizedBand;
+        bandRow = row;
+    }
+}
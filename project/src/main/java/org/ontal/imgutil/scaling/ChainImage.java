@@ -0,0 +1,285 @@
+package org.ontal.imgutil.scaling;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ontal.imgutil.TransformSpec;
+import org.ontal.imgutil.metrics.Metrics;
+import org.ontal.imgutil.metrics.Stage;
+
+/**
+ * Transformation chain processor. Instead of producing an intermediate image
+ * for every step, the steps are composed symbolically: every step maps the
+ * canvas of the previous one onto its own canvas by scaling and translating
+ * it, so the whole chain reduces to the input image scaled to some virtual
+ * dimensions, the part of it that survives all the crops and its position
+ * on the final canvas, plus the background areas added by the Fit steps.
+ * The chain is then produced by a single resampling of the visible part of
+ * the input image and at most a single composition onto the canvas.
+ * <br><br>
+ * Tiling replicates the canvas, so a Tile step that isn't the last one
+ * splits the chain into segments that are produced one after another. The
+ * resampling quality and sharpening of the last scaling step of a segment
+ * apply to the whole segment. As the edges of the intermediate canvases are
+ * never materialized, the pixels along the crop and the border edges are
+ * resampled from their real neighbours instead of the ones clamped at the
+ * intermediate edges and may differ slightly from the ones produced step by
+ * step.
+ * <br><br>
+ * Instances are stateless and can be safely shared between threads.
+ */
+public class ChainImage {
+
+    private final TransformImage scaler;
+    private final TransformImage tiler;
+
+    /**
+     * Creates chain processor using the default resampler.
+     */
+    public ChainImage() {
+        this(Resampler.getDefault());
+    }
+
+    /**
+     * Creates chain processor using the provided resampler.
+     *
+     * @param resampler resampler
+     */
+    public ChainImage(final Resampler resampler) {
+        if(resampler == null) {
+            throw new IllegalArgumentException("Resampler argument cannot be null");
+        }
+        scaler = TransformSpec.Mode.EXPAND.newTransformer(resampler);
+        tiler = TransformSpec.Mode.TILE.newTransformer(resampler);
+    }
+
+    /**
+     * Main transformation entry point.
+     *
+     * @param inputImage input image
+     * @param steps transformation specs applied one after another
+     * @return output image
+     */
+    public BufferedImage transform(final BufferedImage inputImage, final List<TransformSpec> steps) {
+        BufferedImage image = inputImage;
+        for(final List<TransformSpec> segment : split(steps)) {
+            final BufferedImage segmentImage = produce(image, planSegment(segment, image.getWidth(), image.getHeight(),
+                    PixelFormats.getWorkingType(image)));
+            if(image != inputImage) {
+                scaler.resampler.releaseImage(image, segmentImage);
+            }
+            image = segmentImage;
+        }
+        return image;
+    }
+
+    /**
+     * Calculates the geometry of the chain for an input image of the
+     * provided dimensions and bitmap type.
+     *
+     * @param inputWidth input width in pixels
+     * @param inputHeight input height in pixels
+     * @param imageType input image bitmap type
+     * @param steps transformation specs applied one after another
+     * @return plans of the chain segments, a single one unless the chain tiles before its last step
+     */
+    public List<ChainPlan> plan(final int inputWidth, final int inputHeight, final int imageType,
+            final List<TransformSpec> steps) {
+        final List<ChainPlan> plans = new ArrayList<>();
+        int width = inputWidth;
+        int height = inputHeight;
+        for(final List<TransformSpec> segment : split(steps)) {
+            final ChainPlan plan = planSegment(segment, width, height, imageType);
+            plans.add(plan);
+            width = plan.getOutputWidth();
+            height = plan.getOutputHeight();
+        }
+        return plans;
+    }
+
+    /**
+     * Splits the steps after every Tile step that isn't the last one.
+     */
+    private static List<List<TransformSpec>> split(final List<TransformSpec> steps) {
+        if(steps == null || steps.isEmpty() || steps.contains(null)) {
+            throw new IllegalArgumentException("Invalid transformation steps argument");
+        }
+        final List<List<TransformSpec>> segments = new ArrayList<>();
+        int from = 0;
+        for(int i = 0; i < steps.size(); i++) {
+            if(steps.get(i).getMode() == TransformSpec.Mode.TILE || i == steps.size() - 1) {
+                segments.add(new ArrayList<>(steps.subList(from, i + 1)));
+                from = i + 1;
+            }
+        }
+        return segments;
+    }
+
+    /**
+     * Composes the geometry of the segment steps, only the last one of which
+     * can be a Tile step.
+     */
+    private ChainPlan planSegment(final List<TransformSpec> steps, final int inputWidth, final int inputHeight,
+            final int imageType) {
+        int canvasWidth = inputWidth;
+        int canvasHeight = inputHeight;
+        Rectangle2D content = new Rectangle2D.Double(0, 0, inputWidth, inputHeight);
+        Rectangle2D visible = content;
+        final List<Rectangle2D> fillAreas = new ArrayList<>();
+        final List<Color> fillColors = new ArrayList<>();
+        TransformSpec scaling = null;
+        TransformSpec tile = null;
+
+        for(final TransformSpec spec : steps) {
+            TransformSpec step = spec;
+            if(spec.getMode() == TransformSpec.Mode.TILE) {
+                tile = TransformSpec.tile(spec.getWidth(), spec.getHeight());
+                if(spec.getTileWidth() == 0) {
+                    break;
+                }
+
+                // tiles scaled to the tile dimensions before being replicated
+                step = TransformSpec.expand(spec.getTileWidth(), spec.getTileHeight())
+                        .quality(spec.getQuality())
+                        .sharpening(spec.getSharpening());
+            }
+
+            final ScalingPlan plan = step.getMode().getTransformer().plan(canvasWidth, canvasHeight, imageType, step);
+            final boolean borderless = step.getMode() == TransformSpec.Mode.FIT && step.isBorderless();
+            final AffineTransform transform = new AffineTransform(
+                    (double)plan.getScaledWidth() / canvasWidth, 0, 0,
+                    (double)plan.getScaledHeight() / canvasHeight, borderless ? 0 : plan.getX(), borderless ? 0 : plan.getY());
+
+            // borderless fit produces the scaled image only
+            final int outputWidth = borderless ? plan.getScaledWidth() : plan.getOutputWidth();
+            final int outputHeight = borderless ? plan.getScaledHeight() : plan.getOutputHeight();
+            final Rectangle2D canvas = new Rectangle2D.Double(0, 0, outputWidth, outputHeight);
+
+            content = map(transform, content, null);
+            visible = map(transform, visible, canvas);
+            for(int i = 0; i < fillAreas.size(); i++) {
+                fillAreas.set(i, map(transform, fillAreas.get(i), canvas));
+            }
+            if(step.getMode() == TransformSpec.Mode.FIT && !borderless) {
+
+                // the whole canvas is filled first, so translucent pixels are blended with the background
+                fillAreas.add(0, canvas);
+                fillColors.add(0, FitImage.getBackground(plan));
+            }
+
+            canvasWidth = outputWidth;
+            canvasHeight = outputHeight;
+            scaling = step;
+        }
+
+        final List<ChainPlan.Fill> fills = new ArrayList<>();
+        for(int i = 0; i < fillAreas.size(); i++) {
+            final Rectangle area = round(fillAreas.get(i));
+            if(!area.isEmpty()) {
+                fills.add(new ChainPlan.Fill(area, fillColors.get(i)));
+            }
+        }
+
+        if(scaling == null) {
+
+            // the input image is tiled as it is
+            return new ChainPlan(steps, imageType, new ScalingPlan(TransformSpec.expand(inputWidth, inputHeight),
+                    inputWidth, inputHeight, imageType, inputWidth, inputHeight, inputWidth, inputHeight, 0, 0),
+                    false, canvasWidth, canvasHeight, 0, 0, fills, tile);
+        }
+
+        // the virtual scaled image and its visible part
+        final Rectangle scaled = round(content);
+        final Rectangle region = round(visible).intersection(scaled);
+        if(region.isEmpty()) {
+            return new ChainPlan(steps, imageType, null, false, canvasWidth, canvasHeight, 0, 0, fills, tile);
+        }
+
+        final ScalingPlan contentPlan = new ScalingPlan(TransformSpec.expand(region.width, region.height)
+                .quality(scaling.getQuality())
+                .sharpening(scaling.getSharpening()),
+                inputWidth, inputHeight, imageType, region.width, region.height, scaled.width, scaled.height,
+                scaled.x - region.x, scaled.y - region.y);
+        return new ChainPlan(steps, imageType, contentPlan, true, canvasWidth, canvasHeight, region.x, region.y,
+                fills, tile);
+    }
+
+    /**
+     * Maps the area onto the canvas of the following step, clipping it by
+     * the canvas bounds if provided.
+     */
+    private static Rectangle2D map(final AffineTransform transform, final Rectangle2D area, final Rectangle2D canvas) {
+        if(area.isEmpty()) {
+            return area;
+        }
+        final Rectangle2D mapped = transform.createTransformedShape(area).getBounds2D();
+        return canvas == null ? mapped : mapped.createIntersection(canvas);
+    }
+
+    /**
+     * Rounds the rectangle edges to whole pixels, so the adjacent areas stay
+     * adjacent.
+     */
+    private static Rectangle round(final Rectangle2D rectangle) {
+        if(rectangle.isEmpty()) {
+            return new Rectangle();
+        }
+        final int left = (int)Math.round(rectangle.getMinX());
+        final int top = (int)Math.round(rectangle.getMinY());
+        return new Rectangle(left, top, (int)Math.round(rectangle.getMaxX()) - left,
+                (int)Math.round(rectangle.getMaxY()) - top);
+    }
+
+    /**
+     * Produces the segment output image from the input image with a single
+     * resampling and at most a single composition.
+     */
+    private BufferedImage produce(final BufferedImage inputImage, final ChainPlan plan) {
+        final TransformSpec.Mode mode = plan.getSteps().get(plan.getSteps().size() - 1).getMode();
+        final ScalingPlan contentPlan = plan.getContentPlan();
+        BufferedImage contentImage = null;
+        if(contentPlan != null && !plan.isResampled()) {
+            contentImage = inputImage;
+        }
+        else if(contentPlan != null) {
+            final Metrics.Probe probe = Metrics.start();
+            contentImage = scaler.scaleImage(inputImage, contentPlan);
+            probe.stop(Stage.SCALE, mode, inputImage, contentImage);
+        }
+
+        BufferedImage outputImage = contentImage;
+        if(plan.isComposed()) {
+            final Metrics.Probe probe = Metrics.start();
+            outputImage = scaler.resampler.createImage(plan.getCanvasWidth(), plan.getCanvasHeight(), plan.getImageType());
+            final Graphics2D graphics = outputImage.createGraphics();
+            for(final ChainPlan.Fill fill : plan.getFills()) {
+                graphics.setPaint(fill.color);
+                graphics.fill(fill.area);
+            }
+            if(contentImage != null) {
+                graphics.drawImage(contentImage, null, plan.getX(), plan.getY());
+            }
+            graphics.dispose();
+            probe.stop(Stage.COMPOSE, mode, contentImage != null ? contentImage : inputImage, outputImage);
+            if(contentImage != null && contentImage != inputImage) {
+                scaler.resampler.releaseImage(contentImage, outputImage);
+            }
+        }
+
+        if(plan.getTile() != null) {
+            final BufferedImage tileImage = outputImage;
+            outputImage = tiler.compose(tileImage, tiler.plan(tileImage.getWidth(), tileImage.getHeight(),
+                    plan.getImageType(), plan.getTile()));
+            if(tileImage != inputImage) {
+                scaler.resampler.releaseImage(tileImage, outputImage);
+            }
+        }
+        return outputImage;
+    }
+}
@@ -0,0 +1,199 @@
+package org.ontal.imgutil.scaling;
+
+import java.awt.Color;
+import java.awt.Rectangle;
+import java.util.Collections;
+import java.util.List;
+
+import org.ontal.imgutil.TransformSpec;
+
+/**
+ * Immutable result of the geometry calculations of a chain of scaling
+ * transformations for a particular input image size, reduced to a single
+ * resampling of the input image and at most a single composition: the
+ * region of the input image scaled to the virtual dimensions of the whole
+ * chain that is visible on the output image, its position on the canvas,
+ * the background areas added by the Fit steps and the final tiling, if any.
+ */
+public final class ChainPlan {
+
+    private final List<TransformSpec> steps;
+    private final int imageType;
+    private final ScalingPlan contentPlan;
+    private final boolean resampled;
+    private final int canvasWidth;
+    private final int canvasHeight;
+    private final int x;
+    private final int y;
+    private final List<Fill> fills;
+    private final TransformSpec tile;
+
+    ChainPlan(final List<TransformSpec> steps, final int imageType, final ScalingPlan contentPlan,
+            final boolean resampled, final int canvasWidth, final int canvasHeight, final int x, final int y,
+            final List<Fill> fills, final TransformSpec tile) {
+        this.steps = Collections.unmodifiableList(steps);
+        this.imageType = imageType;
+        this.contentPlan = contentPlan;
+        this.resampled = resampled;
+        this.canvasWidth = canvasWidth;
+        this.canvasHeight = canvasHeight;
+        this.x = x;
+        this.y = y;
+        this.fills = Collections.unmodifiableList(fills);
+        this.tile = tile;
+    }
+
+    /**
+     * Returns the planned transformation steps.
+     *
+     * @return transformation specs
+     */
+    public List<TransformSpec> getSteps() {
+        return steps;
+    }
+
+    /**
+     * Returns output image bitmap type.
+     *
+     * @return image type
+     */
+    public int getImageType() {
+        return imageType;
+    }
+
+    /**
+     * Returns the plan of the single resampling: the input image scaled to
+     * the virtual dimensions of the whole chain, cropped to the part that is
+     * visible on the canvas.
+     *
+     * @return content scaling plan or <code>null</code> if no part of the input image is visible
+     */
+    public ScalingPlan getContentPlan() {
+        return contentPlan;
+    }
+
+    /**
+     * Checks if the input image is resampled, i.e. if any of the steps
+     * scales it.
+     *
+     * @return <code>true</code> if the input image is resampled, otherwise <code>false</code>
+     */
+    public boolean isResampled() {
+        return resampled;
+    }
+
+    /**
+     * Returns the width of the image the content is placed onto, the output
+     * width unless the chain ends with tiling.
+     *
+     * @return canvas width in pixels
+     */
+    public int getCanvasWidth() {
+        return canvasWidth;
+    }
+
+    /**
+     * Returns the height of the image the content is placed onto, the output
+     * height unless the chain ends with tiling.
+     *
+     * @return canvas height in pixels
+     */
+    public int getCanvasHeight() {
+        return canvasHeight;
+    }
+
+    /**
+     * Returns output image width.
+     *
+     * @return output width in pixels
+     */
+    public int getOutputWidth() {
+        return tile != null ? tile.getWidth() : canvasWidth;
+    }
+
+    /**
+     * Returns output image height.
+     *
+     * @return output height in pixels
+     */
+    public int getOutputHeight() {
+        return tile != null ? tile.getHeight() : canvasHeight;
+    }
+
+    /**
+     * Returns the horizontal position of the content on the canvas.
+     *
+     * @return horizontal position in pixels
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Returns the vertical position of the content on the canvas.
+     *
+     * @return vertical position in pixels
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Checks if the content is composed onto a canvas, i.e. if the chain
+     * adds background areas or the content doesn't cover the whole canvas.
+     *
+     * @return <code>true</code> if a canvas is composed, otherwise <code>false</code>
+     */
+    public boolean isComposed() {
+        return contentPlan == null || !fills.isEmpty() || x != 0 || y != 0
+                || contentPlan.getOutputWidth() != canvasWidth
+                || contentPlan.getOutputHeight() != canvasHeight;
+    }
+
+    /**
+     * Returns the final Tile step replicating the canvas.
+     *
+     * @return tile spec or <code>null</code> if the chain doesn't end with tiling
+     */
+    public TransformSpec getTile() {
+        return tile;
+    }
+
+    List<Fill> getFills() {
+        return fills;
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(steps).append(' ');
+        if(contentPlan == null) {
+            sb.append("[]");
+        }
+        else {
+            sb.append(contentPlan.getInputWidth()).append('x').append(contentPlan.getInputHeight())
+                    .append(" -> ").append(contentPlan.getScaledWidth()).append('x').append(contentPlan.getScaledHeight())
+                    .append(" [").append(contentPlan.getCropX()).append(',').append(contentPlan.getCropY()).append(' ')
+                    .append(contentPlan.getOutputWidth()).append('x').append(contentPlan.getOutputHeight()).append(']');
+        }
+        sb.append(" @ ").append(x).append(',').append(y).append(" -> ").append(canvasWidth).append('x').append(canvasHeight);
+        if(tile != null) {
+            sb.append(" -> ").append(getOutputWidth()).append('x').append(getOutputHeight());
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Canvas area filled with a background color.
+     */
+    static final class Fill {
+
+        final Rectangle area;
+        final Color color;
+
+        Fill(final Rectangle area, final Color color) {
+            this.area = area;
+            this.color = color;
+        }
+    }
+}
@@ -2,9 +2,6 @@ package org.ontal.imgutil.scaling;
 
 import java.awt.image.BufferedImage;
 
-import com.mortennobel.imagescaling.AdvancedResizeOp;
-import com.mortennobel.imagescaling.ResampleOp;
-
 /**
  * Expand scaling transformation implementation class.
  *
@@ -13,18 +10,24 @@ import com.mortennobel.imagescaling.ResampleOp;
  */
 public class ExpandImage extends TransformImage {
 
-    public ExpandImage(final BufferedImage inputImage) {
-        super(inputImage);
+    public ExpandImage() {
+        super();
+    }
+
+    public ExpandImage(final Resampler resampler) {
+        super(resampler);
+    }
+
+    @Override
+    protected boolean isScaledOutput(final ScalingPlan plan) {
+        return true;
     }
 
     @Override
-    protected BufferedImage process() {
+    protected BufferedImage composeImage(final BufferedImage scaledImage, final ScalingPlan plan) {
 
-        // straight scale the image sharpening it if it's too small
-        final ResampleOp resampleOp = new ResampleOp(outputWidth, outputHeight);
-        resampleOp.setUnsharpenMask(requiresUnsharpening(outputWidth, outputHeight) ? 
-                AdvancedResizeOp.UnsharpenMask.Soft : AdvancedResizeOp.UnsharpenMask.None);
-        return resampleOp.filter(inputImage, null);
+        // the image is straight scaled to the output dimensions
+        return scaledImage;
     }
 
 }
@@ -3,9 +3,7 @@ package org.ontal.imgutil.scaling;
 import java.awt.Color;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
-
-import com.mortennobel.imagescaling.AdvancedResizeOp;
-import com.mortennobel.imagescaling.ResampleOp;
+import java.awt.image.WritableRaster;
 
 /**
  * Fit scaling transformation implementation class.
@@ -15,65 +13,154 @@ import com.mortennobel.imagescaling.ResampleOp;
  */
 public class FitImage extends TransformImage {
 
-    private int[] rgb = { 255, 255, 255 };
+    private static final int[] DEFAULT_RGB = { 255, 255, 255 };
+
+    public FitImage() {
+        super();
+    }
 
-    public FitImage(final BufferedImage inputImage) {
-        super(inputImage);
+    public FitImage(final Resampler resampler) {
+        super(resampler);
     }
 
     @Override
-    protected void validateArguments(final Object... args) {
-        super.validateArguments(args);
-
-        final int[] rgb = (int[])args[2];
-        if(rgb != null) {
-            if(rgb.length != 3) {
-                throw new IllegalArgumentException("Invalid output rgb argument");
-            }
-            for(int i = 0; i < 3; i++) {
-                if(rgb[i] < 0 || rgb[i] > 255) {
-                    throw new IllegalArgumentException("Invalid output rgb color index");
-                }
-            }
-
-            this.rgb = rgb;
+    protected int calculateScaledWidth(final int inputWidth, final float inputRatio,
+            final int outputWidth, final int outputHeight, final float outputRatio) {
+        if(inputRatio > outputRatio) {
+            // output image is thinner
+            return outputWidth;
         }
+        // output image is wider
+        return (int)Math.floor(outputHeight * inputRatio);
     }
 
     @Override
-    protected BufferedImage process() {
-
-        int width, height;
+    protected int calculateScaledHeight(final int inputHeight, final float inputRatio,
+            final int outputWidth, final int outputHeight, final float outputRatio) {
         if(inputRatio > outputRatio) {
             // output image is thinner
-            width = outputWidth;
-            height = (int)Math.floor(outputWidth / inputRatio);
+            return (int)Math.floor(outputWidth / inputRatio);
+        }
+        // output image is wider
+        return outputHeight;
+    }
+
+    /**
+     * Scales the source image straight onto the output canvas when the
+     * canvas has the same bitmap type as the scaled image and no alpha
+     * channel, filling only the borders around it. The returned scaled image
+     * is the part of the canvas it occupies.
+     */
+    @Override
+    protected BufferedImage scaleImage(final BufferedImage sourceImage, final ScalingPlan plan) {
+        if(plan.getSpec().isBorderless() || plan.getImageType() != Resampler.getResultType(sourceImage)
+                || plan.getImageType() == BufferedImage.TYPE_4BYTE_ABGR) {
+            return super.scaleImage(sourceImage, plan);
+        }
+
+        final BufferedImage outputImage = resampler.createImage(plan.getOutputWidth(), plan.getOutputHeight(),
+                plan.getImageType());
+        final Graphics2D graphics = outputImage.createGraphics();
+        fillBorders(graphics, plan);
+        graphics.dispose();
 
+        final BufferedImage scaledImage = resample(sourceImage, plan, 0, 0,
+                outputImage.getSubimage(plan.getX(), plan.getY(), plan.getScaledWidth(), plan.getScaledHeight()));
+        final float amount = getSharpeningAmount(plan);
+        return amount > 0f ? resampler.sharpen(scaledImage, amount) : scaledImage;
+    }
+
+    /**
+     * Fills the borders of the destination image and scales the source
+     * image straight into the part of it the scaled image occupies, on the
+     * same conditions as {@link #scaleImage(BufferedImage, ScalingPlan)}
+     * scales onto the canvas.
+     */
+    @Override
+    protected boolean transformInto(final BufferedImage inputImage, final ScalingPlan plan,
+            final BufferedImage destinationImage) {
+        if(plan.getSpec().isBorderless() || destinationImage.getType() != plan.getImageType()
+                || plan.getImageType() != Resampler.getResultType(inputImage)
+                || plan.getImageType() == BufferedImage.TYPE_4BYTE_ABGR) {
+            return super.transformInto(inputImage, plan, destinationImage);
         }
-        else {
-            // output image is wider
-            width = (int)Math.floor(outputHeight * inputRatio);
-            height = outputHeight;
+
+        final Graphics2D graphics = destinationImage.createGraphics();
+        fillBorders(graphics, plan);
+        graphics.dispose();
+        scaleInto(inputImage, plan, 0, 0,
+                destinationImage.getSubimage(plan.getX(), plan.getY(), plan.getScaledWidth(), plan.getScaledHeight()));
+        return true;
+    }
+
+    @Override
+    protected boolean isScaledOutput(final ScalingPlan plan) {
+        return plan.getSpec().isBorderless();
+    }
+
+    @Override
+    protected BufferedImage composeImage(final BufferedImage scaledImage, final ScalingPlan plan) {
+        if(plan.getSpec().isBorderless()) {
+            return scaledImage;
         }
 
-        // scale input image maintaining its ratio, sharpen it if it's becoming too small
-        final ResampleOp resampleOp = new ResampleOp(width, height);
-        resampleOp.setUnsharpenMask(requiresUnsharpening(width, height) ? 
-                AdvancedResizeOp.UnsharpenMask.Soft : AdvancedResizeOp.UnsharpenMask.None);
-        final BufferedImage image = resampleOp.filter(inputImage, null);
+        // scaled image already placed onto the canvas
+        final WritableRaster canvas = scaledImage.getRaster().getParent() instanceof WritableRaster ?
+                (WritableRaster)scaledImage.getRaster().getParent() : null;
+        if(canvas != null && canvas.getWidth() == plan.getOutputWidth() && canvas.getHeight() == plan.getOutputHeight()) {
+            return new BufferedImage(scaledImage.getColorModel(), canvas, scaledImage.isAlphaPremultiplied(), null);
+        }
 
         // create output image canvas and fill it with bg color
-        final BufferedImage outputImage = new BufferedImage(outputWidth, outputHeight, imageType);
+        final BufferedImage outputImage = resampler.createImage(plan.getOutputWidth(), plan.getOutputHeight(),
+                plan.getImageType());
         final Graphics2D graphics = outputImage.createGraphics();
-        graphics.setPaint(new Color(rgb[0], rgb[1], rgb[2]));
-        graphics.fillRect(0, 0, outputWidth, outputHeight);
+        if(scaledImage.getColorModel().hasAlpha()) {
+
+            // translucent pixels are blended with the background
+            graphics.setPaint(getBackground(plan));
+            graphics.fillRect(0, 0, plan.getOutputWidth(), plan.getOutputHeight());
+        }
+        else {
+            fillBorders(graphics, plan);
+        }
 
         // put scaled image on canvas
-        final int x = (int)Math.floor((double)(outputWidth - width) / 2);
-        final int y = (int)Math.floor((double)(outputHeight - height) / 2);
-        graphics.drawImage(image, null, x, y);
+        graphics.drawImage(scaledImage, null, plan.getX(), plan.getY());
         graphics.dispose();
 
         return outputImage;
     }
+
+    /**
+     * Fills the canvas area not covered by the scaled image with the
+     * background color.
+     *
+     * @param graphics canvas graphics
+     * @param plan scaling plan
+     */
+    private static void fillBorders(final Graphics2D graphics, final ScalingPlan plan) {
+        final int outputWidth = plan.getOutputWidth();
+        final int outputHeight = plan.getOutputHeight();
+        final int right = plan.getX() + plan.getScaledWidth();
+        final int bottom = plan.getY() + plan.getScaledHeight();
+
+        graphics.setPaint(getBackground(plan));
+        graphics.fillRect(0, 0, outputWidth, plan.getY());
+        graphics.fillRect(0, bottom, outputWidth, outputHeight - bottom);
+        graphics.fillRect(0, plan.getY(), plan.getX(), plan.getScaledHeight());
+        graphics.fillRect(right, plan.getY(), outputWidth - right, plan.getScaledHeight());
+    }
+
+    /**
+     * Returns the background color of the canvas.
+     *
+     * @param plan scaling plan
+     * @return background color
+     */
+    static Color getBackground(final ScalingPlan plan) {
+        final int[] specRgb = plan.getSpec().getRgb();
+        final int[] rgb = specRgb == null ? DEFAULT_RGB : specRgb;
+        return new Color(rgb[0], rgb[1], rgb[2]);
+    }
 }
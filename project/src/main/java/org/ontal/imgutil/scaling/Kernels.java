@@ -0,0 +1,93 @@
+package org.ontal.imgutil.scaling;
+
+import java.awt.image.BufferedImage;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Inner loops of the resampling passes and of the unsharp mask, which is
+ * where nearly all the resampling time is spent. This implementation runs
+ * the scalar loops of the {@link Resampler}.
+ * <br><br>
+ * On Java 17+ the multi-release jar also provides a SIMD implementation
+ * written with the incubating JDK Vector API, which is used instead when the
+ * <code>jdk.incubator.vector</code> module is resolved, i.e. the JVM is
+ * started with <code>--add-modules jdk.incubator.vector</code>. It keeps
+ * the order of the floating point operations of every sample, so it
+ * produces byte identical images. Setting the <code>imgutil.vector</code>
+ * system property to <code>false</code> forces the scalar loops.
+ */
+class Kernels {
+
+    private final static Logger log = Logger.getLogger(Kernels.class.getName());
+
+    /**
+     * System property disabling the SIMD implementation when set to <code>false</code>.
+     */
+    static final String VECTOR_PROPERTY = "imgutil.vector";
+
+    private static final String VECTOR_MODULE = "jdk.incubator.vector";
+    private static final String VECTOR_KERNELS = "org.ontal.imgutil.scaling.VectorKernels";
+    private static final Kernels INSTANCE = load();
+
+    /**
+     * Returns the shared kernels, the SIMD ones if available.
+     *
+     * @return kernels
+     */
+    static Kernels get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Tells if the loops are SIMD ones.
+     *
+     * @return <code>true</code> if the loops use the Vector API, otherwise <code>false</code>
+     */
+    boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * Resamples the source rows horizontally into the work buffer, see
+     * {@link Resampler#resampleRows(BufferedImage, int, int, Resampler.Contributors, int, int, int, byte[], int, int)}.
+     */
+    void resampleRows(final BufferedImage source, final int fromRow, final int toRow,
+            final Resampler.Contributors horizontal, final int regionX, final int outputWidth, final int channels,
+            final byte[] workPixels, final int rowBase, final int workRows) {
+        Resampler.resampleRows(source, fromRow, toRow, horizontal, regionX, outputWidth, channels,
+                workPixels, rowBase, workRows);
+    }
+
+    /**
+     * Resamples the work buffer rows vertically into an output row, see
+     * {@link Resampler#resampleColumns(byte[], int[], float[], int, int, int, byte[], int)}.
+     */
+    void resampleColumns(final byte[] workPixels, final int[] offsets, final float[] weights, final int max,
+            final int rowLength, final int channels, final byte[] outputPixels, final int outputLocation) {
+        Resampler.resampleColumns(workPixels, offsets, weights, max, rowLength, channels, outputPixels, outputLocation);
+    }
+
+    /**
+     * Blurs the pixel rows with the unsharp mask kernel writing them
+     * transposed, see {@link Resampler#convolveAndTranspose(int[], int[], int, int)}.
+     */
+    void convolveAndTranspose(final int[] inPixels, final int[] outPixels, final int width, final int height) {
+        Resampler.convolveAndTranspose(inPixels, outPixels, width, height);
+    }
+
+    private static Kernels load() {
+        if(!Boolean.parseBoolean(System.getProperty(VECTOR_PROPERTY, "true"))
+                || !ModuleLayer.boot().findModule(VECTOR_MODULE).isPresent()) {
+            return new Kernels();
+        }
+        try {
+            return (Kernels)Class.forName(VECTOR_KERNELS).getDeclaredConstructor().newInstance();
+        }
+        catch(final ReflectiveOperationException | LinkageError e) {
+            // built without the SIMD kernels or running on an unsupported platform
+            log.log(Level.FINE, "Vector API kernels not available, using the scalar ones", e);
+            return new Kernels();
+        }
+    }
+}
@@ -3,9 +3,7 @@ package org.ontal.imgutil.scaling;
 import java.awt.image.BufferedImage;
 
 import org.ontal.imgutil.Dimension;
-
-import com.mortennobel.imagescaling.AdvancedResizeOp;
-import com.mortennobel.imagescaling.ResampleOp;
+import org.ontal.imgutil.TransformSpec;
 
 /**
  * Limit scaling transformation implementation class.
@@ -15,57 +13,44 @@ import com.mortennobel.imagescaling.ResampleOp;
  */
 public class LimitImage extends TransformImage {
 
-    public LimitImage(final BufferedImage inputImage) {
-        super(inputImage);
+    public LimitImage() {
+        super();
     }
 
-    @Override
-    protected void validateArguments(final Object... args) {
-        final Dimension dimension = (Dimension)args[0];
-        final int size = (int)args[1];
-
-        if(dimension == null) {
-            throw new IllegalArgumentException("Dimension argument cannot be null");
-        }
-        if(size <= 0) {
-            throw new IllegalArgumentException("Invalid dimension size argument");
-        }
+    public LimitImage(final Resampler resampler) {
+        super(resampler);
     }
 
     @Override
-    protected int calculateOutputWidth(final Object... args) {
-        final Dimension dimension = (Dimension)args[0];
-        final int size = (int)args[1];
-
-        if(Dimension.WIDTH.equals(dimension)) {
-            return size;
+    protected int calculateOutputWidth(final TransformSpec spec, final float inputRatio) {
+        if(Dimension.WIDTH.equals(spec.getDimension())) {
+            return spec.getSize();
         }
         else {
-            return (int)Math.floor((double)size / inputRatio);
+            return (int)Math.floor((double)spec.getSize() * inputRatio);
         }
     }
 
     @Override
-    protected int calculateOutputHeight(final Object... args) {
-        final Dimension dimension = (Dimension)args[0];
-        final int size = (int)args[1];
-
-        if(Dimension.WIDTH.equals(dimension)) {
-            return (int)Math.floor((double)size / inputRatio);
+    protected int calculateOutputHeight(final TransformSpec spec, final float inputRatio) {
+        if(Dimension.WIDTH.equals(spec.getDimension())) {
+            return (int)Math.floor((double)spec.getSize() / inputRatio);
         }
         else {
-            return size;
+            return spec.getSize();
         }
     }
 
     @Override
-    protected BufferedImage process() {
+    protected boolean isScaledOutput(final ScalingPlan plan) {
+        return true;
+    }
+
+    @Override
+    protected BufferedImage composeImage(final BufferedImage scaledImage, final ScalingPlan plan) {
 
-        // straight scale the image sharpening it if it's too small
-        final ResampleOp resampleOp = new ResampleOp(outputWidth, outputHeight);
-        resampleOp.setUnsharpenMask(requiresUnsharpening(outputWidth, outputHeight) ? 
-                AdvancedResizeOp.UnsharpenMask.Soft : AdvancedResizeOp.UnsharpenMask.None);
-        return resampleOp.filter(inputImage, null);
+        // the image is straight scaled to the output dimensions
+        return scaledImage;
     }
 
 }
@@ -0,0 +1,292 @@
+package org.ontal.imgutil.scaling;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.awt.image.Raster;
+
+import com.mortennobel.imagescaling.ImageUtils;
+
+/**
+ * Pixel format conversions between the decoded images and the working
+ * bitmap types of the {@link Resampler}.
+ * <br><br>
+ * Palette, 16 bit, gray with alpha and other custom images are converted
+ * once into <code>TYPE_4BYTE_ABGR</code> when they have alpha, into
+ * <code>TYPE_BYTE_GRAY</code> when they are opaque gray and into
+ * <code>TYPE_3BYTE_BGR</code> otherwise. The conversion reads the raster
+ * data directly instead of going through the generic Java2D loops, which
+ * call the color model for every pixel, and copies the samples of the
+ * images with alpha exactly instead of compositing them onto a transparent
+ * canvas. Images of the other standard types are already processed
+ * natively and are left as they are.
+ * <br><br>
+ * Gray samples are copied unchanged, the same way Java2D copies the
+ * <code>TYPE_BYTE_GRAY</code> images, so gray images with alpha are no
+ * longer brightened by the linear to sRGB conversion of their color space.
+ */
+public final class PixelFormats {
+
+    private static final int MAX_CHANNEL_VALUE = 255;
+
+    private PixelFormats() {
+    }
+
+    /**
+     * Checks whether the images of the provided bitmap type are converted
+     * before being processed.
+     *
+     * @param imageType image bitmap type
+     * @return <code>true</code> if the images are normalized
+     */
+    public static boolean requiresNormalization(final int imageType) {
+        return imageType == BufferedImage.TYPE_CUSTOM || imageType == BufferedImage.TYPE_BYTE_BINARY
+                || imageType == BufferedImage.TYPE_BYTE_INDEXED || imageType == BufferedImage.TYPE_USHORT_GRAY;
+    }
+
+    /**
+     * Returns the bitmap type the provided image is processed in.
+     *
+     * @param image image
+     * @return image type, the type of the image itself if it's not normalized
+     */
+    public static int getWorkingType(final BufferedImage image) {
+        final int type = image.getType();
+        if(!requiresNormalization(type)) {
+            return type;
+        }
+        final ColorModel colorModel = image.getColorModel();
+        if(colorModel.hasAlpha()) {
+            return BufferedImage.TYPE_4BYTE_ABGR;
+        }
+        if(type == BufferedImage.TYPE_USHORT_GRAY || isGray(colorModel) && !(colorModel instanceof IndexColorModel)) {
+            return BufferedImage.TYPE_BYTE_GRAY;
+        }
+        return BufferedImage.TYPE_3BYTE_BGR;
+    }
+
+    /**
+     * Converts the image into its working bitmap type.
+     *
+     * @param image image
+     * @return converted image or the image itself if it's not normalized
+     */
+    public static BufferedImage normalize(final BufferedImage image) {
+        if(image == null) {
+            throw new IllegalArgumentException("Image argument cannot be null");
+        }
+        if(!requiresNormalization(image.getType())) {
+            return image;
+        }
+
+        final int workingType = getWorkingType(image);
+        final ColorModel colorModel = image.getColorModel();
+        if(image.getType() == BufferedImage.TYPE_USHORT_GRAY
+                || image.getType() == BufferedImage.TYPE_BYTE_INDEXED && !colorModel.hasAlpha()) {
+            // Java2D has native conversion loops for these
+            return ImageUtils.convert(image, workingType);
+        }
+
+        final BufferedImage outputImage = new BufferedImage(image.getWidth(), image.getHeight(), workingType);
+        final Raster raster = image.getRaster();
+        if(colorModel instanceof IndexColorModel) {
+            convertIndexed(raster, (IndexColorModel)colorModel, outputImage);
+            return outputImage;
+        }
+        if(colorModel instanceof ComponentColorModel && !colorModel.isAlphaPremultiplied()
+                && (colorModel.getColorSpace().isCS_sRGB() || isGray(colorModel))
+                && raster.getSampleModel() instanceof ComponentSampleModel
+                && raster.getNumBands() == colorModel.getNumComponents()) {
+            final int dataType = raster.getDataBuffer().getDataType();
+            if(dataType == DataBuffer.TYPE_BYTE && hasComponentSize(colorModel, 8)
+                    || dataType == DataBuffer.TYPE_USHORT && hasComponentSize(colorModel, 16)) {
+                convertComponents(raster, colorModel, outputImage);
+                return outputImage;
+            }
+        }
+        return ImageUtils.convert(image, workingType);
+    }
+
+    /**
+     * Converts the image into an opaque <code>TYPE_3BYTE_BGR</code> image
+     * composing it over the provided background color, e.g. for the image
+     * formats not supporting alpha.
+     *
+     * @param image image
+     * @param background background color
+     * @return opaque image or the image itself if it has no alpha
+     */
+    public static BufferedImage flatten(final BufferedImage image, final Color background) {
+        if(image == null) {
+            throw new IllegalArgumentException("Image argument cannot be null");
+        }
+        if(background == null) {
+            throw new IllegalArgumentException("Background argument cannot be null");
+        }
+        if(!image.getColorModel().hasAlpha()) {
+            return image;
+        }
+
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final BufferedImage outputImage = new BufferedImage(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        if(image.getType() != BufferedImage.TYPE_4BYTE_ABGR) {
+            final Graphics2D g = outputImage.createGraphics();
+            try {
+                g.setColor(background);
+                g.fillRect(0, 0, width, height);
+                g.drawImage(image, 0, 0, null);
+            }
+            finally {
+                g.dispose();
+            }
+            return outputImage;
+        }
+
+        final Raster raster = image.getRaster();
+        final ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+        final byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+        final int scanline = sampleModel.getScanlineStride();
+        final int start = getOffset(raster, 3);
+        final byte[] output = ((DataBufferByte)outputImage.getRaster().getDataBuffer()).getData();
+        final int[] bgr = { background.getBlue(), background.getGreen(), background.getRed() };
+
+        int j = 0;
+        for(int y = 0; y < height; y++) {
+            int i = start + y * scanline;
+            for(int x = 0; x < width; x++) {
+                final int alpha = data[i++] & 0xff;
+                final int transparency = MAX_CHANNEL_VALUE - alpha;
+                for(int c = 0; c < 3; c++) {
+                    output[j++] = (byte)(((data[i++] & 0xff) * alpha + bgr[c] * transparency + 127) / MAX_CHANNEL_VALUE);
+                }
+            }
+        }
+        return outputImage;
+    }
+
+    /**
+     * Looks up the palette entries of the indexed pixels.
+     */
+    private static void convertIndexed(final Raster raster, final IndexColorModel colorModel,
+            final BufferedImage outputImage) {
+        final int width = raster.getWidth();
+        final int height = raster.getHeight();
+        final boolean alpha = ImageUtils.nrChannels(outputImage) == 4;
+        final int[] palette = new int[Math.max(colorModel.getMapSize(), 1 << Math.min(colorModel.getPixelSize(), 16))];
+        colorModel.getRGBs(palette);
+
+        final byte[] output = ((DataBufferByte)outputImage.getRaster().getDataBuffer()).getData();
+        final boolean direct = raster.getDataBuffer() instanceof DataBufferByte
+                && raster.getSampleModel() instanceof ComponentSampleModel;
+        final byte[] data = direct ? ((DataBufferByte)raster.getDataBuffer()).getData() : null;
+        final int[] row = direct ? null : new int[width];
+        int j = 0;
+        for(int y = 0; y < height; y++) {
+            int i = 0;
+            int pixelStride = 1;
+            if(direct) {
+                final ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+                i = getOffset(raster, 0) + y * sampleModel.getScanlineStride();
+                pixelStride = sampleModel.getPixelStride();
+            }
+            else {
+                raster.getSamples(raster.getMinX(), raster.getMinY() + y, width, 1, 0, row);
+            }
+            for(int x = 0; x < width; x++, i += pixelStride) {
+                final int argb = palette[direct ? data[i] & 0xff : row[x]];
+                if(alpha) {
+                    output[j++] = (byte)(argb >>> 24);
+                }
+                output[j++] = (byte)argb;
+                output[j++] = (byte)(argb >> 8);
+                output[j++] = (byte)(argb >> 16);
+            }
+        }
+    }
+
+    /**
+     * Copies the 8 or 16 bit color and alpha samples into the interleaved
+     * output layout, reducing the 16 bit samples to 8 bits.
+     */
+    private static void convertComponents(final Raster raster, final ColorModel colorModel,
+            final BufferedImage outputImage) {
+        final int width = raster.getWidth();
+        final int height = raster.getHeight();
+        final ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+        final DataBuffer dataBuffer = raster.getDataBuffer();
+        final int colorBands = colorModel.getNumColorComponents();
+        final int pixelStride = sampleModel.getPixelStride();
+        final int scanline = sampleModel.getScanlineStride();
+        final int[] banks = sampleModel.getBankIndices();
+        final byte[] output = ((DataBufferByte)outputImage.getRaster().getDataBuffer()).getData();
+
+        // output sample order: alpha first if present, then blue, green and red, or the single gray sample
+        final int channels = ImageUtils.nrChannels(outputImage);
+        for(int c = 0; c < channels; c++) {
+            final int band;
+            if(colorModel.hasAlpha() && c == 0) {
+                band = colorBands;
+            }
+            else {
+                band = colorBands == 1 ? 0 : channels - 1 - c;
+            }
+            final int offset = getOffset(raster, band);
+
+            if(dataBuffer instanceof DataBufferByte) {
+                final byte[] data = ((DataBufferByte)dataBuffer).getData(banks[band]);
+                for(int y = 0; y < height; y++) {
+                    int i = offset + y * scanline;
+                    int j = y * width * channels + c;
+                    for(int x = 0; x < width; x++, i += pixelStride, j += channels) {
+                        output[j] = data[i];
+                    }
+                }
+            }
+            else {
+                final short[] data = ((DataBufferUShort)dataBuffer).getData(banks[band]);
+                for(int y = 0; y < height; y++) {
+                    int i = offset + y * scanline;
+                    int j = y * width * channels + c;
+                    for(int x = 0; x < width; x++, i += pixelStride, j += channels) {
+                        // rounds sample * 255 / 65535
+                        output[j] = (byte)(((data[i] & 0xffff) * MAX_CHANNEL_VALUE + 32895) >> 16);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the data array index of the first sample of the band in the
+     * raster, which may be a child of a larger raster.
+     */
+    static int getOffset(final Raster raster, final int band) {
+        final ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+        final int bank = sampleModel.getBankIndices()[band];
+        return raster.getDataBuffer().getOffsets()[bank]
+                + sampleModel.getOffset(raster.getMinX() - raster.getSampleModelTranslateX(),
+                        raster.getMinY() - raster.getSampleModelTranslateY(), band);
+    }
+
+    private static boolean hasComponentSize(final ColorModel colorModel, final int bits) {
+        for(final int size : colorModel.getComponentSize()) {
+            if(size != bits) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean isGray(final ColorModel colorModel) {
+        return colorModel.getColorSpace().getType() == ColorSpace.TYPE_GRAY;
+    }
+}
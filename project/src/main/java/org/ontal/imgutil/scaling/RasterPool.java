@@ -0,0 +1,201 @@
+package org.ontal.imgutil.scaling;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of released images reused for the following images of the same
+ * dimensions and bitmap type, e.g. the scaled images and the canvases of a
+ * batch producing many thumbnails of the same size, which otherwise
+ * allocate a new multi-megabyte raster per image.
+ * <br><br>
+ * The pool is used by the transformations once set to their resampler, see
+ * {@link Resampler#withRasterPool(RasterPool)}, for all the images they
+ * allocate, and the intermediate images are released back to it by the
+ * transformations themselves. The produced images belong to the caller and
+ * are only pooled when the caller explicitly releases them with
+ * {@link #release(BufferedImage)} once they are no longer used, e.g. after
+ * encoding them. Images never released are simply garbage collected.
+ * <br><br>
+ * Acquired images are cleared, so they are the same as newly created ones.
+ * The pool retains images up to the provided number of bytes and is safe
+ * to be shared between threads.
+ */
+public final class RasterPool {
+
+    private final long maxBytes;
+    private final AtomicLong retainedBytes = new AtomicLong();
+    private final ConcurrentMap<Key, Deque<BufferedImage>> images = new ConcurrentHashMap<>();
+
+    /**
+     * Creates pool.
+     *
+     * @param maxBytes maximum number of bytes of the retained images
+     */
+    public RasterPool(final long maxBytes) {
+        if(maxBytes <= 0) {
+            throw new IllegalArgumentException("Invalid max bytes argument");
+        }
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Returns a cleared pooled image of the provided dimensions and type, or
+     * a new image if none is pooled.
+     *
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param imageType image bitmap type
+     * @return image
+     */
+    public BufferedImage acquire(final int width, final int height, final int imageType) {
+        if(width <= 0 || height <= 0) {
+            throw new IllegalArgumentException("Invalid image dimensions " + width + "x" + height);
+        }
+        final Deque<BufferedImage> pooled = images.get(new Key(width, height, imageType));
+        final BufferedImage image = pooled == null ? null : pooled.pollFirst();
+        if(image == null) {
+            return new BufferedImage(width, height, imageType);
+        }
+        retainedBytes.addAndGet(-sizeOf(image));
+        clear(image.getRaster().getDataBuffer());
+        return image;
+    }
+
+    /**
+     * Returns the image to the pool. The image, and any image sharing its
+     * raster, must not be used after it has been released. Sub-images and
+     * images of custom bitmap types are not pooled, neither are the images
+     * exceeding the pool capacity.
+     *
+     * @param image image no longer used
+     * @return <code>true</code> if the image is retained, otherwise <code>false</code>
+     */
+    public boolean release(final BufferedImage image) {
+        if(image == null) {
+            throw new IllegalArgumentException("Image argument cannot be null");
+        }
+        if(image.getType() == BufferedImage.TYPE_CUSTOM || image.getRaster().getParent() != null) {
+            return false;
+        }
+        final long size = sizeOf(image);
+        if(retainedBytes.addAndGet(size) > maxBytes) {
+            retainedBytes.addAndGet(-size);
+            return false;
+        }
+        final Deque<BufferedImage> pooled = images.computeIfAbsent(
+                new Key(image.getWidth(), image.getHeight(), image.getType()), key -> new ConcurrentLinkedDeque<>());
+        final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        for(final BufferedImage pooledImage : pooled) {
+            if(pooledImage.getRaster().getDataBuffer() == dataBuffer) {
+
+                // already released
+                retainedBytes.addAndGet(-size);
+                return false;
+            }
+        }
+        pooled.offerFirst(image);
+        return true;
+    }
+
+    /**
+     * Drops all the retained images.
+     */
+    public void clear() {
+        for(final Deque<BufferedImage> pooled : images.values()) {
+            BufferedImage image;
+            while((image = pooled.pollFirst()) != null) {
+                retainedBytes.addAndGet(-sizeOf(image));
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the retained images.
+     *
+     * @return retained bytes
+     */
+    public long getRetainedBytes() {
+        return retainedBytes.get();
+    }
+
+    /**
+     * Returns the maximum number of bytes of the retained images.
+     *
+     * @return max bytes
+     */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private static long sizeOf(final BufferedImage image) {
+        final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        return (long)dataBuffer.getSize() * dataBuffer.getNumBanks()
+                * DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8;
+    }
+
+    private static void clear(final DataBuffer dataBuffer) {
+        for(int bank = 0; bank < dataBuffer.getNumBanks(); bank++) {
+            if(dataBuffer instanceof DataBufferByte) {
+                Arrays.fill(((DataBufferByte)dataBuffer).getData(bank), (byte)0);
+            }
+            else if(dataBuffer instanceof DataBufferInt) {
+                Arrays.fill(((DataBufferInt)dataBuffer).getData(bank), 0);
+            }
+            else if(dataBuffer instanceof DataBufferUShort) {
+                Arrays.fill(((DataBufferUShort)dataBuffer).getData(bank), (short)0);
+            }
+            else if(dataBuffer instanceof DataBufferShort) {
+                Arrays.fill(((DataBufferShort)dataBuffer).getData(bank), (short)0);
+            }
+            else if(dataBuffer instanceof DataBufferFloat) {
+                Arrays.fill(((DataBufferFloat)dataBuffer).getData(bank), 0f);
+            }
+            else if(dataBuffer instanceof DataBufferDouble) {
+                Arrays.fill(((DataBufferDouble)dataBuffer).getData(bank), 0d);
+            }
+        }
+    }
+
+    /**
+     * Pooled image dimensions and bitmap type.
+     */
+    private static final class Key {
+
+        private final int width;
+        private final int height;
+        private final int imageType;
+
+        Key(final int width, final int height, final int imageType) {
+            this.width = width;
+            this.height = height;
+            this.imageType = imageType;
+        }
+
+        @Override
+        public boolean equals(final Object obj) {
+            if(!(obj instanceof Key)) {
+                return false;
+            }
+            final Key key = (Key)obj;
+            return width == key.width && height == key.height && imageType == key.imageType;
+        }
+
+        @Override
+        public int hashCode() {
+            return (width * 31 + height) * 31 + imageType;
+        }
+    }
+}
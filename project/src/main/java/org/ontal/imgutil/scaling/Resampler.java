@@ -0,0 +1,1256 @@
+package org.ontal.imgutil.scaling;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+import com.mortennobel.imagescaling.ImageUtils;
+import com.mortennobel.imagescaling.ResampleFilter;
+import com.mortennobel.imagescaling.ResampleFilters;
+
+/**
+ * Separable image resampler. Scales the image applying the resampling filter
+ * horizontally from the source rows into a work buffer and then vertically
+ * from the work buffer into the output image. The algorithm and its
+ * numerical precision are the same as the ones of the java-image-scaling
+ * <code>ResampleOp</code>, so both produce identical images.
+ * <br><br>
+ * Images with at least as many source pixels as the parallelism threshold
+ * are processed in row bands on a fork-join pool, the bands of both passes
+ * being split independently. Every output sample is always calculated the
+ * same way regardless of the band it falls in, so the parallel and the
+ * sequential processing produce byte identical images. Smaller images are
+ * processed entirely on the calling thread.
+ * <br><br>
+ * The filter contributors are calculated once per source and output
+ * dimension and cached by the resampler, and the work buffers are kept per
+ * thread and reused by the following calls, so repeated resampling to the
+ * same dimensions allocates little more than the output image itself,
+ * which can be pooled as well, see {@link #withRasterPool(RasterPool)}.
+ * <br><br>
+ * The inner loops run on the JDK Vector API when it's available, see
+ * {@link #isVectorized()}.
+ * <br><br>
+ * Images too big to be held in memory can be resampled while they are read
+ * in bands, see {@link #bands(BandResampler.Source, int, int, int, int)}.
+ * <br><br>
+ * Instances are immutable and can be shared between threads.
+ */
+public final class Resampler {
+
+    /**
+     * Default parallelism threshold in source pixels.
+     */
+    public static final long DEFAULT_PARALLEL_THRESHOLD = 2_000_000;
+
+    private static final Resampler DEFAULT = new Resampler();
+
+    /**
+     * Distance in pixels up to which the unsharp mask of a pixel depends on
+     * its neighbours.
+     */
+    static final int UNSHARP_RADIUS = 2;
+
+    private static final int MAX_CHANNEL_VALUE = 255;
+    private static final int BANDS_PER_THREAD = 4;
+    private static final int MAX_CACHED_CONTRIBUTORS = 512;
+    private static final int UNSHARP_THRESHOLD = 10;
+    static final float[] UNSHARP_KERNEL = createGaussianKernel(UNSHARP_RADIUS);
+
+    private static final ThreadLocal<Scratch> SCRATCH = ThreadLocal.withInitial(Scratch::new);
+
+    private final ResampleFilter filter;
+    private final long parallelThreshold;
+    private final ForkJoinPool pool;
+    private final RasterPool rasterPool;
+    private final ConcurrentMap<Long, Contributors> contributors = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Resampler> filtered = new ConcurrentHashMap<>();
+
+    /**
+     * Creates resampler using the Lanczos3 filter, the default parallelism
+     * threshold and the common fork-join pool.
+     */
+    public Resampler() {
+        this(ResampleFilters.getLanczos3Filter(), DEFAULT_PARALLEL_THRESHOLD, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Creates resampler.
+     *
+     * @param filter resampling filter
+     * @param parallelThreshold minimum number of source pixels for the image to be processed in parallel,
+     *         {@link Long#MAX_VALUE} to always process on the calling thread
+     * @param pool fork-join pool used for the parallel processing
+     */
+    public Resampler(final ResampleFilter filter, final long parallelThreshold, final ForkJoinPool pool) {
+        this(filter, parallelThreshold, pool, null);
+    }
+
+    private Resampler(final ResampleFilter filter, final long parallelThreshold, final ForkJoinPool pool,
+            final RasterPool rasterPool) {
+        if(filter == null) {
+            throw new IllegalArgumentException("Filter argument cannot be null");
+        }
+        if(parallelThreshold < 0) {
+            throw new IllegalArgumentException("Invalid parallelism threshold argument");
+        }
+        if(pool == null) {
+            throw new IllegalArgumentException("Pool argument cannot be null");
+        }
+        this.filter = filter;
+        this.parallelThreshold = parallelThreshold;
+        this.pool = pool;
+        this.rasterPool = rasterPool;
+    }
+
+    /**
+     * Returns the shared default resampler.
+     *
+     * @return default resampler
+     */
+    public static Resampler getDefault() {
+        return DEFAULT;
+    }
+
+    /**
+     * Tells if the resampling and the unsharp mask loops run on the JDK
+     * Vector API, which needs a Java 17+ JVM started with <code>--add-modules jdk.incubator.vector</code>. The
+     * produced images are the same either way.
+     *
+     * @return <code>true</code> if the loops are SIMD ones, otherwise <code>false</code>
+     */
+    public static boolean isVectorized() {
+        return Kernels.get().isVectorized();
+    }
+
+    /**
+     * Returns resampling filter.
+     *
+     * @return resampling filter
+     */
+    public ResampleFilter getFilter() {
+        return filter;
+    }
+
+    /**
+     * Returns resampler using the provided filter with the same parallelism
+     * threshold and pool. The returned resamplers are kept by this one per
+     * filter name, so their filter contributors stay cached as well.
+     *
+     * @param filter resampling filter
+     * @return resampler, this one if it uses a filter with the same name
+     */
+    public Resampler withFilter(final ResampleFilter filter) {
+        if(filter == null) {
+            throw new IllegalArgumentException("Filter argument cannot be null");
+        }
+        if(filter.getName().equals(this.filter.getName())) {
+            return this;
+        }
+        return filtered.computeIfAbsent(filter.getName(), name -> new Resampler(filter, parallelThreshold, pool, rasterPool));
+    }
+
+    /**
+     * Returns resampler with the same filter, parallelism threshold and pool
+     * allocating the images from the provided raster pool, see
+     * {@link RasterPool}. The returned resampler has its own contributor
+     * cache, so it should be created once and shared.
+     *
+     * @param rasterPool raster pool, <code>null</code> to allocate new images
+     * @return resampler
+     */
+    public Resampler withRasterPool(final RasterPool rasterPool) {
+        return new Resampler(filter, parallelThreshold, pool, rasterPool);
+    }
+
+    /**
+     * Returns raster pool the images are allocated from.
+     *
+     * @return raster pool or <code>null</code> if new images are allocated
+     */
+    public RasterPool getRasterPool() {
+        return rasterPool;
+    }
+
+    /**
+     * Returns parallelism threshold.
+     *
+     * @return minimum number of source pixels for the image to be processed in parallel
+     */
+    public long getParallelThreshold() {
+        return parallelThreshold;
+    }
+
+    /**
+     * Scales the source image to the provided dimensions.
+     *
+     * @param sourceImage source image
+     * @param width output width in pixels, at least 3
+     * @param height output height in pixels, at least 3
+     * @return scaled image
+     */
+    public BufferedImage resample(final BufferedImage sourceImage, final int width, final int height) {
+        return resample(sourceImage, width, height, 0, 0, width, height);
+    }
+
+    /**
+     * Scales the source image to the provided dimensions producing only the
+     * provided region of the scaled image. Only the source pixels that
+     * contribute to the region are resampled, and the produced image is
+     * identical to the same region cropped from the whole scaled image.
+     *
+     * @param sourceImage source image
+     * @param width scaled width in pixels, at least 3
+     * @param height scaled height in pixels, at least 3
+     * @param x horizontal position of the region within the scaled image
+     * @param y vertical position of the region within the scaled image
+     * @param regionWidth region width in pixels
+     * @param regionHeight region height in pixels
+     * @return scaled image region
+     */
+    public BufferedImage resample(final BufferedImage sourceImage, final int width, final int height,
+            final int x, final int y, final int regionWidth, final int regionHeight) {
+        if(regionWidth <= 0 || regionHeight <= 0) {
+            throw new IllegalArgumentException("Invalid region " + regionWidth + "x" + regionHeight);
+        }
+        final BufferedImage source = PixelFormats.normalize(sourceImage);
+        return process(source, null, width, height, x, y,
+                createImage(regionWidth, regionHeight, getResultType(ImageUtils.nrChannels(source))));
+    }
+
+    /**
+     * Scales the source image to the dimensions of the destination image
+     * writing the scaled pixels straight into it. The destination can be a
+     * sub-image of a bigger image, e.g. the part of a canvas the scaled image
+     * is placed onto, which avoids allocating and copying an intermediate
+     * scaled image.
+     *
+     * @param sourceImage source image
+     * @param destinationImage destination image of the type returned by {@link #getResultType(BufferedImage)}
+     *         for the source image, at least 3x3 pixels
+     * @return destination image
+     */
+    public BufferedImage resample(final BufferedImage sourceImage, final BufferedImage destinationImage) {
+        return resample(sourceImage, destinationImage.getWidth(), destinationImage.getHeight(), 0, 0, destinationImage);
+    }
+
+    /**
+     * Scales the source image to the provided dimensions writing only the
+     * provided region of the scaled image straight into the destination
+     * image, see {@link #resample(BufferedImage, int, int, int, int, int, int)}
+     * and {@link #resample(BufferedImage, BufferedImage)}.
+     *
+     * @param sourceImage source image
+     * @param width scaled width in pixels, at least 3
+     * @param height scaled height in pixels, at least 3
+     * @param x horizontal position of the region within the scaled image
+     * @param y vertical position of the region within the scaled image
+     * @param destinationImage destination image of the region dimensions and of the type returned by
+     *         {@link #getResultType(BufferedImage)} for the source image
+     * @return destination image
+     */
+    public BufferedImage resample(final BufferedImage sourceImage, final int width, final int height,
+            final int x, final int y, final BufferedImage destinationImage) {
+        final BufferedImage source = PixelFormats.normalize(sourceImage);
+        if(destinationImage.getType() != getResultType(ImageUtils.nrChannels(source))) {
+            throw new IllegalArgumentException("Invalid destination image type " + destinationImage.getType());
+        }
+        return process(source, null, width, height, x, y, destinationImage);
+    }
+
+    /**
+     * Scales a source image of which only the provided window is available,
+     * e.g. the decoded region of a big image, to the provided dimensions
+     * writing only the provided region of the scaled image straight into the
+     * destination image. The filter contributors are calculated for the
+     * whole source image, so the produced region is identical to the one
+     * produced from the whole source image, provided the window holds all
+     * the source pixels contributing to it, see
+     * {@link #getSourceWindow(int, int, int, int, int, int, int, int)}.
+     *
+     * @param windowImage source image window
+     * @param window position of the window within the source image
+     * @param width scaled width in pixels, at least 3
+     * @param height scaled height in pixels, at least 3
+     * @param x horizontal position of the region within the scaled image
+     * @param y vertical position of the region within the scaled image
+     * @param destinationImage destination image of the region dimensions and of the type returned by
+     *         {@link #getResultType(BufferedImage)} for the source image
+     * @return destination image
+     */
+    public BufferedImage resample(final BufferedImage windowImage, final SourceWindow window,
+            final int width, final int height, final int x, final int y, final BufferedImage destinationImage) {
+        if(window == null) {
+            throw new IllegalArgumentException("Source window argument cannot be null");
+        }
+        if(windowImage.getWidth() != window.getWidth() || windowImage.getHeight() != window.getHeight()) {
+            throw new IllegalArgumentException("Invalid window image dimensions " + windowImage.getWidth() + "x"
+                    + windowImage.getHeight() + " for the source window " + window);
+        }
+        final BufferedImage source = PixelFormats.normalize(windowImage);
+        if(destinationImage.getType() != getResultType(ImageUtils.nrChannels(source))) {
+            throw new IllegalArgumentException("Invalid destination image type " + destinationImage.getType());
+        }
+        return process(source, window.isWhole() ? null : window, width, height, x, y, destinationImage);
+    }
+
+    /**
+     * Returns the smallest window of a source image of the provided
+     * dimensions holding all the source pixels that contribute to the
+     * provided region of the scaled image, i.e. the region widened by the
+     * filter support expressed in source pixels.
+     *
+     * @param sourceWidth source image width in pixels
+     * @param sourceHeight source image height in pixels
+     * @param width scaled width in pixels, at least 3
+     * @param height scaled height in pixels, at least 3
+     * @param x horizontal position of the region within the scaled image
+     * @param y vertical position of the region within the scaled image
+     * @param regionWidth region width in pixels
+     * @param regionHeight region height in pixels
+     * @return source window
+     */
+    public SourceWindow getSourceWindow(final int sourceWidth, final int sourceHeight, final int width,
+            final int height, final int x, final int y, final int regionWidth, final int regionHeight) {
+        if(width < 3 || height < 3) {
+            throw new IllegalArgumentException("Invalid output dimensions " + width + "x" + height + ", must be at least 3x3");
+        }
+        if(x < 0 || y < 0 || regionWidth <= 0 || regionHeight <= 0 || x + regionWidth > width || y + regionHeight > height) {
+            throw new IllegalArgumentException("Invalid region " + regionWidth + "x" + regionHeight + " at " + x + "," + y
+                    + " of " + width + "x" + height);
+        }
+        final Contributors horizontal = getContributors(sourceWidth, width);
+        final Contributors vertical = getContributors(sourceHeight, height);
+        final int left = horizontal.first(x, x + regionWidth);
+        final int top = vertical.first(y, y + regionHeight);
+        return new SourceWindow(left, top, horizontal.last(x, x + regionWidth) + 1 - left,
+                vertical.last(y, y + regionHeight) + 1 - top, sourceWidth, sourceHeight);
+    }
+
+    /**
+     * Creates a band resampler scaling the image read from the provided
+     * source in bands to the provided dimensions with the filter of this
+     * resampler, see {@link BandResampler}.
+     *
+     * @param source band source
+     * @param sourceWidth source image width in pixels
+     * @param sourceHeight source image height in pixels
+     * @param width output width in pixels, at least 3
+     * @param height output height in pixels, at least 3
+     * @return band resampler
+     */
+    public BandResampler bands(final BandResampler.Source source, final int sourceWidth, final int sourceHeight,
+            final int width, final int height) {
+        return new BandResampler(this, source, sourceWidth, sourceHeight, width, height);
+    }
+
+    /**
+     * Returns the bitmap type of the images produced from the provided
+     * source image.
+     *
+     * @param sourceImage source image
+     * @return image type, one of <code>TYPE_3BYTE_BGR</code>, <code>TYPE_4BYTE_ABGR</code>
+     *         or <code>TYPE_BYTE_GRAY</code>
+     */
+    public static int getResultType(final BufferedImage sourceImage) {
+        if(PixelFormats.requiresNormalization(sourceImage.getType())) {
+            return PixelFormats.getWorkingType(sourceImage);
+        }
+        return getResultType(ImageUtils.nrChannels(sourceImage));
+    }
+
+    private BufferedImage process(final BufferedImage source, final SourceWindow window, final int width,
+            final int height, final int x, final int y, final BufferedImage outputImage) {
+        final int regionWidth = outputImage.getWidth();
+        final int regionHeight = outputImage.getHeight();
+        if(width < 3 || height < 3) {
+            throw new IllegalArgumentException("Invalid output dimensions " + width + "x" + height + ", must be at least 3x3");
+        }
+        if(x < 0 || y < 0 || x + regionWidth > width || y + regionHeight > height) {
+            throw new IllegalArgumentException("Invalid region " + regionWidth + "x" + regionHeight + " at " + x + "," + y
+                    + " of " + width + "x" + height);
+        }
+
+        final int channels = ImageUtils.nrChannels(source);
+        final Scratch scratch = Scratch.acquire();
+        try {
+            final Job job = new Job(source, window, width, height, x, y, outputImage, channels, scratch);
+            final boolean parallel = (long)job.sourceWidth * (job.endRow - job.firstRow) >= parallelThreshold
+                    && pool.getParallelism() > 1;
+
+            if(parallel) {
+                final int bandRows = Math.max(1, (job.endRow - job.firstRow) / (pool.getParallelism() * BANDS_PER_THREAD));
+                pool.invoke(new Band(job, true, job.firstRow, job.endRow, bandRows));
+                pool.invoke(new Band(job, false, 0, regionHeight,
+                        Math.max(1, regionHeight / (pool.getParallelism() * BANDS_PER_THREAD))));
+            }
+            else {
+                job.horizontal(job.firstRow, job.endRow);
+                job.vertical(0, regionHeight);
+            }
+
+            return outputImage;
+        }
+        finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Halves the source image averaging every 2x2 source pixels, which is
+     * what resampling it to half of its dimensions with the box filter does,
+     * without calculating and applying the filter contributors. An odd last
+     * row or column is left out.
+     *
+     * @param sourceImage source image, at least 2x2 pixels
+     * @return halved image of the type returned by {@link #getResultType(BufferedImage)}
+     */
+    public BufferedImage halve(final BufferedImage sourceImage) {
+        final int width = sourceImage.getWidth() / 2;
+        final int height = sourceImage.getHeight() / 2;
+        if(width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid source dimensions " + sourceImage.getWidth() + "x"
+                    + sourceImage.getHeight() + ", must be at least 2x2");
+        }
+
+        final int type = sourceImage.getType();
+        final Raster raster = sourceImage.getRaster();
+        if(type == BufferedImage.TYPE_3BYTE_BGR || type == BufferedImage.TYPE_4BYTE_ABGR
+                || type == BufferedImage.TYPE_BYTE_GRAY) {
+            final BufferedImage outputImage = createImage(width, height, type);
+            final byte[] output = ((DataBufferByte)outputImage.getRaster().getDataBuffer()).getData();
+            final byte[] data = ((DataBufferByte)raster.getDataBuffer()).getData();
+            final ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+            final int scanline = sampleModel.getScanlineStride();
+            final int channels = sampleModel.getPixelStride();
+            // the standard types keep the first sample of the pixel at band offset 0
+            final int start = PixelFormats.getOffset(raster, 0) - sampleModel.getBandOffsets()[0];
+
+            int j = 0;
+            for(int y = 0; y < height; y++) {
+                final int top = start + 2 * y * scanline;
+                final int bottom = top + scanline;
+                for(int x = 0; x < width; x++) {
+                    final int i = 2 * x * channels;
+                    for(int c = i; c < i + channels; c++) {
+                        output[j++] = (byte)(((data[top + c] & 0xff) + (data[top + c + channels] & 0xff)
+                                + (data[bottom + c] & 0xff) + (data[bottom + c + channels] & 0xff) + 2) >> 2);
+                    }
+                }
+            }
+            return outputImage;
+        }
+
+        if(type == BufferedImage.TYPE_INT_RGB || type == BufferedImage.TYPE_INT_ARGB) {
+            final boolean alpha = type == BufferedImage.TYPE_INT_ARGB;
+            final BufferedImage outputImage = createImage(width, height,
+                    alpha ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_3BYTE_BGR);
+            final byte[] output = ((DataBufferByte)outputImage.getRaster().getDataBuffer()).getData();
+            final int[] data = ((DataBufferInt)raster.getDataBuffer()).getData();
+            final SinglePixelPackedSampleModel sampleModel = (SinglePixelPackedSampleModel)raster.getSampleModel();
+            final int scanline = sampleModel.getScanlineStride();
+            final int start = raster.getDataBuffer().getOffset()
+                    + sampleModel.getOffset(raster.getMinX() - raster.getSampleModelTranslateX(),
+                            raster.getMinY() - raster.getSampleModelTranslateY());
+
+            int j = 0;
+            for(int y = 0; y < height; y++) {
+                final int top = start + 2 * y * scanline;
+                final int bottom = top + scanline;
+                for(int x = 0; x < width; x++) {
+                    final int i = 2 * x;
+                    final int p0 = data[top + i];
+                    final int p1 = data[top + i + 1];
+                    final int p2 = data[bottom + i];
+                    final int p3 = data[bottom + i + 1];
+                    if(alpha) {
+                        output[j++] = average(p0, p1, p2, p3, 24);
+                    }
+                    output[j++] = average(p0, p1, p2, p3, 0);
+                    output[j++] = average(p0, p1, p2, p3, 8);
+                    output[j++] = average(p0, p1, p2, p3, 16);
+                }
+            }
+            return outputImage;
+        }
+
+        return withFilter(ResampleFilters.getBoxFilter()).resample(sourceImage, width, height);
+    }
+
+    private static byte average(final int p0, final int p1, final int p2, final int p3, final int shift) {
+        return (byte)((((p0 >>> shift) & 0xff) + ((p1 >>> shift) & 0xff)
+                + ((p2 >>> shift) & 0xff) + ((p3 >>> shift) & 0xff) + 2) >> 2);
+    }
+
+    /**
+     * Applies an unsharp mask to the image in the same way the
+     * java-image-scaling library does after resampling. The image is
+     * sharpened in place.
+     *
+     * @param image image
+     * @param amount unsharp mask amount, e.g. <code>0.15</code> for a soft mask
+     * @return sharpened image
+     */
+    public BufferedImage sharpen(final BufferedImage image, final float amount) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Scratch scratch = Scratch.acquire();
+        try {
+            final int[] inPixels = scratch.unsharpInput(width * height);
+            final int[] outPixels = scratch.unsharpOutput(width * height);
+            getRGB(image, inPixels);
+
+            Kernels.get().convolveAndTranspose(inPixels, outPixels, width, height);
+            Kernels.get().convolveAndTranspose(outPixels, inPixels, height, width);
+
+            getRGB(image, outPixels);
+
+            final float a = 4 * amount + 1;
+            final int pixels = width * height;
+            for(int i = 0; i < pixels; i++) {
+                final int rgb1 = outPixels[i];
+                int r1 = (rgb1 >> 16) & 0xff;
+                int g1 = (rgb1 >> 8) & 0xff;
+                int b1 = rgb1 & 0xff;
+
+                final int rgb2 = inPixels[i];
+                final int r2 = (rgb2 >> 16) & 0xff;
+                final int g2 = (rgb2 >> 8) & 0xff;
+                final int b2 = rgb2 & 0xff;
+
+                if(Math.abs(r1 - r2) >= UNSHARP_THRESHOLD) {
+                    r1 = clamp((int)(a * (r1 - r2) + r2));
+                }
+                if(Math.abs(g1 - g2) >= UNSHARP_THRESHOLD) {
+                    g1 = clamp((int)(a * (g1 - g2) + g2));
+                }
+                if(Math.abs(b1 - b2) >= UNSHARP_THRESHOLD) {
+                    b1 = clamp((int)(a * (b1 - b2) + b2));
+                }
+                inPixels[i] = (rgb1 & 0xff000000) | (r1 << 16) | (g1 << 8) | b1;
+            }
+
+            setRGB(image, inPixels);
+            return image;
+        }
+        finally {
+            scratch.release();
+        }
+    }
+
+    /**
+     * Creates image of the provided dimensions and type, taken from the
+     * raster pool if any.
+     *
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param imageType image bitmap type
+     * @return cleared image
+     */
+    BufferedImage createImage(final int width, final int height, final int imageType) {
+        return rasterPool == null ? new BufferedImage(width, height, imageType)
+                : rasterPool.acquire(width, height, imageType);
+    }
+
+    /**
+     * Returns the intermediate image no longer used to the raster pool if
+     * any, unless it shares its data with the image still in use.
+     *
+     * @param image intermediate image
+     * @param usedImage image still in use
+     */
+    void releaseImage(final BufferedImage image, final BufferedImage usedImage) {
+        if(rasterPool != null && image != null
+                && image.getRaster().getDataBuffer() != usedImage.getRaster().getDataBuffer()) {
+            rasterPool.release(image);
+        }
+    }
+
+    /**
+     * Returns cached contributors for the provided dimensions calculating
+     * them if missing. The cache is simply dropped when it gets full, which
+     * only happens when a resampler is used with a very large number of
+     * different dimensions.
+     */
+    Contributors getContributors(final int sourceSize, final int outputSize) {
+        final Long key = (long)sourceSize << 32 | outputSize;
+        final Contributors cached = contributors.get(key);
+        if(cached != null) {
+            return cached;
+        }
+        if(contributors.size() >= MAX_CACHED_CONTRIBUTORS) {
+            contributors.clear();
+        }
+        return contributors.computeIfAbsent(key, k -> Contributors.create(filter, sourceSize, outputSize));
+    }
+
+    private static int getResultType(final int channels) {
+        if(channels == 3) {
+            return BufferedImage.TYPE_3BYTE_BGR;
+        }
+        if(channels == 4) {
+            return BufferedImage.TYPE_4BYTE_ABGR;
+        }
+        return BufferedImage.TYPE_BYTE_GRAY;
+    }
+
+    private static void getRGB(final BufferedImage image, final int[] pixels) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int type = image.getType();
+        if(type != BufferedImage.TYPE_3BYTE_BGR && type != BufferedImage.TYPE_4BYTE_ABGR) {
+            image.getRGB(0, 0, width, height, pixels, 0, width);
+            return;
+        }
+
+        final Samples samples = new Samples(image);
+        final byte[] data = samples.data;
+        for(int y = 0, i = 0; y < height; y++) {
+            int j = samples.origin + y * samples.scanlineStride;
+            if(type == BufferedImage.TYPE_3BYTE_BGR) {
+                for(int x = 0; x < width; x++, i++, j += 3) {
+                    pixels[i] = 0xff000000 | (data[j + 2] & 0xff) << 16 | (data[j + 1] & 0xff) << 8 | data[j] & 0xff;
+                }
+            }
+            else {
+                for(int x = 0; x < width; x++, i++, j += 4) {
+                    pixels[i] = (data[j] & 0xff) << 24 | (data[j + 3] & 0xff) << 16 | (data[j + 2] & 0xff) << 8 | data[j + 1] & 0xff;
+                }
+            }
+        }
+    }
+
+    private static void setRGB(final BufferedImage image, final int[] pixels) {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int type = image.getType();
+        if(type != BufferedImage.TYPE_3BYTE_BGR && type != BufferedImage.TYPE_4BYTE_ABGR) {
+            image.setRGB(0, 0, width, height, pixels, 0, width);
+            return;
+        }
+
+        final Samples samples = new Samples(image);
+        final byte[] data = samples.data;
+        for(int y = 0, i = 0; y < height; y++) {
+            int j = samples.origin + y * samples.scanlineStride;
+            if(type == BufferedImage.TYPE_3BYTE_BGR) {
+                for(int x = 0; x < width; x++, i++, j += 3) {
+                    final int rgb = pixels[i];
+                    data[j] = (byte)rgb;
+                    data[j + 1] = (byte)(rgb >> 8);
+                    data[j + 2] = (byte)(rgb >> 16);
+                }
+            }
+            else {
+                for(int x = 0; x < width; x++, i++, j += 4) {
+                    final int argb = pixels[i];
+                    data[j] = (byte)(argb >> 24);
+                    data[j + 1] = (byte)argb;
+                    data[j + 2] = (byte)(argb >> 8);
+                    data[j + 3] = (byte)(argb >> 16);
+                }
+            }
+        }
+    }
+
+    /**
+     * Blurs the rows of the source pixels with the unsharp mask gaussian
+     * kernel writing them transposed, clamping the pixels outside the image
+     * to the edge.
+     */
+    static void convolveAndTranspose(final int[] inPixels, final int[] outPixels, final int width, final int height) {
+        final int radius = UNSHARP_KERNEL.length / 2;
+        for(int y = 0; y < height; y++) {
+            int index = y;
+            final int offset = y * width;
+            for(int x = 0; x < width; x++) {
+                float r = 0;
+                float g = 0;
+                float b = 0;
+                float a = 0;
+                for(int col = -radius; col <= radius; col++) {
+                    final float f = UNSHARP_KERNEL[radius + col];
+                    if(f != 0) {
+                        final int ix = Math.min(Math.max(x + col, 0), width - 1);
+                        final int rgb = inPixels[offset + ix];
+                        a += f * ((rgb >> 24) & 0xff);
+                        r += f * ((rgb >> 16) & 0xff);
+                        g += f * ((rgb >> 8) & 0xff);
+                        b += f * (rgb & 0xff);
+                    }
+                }
+                outPixels[index] = clamp((int)(a + 0.5)) << 24 | clamp((int)(r + 0.5)) << 16
+                        | clamp((int)(g + 0.5)) << 8 | clamp((int)(b + 0.5));
+                index += height;
+            }
+        }
+    }
+
+    private static float[] createGaussianKernel(final float radius) {
+        final int r = (int)Math.ceil(radius);
+        final float[] matrix = new float[r * 2 + 1];
+        final float sigma = radius / 3;
+        final float sigma22 = 2 * sigma * sigma;
+        final float sqrtSigmaPi2 = (float)Math.sqrt(2 * (float)Math.PI * sigma);
+        final float radius2 = radius * radius;
+        float total = 0;
+        for(int row = -r, index = 0; row <= r; row++, index++) {
+            final float distance = row * row;
+            matrix[index] = distance > radius2 ? 0 : (float)Math.exp(-distance / sigma22) / sqrtSigmaPi2;
+            total += matrix[index];
+        }
+        for(int i = 0; i < matrix.length; i++) {
+            matrix[i] /= total;
+        }
+        return matrix;
+    }
+
+    private static int clamp(final int c) {
+        return c < 0 ? 0 : c > MAX_CHANNEL_VALUE ? MAX_CHANNEL_VALUE : c;
+    }
+
+    private static byte toByte(final float f) {
+        if(f < 0) {
+            return 0;
+        }
+        if(f > MAX_CHANNEL_VALUE) {
+            return (byte)MAX_CHANNEL_VALUE;
+        }
+        return (byte)(f + 0.5f);
+    }
+
+    /**
+     * Resamples the source rows of the provided range horizontally into the
+     * work buffer, producing the output columns of the region starting at
+     * the provided position. The work buffer holds the provided number of
+     * rows and source row <code>y</code> goes into its row
+     * <code>(y + rowBase) % workRows</code>, which makes it usable as a ring
+     * buffer.
+     */
+    static void resampleRows(final BufferedImage source, final int fromRow, final int toRow,
+            final Contributors horizontal, final int regionX, final int outputWidth, final int channels,
+            final byte[] workPixels, final int rowBase, final int workRows) {
+        final int sourceWidth = source.getWidth();
+        final int[] tempPixels = Scratch.rowPixels(sourceWidth);
+        final byte[] sourcePixels = Scratch.rowSamples(sourceWidth * channels);
+        final int[] count = horizontal.count;
+        final int[] pixels = horizontal.pixels;
+        final float[] weights = horizontal.weights;
+        final int rowLength = outputWidth * channels;
+        final boolean gray = channels == 1;
+        final boolean alpha = channels > 3;
+
+        for(int y = fromRow; y < toRow; y++) {
+            readRow(source, y, sourceWidth, sourcePixels, tempPixels);
+            final int rowOffset = (y + rowBase) % workRows * rowLength;
+            for(int x = 0; x < outputWidth; x++) {
+                final int max = count[regionX + x];
+                int index = (regionX + x) * horizontal.size;
+                float sample0 = 0.0f;
+                float sample1 = 0.0f;
+                float sample2 = 0.0f;
+                float sample3 = 0.0f;
+                if(gray) {
+                    for(int j = 0; j < max; j++, index++) {
+                        sample0 += (sourcePixels[pixels[index]] & 0xff) * weights[index];
+                    }
+                    workPixels[rowOffset + x] = toByte(sample0);
+                    continue;
+                }
+                for(int j = 0; j < max; j++, index++) {
+                    final float weight = weights[index];
+                    final int pixelIndex = pixels[index] * channels;
+                    sample0 += (sourcePixels[pixelIndex] & 0xff) * weight;
+                    sample1 += (sourcePixels[pixelIndex + 1] & 0xff) * weight;
+                    sample2 += (sourcePixels[pixelIndex + 2] & 0xff) * weight;
+                    if(alpha) {
+                        sample3 += (sourcePixels[pixelIndex + 3] & 0xff) * weight;
+                    }
+                }
+                final int sampleLocation = rowOffset + x * channels;
+                workPixels[sampleLocation] = toByte(sample0);
+                workPixels[sampleLocation + 1] = toByte(sample1);
+                workPixels[sampleLocation + 2] = toByte(sample2);
+                if(alpha) {
+                    workPixels[sampleLocation + 3] = toByte(sample3);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the samples of a source row in the order of
+     * <code>ImageUtils.getPixelsBGR</code>, which only accepts row buffers of
+     * the exact row length. The buffers here can be longer, so the same ones
+     * are reused for rows of any width.
+     */
+    static void readRow(final BufferedImage source, final int y, final int width, final byte[] samples,
+            final int[] pixels) {
+        switch(source.getType()) {
+            case BufferedImage.TYPE_3BYTE_BGR:
+            case BufferedImage.TYPE_4BYTE_ABGR:
+            case BufferedImage.TYPE_4BYTE_ABGR_PRE:
+            case BufferedImage.TYPE_BYTE_GRAY:
+                source.getRaster().getDataElements(0, y, width, 1, samples);
+                return;
+            case BufferedImage.TYPE_INT_BGR:
+                source.getRaster().getDataElements(0, y, width, 1, pixels);
+                toSamples(pixels, width, samples, 0, 1, 2);
+                return;
+            case BufferedImage.TYPE_INT_RGB:
+                source.getRaster().getDataElements(0, y, width, 1, pixels);
+                toSamples(pixels, width, samples, 2, 1, 0);
+                return;
+            case BufferedImage.TYPE_INT_ARGB:
+            case BufferedImage.TYPE_INT_ARGB_PRE:
+                source.getRaster().getDataElements(0, y, width, 1, pixels);
+                toSamples(pixels, width, samples, 2, 1, 0, 3);
+                return;
+            case BufferedImage.TYPE_CUSTOM:
+                source.getRGB(0, y, width, 1, pixels, 0, width);
+                toSamples(pixels, width, samples, 2, 1, 0, 3);
+                return;
+            default:
+                source.getRGB(0, y, width, 1, pixels, 0, width);
+                toSamples(pixels, width, samples, 2, 1, 0);
+        }
+    }
+
+    private static void toSamples(final int[] pixels, final int width, final byte[] samples,
+            final int index0, final int index1, final int index2) {
+        for(int i = 0, j = 0; i < width; i++, j += 3) {
+            final int pixel = pixels[i];
+            samples[j + index0] = (byte)pixel;
+            samples[j + index1] = (byte)(pixel >> 8);
+            samples[j + index2] = (byte)(pixel >> 16);
+        }
+    }
+
+    private static void toSamples(final int[] pixels, final int width, final byte[] samples,
+            final int index0, final int index1, final int index2, final int index3) {
+        for(int i = 0, j = 0; i < width; i++, j += 4) {
+            final int pixel = pixels[i];
+            samples[j + index0] = (byte)pixel;
+            samples[j + index1] = (byte)(pixel >> 8);
+            samples[j + index2] = (byte)(pixel >> 16);
+            samples[j + index3] = (byte)(pixel >> 24);
+        }
+    }
+
+    /**
+     * Resamples the work buffer rows starting at the provided offsets
+     * vertically into an output row starting at the provided location. The
+     * samples are written in the reversed order of the byte interleaved
+     * image types.
+     */
+    static void resampleColumns(final byte[] workPixels, final int[] offsets, final float[] weights, final int max,
+            final int rowLength, final int channels, final byte[] outputPixels, final int outputLocation) {
+        final boolean gray = channels == 1;
+        final boolean alpha = channels > 3;
+        final int offset0 = channels - 1;
+        final int offset1 = channels - 2;
+        final int offset2 = channels - 3;
+
+        int sampleLocation = outputLocation;
+        for(int xLocation = 0; xLocation < rowLength; xLocation += channels, sampleLocation += channels) {
+            float sample0 = 0.0f;
+            float sample1 = 0.0f;
+            float sample2 = 0.0f;
+            float sample3 = 0.0f;
+            if(gray) {
+                for(int j = 0; j < max; j++) {
+                    sample0 += (workPixels[offsets[j] + xLocation] & 0xff) * weights[j];
+                }
+                outputPixels[sampleLocation] = toByte(sample0);
+                continue;
+            }
+            for(int j = 0; j < max; j++) {
+                final int location = offsets[j] + xLocation;
+                final float weight = weights[j];
+                sample0 += (workPixels[location] & 0xff) * weight;
+                sample1 += (workPixels[location + 1] & 0xff) * weight;
+                sample2 += (workPixels[location + 2] & 0xff) * weight;
+                if(alpha) {
+                    sample3 += (workPixels[location + 3] & 0xff) * weight;
+                }
+            }
+            outputPixels[sampleLocation + offset0] = toByte(sample0);
+            outputPixels[sampleLocation + offset1] = toByte(sample1);
+            outputPixels[sampleLocation + offset2] = toByte(sample2);
+            if(alpha) {
+                outputPixels[sampleLocation] = toByte(sample3);
+            }
+        }
+    }
+
+    /**
+     * Pre-calculated filter contributors of every output pixel along one
+     * dimension.
+     */
+    static final class Contributors {
+
+        final int[] count;
+        final int[] pixels;
+        final float[] weights;
+        final int size;
+
+        private Contributors(final int[] count, final int[] pixels, final float[] weights, final int size) {
+            this.count = count;
+            this.pixels = pixels;
+            this.weights = weights;
+            this.size = size;
+        }
+
+        static Contributors create(final ResampleFilter filter, final int sourceSize, final int outputSize) {
+            final float scale = (float)outputSize / (float)sourceSize;
+            final int[] count = new int[outputSize];
+            final float radius = filter.getSamplingRadius();
+            final float centerOffset = 0.5f / scale;
+
+            // when downsampling the filter is stretched to cover all the source pixels
+            final float width = scale < 1.0f ? radius / scale : radius;
+            final int size = scale < 1.0f ? (int)(width * 2.0f + 2) : (int)(radius * 2.0f + 1);
+            final float normFactor = scale < 1.0f ? (float)(1f / (Math.ceil(width) / radius)) : 1f;
+            final float[] weights = new float[outputSize * size];
+            final int[] pixels = new int[outputSize * size];
+
+            for(int i = 0; i < outputSize; i++) {
+                final int offset = i * size;
+                final float center = i / scale + centerOffset;
+                final int left = (int)Math.floor(center - width);
+                final int right = (int)Math.ceil(center + width);
+                for(int j = left; j <= right; j++) {
+                    float weight = scale < 1.0f ? filter.apply((center - j) * normFactor) : filter.apply(center - j);
+                    if(weight == 0.0f) {
+                        continue;
+                    }
+
+                    // mirror the pixels outside the image
+                    final int n = j < 0 ? -j : j >= sourceSize ? sourceSize - j + sourceSize - 1 : j;
+                    final int k = count[i]++;
+                    if(n < 0 || n >= sourceSize) {
+                        weight = 0.0f;
+                    }
+                    pixels[offset + k] = n;
+                    weights[offset + k] = weight;
+                }
+
+                // normalize the weights so their sum equals to 1
+                final int max = count[i];
+                float total = 0;
+                for(int k = 0; k < max; k++) {
+                    total += weights[offset + k];
+                }
+                if(total != 0f) {
+                    for(int k = 0; k < max; k++) {
+                        weights[offset + k] /= total;
+                    }
+                }
+            }
+
+            return new Contributors(count, pixels, weights, size);
+        }
+
+        /**
+         * Returns the first source pixel contributing to the output pixels
+         * of the provided range.
+         */
+        int first(final int from, final int to) {
+            int first = Integer.MAX_VALUE;
+            for(int i = from; i < to; i++) {
+                for(int j = 0, offset = i * size; j < count[i]; j++) {
+                    first = Math.min(first, pixels[offset + j]);
+                }
+            }
+            return Math.max(first, 0);
+        }
+
+        /**
+         * Returns the last source pixel contributing to the output pixels
+         * of the provided range.
+         */
+        int last(final int from, final int to) {
+            int last = 0;
+            for(int i = from; i < to; i++) {
+                for(int j = 0, offset = i * size; j < count[i]; j++) {
+                    last = Math.max(last, pixels[offset + j]);
+                }
+            }
+            return last;
+        }
+
+        /**
+         * Returns the contributors of the output pixels of the provided
+         * range reading the source pixels from a window of the provided
+         * position and size. The contributors of the other output pixels
+         * are left out.
+         */
+        Contributors translate(final int from, final int to, final int windowPosition, final int windowSize) {
+            final int[] translatedPixels = new int[pixels.length];
+            for(int i = from; i < to; i++) {
+                for(int j = 0, offset = i * size; j < count[i]; j++) {
+                    final int pixel = pixels[offset + j] - windowPosition;
+                    if(pixel < 0 || pixel >= windowSize) {
+                        if(weights[offset + j] != 0f) {
+                            throw new IllegalArgumentException("Source window " + windowSize + " at "
+                                    + windowPosition + " doesn't hold source pixel " + pixels[offset + j]);
+                        }
+                        translatedPixels[offset + j] = Math.min(Math.max(pixel, 0), windowSize - 1);
+                    }
+                    else {
+                        translatedPixels[offset + j] = pixel;
+                    }
+                }
+            }
+            return new Contributors(count, translatedPixels, weights, size);
+        }
+    }
+
+    /**
+     * Direct access to the samples of the byte interleaved image types,
+     * including their sub-images. The colour samples are stored in the
+     * reverse order of the resampled ones, e.g. blue, green, red for a red,
+     * green, blue pixel.
+     */
+    static final class Samples {
+
+        final byte[] data;
+        final int origin;
+        final int scanlineStride;
+
+        Samples(final BufferedImage image) {
+            final WritableRaster raster = image.getRaster();
+            final ComponentSampleModel sampleModel = (ComponentSampleModel)raster.getSampleModel();
+            int firstBand = Integer.MAX_VALUE;
+            for(final int bandOffset : sampleModel.getBandOffsets()) {
+                firstBand = Math.min(firstBand, bandOffset);
+            }
+            data = ((DataBufferByte)raster.getDataBuffer()).getData();
+            scanlineStride = sampleModel.getScanlineStride();
+            origin = raster.getDataBuffer().getOffset() + firstBand
+                    - raster.getSampleModelTranslateX() * sampleModel.getPixelStride()
+                    - raster.getSampleModelTranslateY() * scanlineStride;
+        }
+    }
+
+    /**
+     * Per thread reusable buffers. Buffers bigger than the retention limits
+     * are allocated for the single call only, so every thread of a pool
+     * keeps at most 4 MB of work samples and 2 x 1 MB of unsharp mask
+     * pixels, enough for the bands and the sharpening of typical thumbnails,
+     * instead of the arrays of the biggest image it ever processed. A buffer
+     * set in use by a call is never handed out again until released,
+     * fork-join workers may run another resampling while joining.
+     */
+    private static final class Scratch {
+
+        private static final int MAX_RETAINED_WORK_LENGTH = 4 * 1024 * 1024;
+        private static final int MAX_RETAINED_UNSHARP_LENGTH = 256 * 1024;
+        private static final int MAX_RETAINED_ROW_LENGTH = 64 * 1024;
+
+        private boolean busy;
+        private byte[] work = new byte[0];
+        private int[] unsharpInput = new int[0];
+        private int[] unsharpOutput = new int[0];
+        private byte[] rowSamples = new byte[0];
+        private int[] rowPixels = new int[0];
+        private int[] offsets = new int[0];
+        private float[] weights = new float[0];
+
+        private static Scratch acquire() {
+            final Scratch scratch = SCRATCH.get();
+            if(scratch.busy) {
+                return new Scratch();
+            }
+            scratch.busy = true;
+            return scratch;
+        }
+
+        private void release() {
+            busy = false;
+        }
+
+        private byte[] work(final int length) {
+            return work.length >= length ? work :
+                    length > MAX_RETAINED_WORK_LENGTH ? new byte[length] : (work = new byte[length]);
+        }
+
+        private int[] unsharpInput(final int length) {
+            return unsharpInput.length >= length ? unsharpInput :
+                    length > MAX_RETAINED_UNSHARP_LENGTH ? new int[length] : (unsharpInput = new int[length]);
+        }
+
+        private int[] unsharpOutput(final int length) {
+            return unsharpOutput.length >= length ? unsharpOutput :
+                    length > MAX_RETAINED_UNSHARP_LENGTH ? new int[length] : (unsharpOutput = new int[length]);
+        }
+
+        /*
+         * The row buffers are only used inside a single band of rows, which
+         * never waits for other tasks, so they're taken from the current
+         * thread without being acquired.
+         */
+
+        private static byte[] rowSamples(final int length) {
+            final Scratch scratch = SCRATCH.get();
+            return scratch.rowSamples.length >= length ? scratch.rowSamples :
+                    length > MAX_RETAINED_ROW_LENGTH ? new byte[length] : (scratch.rowSamples = new byte[length]);
+        }
+
+        private static int[] rowPixels(final int length) {
+            final Scratch scratch = SCRATCH.get();
+            return scratch.rowPixels.length >= length ? scratch.rowPixels :
+                    length > MAX_RETAINED_ROW_LENGTH ? new int[length] : (scratch.rowPixels = new int[length]);
+        }
+
+        private static int[] offsets(final int length) {
+            final Scratch scratch = SCRATCH.get();
+            if(scratch.offsets.length < length) {
+                scratch.offsets = new int[length];
+            }
+            return scratch.offsets;
+        }
+
+        private static float[] weights(final int length) {
+            final Scratch scratch = SCRATCH.get();
+            if(scratch.weights.length < length) {
+                scratch.weights = new float[length];
+            }
+            return scratch.weights;
+        }
+    }
+
+    /**
+     * Single resampling operation state. The work buffer only holds the
+     * source rows between the first and the last one contributing to the
+     * produced region, and only the region columns.
+     */
+    private final class Job {
+
+        private final BufferedImage source;
+        private final int sourceWidth;
+        private final int sourceHeight;
+        private final int regionX;
+        private final int regionY;
+        private final int outputWidth;
+        private final int firstRow;
+        private final int endRow;
+        private final int channels;
+        private final Contributors horizontal;
+        private final Contributors vertical;
+        private final byte[] workPixels;
+        private final Samples output;
+
+        private Job(final BufferedImage source, final SourceWindow window, final int scaledWidth,
+                final int scaledHeight, final int regionX, final int regionY, final BufferedImage outputImage,
+                final int channels, final Scratch scratch) {
+            this.source = source;
+            this.regionX = regionX;
+            this.regionY = regionY;
+            this.channels = channels;
+            outputWidth = outputImage.getWidth();
+            sourceWidth = source.getWidth();
+            sourceHeight = source.getHeight();
+            if(window == null) {
+                horizontal = getContributors(sourceWidth, scaledWidth);
+                vertical = getContributors(sourceHeight, scaledHeight);
+            }
+            else {
+
+                // the contributors of the whole source image read from the window
+                horizontal = getContributors(window.getSourceWidth(), scaledWidth)
+                        .translate(regionX, regionX + outputWidth, window.getX(), sourceWidth);
+                vertical = getContributors(window.getSourceHeight(), scaledHeight)
+                        .translate(regionY, regionY + outputImage.getHeight(), window.getY(), sourceHeight);
+            }
+
+            int first = sourceHeight - 1;
+            int last = 0;
+            for(int row = regionY; row < regionY + outputImage.getHeight(); row++) {
+                for(int j = 0, offset = row * vertical.size; j < vertical.count[row]; j++) {
+                    first = Math.min(first, vertical.pixels[offset + j]);
+                    last = Math.max(last, vertical.pixels[offset + j]);
+                }
+            }
+            firstRow = Math.max(Math.min(first, last), 0);
+            endRow = Math.min(last + 1, sourceHeight);
+            workPixels = scratch.work((endRow - firstRow) * outputWidth * channels);
+            // the samples are written straight into the output image
+            output = new Samples(outputImage);
+        }
+
+        /**
+         * Resamples the source rows of the provided range into the work buffer.
+         */
+        private void horizontal(final int fromRow, final int toRow) {
+            Kernels.get().resampleRows(source, fromRow, toRow, horizontal, regionX, outputWidth, channels,
+                    workPixels, -firstRow, endRow - firstRow);
+        }
+
+        /**
+         * Resamples the work buffer into the output rows of the provided range.
+         */
+        private void vertical(final int fromRow, final int toRow) {
+            final int rowLength = outputWidth * channels;
+            final int[] offsets = Scratch.offsets(vertical.size);
+            final float[] weights = Scratch.weights(vertical.size);
+            for(int y = fromRow; y < toRow; y++) {
+                final int max = vertical.count[regionY + y];
+                final int offset = (regionY + y) * vertical.size;
+                for(int j = 0; j < max; j++) {
+                    offsets[j] = (vertical.pixels[offset + j] - firstRow) * rowLength;
+                    weights[j] = vertical.weights[offset + j];
+                }
+                Kernels.get().resampleColumns(workPixels, offsets, weights, max, rowLength, channels,
+                        output.data, output.origin + y * output.scanlineStride);
+            }
+        }
+    }
+
+    /**
+     * Row band of one of the resampling passes, recursively split in halves
+     * until it's small enough.
+     */
+    private static final class Band extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final transient Job job;
+        private final boolean horizontal;
+        private final int fromRow;
+        private final int toRow;
+        private final int bandRows;
+
+        private Band(final Job job, final boolean horizontal, final int fromRow, final int toRow, final int bandRows) {
+            this.job = job;
+            this.horizontal = horizontal;
+            this.fromRow = fromRow;
+            this.toRow = toRow;
+            this.bandRows = bandRows;
+        }
+
+        @Override
+        protected void compute() {
+            if(toRow - fromRow <= bandRows) {
+                if(horizontal) {
+                    job.horizontal(fromRow, toRow);
+                }
+                else {
+                    job.vertical(fromRow, toRow);
+                }
+                return;
+            }
+            final int middle = (fromRow + toRow) >>> 1;
+            invokeAll(new Band(job, horizontal, fromRow, middle, bandRows),
+                    new Band(job, horizontal, middle, toRow, bandRows));
+        }
+    }
+}
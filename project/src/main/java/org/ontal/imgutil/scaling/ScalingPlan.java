@@ -0,0 +1,223 @@
+package org.ontal.imgutil.scaling;
+
+import org.ontal.imgutil.TransformSpec;
+
+/**
+ * Immutable result of the geometry calculations of a scaling transformation
+ * for a particular input image size: the output image dimensions, the
+ * dimensions the input image is scaled to and the position of the scaled
+ * image on the output image. Negative positions mean the scaled image is
+ * cropped, positive ones mean it's placed onto a bigger canvas.
+ * <br><br>
+ * A plan may also describe which part of the input image is actually
+ * available, see {@link #withSourceWindow(SourceWindow)}, e.g. when only the
+ * visible region of the input image was decoded.
+ */
+public final class ScalingPlan {
+
+    private final TransformSpec spec;
+    private final int inputWidth;
+    private final int inputHeight;
+    private final int imageType;
+    private final int outputWidth;
+    private final int outputHeight;
+    private final int scaledWidth;
+    private final int scaledHeight;
+    private final int x;
+    private final int y;
+    private final SourceWindow sourceWindow;
+
+    ScalingPlan(final TransformSpec spec, final int inputWidth, final int inputHeight, final int imageType,
+            final int outputWidth, final int outputHeight, final int scaledWidth, final int scaledHeight,
+            final int x, final int y) {
+        this(spec, inputWidth, inputHeight, imageType, outputWidth, outputHeight, scaledWidth, scaledHeight, x, y, null);
+    }
+
+    private ScalingPlan(final TransformSpec spec, final int inputWidth, final int inputHeight, final int imageType,
+            final int outputWidth, final int outputHeight, final int scaledWidth, final int scaledHeight,
+            final int x, final int y, final SourceWindow sourceWindow) {
+        this.spec = spec;
+        this.inputWidth = inputWidth;
+        this.inputHeight = inputHeight;
+        this.imageType = imageType;
+        this.outputWidth = outputWidth;
+        this.outputHeight = outputHeight;
+        this.scaledWidth = scaledWidth;
+        this.scaledHeight = scaledHeight;
+        this.x = x;
+        this.y = y;
+        this.sourceWindow = sourceWindow;
+    }
+
+    /**
+     * Creates a copy of the plan performed on the provided window of the
+     * source image instead of the whole source image. The source image is
+     * the input image, possibly decoded at a reduced resolution, so the
+     * window dimensions are expressed in the pixels of the decoded image
+     * while the rest of the plan keeps the input image pixels.
+     *
+     * @param sourceWindow available part of the source image
+     * @return scaling plan
+     */
+    public ScalingPlan withSourceWindow(final SourceWindow sourceWindow) {
+        if(sourceWindow == null) {
+            throw new IllegalArgumentException("Source window argument cannot be null");
+        }
+        return new ScalingPlan(spec, inputWidth, inputHeight, imageType, outputWidth, outputHeight,
+                scaledWidth, scaledHeight, x, y, sourceWindow);
+    }
+
+    /**
+     * Returns the part of the source image the plan is performed on.
+     *
+     * @return source window, <code>null</code> if the plan is performed on the whole input image
+     */
+    public SourceWindow getSourceWindow() {
+        return sourceWindow;
+    }
+
+    /**
+     * Returns the planned transformation.
+     *
+     * @return transformation spec
+     */
+    public TransformSpec getSpec() {
+        return spec;
+    }
+
+    /**
+     * Returns input image width.
+     *
+     * @return input width in pixels
+     */
+    public int getInputWidth() {
+        return inputWidth;
+    }
+
+    /**
+     * Returns input image height.
+     *
+     * @return input height in pixels
+     */
+    public int getInputHeight() {
+        return inputHeight;
+    }
+
+    /**
+     * Returns output image bitmap type.
+     *
+     * @return image type
+     */
+    public int getImageType() {
+        return imageType;
+    }
+
+    /**
+     * Returns output image width.
+     *
+     * @return output width in pixels
+     */
+    public int getOutputWidth() {
+        return outputWidth;
+    }
+
+    /**
+     * Returns output image height.
+     *
+     * @return output height in pixels
+     */
+    public int getOutputHeight() {
+        return outputHeight;
+    }
+
+    /**
+     * Returns the width the input image is scaled to.
+     *
+     * @return scaled width in pixels
+     */
+    public int getScaledWidth() {
+        return scaledWidth;
+    }
+
+    /**
+     * Returns the height the input image is scaled to.
+     *
+     * @return scaled height in pixels
+     */
+    public int getScaledHeight() {
+        return scaledHeight;
+    }
+
+    /**
+     * Returns the horizontal position of the scaled image on the output image.
+     *
+     * @return horizontal position in pixels
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Returns the vertical position of the scaled image on the output image.
+     *
+     * @return vertical position in pixels
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Checks if only a part of the scaled image is visible on the output
+     * image.
+     *
+     * @return <code>true</code> if the scaled image is cropped, otherwise <code>false</code>
+     */
+    public boolean isCropped() {
+        return x < 0 || y < 0;
+    }
+
+    /**
+     * Returns the horizontal position of the visible part within the scaled
+     * image.
+     *
+     * @return horizontal position in pixels
+     */
+    public int getCropX() {
+        return Math.max(-x, 0);
+    }
+
+    /**
+     * Returns the vertical position of the visible part within the scaled
+     * image.
+     *
+     * @return vertical position in pixels
+     */
+    public int getCropY() {
+        return Math.max(-y, 0);
+    }
+
+    /**
+     * Returns the width of the visible part of the scaled image.
+     *
+     * @return visible width in pixels
+     */
+    public int getCropWidth() {
+        return Math.min(outputWidth, scaledWidth - getCropX());
+    }
+
+    /**
+     * Returns the height of the visible part of the scaled image.
+     *
+     * @return visible height in pixels
+     */
+    public int getCropHeight() {
+        return Math.min(outputHeight, scaledHeight - getCropY());
+    }
+
+    @Override
+    public String toString() {
+        return spec + " " + inputWidth + "x" + inputHeight + " -> " + scaledWidth + "x" + scaledHeight
+                + " @ " + x + "," + y + " -> " + outputWidth + "x" + outputHeight
+                + (sourceWindow == null ? "" : " from " + sourceWindow);
+    }
+}
@@ -0,0 +1,126 @@
+package org.ontal.imgutil.scaling;
+
+/**
+ * Immutable position and dimensions of the part of a source image that is
+ * actually available for resampling, e.g. the only region of a big image
+ * that was decoded, together with the dimensions of the whole source image.
+ * The resampler calculates the filter contributors for the whole source
+ * image and reads them from the window, so the produced pixels are the same
+ * as if the whole source image was available, see
+ * {@link Resampler#getSourceWindow(int, int, int, int, int, int, int, int)}.
+ */
+public final class SourceWindow {
+
+    private final int x;
+    private final int y;
+    private final int width;
+    private final int height;
+    private final int sourceWidth;
+    private final int sourceHeight;
+
+    /**
+     * Creates window.
+     *
+     * @param x horizontal position of the window within the source image
+     * @param y vertical position of the window within the source image
+     * @param width window width in pixels
+     * @param height window height in pixels
+     * @param sourceWidth whole source image width in pixels
+     * @param sourceHeight whole source image height in pixels
+     */
+    public SourceWindow(final int x, final int y, final int width, final int height,
+            final int sourceWidth, final int sourceHeight) {
+        if(sourceWidth <= 0 || sourceHeight <= 0) {
+            throw new IllegalArgumentException("Invalid source dimensions " + sourceWidth + "x" + sourceHeight);
+        }
+        if(x < 0 || y < 0 || width <= 0 || height <= 0 || x + width > sourceWidth || y + height > sourceHeight) {
+            throw new IllegalArgumentException("Invalid window " + width + "x" + height + " at " + x + "," + y
+                    + " of " + sourceWidth + "x" + sourceHeight);
+        }
+        this.x = x;
+        this.y = y;
+        this.width = width;
+        this.height = height;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+    }
+
+    /**
+     * Creates window covering the whole source image.
+     *
+     * @param sourceWidth source image width in pixels
+     * @param sourceHeight source image height in pixels
+     * @return window
+     */
+    public static SourceWindow of(final int sourceWidth, final int sourceHeight) {
+        return new SourceWindow(0, 0, sourceWidth, sourceHeight, sourceWidth, sourceHeight);
+    }
+
+    /**
+     * Returns the horizontal position of the window within the source image.
+     *
+     * @return horizontal position in pixels
+     */
+    public int getX() {
+        return x;
+    }
+
+    /**
+     * Returns the vertical position of the window within the source image.
+     *
+     * @return vertical position in pixels
+     */
+    public int getY() {
+        return y;
+    }
+
+    /**
+     * Returns window width.
+     *
+     * @return width in pixels
+     */
+    public int getWidth() {
+        return width;
+    }
+
+    /**
+     * Returns window height.
+     *
+     * @return height in pixels
+     */
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Returns the whole source image width.
+     *
+     * @return source width in pixels
+     */
+    public int getSourceWidth() {
+        return sourceWidth;
+    }
+
+    /**
+     * Returns the whole source image height.
+     *
+     * @return source height in pixels
+     */
+    public int getSourceHeight() {
+        return sourceHeight;
+    }
+
+    /**
+     * Checks if the window covers the whole source image.
+     *
+     * @return <code>true</code> if the whole source image is available, otherwise <code>false</code>
+     */
+    public boolean isWhole() {
+        return width == sourceWidth && height == sourceHeight;
+    }
+
+    @Override
+    public String toString() {
+        return width + "x" + height + " @ " + x + "," + y + " of " + sourceWidth + "x" + sourceHeight;
+    }
+}
@@ -1,7 +1,20 @@
 package org.ontal.imgutil.scaling;
 
+import java.awt.AlphaComposite;
 import java.awt.Graphics2D;
 import java.awt.image.BufferedImage;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.IndexColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+
+import org.ontal.imgutil.TransformSpec;
+import org.ontal.imgutil.metrics.Metrics;
+import org.ontal.imgutil.metrics.Stage;
 
 /**
  * Tile transformation implementation class.
@@ -11,29 +24,163 @@ import java.awt.image.BufferedImage;
  */
 public class TileImage extends TransformImage {
 
-    public TileImage(final BufferedImage inputImage) {
-        super(inputImage);
+    public TileImage() {
+        super();
+    }
+
+    public TileImage(final Resampler resampler) {
+        super(resampler);
+    }
+
+    @Override
+    public ScalingPlan plan(final int inputWidth, final int inputHeight, final int imageType, final TransformSpec spec) {
+        final boolean scaled = spec.getTileWidth() > 0;
+
+        // tiles start at the top left corner and are scaled to the requested dimensions if any
+        return new ScalingPlan(spec, inputWidth, inputHeight, imageType, spec.getWidth(), spec.getHeight(),
+                scaled ? spec.getTileWidth() : inputWidth, scaled ? spec.getTileHeight() : inputHeight, 0, 0);
     }
 
     @Override
-    protected BufferedImage process() {
+    protected BufferedImage scaleImage(final BufferedImage sourceImage, final ScalingPlan plan) {
+        if(sourceImage.getWidth() == plan.getScaledWidth() && sourceImage.getHeight() == plan.getScaledHeight()) {
+
+            // tiles are not scaled
+            return sourceImage;
+        }
+        return super.scaleImage(sourceImage, plan);
+    }
 
+    /**
+     * Tiles the scaled image straight over the destination image, clearing
+     * its previous pixels first.
+     */
+    @Override
+    protected boolean transformInto(final BufferedImage inputImage, final ScalingPlan plan,
+            final BufferedImage destinationImage) {
+        final BufferedImage scaledImage = scale(inputImage, plan);
+        final Metrics.Probe probe = Metrics.start();
+        drawTiles(scaledImage, destinationImage, true);
+        probe.stop(Stage.COMPOSE, plan.getSpec().getMode(), scaledImage, destinationImage);
+        if(scaledImage != inputImage) {
+            resampler.releaseImage(scaledImage, destinationImage);
+        }
+        return true;
+    }
+
+    @Override
+    protected BufferedImage composeImage(final BufferedImage scaledImage, final ScalingPlan plan) {
         // create canvas
-        final BufferedImage image = new BufferedImage(outputWidth, outputHeight, imageType);
+        final BufferedImage image = resampler.createImage(plan.getOutputWidth(), plan.getOutputHeight(),
+                plan.getImageType());
+        drawTiles(scaledImage, image, false);
+        return image;
+    }
+
+    /**
+     * Fills the canvas with the tiles.
+     *
+     * @param scaledImage tile image
+     * @param image canvas
+     * @param replace <code>true</code> to clear the canvas pixels before drawing the tiles
+     */
+    private static void drawTiles(final BufferedImage scaledImage, final BufferedImage image, final boolean replace) {
+        final int outputWidth = image.getWidth();
+        final int outputHeight = image.getHeight();
+        final int inputWidth = scaledImage.getWidth();
+        final int inputHeight = scaledImage.getHeight();
 
-        // fill canvas with input images
         final Graphics2D graphics = image.createGraphics();
-        final int timesX = outputWidth / inputWidth + 1;
-        final int timesY = outputHeight / inputHeight + 1;
+        if(replace) {
+
+            // clear the pixels so the tiles are drawn the same way as onto a new canvas
+            graphics.setComposite(AlphaComposite.Clear);
+            graphics.fillRect(0, 0, outputWidth, outputHeight);
+            graphics.setComposite(AlphaComposite.SrcOver);
+        }
+        final Object data = getData(image);
+        if(data != null) {
+
+            // draw the first tile only and replicate its pixels
+            graphics.drawImage(scaledImage, null, 0, 0);
+            graphics.dispose();
+            replicate(data, image, Math.min(inputWidth, outputWidth), Math.min(inputHeight, outputHeight));
+            return;
+        }
+
+        // fill canvas with input images
+        final int timesX = (outputWidth + inputWidth - 1) / inputWidth;
+        final int timesY = (outputHeight + inputHeight - 1) / inputHeight;
 
         for(int y = 0; y < timesY; y++) {
             for(int x = 0; x < timesX; x++) {
-                graphics.drawImage(inputImage, null, inputWidth * x, inputHeight * y);
+                graphics.drawImage(scaledImage, null, inputWidth * x, inputHeight * y);
             }
         }
         graphics.dispose();
+    }
 
-        return image;
+    /**
+     * Replicates the tile in the top left corner of the canvas over the
+     * whole canvas. The filled part of the first tile row is doubled with
+     * block copies until the row is full, and then the same is done with
+     * whole tile rows, so the edge tiles are clipped by the copy lengths.
+     *
+     * @param data canvas data array
+     * @param image canvas
+     * @param tileWidth tile width in pixels
+     * @param tileHeight tile height in pixels
+     */
+    private static void replicate(final Object data, final BufferedImage image, final int tileWidth, final int tileHeight) {
+        final SampleModel sampleModel = image.getSampleModel();
+        final int pixelStride = sampleModel instanceof ComponentSampleModel ?
+                ((ComponentSampleModel)sampleModel).getPixelStride() : 1;
+        final int scanlineStride = sampleModel instanceof ComponentSampleModel ?
+                ((ComponentSampleModel)sampleModel).getScanlineStride() :
+                ((SinglePixelPackedSampleModel)sampleModel).getScanlineStride();
+        final int rowLength = image.getWidth() * pixelStride;
+
+        for(int y = 0; y < tileHeight; y++) {
+            final int row = y * scanlineStride;
+            for(int filled = tileWidth * pixelStride; filled < rowLength; filled *= 2) {
+                System.arraycopy(data, row, data, row + filled, Math.min(filled, rowLength - filled));
+            }
+        }
+
+        final int height = image.getHeight();
+        for(int filled = tileHeight; filled < height; filled *= 2) {
+            System.arraycopy(data, 0, data, filled * scanlineStride, Math.min(filled, height - filled) * scanlineStride);
+        }
     }
 
+    /**
+     * Returns the canvas data array when the canvas pixels are made of whole
+     * data array elements stored in a single bank, so they can be copied
+     * directly from the start of the data array. Indexed canvases are
+     * excluded as drawing onto them is dithered depending on the pixel
+     * position, and so are the subimages of bigger images and the canvases
+     * whose pixels don't start at the beginning of the data array.
+     *
+     * @param image canvas
+     * @return data array or <code>null</code> if the canvas pixels can't be copied directly
+     */
+    private static Object getData(final BufferedImage image) {
+        final DataBuffer dataBuffer = image.getRaster().getDataBuffer();
+        final SampleModel sampleModel = image.getSampleModel();
+        if(dataBuffer.getNumBanks() != 1 || dataBuffer.getOffset() != 0
+                || image.getColorModel() instanceof IndexColorModel || image.getRaster().getParent() != null
+                || !(sampleModel instanceof ComponentSampleModel || sampleModel instanceof SinglePixelPackedSampleModel)) {
+            return null;
+        }
+        if(dataBuffer instanceof DataBufferByte) {
+            return ((DataBufferByte)dataBuffer).getData();
+        }
+        if(dataBuffer instanceof DataBufferInt) {
+            return ((DataBufferInt)dataBuffer).getData();
+        }
+        if(dataBuffer instanceof DataBufferUShort) {
+            return ((DataBufferUShort)dataBuffer).getData();
+        }
+        return null;
+    }
 }
@@ -1,114 +1,641 @@
 package org.ontal.imgutil.scaling;
 
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import com.mortennobel.imagescaling.ResampleFilters;
+
+import org.ontal.imgutil.TransformSpec;
+import org.ontal.imgutil.metrics.Metrics;
+import org.ontal.imgutil.metrics.Stage;
 
 /**
- * Image scaling processor base class.
+ * Image scaling processor base class. Implementations are stateless, all the
+ * per call data is kept in the {@link TransformSpec} and the
+ * {@link ScalingPlan}, so a single instance can be safely shared between
+ * threads.
  *
  * @author akaine
  * @since May 2012
  */
 public abstract class TransformImage {
 
-    protected final BufferedImage inputImage;
-    protected final int inputWidth;
-    protected final int inputHeight;
-    protected final float inputRatio;
-    protected final int imageType;
+    /**
+     * Soft unsharp mask amount applied to images becoming too small with
+     * the automatic sharpening.
+     */
+    protected static final float UNSHARPEN_AMOUNT = 0.15f;
+
+    /**
+     * Minimum scaled image dimension supported by the resampling filters,
+     * smaller images are interpolated.
+     */
+    private static final int MIN_FILTER_SIZE = 3;
 
-    protected int outputWidth;
-    protected int outputHeight;
-    protected float outputRatio;
+    protected final Resampler resampler;
 
-    private BufferedImage outputImage;
+    /**
+     * Creates transformer using the default resampler.
+     */
+    protected TransformImage() {
+        this(Resampler.getDefault());
+    }
 
     /**
-     * Default base constructor. Initializes base input image parameters like
-     * image dimensions and ratio, as well as its bitmap type.
+     * Creates transformer using the provided resampler.
      *
-     * @param inputImage input image
+     * @param resampler resampler
      */
-    protected TransformImage(final BufferedImage inputImage) {
-        this.inputImage = inputImage;
-        inputWidth = inputImage.getWidth();
-        inputHeight = inputImage.getHeight();
-        inputRatio = (float)inputWidth / inputHeight;
-        imageType = inputImage.getType() == 0 ? 1 : inputImage.getType();
+    protected TransformImage(final Resampler resampler) {
+        if(resampler == null) {
+            throw new IllegalArgumentException("Resampler argument cannot be null");
+        }
+        this.resampler = resampler;
     }
 
     /**
-     * Main transformation entry point. Obtains all additional parameters
-     * required for image particular processing.
+     * Main transformation entry point.
      *
-     * @param args transformation arguments
+     * @param inputImage input image
+     * @param spec transformation spec
      * @return scaled image
      */
-    public BufferedImage transform(final Object... args) {
-        validateArguments(args);
-        outputWidth = calculateOutputWidth(args);
-        outputHeight = calculateOutputHeight(args);
-        outputRatio = (float)outputWidth / outputHeight;
+    public BufferedImage transform(final BufferedImage inputImage, final TransformSpec spec) {
+        return transform(inputImage, plan(inputImage, spec));
+    }
 
-        outputImage = process();
+    /**
+     * Transformation entry point performing an already calculated plan,
+     * e.g. the plan of the whole image only a region of which was decoded.
+     * The input image is the source window of the plan if it has one.
+     *
+     * @param inputImage input image or the source window of the plan
+     * @param plan scaling plan
+     * @return scaled image
+     */
+    public BufferedImage transform(final BufferedImage inputImage, final ScalingPlan plan) {
+        checkSourceWindow(inputImage, plan);
+        final BufferedImage scaledImage = scale(inputImage, plan);
+        final BufferedImage outputImage = compose(scaledImage, plan);
+        if(scaledImage != inputImage) {
+            resampler.releaseImage(scaledImage, outputImage);
+        }
         return outputImage;
     }
 
     /**
-     * Validates transformation arguments and throws
-     * an {@link IllegalArgumentException} if any of the validations fail.
+     * Transformation entry point writing the output image into the provided
+     * destination image, e.g. a reused or pooled one. Whenever the
+     * transformation can, see {@link #transformInto(BufferedImage, ScalingPlan, BufferedImage)},
+     * the output image is rendered straight into the destination, otherwise
+     * the output image is produced and copied into it.
+     *
+     * @param inputImage input image
+     * @param spec transformation spec
+     * @param destinationImage destination image of the output dimensions
+     * @return destination image
+     */
+    public BufferedImage transform(final BufferedImage inputImage, final TransformSpec spec,
+            final BufferedImage destinationImage) {
+        return transform(inputImage, plan(inputImage, spec), destinationImage);
+    }
+
+    /**
+     * Transformation entry point performing an already calculated plan
+     * writing the output image into the provided destination image, see
+     * {@link #transform(BufferedImage, TransformSpec, BufferedImage)} and
+     * {@link #transform(BufferedImage, ScalingPlan)}.
+     *
+     * @param inputImage input image or the source window of the plan
+     * @param plan scaling plan
+     * @param destinationImage destination image of the output dimensions
+     * @return destination image
+     */
+    public BufferedImage transform(final BufferedImage inputImage, final ScalingPlan plan,
+            final BufferedImage destinationImage) {
+        if(destinationImage == null) {
+            throw new IllegalArgumentException("Destination image argument cannot be null");
+        }
+        checkSourceWindow(inputImage, plan);
+        // the scaled output images have no canvas, whatever the planned output dimensions
+        final boolean scaledOutput = isScaledOutput(plan) && !plan.isCropped();
+        final int outputWidth = scaledOutput ? plan.getScaledWidth() : plan.getOutputWidth();
+        final int outputHeight = scaledOutput ? plan.getScaledHeight() : plan.getOutputHeight();
+        if(destinationImage.getWidth() != outputWidth || destinationImage.getHeight() != outputHeight) {
+            throw new IllegalArgumentException("Invalid destination image dimensions " + destinationImage.getWidth()
+                    + "x" + destinationImage.getHeight() + ", expected " + outputWidth + "x" + outputHeight);
+        }
+        if(transformInto(inputImage, plan, destinationImage)) {
+            return destinationImage;
+        }
+
+        final BufferedImage outputImage = transform(inputImage, plan);
+        if(outputImage.getType() == destinationImage.getType()) {
+            destinationImage.getRaster().setRect(outputImage.getRaster());
+        }
+        else {
+            final Graphics2D graphics = destinationImage.createGraphics();
+            try {
+                graphics.setComposite(AlphaComposite.Src);
+                graphics.drawImage(outputImage, 0, 0, null);
+            }
+            finally {
+                graphics.dispose();
+            }
+        }
+        if(outputImage != inputImage) {
+            resampler.releaseImage(outputImage, inputImage);
+        }
+        return destinationImage;
+    }
+
+    /**
+     * Renders the output image straight into the destination image without
+     * allocating the output image, if the transformation can. By default
+     * that's the case when the output image is the whole scaled image, see
+     * {@link #isScaledOutput(ScalingPlan)}, and the destination has the type
+     * returned by {@link Resampler#getResultType(BufferedImage)} for the
+     * input image.
+     *
+     * @param inputImage input image or the source window of the plan
+     * @param plan scaling plan
+     * @param destinationImage destination image of the output dimensions
+     * @return <code>true</code> if the output image was rendered, <code>false</code> if it has to be produced
+     *         and copied
+     */
+    protected boolean transformInto(final BufferedImage inputImage, final ScalingPlan plan,
+            final BufferedImage destinationImage) {
+        if(!isScaledOutput(plan) || plan.isCropped() || destinationImage.getType() != Resampler.getResultType(inputImage)) {
+            return false;
+        }
+        scaleInto(inputImage, plan, 0, 0, destinationImage);
+        compose(destinationImage, plan);
+        return true;
+    }
+
+    /**
+     * Scales the source image resampling the region of the scaled image at
+     * the provided position straight into the destination image and
+     * sharpens it according to the spec, reporting the {@link Stage#SCALE}
+     * stage to the metrics listener. The region is sharpened on its own, so
+     * only the whole scaled image should be passed for sharpened plans.
+     *
+     * @param sourceImage input image, its source window or its scaled copy
+     * @param plan scaling plan
+     * @param x horizontal position of the region within the scaled image
+     * @param y vertical position of the region within the scaled image
+     * @param destinationImage destination image of the region dimensions and of the type returned by
+     *         {@link Resampler#getResultType(BufferedImage)} for the source image
+     */
+    protected final void scaleInto(final BufferedImage sourceImage, final ScalingPlan plan, final int x, final int y,
+            final BufferedImage destinationImage) {
+        final Metrics.Probe probe = Metrics.start();
+        resample(sourceImage, plan, x, y, destinationImage);
+        final float amount = getSharpeningAmount(plan);
+        if(amount > 0f) {
+            resampler.sharpen(destinationImage, amount);
+        }
+        probe.stop(Stage.SCALE, plan.getSpec().getMode(), sourceImage, destinationImage);
+    }
+
+    private static void checkSourceWindow(final BufferedImage inputImage, final ScalingPlan plan) {
+        final SourceWindow window = plan.getSourceWindow();
+        if(window != null && (inputImage.getWidth() != window.getWidth() || inputImage.getHeight() != window.getHeight())) {
+            throw new IllegalArgumentException("Invalid input image dimensions " + inputImage.getWidth() + "x"
+                    + inputImage.getHeight() + " for the source window " + window);
+        }
+    }
+
+    /**
+     * Tells if the output image is the scaled image itself, without any
+     * canvas around it, when the plan doesn't crop the scaled image. Such
+     * outputs are resampled straight into the destination images.
+     *
+     * @param plan scaling plan
+     * @return <code>true</code> if the output image is the scaled image, otherwise <code>false</code>
+     */
+    protected boolean isScaledOutput(final ScalingPlan plan) {
+        return false;
+    }
+
+    /**
+     * Calculates the transformation geometry for the provided input image.
+     *
+     * @param inputImage input image
+     * @param spec transformation spec
+     * @return scaling plan
+     */
+    public ScalingPlan plan(final BufferedImage inputImage, final TransformSpec spec) {
+        return plan(inputImage.getWidth(), inputImage.getHeight(), PixelFormats.getWorkingType(inputImage), spec);
+    }
+
+    /**
+     * Calculates the transformation geometry for an input image of the
+     * provided dimensions and bitmap type. All the planned dimensions are
+     * at least one pixel.
+     *
+     * @param inputWidth input width in pixels
+     * @param inputHeight input height in pixels
+     * @param imageType input image bitmap type
+     * @param spec transformation spec
+     * @return scaling plan
+     */
+    public ScalingPlan plan(final int inputWidth, final int inputHeight, final int imageType, final TransformSpec spec) {
+        final float inputRatio = (float)inputWidth / inputHeight;
+        // very thin images may be rounded down to nothing along their short side, keep at least one pixel
+        final int outputWidth = Math.max(calculateOutputWidth(spec, inputRatio), 1);
+        final int outputHeight = Math.max(calculateOutputHeight(spec, inputRatio), 1);
+        final float outputRatio = (float)outputWidth / outputHeight;
+
+        final int scaledWidth = Math.max(
+                calculateScaledWidth(inputWidth, inputRatio, outputWidth, outputHeight, outputRatio), 1);
+        final int scaledHeight = Math.max(
+                calculateScaledHeight(inputHeight, inputRatio, outputWidth, outputHeight, outputRatio), 1);
+        // center the scaled image, negative positions are rounded towards zero as they are crops
+        final int x = (outputWidth - scaledWidth) / 2;
+        final int y = (outputHeight - scaledHeight) / 2;
+
+        return new ScalingPlan(spec, inputWidth, inputHeight, imageType,
+                outputWidth, outputHeight, scaledWidth, scaledHeight, x, y);
+    }
+
+    /**
+     * Scales the source image to the planned dimensions, see
+     * {@link #scaleImage(BufferedImage, ScalingPlan)}, reporting the
+     * {@link Stage#SCALE} stage to the metrics listener.
+     *
+     * @param sourceImage input image or its scaled copy
+     * @param plan scaling plan
+     * @return scaled image or its visible part if the plan crops it
+     */
+    public final BufferedImage scale(final BufferedImage sourceImage, final ScalingPlan plan) {
+        final Metrics.Probe probe = Metrics.start();
+        final BufferedImage scaledImage = scaleImage(sourceImage, plan);
+        probe.stop(Stage.SCALE, plan.getSpec().getMode(), sourceImage, scaledImage);
+        return scaledImage;
+    }
+
+    /**
+     * Scales the source image to the planned dimensions with the quality
+     * and the sharpening of the spec. The source image is either the input
+     * image or a scaled copy of it with the same ratio, e.g. the scaled
+     * image obtained from a previous transformation, which allows producing
+     * smaller images without resampling the full size input image again.
+     * <br><br>
+     * When the plan crops the scaled image only its visible part is
+     * resampled and returned, the rest of the source image is never
+     * processed.
      *
-     * @param args transformation arguments
+     * @param sourceImage input image or its scaled copy
+     * @param plan scaling plan
+     * @return scaled image or its visible part if the plan crops it
      */
-    protected void validateArguments(final Object... args) {
-        final int outputWidth = (int)args[0];
-        final int outputHeight = (int)args[1];
+    protected BufferedImage scaleImage(final BufferedImage sourceImage, final ScalingPlan plan) {
+        final float amount = getSharpeningAmount(plan);
+        final int resultType = Resampler.getResultType(sourceImage);
+        if(plan.getCropWidth() == plan.getScaledWidth() && plan.getCropHeight() == plan.getScaledHeight()) {
+            final BufferedImage scaledImage = resample(sourceImage, plan, 0, 0,
+                    resampler.createImage(plan.getScaledWidth(), plan.getScaledHeight(), resultType));
+            return amount > 0f ? resampler.sharpen(scaledImage, amount) : scaledImage;
+        }
 
-        if(outputWidth <= 0) {
-            throw new IllegalArgumentException("Invalid output width argument");
+        final Rectangle region = getResampledRegion(plan, amount);
+        final BufferedImage regionImage = resample(sourceImage, plan, region.x, region.y,
+                resampler.createImage(region.width, region.height, resultType));
+        if(amount <= 0f) {
+            return regionImage;
         }
-        if(outputHeight <= 0) {
-            throw new IllegalArgumentException("Invalid output height argument");
+        return resampler.sharpen(regionImage, amount).getSubimage(plan.getCropX() - region.x,
+                plan.getCropY() - region.y, plan.getCropWidth(), plan.getCropHeight());
+    }
+
+    /**
+     * Returns the region of the scaled image resampled for a cropping plan:
+     * the visible part and the pixels around it the unsharp mask depends on.
+     */
+    private static Rectangle getResampledRegion(final ScalingPlan plan, final float amount) {
+        final int margin = amount > 0f ? Resampler.UNSHARP_RADIUS : 0;
+        final int left = Math.max(plan.getCropX() - margin, 0);
+        final int top = Math.max(plan.getCropY() - margin, 0);
+        final int right = Math.min(plan.getCropX() + plan.getCropWidth() + margin, plan.getScaledWidth());
+        final int bottom = Math.min(plan.getCropY() + plan.getCropHeight() + margin, plan.getScaledHeight());
+        return new Rectangle(left, top, right - left, bottom - top);
+    }
+
+    /**
+     * Returns the part of a source image of the provided dimensions the
+     * plan needs, e.g. to decode only that region of the input image. When
+     * the plan crops the scaled image and its quality uses a resampling
+     * filter, that's the visible part widened by the filter support in
+     * source pixels and the unsharp mask radius, otherwise the whole source
+     * image. The source dimensions are the input image dimensions or the
+     * dimensions it is decoded at when it's subsampled.
+     *
+     * @param plan scaling plan
+     * @param sourceWidth source image width in pixels
+     * @param sourceHeight source image height in pixels
+     * @return source window
+     */
+    public SourceWindow getSourceWindow(final ScalingPlan plan, final int sourceWidth, final int sourceHeight) {
+        final Resampler filterResampler = getFilterResampler(plan);
+        if(!plan.isCropped() || filterResampler == null) {
+            return SourceWindow.of(sourceWidth, sourceHeight);
         }
+        final Rectangle region = getResampledRegion(plan, getSharpeningAmount(plan));
+        return filterResampler.getSourceWindow(sourceWidth, sourceHeight, plan.getScaledWidth(), plan.getScaledHeight(),
+                region.x, region.y, region.width, region.height);
     }
 
     /**
-     * Main image processing method that implements the algorithm required
-     * to achieve a particular scaling transformation.
+     * Returns the resampler scaling the source image with the filter of the
+     * spec quality, or <code>null</code> if the quality or the scaled
+     * dimensions don't use a resampling filter.
+     */
+    private Resampler getFilterResampler(final ScalingPlan plan) {
+        if(plan.getScaledWidth() < MIN_FILTER_SIZE || plan.getScaledHeight() < MIN_FILTER_SIZE) {
+            return null;
+        }
+        switch(plan.getSpec().getQuality()) {
+            case DEFAULT:
+                return resampler;
+            case BOX:
+                return resampler.withFilter(ResampleFilters.getBoxFilter());
+            case BICUBIC:
+                return resampler.withFilter(ResampleFilters.getBiCubicFilter());
+            case LANCZOS:
+                return resampler.withFilter(ResampleFilters.getLanczos3Filter());
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Scales the source image to the planned dimensions with the quality of
+     * the spec writing the region of the scaled image at the provided
+     * position straight into the destination image. When the plan has a
+     * source window, the source image is expected to be that window.
      *
+     * @param sourceImage input image, its source window or its scaled copy
+     * @param plan scaling plan
+     * @param x horizontal position of the region within the scaled image
+     * @param y vertical position of the region within the scaled image
+     * @param destinationImage destination image of the region dimensions and of the type returned by
+     *         {@link Resampler#getResultType(BufferedImage)} for the source image
+     * @return destination image
+     */
+    protected BufferedImage resample(final BufferedImage sourceImage, final ScalingPlan plan, final int x, final int y,
+            final BufferedImage destinationImage) {
+        final int width = plan.getScaledWidth();
+        final int height = plan.getScaledHeight();
+        final Resampler filterResampler = getFilterResampler(plan);
+        final SourceWindow window = plan.getSourceWindow();
+        if(filterResampler != null) {
+            if(window != null && !window.isWhole() && sourceImage.getWidth() == window.getWidth()
+                    && sourceImage.getHeight() == window.getHeight()) {
+                return filterResampler.resample(sourceImage, window, width, height, x, y, destinationImage);
+            }
+            return filterResampler.resample(sourceImage, width, height, x, y, destinationImage);
+        }
+        if(window != null && !window.isWhole()) {
+            throw new IllegalArgumentException("Source window not supported by the " + plan.getSpec().getQuality()
+                    + " quality");
+        }
+        if(width < MIN_FILTER_SIZE || height < MIN_FILTER_SIZE) {
+
+            // too small for the resampling filters
+            return interpolate(sourceImage, width, height, x, y, destinationImage,
+                    RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        switch(plan.getSpec().getQuality()) {
+            case NEAREST:
+                return interpolate(sourceImage, width, height, x, y, destinationImage,
+                        RenderingHints.VALUE_INTERPOLATION_NEAREST_NEIGHBOR);
+            case BILINEAR:
+                return interpolate(sourceImage, width, height, x, y, destinationImage,
+                        RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            default:
+                final BufferedImage halvedImage = halve(sourceImage, width, height);
+                resampler.resample(halvedImage, width, height, x, y, destinationImage);
+                if(halvedImage != sourceImage) {
+                    resampler.releaseImage(halvedImage, destinationImage);
+                }
+                return destinationImage;
+        }
+    }
+
+    /**
+     * Scales the image read from the band source to the planned dimensions
+     * holding only a few source bands in memory at a time, see
+     * {@link #bands(BandResampler.Source, ScalingPlan)}, and sharpens it
+     * according to the spec. The {@link Stage#SCALE} stage reported to the
+     * metrics listener includes reading the bands.
+     *
+     * @param source band source of the planned input dimensions, or of the
+     *         source window dimensions if the plan holds one
+     * @param plan scaling plan not cropping the scaled image
      * @return scaled image
+     * @throws IOException if an error occurs while reading the bands
+     */
+    public final BufferedImage scale(final BandResampler.Source source, final ScalingPlan plan) throws IOException {
+        final Metrics.Probe probe = Metrics.start();
+        final BandResampler bands = bands(source, plan);
+        final BufferedImage scaledImage = bands.resample(0,
+                resampler.createImage(plan.getScaledWidth(), plan.getScaledHeight(), bands.getResultType()));
+        final float amount = getSharpeningAmount(plan);
+        if(amount > 0f) {
+            resampler.sharpen(scaledImage, amount);
+        }
+        probe.stop(Stage.SCALE, plan.getSpec().getMode(), plan.getInputWidth(), plan.getInputHeight(), scaledImage);
+        return scaledImage;
+    }
+
+    /**
+     * Creates a band resampler scaling the image read from the band source
+     * to the planned dimensions with the quality of the spec. The Java2D
+     * interpolations and the progressive halving need the whole image, so
+     * the nearest neighbour and the bilinear qualities use the box and the
+     * triangle filters and the progressive one uses the default filter.
+     *
+     * @param source band source of the planned input dimensions, or of the
+     *         source window dimensions if the plan holds one
+     * @param plan scaling plan not cropping the scaled image
+     * @return band resampler
+     */
+    public BandResampler bands(final BandResampler.Source source, final ScalingPlan plan) {
+        if(plan.isCropped()) {
+            throw new IllegalArgumentException("Band resampling not supported for cropped " + plan.getSpec().getMode()
+                    + " transformations");
+        }
+        final Resampler bandResampler;
+        switch(plan.getSpec().getQuality()) {
+            case NEAREST:
+            case BOX:
+                bandResampler = resampler.withFilter(ResampleFilters.getBoxFilter());
+                break;
+            case BILINEAR:
+                bandResampler = resampler.withFilter(ResampleFilters.getTriangleFilter());
+                break;
+            case BICUBIC:
+                bandResampler = resampler.withFilter(ResampleFilters.getBiCubicFilter());
+                break;
+            case LANCZOS:
+                bandResampler = resampler.withFilter(ResampleFilters.getLanczos3Filter());
+                break;
+            default:
+                bandResampler = resampler;
+        }
+        // the source of a subsampled image is the whole source window rather than the planned input
+        final SourceWindow window = plan.getSourceWindow();
+        return bandResampler.bands(source, window == null ? plan.getInputWidth() : window.getWidth(),
+                window == null ? plan.getInputHeight() : window.getHeight(),
+                plan.getScaledWidth(), plan.getScaledHeight());
+    }
+
+    /**
+     * Scales the source image with the Java2D interpolation, which has
+     * native loops for the common bitmap types.
      */
-    protected abstract BufferedImage process();
+    private static BufferedImage interpolate(final BufferedImage sourceImage, final int width, final int height,
+            final int x, final int y, final BufferedImage destinationImage, final Object interpolation) {
+        final Graphics2D graphics = destinationImage.createGraphics();
+        try {
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.setRenderingHint(RenderingHints.KEY_INTERPOLATION, interpolation);
+            graphics.drawImage(sourceImage, -x, -y, width - x, height - y,
+                    0, 0, sourceImage.getWidth(), sourceImage.getHeight(), null);
+        }
+        finally {
+            graphics.dispose();
+        }
+        return destinationImage;
+    }
 
     /**
-     * Obtains output image width based on the provided arguments.
+     * Halves the source image as long as it stays at least as big as the
+     * provided dimensions.
+     */
+    private BufferedImage halve(final BufferedImage sourceImage, final int width, final int height) {
+        BufferedImage image = sourceImage;
+        while(image.getWidth() / 2 >= width && image.getHeight() / 2 >= height) {
+            final BufferedImage halvedImage = resampler.halve(image);
+            if(image != sourceImage) {
+                resampler.releaseImage(image, halvedImage);
+            }
+            image = halvedImage;
+        }
+        return image;
+    }
+
+    /**
+     * Produces the output image from the scaled image, see
+     * {@link #composeImage(BufferedImage, ScalingPlan)}, reporting the
+     * {@link Stage#COMPOSE} stage to the metrics listener.
      *
-     * @param args transformation arguments
+     * @param scaledImage scaled image
+     * @param plan scaling plan
+     * @return output image
+     */
+    public final BufferedImage compose(final BufferedImage scaledImage, final ScalingPlan plan) {
+        final Metrics.Probe probe = Metrics.start();
+        final BufferedImage outputImage = composeImage(scaledImage, plan);
+        probe.stop(Stage.COMPOSE, plan.getSpec().getMode(), scaledImage, outputImage);
+        return outputImage;
+    }
+
+    /**
+     * Produces the output image from the scaled image, e.g. cropping it or
+     * placing it onto the output canvas.
+     *
+     * @param scaledImage scaled image
+     * @param plan scaling plan
+     * @return output image
+     */
+    protected abstract BufferedImage composeImage(BufferedImage scaledImage, ScalingPlan plan);
+
+    /**
+     * Obtains output image width based on the provided spec.
+     *
+     * @param spec transformation spec
+     * @param inputRatio input image ratio
      * @return output image width
      */
-    protected int calculateOutputWidth(final Object... args) {
-        return (int)args[0];
+    protected int calculateOutputWidth(final TransformSpec spec, final float inputRatio) {
+        return spec.getWidth();
+    }
+
+    /**
+     * Obtains output image height based on the provided spec.
+     *
+     * @param spec transformation spec
+     * @param inputRatio input image ratio
+     * @return output image height
+     */
+    protected int calculateOutputHeight(final TransformSpec spec, final float inputRatio) {
+        return spec.getHeight();
+    }
+
+    /**
+     * Obtains the width the input image is scaled to, by default the output
+     * image width.
+     *
+     * @param inputWidth input image width
+     * @param inputRatio input image ratio
+     * @param outputWidth output image width
+     * @param outputHeight output image height
+     * @param outputRatio output image ratio
+     * @return scaled image width
+     */
+    protected int calculateScaledWidth(final int inputWidth, final float inputRatio,
+            final int outputWidth, final int outputHeight, final float outputRatio) {
+        return outputWidth;
     }
 
     /**
-     * Obtains output image height based on the provided arguments.
+     * Obtains the height the input image is scaled to, by default the output
+     * image height.
      *
-     * @param args transformation arguments
-     * @return image height
+     * @param inputHeight input image height
+     * @param inputRatio input image ratio
+     * @param outputWidth output image width
+     * @param outputHeight output image height
+     * @param outputRatio output image ratio
+     * @return scaled image height
      */
-    protected int calculateOutputHeight(final Object... args) {
-        return (int)args[1];
+    protected int calculateScaledHeight(final int inputHeight, final float inputRatio,
+            final int outputWidth, final int outputHeight, final float outputRatio) {
+        return outputHeight;
+    }
+
+    /**
+     * Returns the unsharp mask amount applied to the scaled image according
+     * to the sharpening of the spec.
+     *
+     * @param plan scaling plan
+     * @return unsharp mask amount, <code>0</code> for no sharpening
+     */
+    public float getSharpeningAmount(final ScalingPlan plan) {
+        final TransformSpec.Sharpening sharpening = plan.getSpec().getSharpening();
+        if(sharpening == TransformSpec.Sharpening.AUTO) {
+            return requiresUnsharpening(plan) ? UNSHARPEN_AMOUNT : 0f;
+        }
+        return sharpening.getAmount();
     }
 
     /**
      * Helps to determine if the output image requires additional unsharpening.
      * This is useful for small images that get too sharp after downscaling.
      *
-     * @param width image width
-     * @param height image width
+     * @param plan scaling plan
      * @return <code>true</code> if the image requires unsharpening, otherwise <code>false</code>
      */
-    protected boolean requiresUnsharpening(final int width, final int height) {
-        if(width < inputWidth && width < 200 || height < inputHeight && height < 200) {
+    protected boolean requiresUnsharpening(final ScalingPlan plan) {
+        final int width = plan.getScaledWidth();
+        final int height = plan.getScaledHeight();
+        if(width < plan.getInputWidth() && width < 200 || height < plan.getInputHeight() && height < 200) {
             return true;
         }
         return false;
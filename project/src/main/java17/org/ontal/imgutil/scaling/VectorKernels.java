@@ -0,0 +1,330 @@
+package org.ontal.imgutil.scaling;
+
+import java.awt.image.BufferedImage;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the resampling and unsharp mask loops written with
+ * the incubating JDK Vector API, see {@link Kernels}.
+ * <br><br>
+ * Every lane runs exactly the floating point operations of one sample of
+ * the scalar loops in the same order, and the rounding is the same, so the
+ * produced images are byte identical:
+ * <ul>
+ * <li>the horizontal pass processes a block of source rows at once, one row
+ * per lane, from a transposed copy of the rows converted to floats</li>
+ * <li>the vertical pass processes consecutive samples of the output row at
+ * once, the work buffer rows being contiguous</li>
+ * <li>the unsharp mask processes consecutive pixels of a row at once, the
+ * edge pixels clamping the kernel to the image are left to the scalar
+ * loop</li>
+ * </ul>
+ * Blocks smaller than the vector length are processed by the scalar loops.
+ * The class is packaged under <code>META-INF/versions/17</code> of the
+ * multi-release jar and only loaded when the
+ * <code>jdk.incubator.vector</code> module is resolved.
+ */
+final class VectorKernels extends Kernels {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, FLOATS.vectorShape());
+    private static final int LANES = FLOATS.length();
+
+    /**
+     * Byte species holding at least as many lanes as the float one, only
+     * the first lanes are widened to floats.
+     */
+    private static final VectorSpecies<Byte> BYTES = VectorSpecies.of(byte.class,
+            VectorShape.forBitSize(Math.max(LANES * Byte.SIZE, 64)));
+
+    /**
+     * Maximum number of floats of the transposed row block, wider images
+     * are resampled by the scalar loops.
+     */
+    private static final int MAX_BLOCK_LENGTH = 8 * 1024 * 1024;
+
+    private static final float MAX_CHANNEL_VALUE = 255f;
+
+    /**
+     * Smallest float with no fraction bits, 2^23.
+     */
+    private static final float ROUNDING_BIAS = 8388608f;
+    private static final int ROUNDING_BIAS_BITS = Float.floatToIntBits(ROUNDING_BIAS);
+
+    private static final ThreadLocal<Buffers> BUFFERS = ThreadLocal.withInitial(Buffers::new);
+
+    @Override
+    boolean isVectorized() {
+        return true;
+    }
+
+    @Override
+    void resampleRows(final BufferedImage source, final int fromRow, final int toRow,
+            final Resampler.Contributors horizontal, final int regionX, final int outputWidth, final int channels,
+            final byte[] workPixels, final int rowBase, final int workRows) {
+        final int sourceWidth = source.getWidth();
+        final int sourceLength = sourceWidth * channels;
+        if(toRow - fromRow < LANES || (long)sourceLength * LANES > MAX_BLOCK_LENGTH) {
+            super.resampleRows(source, fromRow, toRow, horizontal, regionX, outputWidth, channels,
+                    workPixels, rowBase, workRows);
+            return;
+        }
+
+        final Buffers buffers = BUFFERS.get();
+        final int[] tempPixels = buffers.rowPixels(sourceWidth);
+        final byte[] sourcePixels = buffers.rowSamples(sourceLength);
+        final float[] block = buffers.block(sourceLength * LANES);
+        final int[] samples = buffers.samples(LANES);
+        final int[] count = horizontal.count;
+        final int[] pixels = horizontal.pixels;
+        final float[] weights = horizontal.weights;
+        final int rowLength = outputWidth * channels;
+
+        int y = fromRow;
+        for(; y + LANES <= toRow; y += LANES) {
+
+            // transpose the block rows so the samples of the same column are contiguous
+            for(int lane = 0; lane < LANES; lane++) {
+                Resampler.readRow(source, y + lane, sourceWidth, sourcePixels, tempPixels);
+                for(int i = 0, k = lane; i < sourceLength; i++, k += LANES) {
+                    block[k] = sourcePixels[i] & 0xff;
+                }
+            }
+
+            for(int x = 0; x < outputWidth; x++) {
+                final int max = count[regionX + x];
+                final int index = (regionX + x) * horizontal.size;
+                for(int c = 0; c < channels; c++) {
+                    FloatVector sample = FloatVector.zero(FLOATS);
+                    for(int j = 0; j < max; j++) {
+                        sample = sample.add(FloatVector.fromArray(FLOATS, block, (pixels[index + j] * channels + c) * LANES)
+                                .mul(weights[index + j]));
+                    }
+                    toSamples(sample).intoArray(samples, 0);
+                    for(int lane = 0, row = y; lane < LANES; lane++, row++) {
+                        workPixels[(row + rowBase) % workRows * rowLength + x * channels + c] = (byte)samples[lane];
+                    }
+                }
+            }
+        }
+
+        if(y < toRow) {
+            super.resampleRows(source, y, toRow, horizontal, regionX, outputWidth, channels,
+                    workPixels, rowBase, workRows);
+        }
+    }
+
+    @Override
+    void resampleColumns(final byte[] workPixels, final int[] offsets, final float[] weights, final int max,
+            final int rowLength, final int channels, final byte[] outputPixels, final int outputLocation) {
+        if(rowLength < BYTES.length()) {
+            super.resampleColumns(workPixels, offsets, weights, max, rowLength, channels, outputPixels, outputLocation);
+            return;
+        }
+
+        final int[] samples = BUFFERS.get().samples(rowLength);
+        int x = 0;
+        for(; x + BYTES.length() <= rowLength; x += LANES) {
+            FloatVector sample = FloatVector.zero(FLOATS);
+            for(int j = 0; j < max; j++) {
+                sample = sample.add(toFloats(ByteVector.fromArray(BYTES, workPixels, offsets[j] + x)).mul(weights[j]));
+            }
+            toSamples(sample).intoArray(samples, x);
+        }
+        for(; x < rowLength; x++) {
+            float sample = 0.0f;
+            for(int j = 0; j < max; j++) {
+                sample += (workPixels[offsets[j] + x] & 0xff) * weights[j];
+            }
+            samples[x] = toSample(sample);
+        }
+
+        // byte interleaved images keep the samples in the reversed order
+        if(channels == 1) {
+            for(int i = 0; i < rowLength; i++) {
+                outputPixels[outputLocation + i] = (byte)samples[i];
+            }
+            return;
+        }
+        for(int i = 0; i < rowLength; i += channels) {
+            for(int c = 0; c < channels; c++) {
+                outputPixels[outputLocation + i + channels - 1 - c] = (byte)samples[i + c];
+            }
+        }
+    }
+
+    @Override
+    void convolveAndTranspose(final int[] inPixels, final int[] outPixels, final int width, final int height) {
+        final float[] kernel = Resampler.UNSHARP_KERNEL;
+        final int radius = kernel.length / 2;
+        final int end = width - radius;
+        if(end - radius < LANES) {
+            super.convolveAndTranspose(inPixels, outPixels, width, height);
+            return;
+        }
+
+        final int[] samples = BUFFERS.get().samples(LANES);
+        for(int y = 0; y < height; y++) {
+            final int offset = y * width;
+            convolvePixels(inPixels, outPixels, width, height, y, 0, radius);
+            int x = radius;
+            for(; x + LANES <= end; x += LANES) {
+                // one channel at a time, four accumulators don't fit the JIT inlining budget and get boxed
+                IntVector pixels = IntVector.zero(INTS);
+                for(int shift = 24; shift >= 0; shift -= 8) {
+                    FloatVector sum = FloatVector.zero(FLOATS);
+                    for(int col = -radius; col <= radius; col++) {
+                        final float f = kernel[radius + col];
+                        if(f != 0) {
+                            sum = sum.add(toFloats(IntVector.fromArray(INTS, inPixels, offset + x + col), shift).mul(f));
+                        }
+                    }
+                    pixels = pixels.or(toChannel(sum).lanewise(VectorOperators.LSHL, shift));
+                }
+                pixels.intoArray(samples, 0);
+                for(int lane = 0, index = x * height + y; lane < LANES; lane++, index += height) {
+                    outPixels[index] = samples[lane];
+                }
+            }
+            convolvePixels(inPixels, outPixels, width, height, y, x, width);
+        }
+    }
+
+    /**
+     * Blurs the pixels of the provided row range with the scalar loop of
+     * {@link Resampler#convolveAndTranspose(int[], int[], int, int)}.
+     */
+    private static void convolvePixels(final int[] inPixels, final int[] outPixels, final int width, final int height,
+            final int y, final int fromX, final int toX) {
+        final float[] kernel = Resampler.UNSHARP_KERNEL;
+        final int radius = kernel.length / 2;
+        final int offset = y * width;
+        for(int x = fromX; x < toX; x++) {
+            float r = 0;
+            float g = 0;
+            float b = 0;
+            float a = 0;
+            for(int col = -radius; col <= radius; col++) {
+                final float f = kernel[radius + col];
+                if(f != 0) {
+                    final int ix = Math.min(Math.max(x + col, 0), width - 1);
+                    final int rgb = inPixels[offset + ix];
+                    a += f * ((rgb >> 24) & 0xff);
+                    r += f * ((rgb >> 16) & 0xff);
+                    g += f * ((rgb >> 8) & 0xff);
+                    b += f * (rgb & 0xff);
+                }
+            }
+            outPixels[x * height + y] = clamp((int)(a + 0.5)) << 24 | clamp((int)(r + 0.5)) << 16
+                    | clamp((int)(g + 0.5)) << 8 | clamp((int)(b + 0.5));
+        }
+    }
+
+    /**
+     * Widens the first unsigned bytes to floats.
+     */
+    private static FloatVector toFloats(final ByteVector bytes) {
+        return (FloatVector)((IntVector)bytes.convertShape(VectorOperators.B2I, INTS, 0))
+                .lanewise(VectorOperators.AND, 0xff)
+                .convert(VectorOperators.I2F, 0);
+    }
+
+    /**
+     * Extracts the channel at the provided bit position of the packed
+     * pixels as floats.
+     */
+    private static FloatVector toFloats(final IntVector pixels, final int shift) {
+        return (FloatVector)pixels.lanewise(VectorOperators.ASHR, shift)
+                .lanewise(VectorOperators.AND, 0xff)
+                .convert(VectorOperators.I2F, 0);
+    }
+
+    /**
+     * Rounds the samples and clamps them to the channel range like
+     * {@link #toSample(float)}.
+     */
+    private static IntVector toSamples(final FloatVector samples) {
+        return floor(samples.max(0f).min(MAX_CHANNEL_VALUE).add(0.5f));
+    }
+
+    /**
+     * Rounds the blurred channel and clamps it to the channel range.
+     */
+    private static IntVector toChannel(final FloatVector channel) {
+        // the scalar loop adds a double 0.5, which a float addition may round up, so the fraction is compared instead
+        final FloatVector values = channel.max(0f);
+        final IntVector integer = floor(values);
+        final FloatVector fraction = values.sub((FloatVector)integer.convert(VectorOperators.I2F, 0));
+        return integer.add(1, fraction.compare(VectorOperators.GE, 0.5f).cast(INTS)).min(0xff);
+    }
+
+    /**
+     * Rounds the non negative values below 2^23 down to integers, the same
+     * as casting them to int. Adding 2^23 rounds the values to the nearest
+     * integers held in the low mantissa bits, which are decremented where
+     * they were rounded up. Unlike the F2I conversion this is compiled to
+     * SIMD instructions by all the JDK versions with the Vector API.
+     */
+    private static IntVector floor(final FloatVector values) {
+        final IntVector rounded = values.add(ROUNDING_BIAS).reinterpretAsInts().sub(ROUNDING_BIAS_BITS);
+        return rounded.sub(1, ((FloatVector)rounded.convert(VectorOperators.I2F, 0))
+                .compare(VectorOperators.GT, values).cast(INTS));
+    }
+
+    private static int toSample(final float f) {
+        if(f < 0) {
+            return 0;
+        }
+        if(f > MAX_CHANNEL_VALUE) {
+            return (int)MAX_CHANNEL_VALUE;
+        }
+        return (int)(f + 0.5f);
+    }
+
+    private static int clamp(final int c) {
+        return c < 0 ? 0 : c > 0xff ? 0xff : c;
+    }
+
+    /**
+     * Per thread reusable buffers.
+     */
+    private static final class Buffers {
+
+        private static final int MAX_RETAINED_ROW_LENGTH = 64 * 1024;
+
+        private float[] block = new float[0];
+        private byte[] rowSamples = new byte[0];
+        private int[] rowPixels = new int[0];
+        private int[] samples = new int[0];
+
+        private float[] block(final int length) {
+            if(block.length < length) {
+                block = new float[length];
+            }
+            return block;
+        }
+
+        private byte[] rowSamples(final int length) {
+            return rowSamples.length >= length ? rowSamples :
+                    length > MAX_RETAINED_ROW_LENGTH ? new byte[length] : (rowSamples = new byte[length]);
+        }
+
+        private int[] rowPixels(final int length) {
+            return rowPixels.length >= length ? rowPixels :
+                    length > MAX_RETAINED_ROW_LENGTH ? new int[length] : (rowPixels = new int[length]);
+        }
+
+        private int[] samples(final int length) {
+            if(samples.length < length) {
+                samples = new int[length];
+            }
+            return samples;
+        }
+    }
+}
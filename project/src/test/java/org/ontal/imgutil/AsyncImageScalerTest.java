@@ -0,0 +1,138 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks every stage runs on the executor of its stage, cancelled futures
+ * skip the stages not started yet and rejected tasks complete the futures.
+ */
+class AsyncImageScalerTest {
+
+    private static final byte[] IMAGE_BYTES = TestImages.encode(
+            TestImages.create(640, 480, BufferedImage.TYPE_3BYTE_BGR), "png");
+
+    private final List<String> stages = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    void runsStagesOnTheirExecutors() throws Exception {
+        final AsyncImageScaler scaler = new AsyncImageScaler()
+                .withDecodeExecutor(new StageExecutor("decode"))
+                .withTransformExecutor(new StageExecutor("transform"))
+                .withEncodeExecutor(new StageExecutor("encode"));
+        final Rendition rendition = new Rendition(TransformSpec.adjust(201, 151), ImageFormat.PNG);
+
+        final byte[] rendered = scaler.render(IMAGE_BYTES, rendition).get();
+        assertEquals(Arrays.asList("decode", "transform", "encode"), stages);
+        final ImageScaler expected = new ImageScaler(IMAGE_BYTES, rendition.getSpec()).transform(rendition.getSpec());
+        assertArrayEquals(expected.toByteArray(ImageFormat.PNG), rendered);
+
+        stages.clear();
+        final ImageScaler transformed = scaler.read(IMAGE_BYTES)
+                .thenCompose(read -> scaler.transform(read, TransformSpec.expand(300, 100))).get();
+        final byte[] encoded = scaler.toByteArray(transformed, ImageFormat.BMP, EncodeOptions.DEFAULT).get();
+        assertEquals(100, ImageScaler.probe(encoded).getHeight());
+        assertEquals(Arrays.asList("decode", "transform", "encode"), stages);
+        assertSamePixels(new ImageScaler(IMAGE_BYTES).expand(300, 100).getImage(), transformed.getImage(), "expand");
+    }
+
+    @Test
+    void cancellationSkipsLaterStages() {
+        final QueuedExecutor transformExecutor = new QueuedExecutor();
+        final AsyncImageScaler scaler = new AsyncImageScaler()
+                .withDecodeExecutor(new StageExecutor("decode"))
+                .withTransformExecutor(transformExecutor)
+                .withEncodeExecutor(new StageExecutor("encode"));
+
+        final CompletableFuture<byte[]> rendered = scaler.render(IMAGE_BYTES,
+                new Rendition(TransformSpec.adjust(201, 151), ImageFormat.PNG));
+        assertEquals(Collections.singletonList("decode"), stages);
+        assertEquals(1, transformExecutor.tasks.size());
+
+        assertTrue(rendered.cancel(false));
+        transformExecutor.runAll();
+        assertEquals(Collections.singletonList("decode"), stages);
+        assertTrue(rendered.isCancelled());
+    }
+
+    @Test
+    void rejectionCompletesFuture() {
+        final Executor rejecting = task -> {
+            throw new RejectedExecutionException("Queue full");
+        };
+
+        final CompletableFuture<byte[]> rendered = new AsyncImageScaler()
+                .withDecodeExecutor(new StageExecutor("decode"))
+                .withTransformExecutor(rejecting)
+                .render(IMAGE_BYTES, new Rendition(TransformSpec.adjust(201, 151), ImageFormat.PNG));
+        assertTrue(rendered.isCompletedExceptionally());
+        final ExecutionException e = assertThrows(ExecutionException.class, rendered::get);
+        assertInstanceOf(RejectedExecutionException.class, e.getCause());
+
+        final CompletableFuture<ImageScaler> read = new AsyncImageScaler().withDecodeExecutor(rejecting)
+                .read(IMAGE_BYTES);
+        assertTrue(read.isCompletedExceptionally());
+        assertInstanceOf(RejectedExecutionException.class,
+                assertThrows(ExecutionException.class, read::get).getCause());
+    }
+
+    @Test
+    void failureCompletesFuture() {
+        final CompletableFuture<byte[]> rendered = new AsyncImageScaler()
+                .withDecodeExecutor(new StageExecutor("decode"))
+                .render(new byte[] { 1, 2, 3 }, new Rendition(TransformSpec.adjust(201, 151), ImageFormat.PNG));
+        assertTrue(rendered.isCompletedExceptionally());
+        assertEquals(Collections.singletonList("decode"), stages);
+    }
+
+    /**
+     * Executor running the tasks right away, recording its stage name.
+     */
+    private final class StageExecutor implements Executor {
+
+        private final String stage;
+
+        StageExecutor(final String stage) {
+            this.stage = stage;
+        }
+
+        @Override
+        public void execute(final Runnable task) {
+            stages.add(stage);
+            task.run();
+        }
+    }
+
+    /**
+     * Executor holding the tasks until they are run explicitly.
+     */
+    private static final class QueuedExecutor implements Executor {
+
+        private final List<Runnable> tasks = new ArrayList<>();
+
+        @Override
+        public void execute(final Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            tasks.forEach(Runnable::run);
+        }
+    }
+}
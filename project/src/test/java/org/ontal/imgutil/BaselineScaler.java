@@ -0,0 +1,103 @@
+package org.ontal.imgutil;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+import com.mortennobel.imagescaling.AdvancedResizeOp;
+import com.mortennobel.imagescaling.ResampleOp;
+
+/**
+ * The transformations as originally implemented with a
+ * <code>ResampleOp</code> per call, kept as the reference the current
+ * implementation is compared with.
+ */
+public final class BaselineScaler {
+
+    private final BufferedImage inputImage;
+    private final int inputWidth;
+    private final int inputHeight;
+    private final float inputRatio;
+    private final int imageType;
+
+    public BaselineScaler(final BufferedImage inputImage) {
+        this.inputImage = inputImage;
+        inputWidth = inputImage.getWidth();
+        inputHeight = inputImage.getHeight();
+        inputRatio = (float)inputWidth / inputHeight;
+        imageType = inputImage.getType() == 0 ? 1 : inputImage.getType();
+    }
+
+    public BufferedImage fit(final int outputWidth, final int outputHeight, final int[] rgb) {
+        int width, height;
+        if(inputRatio > (float)outputWidth / outputHeight) {
+            width = outputWidth;
+            height = (int)Math.floor(outputWidth / inputRatio);
+        }
+        else {
+            width = (int)Math.floor(outputHeight * inputRatio);
+            height = outputHeight;
+        }
+        final BufferedImage image = resample(width, height);
+
+        final BufferedImage outputImage = new BufferedImage(outputWidth, outputHeight, imageType);
+        final Graphics2D graphics = outputImage.createGraphics();
+        graphics.setPaint(new Color(rgb[0], rgb[1], rgb[2]));
+        graphics.fillRect(0, 0, outputWidth, outputHeight);
+        final int x = (int)Math.floor((double)(outputWidth - width) / 2);
+        final int y = (int)Math.floor((double)(outputHeight - height) / 2);
+        graphics.drawImage(image, null, x, y);
+        graphics.dispose();
+        return outputImage;
+    }
+
+    public BufferedImage adjust(final int outputWidth, final int outputHeight) {
+        int width, height;
+        if(inputRatio > (float)outputWidth / outputHeight) {
+            width = (int)Math.floor(outputHeight * inputRatio);
+            height = outputHeight;
+        }
+        else {
+            width = outputWidth;
+            height = (int)Math.floor(outputWidth / inputRatio);
+        }
+        final BufferedImage image = resample(width, height);
+
+        final int x = (int)Math.floor((double)(width - outputWidth) / 2);
+        final int y = (int)Math.floor((double)(height - outputHeight) / 2);
+        return image.getSubimage(x, y, outputWidth, outputHeight);
+    }
+
+    public BufferedImage expand(final int outputWidth, final int outputHeight) {
+        return resample(outputWidth, outputHeight);
+    }
+
+    public BufferedImage limitWidth(final int size) {
+        return resample(size, (int)Math.floor((double)size / inputRatio));
+    }
+
+    public BufferedImage tile(final int outputWidth, final int outputHeight) {
+        final BufferedImage image = new BufferedImage(outputWidth, outputHeight, imageType);
+        final Graphics2D graphics = image.createGraphics();
+        final int timesX = outputWidth / inputWidth + 1;
+        final int timesY = outputHeight / inputHeight + 1;
+        for(int y = 0; y < timesY; y++) {
+            for(int x = 0; x < timesX; x++) {
+                graphics.drawImage(inputImage, null, inputWidth * x, inputHeight * y);
+            }
+        }
+        graphics.dispose();
+        return image;
+    }
+
+    private BufferedImage resample(final int width, final int height) {
+        final ResampleOp resampleOp = new ResampleOp(width, height);
+        resampleOp.setUnsharpenMask(requiresUnsharpening(width, height)
+                ? AdvancedResizeOp.UnsharpenMask.Soft : AdvancedResizeOp.UnsharpenMask.None);
+        return resampleOp.filter(inputImage, null);
+    }
+
+    private boolean requiresUnsharpening(final int width, final int height) {
+        return width < inputWidth && width < 200 || height < inputHeight && height < 200;
+    }
+}
\ No newline at end of file
@@ -0,0 +1,133 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Runs small batches through the processing pipeline and checks the
+ * produced files and the reported failures.
+ */
+class BatchProcessorTest {
+
+    @TempDir
+    Path outputDirectory;
+
+    private final byte[] imageBytes = TestImages.encode(TestImages.create(640, 480, BufferedImage.TYPE_3BYTE_BGR), "png");
+
+    @Test
+    void producesRenditions() throws Exception {
+        final List<BatchResult> results = Collections.synchronizedList(new ArrayList<>());
+        final BatchReport report = processor()
+                .resultListener(results::add)
+                .process(Arrays.asList(input("first.png", imageBytes), input("second.png", imageBytes)));
+
+        assertEquals(2, report.getSucceeded());
+        assertEquals(0, report.getFailed());
+        assertEquals(2, results.size());
+        for(final String name : new String[] { "first", "second" }) {
+            final BufferedImage small = ImageIO.read(outputDirectory.resolve(name + "_small.png").toFile());
+            assertEquals(100, small.getWidth());
+            assertEquals(100, small.getHeight());
+            final BufferedImage large = ImageIO.read(outputDirectory.resolve(name + "_large.jpg").toFile());
+            assertEquals(320, large.getWidth());
+            assertEquals(240, large.getHeight());
+        }
+    }
+
+    @Test
+    void reportsFailedInputs() throws Exception {
+        final BatchReport report = processor().process(Arrays.asList(
+                input("valid.png", imageBytes),
+                input("invalid.png", "not an image".getBytes(StandardCharsets.UTF_8)),
+                BatchInput.of("missing.png", () -> null)));
+
+        assertEquals(3, report.getProcessed());
+        assertEquals(1, report.getSucceeded());
+        assertEquals(2, report.getFailed());
+        for(final BatchResult failure : report.getFailures()) {
+            assertFalse(failure.isSuccess());
+            assertTrue(failure.getError() instanceof IOException, failure.toString());
+        }
+        assertTrue(Files.exists(outputDirectory.resolve("valid_small.png")));
+        assertFalse(Files.exists(outputDirectory.resolve("invalid_small.png")));
+    }
+
+    @Test
+    void stopsWorkersWhenInputsFail() throws Exception {
+        final List<Thread> threads = Collections.synchronizedList(new ArrayList<>());
+        final ThreadFactory threadFactory = runnable -> {
+            final Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+            threads.add(thread);
+            return thread;
+        };
+        final Iterable<BatchInput> inputs = () -> new Iterator<BatchInput>() {
+
+            private boolean first = true;
+
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public BatchInput next() {
+                if(first) {
+                    first = false;
+                    return input("first.png", imageBytes);
+                }
+                throw new UncheckedIOException(new IOException("Input listing failed"));
+            }
+        };
+
+        assertThrows(UncheckedIOException.class, () -> processor().ioThreadFactory(threadFactory).process(inputs));
+        assertFalse(threads.isEmpty());
+        for(final Thread thread : threads) {
+            thread.join(10_000);
+            assertFalse(thread.isAlive(), thread.getName());
+        }
+    }
+
+    @Test
+    void processesImageOverMemoryLimit() throws Exception {
+        final BatchReport report = processor()
+                .memoryLimit(1024)
+                .process(Arrays.asList(input("first.png", imageBytes), input("second.png", imageBytes),
+                        input("third.png", imageBytes)));
+
+        assertEquals(3, report.getSucceeded());
+        assertEquals(0, report.getFailed());
+    }
+
+    private BatchProcessor processor() {
+        return new BatchProcessor(outputDirectory)
+                .rendition("small", new Rendition(TransformSpec.adjust(100, 100), ImageFormat.PNG))
+                .rendition("large", new Rendition(TransformSpec.limit(Dimension.HEIGHT, 240), ImageFormat.JPG))
+                .transformThreads(2);
+    }
+
+    private static BatchInput input(final String name, final byte[] bytes) {
+        return BatchInput.of(name, () -> new ByteArrayInputStream(bytes));
+    }
+}
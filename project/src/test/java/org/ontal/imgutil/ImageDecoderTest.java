@@ -0,0 +1,52 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the images are decoded with the largest subsampling that keeps
+ * enough pixels for the target dimensions.
+ */
+class ImageDecoderTest {
+
+    @Test
+    void calculatesSubsampling() {
+        assertEquals(5, ImageDecoder.calculateSubsampling(4000, 3000, 400, 300));
+        assertEquals(2, ImageDecoder.calculateSubsampling(4000, 3000, 400, 600));
+        assertEquals(10, ImageDecoder.calculateSubsampling(4000, 3000, 200, 0));
+        assertEquals(1, ImageDecoder.calculateSubsampling(4000, 3000, 0, 0));
+        assertEquals(1, ImageDecoder.calculateSubsampling(640, 480, 1000, 1000));
+    }
+
+    @Test
+    void decodesSubsampledImage() throws IOException {
+        final byte[] imageBytes = TestImages.encode(TestImages.create(1600, 1200, BufferedImage.TYPE_3BYTE_BGR), "png");
+
+        try(final ImageInputStream iis = ImageDecoder.stream(imageBytes)) {
+            final BufferedImage image = ImageDecoder.read(iis, 200, 150);
+            assertEquals(400, image.getWidth());
+            assertEquals(300, image.getHeight());
+        }
+        try(final ImageInputStream iis = ImageDecoder.stream(imageBytes)) {
+            final BufferedImage image = ImageDecoder.read(iis, 0, 0);
+            assertEquals(1600, image.getWidth());
+            assertEquals(1200, image.getHeight());
+        }
+    }
+
+    @Test
+    void subsampledImageScalesToTargetDimensions() throws IOException {
+        final byte[] imageBytes = TestImages.encode(TestImages.create(1601, 1203, BufferedImage.TYPE_INT_RGB), "png");
+
+        final BufferedImage eager = new ImageScaler(imageBytes).fit(200, 150).getImage();
+        final BufferedImage subsampled = new ImageScaler(imageBytes, 200, 150).fit(200, 150).getImage();
+        assertEquals(eager.getWidth(), subsampled.getWidth());
+        assertEquals(eager.getHeight(), subsampled.getHeight());
+    }
+}
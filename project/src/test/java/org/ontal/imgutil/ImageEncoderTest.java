@@ -0,0 +1,125 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks every output method writes the same image bytes and the encoding
+ * options don't leak into the later uses of the pooled writers.
+ */
+class ImageEncoderTest {
+
+    private final ImageScaler scaler = new ImageScaler(TestImages.create(640, 480, BufferedImage.TYPE_INT_RGB))
+            .expand(320, 240);
+
+    @Test
+    void outputMethodsWriteSameBytes() throws IOException {
+        for(final ImageFormat imageFormat : ImageFormat.values()) {
+            final EncodeOptions options = EncodeOptions.DEFAULT;
+            final byte[] expected = scaler.toByteArray(imageFormat, options);
+
+            final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+            scaler.writeTo(imageFormat, options, stream);
+            assertArrayEquals(expected, stream.toByteArray(), imageFormat + " stream");
+
+            final ByteArrayOutputStream channel = new ByteArrayOutputStream();
+            scaler.writeTo(imageFormat, options, Channels.newChannel(channel));
+            assertArrayEquals(expected, channel.toByteArray(), imageFormat + " channel");
+
+            final ByteBuffer buffer = ByteBuffer.allocate(expected.length + 20);
+            buffer.position(10);
+            assertEquals(expected.length, scaler.writeTo(imageFormat, options, buffer));
+            assertEquals(10 + expected.length, buffer.position());
+            assertArrayEquals(expected, Arrays.copyOfRange(buffer.array(), 10, 10 + expected.length),
+                    imageFormat + " buffer");
+        }
+    }
+
+    @Test
+    void insufficientBufferIsLeftUnchanged() throws IOException {
+        final byte[] expected = scaler.toByteArray(ImageFormat.PNG);
+        final ByteBuffer buffer = ByteBuffer.allocate(expected.length - 1);
+
+        assertThrows(IOException.class, () -> scaler.writeTo(ImageFormat.PNG, EncodeOptions.DEFAULT, buffer));
+        assertEquals(0, buffer.position());
+    }
+
+    @Test
+    void encodesBase64() throws IOException {
+        final String encoded = scaler.encode(ImageFormat.PNG);
+        final String header = "data:image/png;base64, ";
+
+        assertTrue(encoded.startsWith(header), encoded.substring(0, 30));
+        assertArrayEquals(scaler.toByteArray(ImageFormat.PNG),
+                Base64.getDecoder().decode(encoded.substring(header.length()).getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    @Test
+    void appliesOptions() throws IOException {
+        final byte[] best = scaler.toByteArray(ImageFormat.JPG, EncodeOptions.DEFAULT.quality(1f));
+        final byte[] worst = scaler.toByteArray(ImageFormat.JPG, EncodeOptions.DEFAULT.quality(0.1f));
+        assertTrue(worst.length < best.length, worst.length + " >= " + best.length);
+
+        final byte[] stored = scaler.toByteArray(ImageFormat.PNG, EncodeOptions.DEFAULT.compressionLevel(0));
+        final byte[] deflated = scaler.toByteArray(ImageFormat.PNG, EncodeOptions.DEFAULT.compressionLevel(9));
+        assertTrue(deflated.length < stored.length, deflated.length + " >= " + stored.length);
+
+        final byte[] progressive = scaler.toByteArray(ImageFormat.JPG, EncodeOptions.DEFAULT.progressive(true));
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(progressive));
+        assertEquals(320, image.getWidth());
+        assertEquals(240, image.getHeight());
+    }
+
+    @Test
+    void validatesOptions() {
+        assertThrows(IllegalArgumentException.class, () -> EncodeOptions.DEFAULT.quality(1.5f));
+        assertThrows(IllegalArgumentException.class, () -> EncodeOptions.DEFAULT.quality(Float.NaN));
+        assertThrows(IllegalArgumentException.class, () -> EncodeOptions.DEFAULT.compressionLevel(10));
+
+        assertEquals(EncodeOptions.DEFAULT.quality(0.8f).progressive(true),
+                EncodeOptions.DEFAULT.progressive(true).quality(0.8f));
+        assertEquals(EncodeOptions.DEFAULT.quality(0.8f).hashCode(), EncodeOptions.DEFAULT.quality(0.8f).hashCode());
+    }
+
+    @Test
+    void pooledWritersForgetOptions() throws Exception {
+        final byte[] expected = scaler.toByteArray(ImageFormat.JPG);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            final List<Future<byte[]>> results = new ArrayList<>();
+            for(int i = 0; i < ImageEncoder.MAX_POOLED_WRITERS * 2; i++) {
+                final EncodeOptions options = i % 2 == 0 ? EncodeOptions.DEFAULT.quality(0.2f).progressive(true)
+                        : EncodeOptions.DEFAULT;
+                results.add(executor.submit(() -> scaler.toByteArray(ImageFormat.JPG, options)));
+            }
+            for(int i = 1; i < results.size(); i += 2) {
+                assertArrayEquals(expected, results.get(i).get(), "default options after pooled use " + i);
+            }
+        }
+        finally {
+            executor.shutdown();
+        }
+        assertArrayEquals(expected, scaler.toByteArray(ImageFormat.JPG));
+    }
+}
@@ -0,0 +1,177 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.ontal.imgutil.scaling.ScalingPlan;
+import org.ontal.imgutil.scaling.SourceWindow;
+
+/**
+ * Checks every transformation produces the same image as the original
+ * <code>ResampleOp</code> based implementation, see {@link BaselineScaler}.
+ */
+class ImageScalerTest {
+
+    static Stream<Arguments> sources() {
+        final int[][] sizes = { { 1001, 667 }, { 640, 480 }, { 333, 999 } };
+        final int[] imageTypes = { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_3BYTE_BGR };
+        final Stream.Builder<Arguments> sources = Stream.builder();
+        for(final int[] size : sizes) {
+            for(final int imageType : imageTypes) {
+                sources.add(Arguments.of(size[0], size[1], imageType));
+            }
+        }
+        return sources.build();
+    }
+
+    @ParameterizedTest(name = "{0}x{1} type {2}")
+    @MethodSource("sources")
+    void adjustMatchesBaseline(final int width, final int height, final int imageType) {
+        final BufferedImage source = TestImages.create(width, height, imageType);
+
+        assertSamePixels(new BaselineScaler(source).adjust(201, 151),
+                new ImageScaler(source).adjust(201, 151).getImage(), "adjust");
+        assertSamePixels(new BaselineScaler(source).adjust(300, 900),
+                new ImageScaler(source).adjust(300, 900).getImage(), "adjust tall");
+    }
+
+    @ParameterizedTest(name = "{0}x{1} type {2}")
+    @MethodSource("sources")
+    void expandMatchesBaseline(final int width, final int height, final int imageType) {
+        final BufferedImage source = TestImages.create(width, height, imageType);
+
+        assertSamePixels(new BaselineScaler(source).expand(300, 100),
+                new ImageScaler(source).expand(300, 100).getImage(), "expand");
+        assertSamePixels(new BaselineScaler(source).expand(150, 1200),
+                new ImageScaler(source).expand(150, 1200).getImage(), "expand tall");
+    }
+
+    @ParameterizedTest(name = "{0}x{1} type {2}")
+    @MethodSource("sources")
+    void transformIntoDestinationMatchesTransform(final int width, final int height, final int imageType) {
+        final ImageScaler scaler = new ImageScaler(TestImages.create(width, height, imageType));
+        final TransformSpec[] specs = {
+            TransformSpec.fit(200, 150, new int[] { 1, 2, 3 }),
+            TransformSpec.fitBorderless(200, 150),
+            TransformSpec.adjust(201, 151),
+            TransformSpec.adjust(300, 250),
+            TransformSpec.expand(300, 100),
+            TransformSpec.tile(1500, 1500),
+            TransformSpec.tile(200, 100, 30, 20)
+        };
+        for(final TransformSpec spec : specs) {
+            final BufferedImage expected = scaler.transform(spec).getImage();
+
+            // destinations are reused images, every pixel has to be replaced
+            final BufferedImage destination = new BufferedImage(expected.getWidth(), expected.getHeight(), expected.getType());
+            final Graphics2D graphics = destination.createGraphics();
+            graphics.setPaint(new Color(200, 10, 90, 128));
+            graphics.fillRect(0, 0, expected.getWidth(), expected.getHeight());
+            graphics.dispose();
+            assertSamePixels(expected, scaler.transform(spec, destination).getImage(), spec.toString());
+
+            final BufferedImage canvas = new BufferedImage(expected.getWidth() + 7, expected.getHeight() + 5,
+                    expected.getType());
+            final BufferedImage subimage = canvas.getSubimage(7, 5, expected.getWidth(), expected.getHeight());
+            assertSamePixels(expected, scaler.transform(spec, subimage).getImage(), spec + " into subimage");
+        }
+    }
+
+    static Stream<Arguments> regions() {
+        return Stream.of(
+                Arguments.of(900, 200, TransformSpec.adjust(300, 300)),
+                Arguments.of(1001, 700, TransformSpec.adjust(333, 301)),
+                Arguments.of(100, 50, TransformSpec.adjust(400, 400)),
+                Arguments.of(640, 480, TransformSpec.adjust(150, 150)),
+                Arguments.of(640, 480, TransformSpec.adjust(150, 150).sharpening(TransformSpec.Sharpening.STRONG)),
+                Arguments.of(640, 480, TransformSpec.adjust(300, 100).quality(TransformSpec.Quality.BOX)),
+                Arguments.of(480, 640, TransformSpec.adjust(100, 300).quality(TransformSpec.Quality.BICUBIC)),
+                Arguments.of(480, 640, TransformSpec.adjust(200, 200).quality(TransformSpec.Quality.NEAREST)),
+                Arguments.of(480, 640, TransformSpec.adjust(200, 200).quality(TransformSpec.Quality.PROGRESSIVE)));
+    }
+
+    @ParameterizedTest(name = "{0}x{1} {2}")
+    @MethodSource("regions")
+    void decodedRegionMatchesWholeImage(final int width, final int height, final TransformSpec spec) throws IOException {
+        final byte[] imageBytes = png(TestImages.create(width, height, BufferedImage.TYPE_3BYTE_BGR));
+
+        final ImageScaler regionScaler = new ImageScaler(imageBytes, spec);
+        assertSamePixels(new ImageScaler(imageBytes).transform(spec).getImage(),
+                regionScaler.transform(spec).getImage(), "region");
+    }
+
+    @Test
+    void subsampledRegionKeepsWholeImagePlan() throws IOException {
+        final BufferedImage source = TestImages.create(4000, 1000, BufferedImage.TYPE_3BYTE_BGR);
+        final byte[] imageBytes = png(source);
+        final TransformSpec spec = TransformSpec.adjust(200, 200);
+
+        // the whole image decoded with the same subsampling and scaled with the plan of the whole image
+        final ScalingPlan plan = spec.getTransformer().plan(source.getWidth(), source.getHeight(),
+                BufferedImage.TYPE_3BYTE_BGR, spec);
+        final BufferedImage subsampledImage = decode(imageBytes, 2);
+        final BufferedImage expected = spec.getTransformer().transform(subsampledImage,
+                plan.withSourceWindow(SourceWindow.of(subsampledImage.getWidth(), subsampledImage.getHeight())));
+
+        final ImageScaler regionScaler = new ImageScaler(imageBytes, spec);
+        assertEquals(plan.getScaledWidth(), regionScaler.plan(spec).getScaledWidth());
+        assertEquals(1000, regionScaler.plan(spec).getSourceWindow().getHeight() * 2);
+        assertSamePixels(expected, regionScaler.transform(spec).getImage(), "subsampled region");
+    }
+
+    @Test
+    void renderImagesCascadesOnlyUnsharpenedLanczosImages() {
+        final ImageScaler scaler = new ImageScaler(TestImages.create(1600, 1200, BufferedImage.TYPE_INT_RGB));
+        final TransformSpec small = TransformSpec.fit(100, 100);
+        final BufferedImage direct = scaler.transform(small).getImage();
+
+        for(final TransformSpec big : new TransformSpec[] {
+            TransformSpec.fit(600, 600).sharpening(TransformSpec.Sharpening.STRONG),
+            TransformSpec.fit(600, 600).quality(TransformSpec.Quality.BOX),
+            TransformSpec.fit(600, 600).quality(TransformSpec.Quality.BICUBIC) }) {
+            assertSamePixels(direct, scaler.renderImages(Arrays.asList(big, small)).get(1), big.toString());
+        }
+        assertEquals(100, scaler.renderImages(Arrays.asList(TransformSpec.fit(600, 600), small)).get(1).getWidth());
+    }
+
+    private static byte[] png(final BufferedImage image) throws IOException {
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", output);
+        return output.toByteArray();
+    }
+
+    private static BufferedImage decode(final byte[] imageBytes, final int subsampling) throws IOException {
+        try(final ImageInputStream iis = ImageIO.createImageInputStream(new ByteArrayInputStream(imageBytes))) {
+            final Iterator<ImageReader> readers = ImageIO.getImageReaders(iis);
+            final ImageReader reader = readers.next();
+            try {
+                reader.setInput(iis);
+                final ImageReadParam param = reader.getDefaultReadParam();
+                param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+                return reader.read(0, param);
+            }
+            finally {
+                reader.dispose();
+            }
+        }
+    }
+}
@@ -0,0 +1,132 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.ontal.imgutil.metrics.Metrics;
+import org.ontal.imgutil.metrics.MetricsListener;
+import org.ontal.imgutil.metrics.Stage;
+import org.ontal.imgutil.metrics.StageEvent;
+import org.ontal.imgutil.scaling.ChainPlan;
+
+/**
+ * Checks the lazy scaler decodes nothing until the produced image is
+ * needed, reads its input stream once and produces the same images as the
+ * eager {@link ImageScaler} decoding the image for the same transformations.
+ */
+class LazyImageScalerTest {
+
+    private static final byte[] IMAGE_BYTES = TestImages.encode(
+            TestImages.create(640, 480, BufferedImage.TYPE_3BYTE_BGR), "png");
+
+    private final List<StageEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void removeListener() {
+        Metrics.setListener(MetricsListener.NONE);
+    }
+
+    @Test
+    void probesAndPlansWithoutDecoding() throws IOException {
+        Metrics.setListener(events::add);
+        final LazyImageScaler scaler = new LazyImageScaler(IMAGE_BYTES).adjust(200, 200).limit(Dimension.WIDTH, 100);
+
+        final ImageInfo info = scaler.probe();
+        assertEquals(640, info.getWidth());
+        assertEquals(480, info.getHeight());
+        final List<ChainPlan> plans = scaler.plan();
+        assertEquals(100, plans.get(plans.size() - 1).getOutputWidth());
+        assertEquals(100, plans.get(plans.size() - 1).getOutputHeight());
+        assertTrue(events.isEmpty(), events.toString());
+
+        scaler.getImage();
+        assertTrue(events.stream().anyMatch(event -> event.getStage() == Stage.DECODE), events.toString());
+    }
+
+    @Test
+    void readsInputStreamOnce() throws IOException {
+        final SingleUseInputStream input = new SingleUseInputStream(IMAGE_BYTES);
+        final LazyImageScaler scaler = new LazyImageScaler(input);
+        assertFalse(input.closed);
+
+        final LazyImageScaler adjusted = scaler.adjust(201, 151);
+        final LazyImageScaler expanded = scaler.withQuality(TransformSpec.Quality.BOX).expand(300, 100);
+        assertEquals(640, scaler.probe().getWidth());
+        assertTrue(input.closed);
+
+        assertEquals(201, adjusted.getImage().getWidth());
+        assertEquals(300, expanded.getImage().getWidth());
+        assertEquals(1, adjusted.plan().size());
+        assertEquals(1, input.closes);
+    }
+
+    @Test
+    void singleStepMatchesImageScaler() throws IOException {
+        final TransformSpec[] specs = {
+            TransformSpec.adjust(201, 151),
+            TransformSpec.expand(300, 100),
+            TransformSpec.fit(200, 200, new int[] { 1, 2, 3 }),
+            TransformSpec.limit(Dimension.HEIGHT, 321),
+            TransformSpec.tile(500, 300, 100, 70)
+        };
+        for(final TransformSpec spec : specs) {
+
+            // a single step is decoded for the step, subsampling the image for the small tiles
+            assertSamePixels(new ImageScaler(IMAGE_BYTES, spec).transform(spec).getImage(),
+                    new LazyImageScaler(IMAGE_BYTES).transform(spec).getImage(), spec.toString());
+        }
+        assertSamePixels(new ImageScaler(IMAGE_BYTES).withQuality(TransformSpec.Quality.BOX)
+                .adjust(201, 151).getImage(), new LazyImageScaler(IMAGE_BYTES).withQuality(TransformSpec.Quality.BOX)
+                .adjust(201, 151).getImage(), "box quality");
+    }
+
+    @Test
+    void chainMatchesImageScaler() throws IOException {
+        final TransformChain chain = TransformChain.of(TransformSpec.adjust(600, 600))
+                .then(TransformSpec.limit(Dimension.WIDTH, 400))
+                .then(TransformSpec.fit(500, 500, new int[] { 192, 205, 224 }));
+
+        final BufferedImage expected = new ImageScaler(IMAGE_BYTES).transform(chain).getImage();
+        assertSamePixels(expected, new LazyImageScaler(IMAGE_BYTES).transform(chain).getImage(), "chain");
+        assertSamePixels(expected, new LazyImageScaler(IMAGE_BYTES).adjust(600, 600).limit(Dimension.WIDTH, 400)
+                .fit(500, 500, new int[] { 192, 205, 224 }).getImage(), "recorded steps");
+    }
+
+    /**
+     * Input stream failing when read after being closed.
+     */
+    private static final class SingleUseInputStream extends ByteArrayInputStream {
+
+        private volatile boolean closed;
+        private volatile int closes;
+
+        SingleUseInputStream(final byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public synchronized int read(final byte[] b, final int off, final int len) {
+            if(closed) {
+                throw new IllegalStateException("Stream read after being closed");
+            }
+            return super.read(b, off, len);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+            closes++;
+        }
+    }
+}
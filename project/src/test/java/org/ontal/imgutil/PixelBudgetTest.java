@@ -0,0 +1,91 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the images over the per image limit are rejected or subsampled and
+ * the concurrent decodings wait for the total budget.
+ */
+class PixelBudgetTest {
+
+    private final byte[] imageBytes = TestImages.encode(
+            TestImages.create(640, 480, BufferedImage.TYPE_3BYTE_BGR), "png");
+
+    @AfterEach
+    void restoreDefault() {
+        PixelBudget.setDefault(PixelBudget.UNLIMITED);
+    }
+
+    @Test
+    void rejectsImageOverLimit() throws IOException {
+        final PixelBudget budget = new PixelBudget(100_000, 1_000_000, PixelBudget.Policy.REJECT);
+        PixelBudget.setDefault(budget);
+
+        assertThrows(IOException.class, () -> new ImageScaler(imageBytes));
+        assertEquals(0, budget.getPixelsInUse());
+
+        // the subsampled image fits
+        final BufferedImage image = new ImageScaler(imageBytes, 100, 75).fit(100, 75).getImage();
+        assertEquals(100, image.getWidth());
+        assertEquals(75, image.getHeight());
+    }
+
+    @Test
+    void subsamplesImageOverLimit() throws IOException {
+        final PixelBudget budget = new PixelBudget(100_000, 1_000_000, PixelBudget.Policy.SUBSAMPLE);
+        PixelBudget.setDefault(budget);
+
+        final BufferedImage image = new ImageScaler(imageBytes).expand(320, 240).getImage();
+        assertEquals(320, image.getWidth());
+        assertEquals(240, image.getHeight());
+        assertEquals(0, budget.getPixelsInUse());
+
+        assertEquals(2, budget.fit(640, 480, 1));
+        assertEquals(3, budget.fit(640, 480, 3));
+        assertEquals(4, new PixelBudget(20_000, 1_000_000, PixelBudget.Policy.SUBSAMPLE).fit(640, 480, 1));
+    }
+
+    @Test
+    void waitsForTotalBudget() throws Exception {
+        final PixelBudget budget = new PixelBudget(1_000, 1_000, PixelBudget.Policy.REJECT);
+        final long reserved = budget.acquire(5_000);
+        assertEquals(1_000, reserved);
+
+        final CompletableFuture<Long> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return budget.acquire(10);
+            }
+            catch(final IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(100);
+        assertFalse(waiting.isDone());
+
+        budget.release(reserved);
+        assertEquals(10L, waiting.get(10, TimeUnit.SECONDS));
+        assertEquals(10, budget.getPixelsInUse());
+        budget.release(10);
+        assertEquals(0, budget.getPixelsInUse());
+    }
+
+    @Test
+    void validatesArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new PixelBudget(0, 1_000, PixelBudget.Policy.REJECT));
+        assertThrows(IllegalArgumentException.class, () -> new PixelBudget(1_000, 0, PixelBudget.Policy.REJECT));
+        assertThrows(IllegalArgumentException.class, () -> new PixelBudget(1_000, 1_000, null));
+        assertThrows(IllegalArgumentException.class, () -> PixelBudget.setDefault(null));
+        assertSame(PixelBudget.UNLIMITED, PixelBudget.getDefault());
+    }
+}
@@ -0,0 +1,33 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks the renditions are cached by what they produce.
+ */
+class RenditionCacheTest {
+
+    @Test
+    void formatAliasesShareRendition() throws IOException {
+        final byte[] imageBytes = new ImageScaler(TestImages.create(320, 240, BufferedImage.TYPE_INT_RGB))
+                .expand(320, 240)
+                .toByteArray(ImageFormat.PNG);
+        final RenditionCache cache = new RenditionCache(1024 * 1024);
+        final TransformSpec spec = TransformSpec.adjust(100, 100);
+
+        final byte[] jpg = cache.get(imageBytes, spec, ImageFormat.JPG);
+        assertArrayEquals(jpg, cache.get(imageBytes, spec, ImageFormat.JPEG));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getEntryCount());
+
+        cache.get(imageBytes, spec, ImageFormat.PNG);
+        assertEquals(2, cache.getEntryCount());
+    }
+}
@@ -0,0 +1,66 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.ontal.imgutil.scaling.Resampler;
+
+/**
+ * Checks the renditions are produced in the order of the specs and the
+ * smaller ones are resampled from the already scaled bigger images.
+ */
+class RenditionLadderTest {
+
+    private final BufferedImage inputImage = TestImages.create(1600, 1200, BufferedImage.TYPE_INT_RGB);
+
+    @Test
+    void keepsOrderOfSpecs() {
+        final List<TransformSpec> specs = Arrays.asList(
+                TransformSpec.fit(100, 100),
+                TransformSpec.expand(800, 600),
+                TransformSpec.adjust(300, 100),
+                TransformSpec.tile(2000, 1300));
+
+        final List<BufferedImage> images = new RenditionLadder(inputImage, Resampler.getDefault()).transform(specs);
+        assertEquals(specs.size(), images.size());
+        for(int i = 0; i < specs.size(); i++) {
+            assertEquals(specs.get(i).getWidth(), images.get(i).getWidth(), specs.get(i).toString());
+            assertEquals(specs.get(i).getHeight(), images.get(i).getHeight(), specs.get(i).toString());
+        }
+    }
+
+    @Test
+    void biggestRenditionMatchesDirectTransform() {
+        final TransformSpec big = TransformSpec.expand(800, 600);
+        final List<BufferedImage> images = new RenditionLadder(inputImage, Resampler.getDefault())
+                .transform(Arrays.asList(TransformSpec.fit(100, 100), big));
+
+        assertSamePixels(new ImageScaler(inputImage).transform(big).getImage(), images.get(1), big.toString());
+    }
+
+    @Test
+    void smallerRenditionIsResampledFromIntermediate() {
+        final TransformSpec big = TransformSpec.expand(600, 450);
+        final TransformSpec small = TransformSpec.fit(100, 100);
+        final List<BufferedImage> images = new RenditionLadder(inputImage, Resampler.getDefault())
+                .transform(Arrays.asList(small, big));
+
+        final BufferedImage intermediate = new ImageScaler(inputImage).transform(big).getImage();
+        assertSamePixels(new ImageScaler(intermediate).transform(small).getImage(), images.get(0), small.toString());
+    }
+
+    @Test
+    void tooSmallIntermediateIsNotUsed() {
+        final TransformSpec big = TransformSpec.expand(300, 225);
+        final TransformSpec small = TransformSpec.fit(200, 200);
+        final List<BufferedImage> images = new RenditionLadder(inputImage, Resampler.getDefault())
+                .transform(Arrays.asList(big, small));
+
+        assertSamePixels(new ImageScaler(inputImage).transform(small).getImage(), images.get(1), small.toString());
+    }
+}
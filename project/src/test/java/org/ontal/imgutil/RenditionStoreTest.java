@@ -0,0 +1,164 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.ontal.imgutil.scaling.Resampler;
+
+/**
+ * Checks the renditions are produced once, stored atomically, produced
+ * again once evicted and kept under the maximum size.
+ */
+class RenditionStoreTest {
+
+    private static final long MAX_BYTES = 1024L * 1024 * 1024;
+
+    @TempDir
+    Path directory;
+
+    private final byte[] imageBytes = TestImages.encode(
+            TestImages.create(1600, 1200, BufferedImage.TYPE_3BYTE_BGR), "png");
+    private final Rendition rendition = new Rendition(TransformSpec.adjust(200, 200), ImageFormat.PNG);
+
+    @Test
+    void storesRenditionAtomically() throws IOException {
+        final byte[] expected = ImageScaler.produce(imageBytes, rendition, Resampler.getDefault());
+        try(final RenditionStore store = new RenditionStore(directory, MAX_BYTES)) {
+            assertEquals(ByteBuffer.wrap(expected), store.get(imageBytes, rendition));
+            assertEquals(ByteBuffer.wrap(expected), store.get(imageBytes, rendition));
+            assertEquals(1, store.getMissCount());
+            assertEquals(1, store.getHitCount());
+
+            // only the complete file is left, named after the content hash
+            final List<Path> files = storedFiles();
+            assertEquals(1, files.size());
+            assertArrayEquals(expected, Files.readAllBytes(files.get(0)));
+            assertEquals(ContentHash.of(imageBytes).toString(), files.get(0).getParent().getFileName().toString());
+            assertEquals(expected.length, store.getSize());
+        }
+    }
+
+    @Test
+    void formatAliasesShareFile() throws IOException {
+        try(final RenditionStore store = new RenditionStore(directory, MAX_BYTES)) {
+            final ByteBuffer jpg = store.get(imageBytes, new Rendition(rendition.getSpec(), ImageFormat.JPG));
+            assertEquals(jpg, store.get(imageBytes, new Rendition(rendition.getSpec(), ImageFormat.JPEG)));
+            assertEquals(1, store.getMissCount());
+            assertEquals(1, store.getHitCount());
+            assertEquals(1, storedFiles().size());
+            assertTrue(storedFiles().get(0).getFileName().toString().endsWith(".jpeg"));
+        }
+    }
+
+    @Test
+    void coalescesConcurrentRequests() throws Exception {
+        final int threads = 8;
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try(final RenditionStore store = new RenditionStore(directory, MAX_BYTES)) {
+            final CountDownLatch start = new CountDownLatch(1);
+            final List<Future<ByteBuffer>> results = new ArrayList<>();
+            for(int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return store.get(imageBytes, rendition);
+                }));
+            }
+            start.countDown();
+            final ByteBuffer expected = results.get(0).get();
+            for(final Future<ByteBuffer> result : results) {
+                assertEquals(expected, result.get());
+            }
+            assertEquals(1, store.getMissCount());
+            assertEquals(threads - 1, store.getHitCount());
+        }
+        finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void producesEvictedRenditionAgain() throws IOException {
+        try(final RenditionStore store = new RenditionStore(directory, MAX_BYTES)) {
+            final byte[] expected = store.load(ContentHash.of(imageBytes), rendition, imageBytes);
+            for(final Path file : storedFiles()) {
+                Files.delete(file);
+            }
+
+            final ByteArrayOutputStream output = new ByteArrayOutputStream();
+            assertEquals(expected.length, store.transferTo(imageBytes, rendition, Channels.newChannel(output)));
+            assertArrayEquals(expected, output.toByteArray());
+            assertEquals(2, store.getMissCount());
+            assertEquals(1, storedFiles().size());
+        }
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedRenditions() throws Exception {
+        final List<Rendition> renditions = new ArrayList<>();
+        for(int i = 0; i < 5; i++) {
+            renditions.add(new Rendition(TransformSpec.adjust(201 + i * 11, 150), ImageFormat.BMP));
+        }
+        long total = 0;
+        try(final RenditionStore store = new RenditionStore(directory, MAX_BYTES)) {
+            final List<Path> known = new ArrayList<>();
+            for(int i = 0; i < renditions.size(); i++) {
+                store.get(imageBytes, renditions.get(i));
+                final List<Path> files = storedFiles();
+                files.removeAll(known);
+                final Path file = files.get(0);
+                known.add(file);
+                total += Files.size(file);
+
+                // the first renditions were used the longest time ago
+                Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()
+                        - TimeUnit.MINUTES.toMillis(5 - i)));
+            }
+        }
+
+        // the store scans its directory when it is created
+        final long maxBytes = total / 2;
+        try(final RenditionStore store = new RenditionStore(directory, maxBytes)) {
+            final long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+            while(store.getSize() > maxBytes * RenditionStore.EVICTION_WATERMARK && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertTrue(store.getSize() <= maxBytes * RenditionStore.EVICTION_WATERMARK, store.toString());
+            assertTrue(store.getEvictionCount() >= 3, store.toString());
+
+            final List<String> names = storedFiles().stream()
+                    .map(path -> path.getFileName().toString())
+                    .collect(Collectors.toList());
+            assertEquals(renditions.size() - store.getEvictionCount(), names.size());
+            assertTrue(names.stream().anyMatch(name -> name.contains("245x150")), names.toString());
+            assertFalse(names.stream().anyMatch(name -> name.contains("201x150")), names.toString());
+        }
+    }
+
+    private List<Path> storedFiles() throws IOException {
+        try(final Stream<Path> paths = Files.walk(directory)) {
+            return paths.filter(Files::isRegularFile).collect(Collectors.toList());
+        }
+    }
+}
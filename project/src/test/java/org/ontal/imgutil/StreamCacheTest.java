@@ -0,0 +1,137 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/**
+ * Checks the input streams are cached in memory or in a temporary file as
+ * selected, without changing the global ImageIO cache settings.
+ */
+class StreamCacheTest {
+
+    private static final byte[] IMAGE_BYTES = TestImages.encode(
+            TestImages.create(640, 480, BufferedImage.TYPE_3BYTE_BGR), "png");
+
+    @TempDir
+    Path cacheDirectory;
+
+    private File previousCacheDirectory;
+    private boolean previousUseCache;
+
+    @BeforeEach
+    void setCacheDirectory() {
+        previousCacheDirectory = ImageIO.getCacheDirectory();
+        previousUseCache = ImageIO.getUseCache();
+        ImageIO.setCacheDirectory(cacheDirectory.toFile());
+    }
+
+    @AfterEach
+    void restoreCacheDirectory() {
+        ImageIO.setCacheDirectory(previousCacheDirectory);
+        ImageIO.setUseCache(previousUseCache);
+    }
+
+    @Test
+    void cachesInMemory() throws IOException {
+        final TrackedInputStream input = new TrackedInputStream(IMAGE_BYTES);
+        try(final ImageInputStream iis = ImageDecoder.stream(input, StreamCache.MEMORY)) {
+            assertTrue(iis.isCachedMemory());
+            assertFalse(iis.isCachedFile());
+            assertRereadable(iis);
+            assertEquals(0, countCacheFiles());
+        }
+        assertFalse(input.closed);
+    }
+
+    @Test
+    void cachesInFile() throws IOException {
+        final TrackedInputStream input = new TrackedInputStream(IMAGE_BYTES);
+        try(final ImageInputStream iis = ImageDecoder.stream(input, StreamCache.FILE)) {
+            assertTrue(iis.isCachedFile());
+            assertFalse(iis.isCachedMemory());
+            assertRereadable(iis);
+            assertEquals(1, countCacheFiles());
+        }
+        assertEquals(0, countCacheFiles());
+        assertFalse(input.closed);
+    }
+
+    @Test
+    void producesSameImageWhateverTheCache() throws IOException {
+        ImageIO.setUseCache(false);
+        final BufferedImage expected = new ImageScaler(IMAGE_BYTES).expand(201, 151).getImage();
+
+        for(final StreamCache cache : StreamCache.values()) {
+            assertSamePixels(expected, new ImageScaler(new ByteArrayInputStream(IMAGE_BYTES), cache)
+                    .expand(201, 151).getImage(), cache.toString());
+            assertSamePixels(expected, new StreamingScaler().streamCache(cache).transform(
+                    new ByteArrayInputStream(IMAGE_BYTES), TransformSpec.expand(201, 151)), cache + " streaming");
+        }
+        assertFalse(ImageIO.getUseCache());
+        assertEquals(0, countCacheFiles());
+    }
+
+    @Test
+    void rejectsMissingCache() {
+        assertThrows(IllegalArgumentException.class,
+                () -> new ImageScaler(new ByteArrayInputStream(IMAGE_BYTES), (StreamCache)null));
+        assertThrows(IllegalArgumentException.class, () -> new StreamingScaler().streamCache(null));
+    }
+
+    /**
+     * Reads the whole stream, seeks back to its start and reads it again.
+     */
+    private static void assertRereadable(final ImageInputStream iis) throws IOException {
+        final byte[] bytes = new byte[IMAGE_BYTES.length];
+        iis.readFully(bytes);
+        assertArrayEquals(IMAGE_BYTES, bytes);
+        assertEquals(-1, iis.read());
+
+        iis.seek(0);
+        iis.readFully(bytes);
+        assertArrayEquals(IMAGE_BYTES, bytes);
+    }
+
+    private long countCacheFiles() throws IOException {
+        try(final Stream<Path> files = Files.list(cacheDirectory)) {
+            return files.count();
+        }
+    }
+
+    /**
+     * Input stream recording if it was closed.
+     */
+    private static final class TrackedInputStream extends ByteArrayInputStream {
+
+        private volatile boolean closed;
+
+        TrackedInputStream(final byte[] bytes) {
+            super(bytes);
+        }
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
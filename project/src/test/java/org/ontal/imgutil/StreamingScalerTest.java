@@ -0,0 +1,100 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+
+/**
+ * Checks the images scaled from the decoded bands are the same as the ones
+ * produced by an {@link ImageScaler} created for the spec, with bands of a
+ * few dozen rows so the band boundaries fall inside the filter support.
+ */
+class StreamingScalerTest {
+
+    // a few dozen rows of the widest source image per band
+    private static final long BAND_PIXELS = 1280 * 37;
+
+    static Stream<Arguments> cases() {
+        final TransformSpec[] specs = {
+            TransformSpec.expand(300, 100),
+            TransformSpec.limit(Dimension.WIDTH, 320),
+            TransformSpec.limit(Dimension.HEIGHT, 1000),
+            TransformSpec.fit(200, 150, new int[] { 1, 2, 3 }),
+            TransformSpec.fitBorderless(200, 150),
+            TransformSpec.fitBorderless(200, 150).sharpening(TransformSpec.Sharpening.STRONG)
+        };
+        final int[][] sizes = { { 640, 480 }, { 1280, 960 } };
+        final int[] imageTypes = { BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_INT_ARGB };
+        final Stream.Builder<Arguments> cases = Stream.builder();
+        for(final int[] size : sizes) {
+            for(final int imageType : imageTypes) {
+                for(final TransformSpec spec : specs) {
+                    cases.add(Arguments.of(size[0], size[1], imageType, spec));
+                }
+            }
+        }
+        return cases.build();
+    }
+
+    @ParameterizedTest(name = "{0}x{1} type {2} {3}")
+    @MethodSource("cases")
+    void transformMatchesImageScaler(final int width, final int height, final int imageType,
+            final TransformSpec spec) throws IOException {
+        final byte[] imageBytes = TestImages.encode(TestImages.create(width, height, imageType), "png");
+        final BufferedImage expected = new ImageScaler(imageBytes, spec).transform(spec).getImage();
+
+        final StreamingScaler scaler = new StreamingScaler().bandPixels(BAND_PIXELS);
+        assertSamePixels(expected, scaler.transform(new ByteArrayInputStream(imageBytes), spec), "bands");
+    }
+
+    @ParameterizedTest(name = "{0}x{1} type {2} {3}")
+    @MethodSource("cases")
+    void writtenImageMatchesImageScaler(final int width, final int height, final int imageType,
+            final TransformSpec spec) throws IOException {
+        final byte[] imageBytes = TestImages.encode(TestImages.create(width, height, imageType), "png");
+        final BufferedImage expected = new ImageScaler(imageBytes, spec).transform(spec).getImage();
+
+        // PNG rows of the Expand, Limit and unsharpened borderless Fit images are pulled by the writer
+        final ByteArrayOutputStream output = new ByteArrayOutputStream();
+        new StreamingScaler().bandPixels(BAND_PIXELS).transform(new ByteArrayInputStream(imageBytes), spec,
+                ImageFormat.PNG, EncodeOptions.DEFAULT, output);
+        assertSamePixels(expected, ImageIO.read(new ByteArrayInputStream(output.toByteArray())), "written bands");
+    }
+
+    @Test
+    void readsFilesAndCachedStreams(@TempDir final Path directory) throws IOException {
+        final byte[] imageBytes = TestImages.encode(TestImages.create(1280, 960, BufferedImage.TYPE_3BYTE_BGR), "png");
+        final Path imagePath = Files.write(directory.resolve("source.png"), imageBytes);
+        final TransformSpec spec = TransformSpec.limit(Dimension.WIDTH, 320);
+        final BufferedImage expected = new ImageScaler(imageBytes, spec).transform(spec).getImage();
+
+        final StreamingScaler scaler = new StreamingScaler().bandPixels(BAND_PIXELS);
+        assertSamePixels(expected, scaler.transform(imagePath, spec), "file");
+        assertSamePixels(expected, scaler.streamCache(StreamCache.FILE)
+                .transform(new ByteArrayInputStream(imageBytes), spec), "file cache");
+    }
+
+    @Test
+    void rejectsUnsupportedTransformations() {
+        final StreamingScaler scaler = new StreamingScaler();
+        final ByteArrayInputStream input = new ByteArrayInputStream(new byte[0]);
+        assertThrows(IllegalArgumentException.class, () -> scaler.transform(input, TransformSpec.adjust(200, 150)));
+        assertThrows(IllegalArgumentException.class, () -> scaler.transform(input, TransformSpec.tile(200, 150)));
+        assertThrows(IllegalArgumentException.class, () -> scaler.bandPixels(0));
+    }
+}
@@ -0,0 +1,88 @@
+package org.ontal.imgutil;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.fail;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Random;
+
+import javax.imageio.ImageIO;
+
+/**
+ * Deterministic synthetic images and pixel comparisons shared by the tests.
+ */
+public final class TestImages {
+
+    private TestImages() {
+    }
+
+    /**
+     * Creates an image of the provided type filled with gradients, a
+     * checkerboard pattern and seeded noise, so every filter tap matters.
+     * Alpha varies across the image for the translucent types.
+     *
+     * @param width image width in pixels
+     * @param height image height in pixels
+     * @param imageType image bitmap type
+     * @return image
+     */
+    public static BufferedImage create(final int width, final int height, final int imageType) {
+        final BufferedImage image = new BufferedImage(width, height, imageType);
+        final Random random = new Random(31L * width + height);
+        for(int y = 0; y < height; y++) {
+            for(int x = 0; x < width; x++) {
+                final int r = x * 255 / width;
+                final int g = y * 255 / height;
+                final int b = ((x / 4 + y / 4) % 2) * 160 + random.nextInt(96);
+                final int a = image.getColorModel().hasAlpha() ? 255 - (x + y) * 200 / (width + height) : 255;
+                image.setRGB(x, y, a << 24 | r << 16 | g << 8 | b);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Encodes the image with the ImageIO writer of the provided format.
+     *
+     * @param image image
+     * @param formatName ImageIO format name, e.g. <code>png</code>
+     * @return image bytes
+     */
+    public static byte[] encode(final BufferedImage image, final String formatName) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try {
+            if(!ImageIO.write(image, formatName, bytes)) {
+                throw new IllegalArgumentException("No " + formatName + " writer for image type " + image.getType());
+            }
+        }
+        catch(final IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Asserts both images have the same dimensions and ARGB pixels.
+     *
+     * @param expected expected image
+     * @param actual actual image
+     * @param message failure message prefix
+     */
+    public static void assertSamePixels(final BufferedImage expected, final BufferedImage actual, final String message) {
+        assertEquals(expected.getWidth(), actual.getWidth(), message + ": width");
+        assertEquals(expected.getHeight(), actual.getHeight(), message + ": height");
+        for(int y = 0; y < expected.getHeight(); y++) {
+            for(int x = 0; x < expected.getWidth(); x++) {
+                final int expectedRgb = expected.getRGB(x, y);
+                final int actualRgb = actual.getRGB(x, y);
+                if(expectedRgb != actualRgb) {
+                    fail(message + ": pixel " + x + "," + y + " is " + Integer.toHexString(actualRgb)
+                            + " instead of " + Integer.toHexString(expectedRgb));
+                }
+            }
+        }
+    }
+}
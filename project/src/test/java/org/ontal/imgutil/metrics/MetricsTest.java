@@ -0,0 +1,90 @@
+package org.ontal.imgutil.metrics;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.ontal.imgutil.ImageFormat;
+import org.ontal.imgutil.ImageScaler;
+import org.ontal.imgutil.TestImages;
+import org.ontal.imgutil.TransformSpec;
+
+/**
+ * Checks the listener receives an event for every stage of a scaling.
+ */
+class MetricsTest {
+
+    private final List<StageEvent> events = Collections.synchronizedList(new ArrayList<>());
+
+    @AfterEach
+    void removeListener() {
+        Metrics.setListener(MetricsListener.NONE);
+    }
+
+    @Test
+    void reportsStages() throws IOException {
+        final byte[] imageBytes = TestImages.encode(TestImages.create(640, 480, BufferedImage.TYPE_3BYTE_BGR), "png");
+        Metrics.setListener(events::add);
+
+        new ImageScaler(imageBytes).transform(TransformSpec.fit(200, 200)).toByteArray(ImageFormat.JPG);
+        assertEquals(4, events.size(), events.toString());
+
+        final StageEvent decode = events.get(0);
+        assertSame(Stage.DECODE, decode.getStage());
+        assertSame(ImageFormat.PNG, decode.getImageFormat());
+        assertEquals(640, decode.getOutputWidth());
+        assertEquals(480, decode.getOutputHeight());
+
+        final StageEvent scale = events.get(1);
+        assertSame(Stage.SCALE, scale.getStage());
+        assertSame(TransformSpec.Mode.FIT, scale.getMode());
+        assertEquals(640, scale.getInputWidth());
+        assertEquals(480, scale.getInputHeight());
+
+        final StageEvent compose = events.get(2);
+        assertSame(Stage.COMPOSE, compose.getStage());
+        assertEquals(200, compose.getOutputWidth());
+        assertEquals(200, compose.getOutputHeight());
+
+        final StageEvent encode = events.get(3);
+        assertSame(Stage.ENCODE, encode.getStage());
+        assertSame(ImageFormat.JPG, encode.getImageFormat());
+        assertEquals(200, encode.getInputWidth());
+        assertEquals(200, encode.getInputHeight());
+
+        for(final StageEvent event : events) {
+            assertTrue(event.getElapsedNanos() >= 0, event.toString());
+        }
+    }
+
+    @Test
+    void failingListenerDoesNotFailScaling() {
+        Metrics.setListener(event -> {
+            throw new IllegalStateException("Listener failure");
+        });
+
+        assertEquals(100, new ImageScaler(TestImages.create(400, 300, BufferedImage.TYPE_INT_RGB))
+                .expand(100, 75).getImage().getWidth());
+    }
+
+    @Test
+    void disabledListenerMeasuresNothing() {
+        assertSame(MetricsListener.NONE, Metrics.getListener());
+        assertThrows(IllegalArgumentException.class, () -> Metrics.setListener(null));
+
+        new ImageScaler(TestImages.create(400, 300, BufferedImage.TYPE_INT_RGB)).expand(100, 75);
+        Metrics.setListener(events::add);
+        Metrics.setListener(MetricsListener.NONE);
+        new ImageScaler(TestImages.create(400, 300, BufferedImage.TYPE_INT_RGB)).expand(100, 75);
+        assertTrue(events.isEmpty(), events.toString());
+    }
+}
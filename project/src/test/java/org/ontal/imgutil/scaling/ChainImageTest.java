@@ -0,0 +1,142 @@
+package org.ontal.imgutil.scaling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.ontal.imgutil.Dimension;
+import org.ontal.imgutil.ImageScaler;
+import org.ontal.imgutil.TestImages;
+import org.ontal.imgutil.TransformSpec;
+
+/**
+ * Checks the geometry the chain steps are composed into, and that it's the
+ * geometry of the images produced step by step.
+ */
+class ChainImageTest {
+
+    private static final ChainImage CHAIN = new ChainImage();
+
+    @Test
+    void composesCropsAndScales() {
+        final List<ChainPlan> plans = CHAIN.plan(1200, 800, BufferedImage.TYPE_3BYTE_BGR, Arrays.asList(
+                TransformSpec.adjust(600, 600),
+                TransformSpec.limit(Dimension.WIDTH, 400),
+                TransformSpec.fit(500, 500, new int[] { 1, 2, 3 })));
+        assertEquals(1, plans.size());
+
+        // 900x600 cropped to 600x600, scaled to 400x400 and then to 500x500, so 750x500 cropped at 125,0
+        final ChainPlan plan = plans.get(0);
+        final ScalingPlan contentPlan = plan.getContentPlan();
+        assertEquals(750, contentPlan.getScaledWidth());
+        assertEquals(500, contentPlan.getScaledHeight());
+        assertEquals(125, contentPlan.getCropX());
+        assertEquals(0, contentPlan.getCropY());
+        assertEquals(500, contentPlan.getOutputWidth());
+        assertEquals(500, contentPlan.getOutputHeight());
+        assertEquals(0, plan.getX());
+        assertEquals(0, plan.getY());
+        assertEquals(500, plan.getOutputWidth());
+        assertEquals(500, plan.getOutputHeight());
+    }
+
+    @Test
+    void composesBordersAndCrops() {
+        final List<ChainPlan> plans = CHAIN.plan(1200, 800, BufferedImage.TYPE_3BYTE_BGR, Arrays.asList(
+                TransformSpec.limit(Dimension.WIDTH, 600),
+                TransformSpec.fit(400, 400),
+                TransformSpec.adjust(200, 300)));
+
+        // 400x266 fitted into 400x400 with borders, scaled to 300x300 and cropped to 200x300 at 50,0
+        final ChainPlan plan = plans.get(0);
+        final ScalingPlan contentPlan = plan.getContentPlan();
+        assertEquals(300, contentPlan.getScaledWidth());
+        assertEquals(200, contentPlan.getScaledHeight());
+        assertEquals(50, contentPlan.getCropX());
+        assertEquals(0, contentPlan.getCropY());
+        assertEquals(200, contentPlan.getOutputWidth());
+        assertEquals(200, contentPlan.getOutputHeight());
+        assertEquals(0, plan.getX());
+        assertEquals(50, plan.getY());
+        assertEquals(200, plan.getOutputWidth());
+        assertEquals(300, plan.getOutputHeight());
+        assertTrue(plan.isComposed());
+    }
+
+    @Test
+    void splitsChainAfterTiling() {
+        final List<ChainPlan> plans = CHAIN.plan(640, 480, BufferedImage.TYPE_3BYTE_BGR, Arrays.asList(
+                TransformSpec.tile(300, 200, 100, 50),
+                TransformSpec.limit(Dimension.WIDTH, 150)));
+        assertEquals(2, plans.size());
+
+        assertEquals(100, plans.get(0).getCanvasWidth());
+        assertEquals(50, plans.get(0).getCanvasHeight());
+        assertEquals(300, plans.get(0).getOutputWidth());
+        assertEquals(200, plans.get(0).getOutputHeight());
+        assertEquals(300, plans.get(1).getContentPlan().getInputWidth());
+        assertEquals(200, plans.get(1).getContentPlan().getInputHeight());
+        assertEquals(150, plans.get(1).getOutputWidth());
+        assertEquals(100, plans.get(1).getOutputHeight());
+    }
+
+    static Stream<Arguments> chains() {
+        return Stream.of(
+                Arguments.of(1001, 667, Arrays.asList(TransformSpec.adjust(600, 600),
+                        TransformSpec.limit(Dimension.WIDTH, 400), TransformSpec.fit(500, 500))),
+                Arguments.of(640, 480, Arrays.asList(TransformSpec.fit(300, 300),
+                        TransformSpec.expand(200, 100), TransformSpec.adjust(150, 150))),
+                Arguments.of(333, 999, Arrays.asList(TransformSpec.fitBorderless(200, 200),
+                        TransformSpec.limit(Dimension.HEIGHT, 321), TransformSpec.adjust(97, 211))),
+                Arguments.of(640, 480, Arrays.asList(TransformSpec.tile(300, 200, 100, 50),
+                        TransformSpec.limit(Dimension.WIDTH, 150), TransformSpec.fit(200, 200))),
+                Arguments.of(1001, 667, Arrays.asList(TransformSpec.expand(400, 100),
+                        TransformSpec.fit(123, 77), TransformSpec.tile(500, 300))));
+    }
+
+    @ParameterizedTest(name = "{0}x{1} {2}")
+    @MethodSource("chains")
+    void chainMatchesStepByStepGeometry(final int width, final int height, final List<TransformSpec> steps) {
+        final BufferedImage source = TestImages.create(width, height, BufferedImage.TYPE_3BYTE_BGR);
+        BufferedImage expected = source;
+        for(final TransformSpec step : steps) {
+            expected = new ImageScaler(expected).transform(step).getImage();
+        }
+
+        final List<ChainPlan> plans = CHAIN.plan(width, height, BufferedImage.TYPE_3BYTE_BGR, steps);
+        final ChainPlan last = plans.get(plans.size() - 1);
+        assertEquals(expected.getWidth(), last.getOutputWidth(), "planned width");
+        assertEquals(expected.getHeight(), last.getOutputHeight(), "planned height");
+
+        final BufferedImage actual = CHAIN.transform(source, steps);
+        assertEquals(expected.getWidth(), actual.getWidth(), "width");
+        assertEquals(expected.getHeight(), actual.getHeight(), "height");
+    }
+
+    static Stream<Arguments> steps() {
+        return Stream.of(
+                Arguments.of(TransformSpec.expand(300, 100)),
+                Arguments.of(TransformSpec.limit(Dimension.WIDTH, 321)),
+                Arguments.of(TransformSpec.adjust(201, 151)),
+                Arguments.of(TransformSpec.fitBorderless(200, 150)));
+    }
+
+    @ParameterizedTest(name = "{0}")
+    @MethodSource("steps")
+    void singleStepMatchesTransform(final TransformSpec spec) {
+        final BufferedImage source = TestImages.create(1001, 667, BufferedImage.TYPE_3BYTE_BGR);
+
+        assertSamePixels(new ImageScaler(source).transform(spec).getImage(),
+                CHAIN.transform(source, Collections.singletonList(spec)), spec.toString());
+    }
+}
@@ -0,0 +1,72 @@
+package org.ontal.imgutil.scaling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.ontal.imgutil.BaselineScaler;
+import org.ontal.imgutil.TestImages;
+import org.ontal.imgutil.TransformSpec;
+
+/**
+ * Checks the images fitted straight into the canvas match the original
+ * implementation and the borderless images match the canvas content.
+ */
+class FitImageTest {
+
+    static Stream<Arguments> sources() {
+        final int[][] sizes = { { 1001, 667 }, { 640, 480 }, { 333, 999 } };
+        final int[] imageTypes = {
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_BYTE_GRAY
+        };
+        final Stream.Builder<Arguments> sources = Stream.builder();
+        for(final int[] size : sizes) {
+            for(final int imageType : imageTypes) {
+                sources.add(Arguments.of(size[0], size[1], imageType));
+            }
+        }
+        return sources.build();
+    }
+
+    @ParameterizedTest(name = "{0}x{1} type {2}")
+    @MethodSource("sources")
+    void fitMatchesBaseline(final int width, final int height, final int imageType) {
+        final BufferedImage source = TestImages.create(width, height, imageType);
+        final int[] rgb = { 1, 2, 3 };
+
+        assertSamePixels(new BaselineScaler(source).fit(200, 150, rgb),
+                new FitImage().transform(source, TransformSpec.fit(200, 150, rgb)), "fit");
+        assertSamePixels(new BaselineScaler(source).fit(640, 640, rgb),
+                new FitImage().transform(source, TransformSpec.fit(640, 640, rgb)), "fit up");
+    }
+
+    static Stream<Arguments> opaqueSources() {
+
+        // the translucent images are composed over the canvas background
+        return sources().filter(arguments -> (int)arguments.get()[2] != BufferedImage.TYPE_INT_ARGB);
+    }
+
+    @ParameterizedTest(name = "{0}x{1} type {2}")
+    @MethodSource("opaqueSources")
+    void borderlessFitMatchesCanvasContent(final int width, final int height, final int imageType) {
+        final BufferedImage source = TestImages.create(width, height, imageType);
+        final FitImage transformer = new FitImage();
+        final ScalingPlan plan = transformer.plan(source, TransformSpec.fit(300, 300));
+
+        final BufferedImage borderless = transformer.transform(source, TransformSpec.fitBorderless(300, 300));
+        assertEquals(plan.getScaledWidth(), borderless.getWidth());
+        assertEquals(plan.getScaledHeight(), borderless.getHeight());
+        assertEquals(300, Math.max(borderless.getWidth(), borderless.getHeight()));
+        assertSamePixels(transformer.transform(source, plan)
+                .getSubimage(plan.getX(), plan.getY(), plan.getScaledWidth(), plan.getScaledHeight()),
+                borderless, "borderless");
+    }
+}
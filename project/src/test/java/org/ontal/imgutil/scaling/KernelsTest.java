@@ -0,0 +1,112 @@
+package org.ontal.imgutil.scaling;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.ontal.imgutil.TestImages;
+
+import com.mortennobel.imagescaling.ResampleFilter;
+import com.mortennobel.imagescaling.ResampleFilters;
+
+/**
+ * Checks the Vector API kernels produce exactly the samples of the scalar
+ * ones. The tests run with the <code>jdk.incubator.vector</code> module
+ * resolved and the Java 17 classes on the class path, see the surefire
+ * configuration.
+ */
+class KernelsTest {
+
+    private static final Kernels SCALAR = new Kernels();
+
+    @BeforeAll
+    static void checkVectorized() {
+        assertTrue(Kernels.get().isVectorized(), "the Vector API kernels are not loaded");
+    }
+
+    static Stream<Arguments> passes() {
+        final ResampleFilter[] filters = {
+            ResampleFilters.getLanczos3Filter(),
+            ResampleFilters.getBoxFilter(),
+            ResampleFilters.getBiCubicFilter(),
+            ResampleFilters.getMitchellFilter()
+        };
+        final int[] imageTypes = { BufferedImage.TYPE_BYTE_GRAY, BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR };
+        final Stream.Builder<Arguments> passes = Stream.builder();
+        for(final int imageType : imageTypes) {
+            for(final ResampleFilter filter : filters) {
+                passes.add(Arguments.of(imageType, filter, 97));
+                passes.add(Arguments.of(imageType, filter, 1031));
+            }
+        }
+        return passes.build();
+    }
+
+    @ParameterizedTest(name = "type {0} {1} -> {2}")
+    @MethodSource("passes")
+    void resampleRowsMatchesScalar(final int imageType, final ResampleFilter filter, final int outputWidth) {
+        final BufferedImage source = TestImages.create(389, 7, imageType);
+        final int channels = source.getColorModel().getNumComponents();
+        final Resampler.Contributors horizontal = Resampler.Contributors.create(filter, source.getWidth(), outputWidth);
+        final int regionX = outputWidth / 5;
+        final int regionWidth = outputWidth - regionX;
+
+        final byte[] expected = new byte[regionWidth * channels * source.getHeight()];
+        final byte[] actual = new byte[expected.length];
+        SCALAR.resampleRows(source, 0, source.getHeight(), horizontal, regionX, regionWidth, channels,
+                expected, 3, source.getHeight());
+        Kernels.get().resampleRows(source, 0, source.getHeight(), horizontal, regionX, regionWidth, channels,
+                actual, 3, source.getHeight());
+        assertArrayEquals(expected, actual);
+    }
+
+    @ParameterizedTest(name = "type {0} {1} -> {2}")
+    @MethodSource("passes")
+    void resampleColumnsMatchesScalar(final int imageType, final ResampleFilter filter, final int outputHeight) {
+        final int channels = imageType == BufferedImage.TYPE_BYTE_GRAY ? 1 : imageType == BufferedImage.TYPE_3BYTE_BGR ? 3 : 4;
+        final int sourceHeight = 389;
+        final int rowLength = 253 * channels;
+        final byte[] workPixels = new byte[sourceHeight * rowLength];
+        new Random(sourceHeight).nextBytes(workPixels);
+        final Resampler.Contributors vertical = Resampler.Contributors.create(filter, sourceHeight, outputHeight);
+
+        final byte[] expected = new byte[outputHeight * rowLength];
+        final byte[] actual = new byte[expected.length];
+        final int[] offsets = new int[vertical.size];
+        final float[] weights = new float[vertical.size];
+        for(int y = 0; y < outputHeight; y++) {
+            final int max = vertical.count[y];
+            for(int j = 0; j < max; j++) {
+                offsets[j] = vertical.pixels[y * vertical.size + j] * rowLength;
+                weights[j] = vertical.weights[y * vertical.size + j];
+            }
+            SCALAR.resampleColumns(workPixels, offsets, weights, max, rowLength, channels, expected, y * rowLength);
+            Kernels.get().resampleColumns(workPixels, offsets, weights, max, rowLength, channels, actual, y * rowLength);
+        }
+        assertArrayEquals(expected, actual);
+    }
+
+    @Test
+    void convolveAndTransposeMatchesScalar() {
+        final Random random = new Random(17);
+        for(final int[] size : new int[][] { { 1, 1 }, { 3, 5 }, { 17, 9 }, { 640, 37 } }) {
+            final int[] pixels = new int[size[0] * size[1]];
+            for(int i = 0; i < pixels.length; i++) {
+                pixels[i] = random.nextInt();
+            }
+            final int[] expected = new int[pixels.length];
+            final int[] actual = new int[pixels.length];
+            SCALAR.convolveAndTranspose(pixels, expected, size[0], size[1]);
+            Kernels.get().convolveAndTranspose(pixels, actual, size[0], size[1]);
+            assertArrayEquals(expected, actual, size[0] + "x" + size[1]);
+        }
+    }
+}
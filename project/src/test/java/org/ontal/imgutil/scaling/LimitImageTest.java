@@ -0,0 +1,55 @@
+package org.ontal.imgutil.scaling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+import org.ontal.imgutil.BaselineScaler;
+import org.ontal.imgutil.Dimension;
+import org.ontal.imgutil.TestImages;
+import org.ontal.imgutil.TransformSpec;
+
+/**
+ * Checks the limited images keep the input image ratio and match the
+ * original implementation.
+ */
+class LimitImageTest {
+
+    @ParameterizedTest(name = "{0}x{1} type {2}")
+    @CsvSource({ "1001, 667, 1", "640, 480, 2", "333, 999, 5" })
+    void limitMatchesBaseline(final int width, final int height, final int imageType) {
+        final BufferedImage source = TestImages.create(width, height, imageType);
+
+        // only the width limit, the original height limit swapped the ratio
+        assertSamePixels(new BaselineScaler(source).limitWidth(250),
+                new LimitImage().transform(source, TransformSpec.limit(Dimension.WIDTH, 250)), "limit");
+        assertSamePixels(new BaselineScaler(source).limitWidth(150),
+                new LimitImage().transform(source, TransformSpec.limit(Dimension.WIDTH, 150)), "limit small");
+    }
+
+    @Test
+    void limitsWidth() {
+        final ScalingPlan plan = new LimitImage().plan(800, 400, BufferedImage.TYPE_INT_RGB,
+                TransformSpec.limit(Dimension.WIDTH, 300));
+
+        assertEquals(300, plan.getOutputWidth());
+        assertEquals(150, plan.getOutputHeight());
+    }
+
+    @Test
+    void limitsHeight() {
+        final ScalingPlan landscape = new LimitImage().plan(640, 480, BufferedImage.TYPE_INT_RGB,
+                TransformSpec.limit(Dimension.HEIGHT, 240));
+        assertEquals(320, landscape.getOutputWidth());
+        assertEquals(240, landscape.getOutputHeight());
+
+        final ScalingPlan portrait = new LimitImage().plan(480, 640, BufferedImage.TYPE_INT_RGB,
+                TransformSpec.limit(Dimension.HEIGHT, 320));
+        assertEquals(240, portrait.getOutputWidth());
+        assertEquals(320, portrait.getOutputHeight());
+    }
+}
@@ -0,0 +1,150 @@
+package org.ontal.imgutil.scaling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.Color;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.WritableRaster;
+
+import org.junit.jupiter.api.Test;
+import org.ontal.imgutil.TestImages;
+
+/**
+ * Checks the decoded images of the types not processed natively are
+ * converted into their working types with the exact samples.
+ */
+class PixelFormatsTest {
+
+    private static final int WIDTH = 67;
+    private static final int HEIGHT = 41;
+
+    @Test
+    void convertsOpaquePalette() {
+        final BufferedImage image = TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_INDEXED);
+
+        final BufferedImage normalized = PixelFormats.normalize(image);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, normalized.getType());
+        assertSamePixels(image, normalized, "palette");
+    }
+
+    @Test
+    void convertsTranslucentPalette() {
+        final byte[] r = { 0, (byte)255, 0, 10 };
+        final byte[] g = { 0, 0, (byte)255, 20 };
+        final byte[] b = { 0, 0, 0, 30 };
+        final byte[] a = { 0, (byte)128, (byte)255, 64 };
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_BYTE_BINARY,
+                new IndexColorModel(2, 4, r, g, b, a));
+        final WritableRaster raster = image.getRaster();
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                raster.setSample(x, y, 0, (x + y) % 4);
+            }
+        }
+
+        final BufferedImage normalized = PixelFormats.normalize(image);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, normalized.getType());
+        assertSamePixels(image, normalized, "translucent palette");
+    }
+
+    @Test
+    void reducesSixteenBitSamples() {
+        final ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB),
+                true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_USHORT);
+        final BufferedImage image = new BufferedImage(colorModel,
+                colorModel.createCompatibleWritableRaster(WIDTH, HEIGHT), false, null);
+        final WritableRaster raster = image.getRaster();
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                for(int band = 0; band < 4; band++) {
+                    raster.setSample(x, y, band, (x * 977 + y * 4099 + band * 16411) % 65536);
+                }
+            }
+        }
+
+        final BufferedImage normalized = PixelFormats.normalize(image);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, normalized.getType());
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                for(int band = 0; band < 4; band++) {
+                    final int expected = (int)Math.round(raster.getSample(x, y, band) * 255 / 65535.0);
+                    assertEquals(expected, normalized.getRaster().getSample(x, y, band), x + "," + y + " band " + band);
+                }
+            }
+        }
+    }
+
+    @Test
+    void copiesGrayAndAlphaSamples() {
+        final ComponentColorModel colorModel = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_GRAY),
+                true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+        final BufferedImage image = new BufferedImage(colorModel,
+                colorModel.createCompatibleWritableRaster(WIDTH, HEIGHT), false, null);
+        final WritableRaster raster = image.getRaster();
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                raster.setSample(x, y, 0, (x * 7 + y * 3) % 256);
+                raster.setSample(x, y, 1, (x + y * 11) % 256);
+            }
+        }
+
+        final BufferedImage normalized = PixelFormats.normalize(image);
+        assertEquals(BufferedImage.TYPE_4BYTE_ABGR, normalized.getType());
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                final int gray = raster.getSample(x, y, 0);
+                final int expected = raster.getSample(x, y, 1) << 24 | gray << 16 | gray << 8 | gray;
+                assertEquals(expected, normalized.getRGB(x, y), x + "," + y);
+            }
+        }
+    }
+
+    @Test
+    void convertsSixteenBitGray() {
+        final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_USHORT_GRAY);
+
+        final BufferedImage normalized = PixelFormats.normalize(image);
+        assertEquals(BufferedImage.TYPE_BYTE_GRAY, normalized.getType());
+        assertEquals(WIDTH, normalized.getWidth());
+        assertEquals(HEIGHT, normalized.getHeight());
+    }
+
+    @Test
+    void keepsNativeTypes() {
+        for(final int imageType : new int[] { BufferedImage.TYPE_INT_RGB, BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_3BYTE_BGR, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_BYTE_GRAY }) {
+            final BufferedImage image = new BufferedImage(WIDTH, HEIGHT, imageType);
+            assertFalse(PixelFormats.requiresNormalization(imageType));
+            assertSame(image, PixelFormats.normalize(image));
+        }
+    }
+
+    @Test
+    void flattensOverBackground() {
+        final BufferedImage image = TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_4BYTE_ABGR);
+
+        final BufferedImage flattened = PixelFormats.flatten(image, Color.WHITE);
+        assertEquals(BufferedImage.TYPE_3BYTE_BGR, flattened.getType());
+        for(int y = 0; y < HEIGHT; y++) {
+            for(int x = 0; x < WIDTH; x++) {
+                final int argb = image.getRGB(x, y);
+                final int alpha = argb >>> 24;
+                final int rgb = flattened.getRGB(x, y);
+                for(int shift = 0; shift < 24; shift += 8) {
+                    final int expected = (((argb >> shift) & 0xff) * alpha + 255 * (255 - alpha) + 127) / 255;
+                    assertEquals(expected, (rgb >> shift) & 0xff, x + "," + y);
+                }
+            }
+        }
+        final BufferedImage opaque = TestImages.create(WIDTH, HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        assertSame(opaque, PixelFormats.flatten(opaque, Color.WHITE));
+    }
+}
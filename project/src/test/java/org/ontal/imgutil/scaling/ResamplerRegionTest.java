@@ -0,0 +1,52 @@
+package org.ontal.imgutil.scaling;
+
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.ontal.imgutil.TestImages;
+
+import com.mortennobel.imagescaling.ResampleFilters;
+
+/**
+ * Checks a resampled region is the same as the crop of the whole resampled
+ * image.
+ */
+class ResamplerRegionTest {
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterAll
+    static void shutdownPool() {
+        POOL.shutdown();
+    }
+
+    @ParameterizedTest(name = "type {0}")
+    @MethodSource("org.ontal.imgutil.scaling.ResamplerTest#imageTypes")
+    void regionMatchesCrop(final int imageType) {
+        final BufferedImage source = TestImages.create(320, 200, imageType);
+        final Resampler resampler = Resampler.getDefault();
+        final BufferedImage scaled = resampler.resample(source, 400, 250);
+
+        assertSamePixels(scaled.getSubimage(37, 11, 200, 150),
+                resampler.resample(source, 400, 250, 37, 11, 200, 150), "inner region");
+        assertSamePixels(scaled.getSubimage(0, 0, 3, 250),
+                resampler.resample(source, 400, 250, 0, 0, 3, 250), "left edge");
+        assertSamePixels(scaled.getSubimage(397, 247, 3, 3),
+                resampler.resample(source, 400, 250, 397, 247, 3, 3), "bottom right corner");
+    }
+
+    @Test
+    void regionOfParallelResamplingMatchesCrop() {
+        final BufferedImage source = TestImages.create(1600, 1400, BufferedImage.TYPE_INT_RGB);
+        final Resampler parallel = new Resampler(ResampleFilters.getLanczos3Filter(), 0, POOL);
+
+        assertSamePixels(parallel.resample(source, 800, 700).getSubimage(100, 50, 500, 300),
+                parallel.resample(source, 800, 700, 100, 50, 500, 300), "region");
+    }
+}
@@ -0,0 +1,112 @@
+package org.ontal.imgutil.scaling;
+
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.ontal.imgutil.TestImages;
+
+import com.mortennobel.imagescaling.AdvancedResizeOp;
+import com.mortennobel.imagescaling.ResampleFilter;
+import com.mortennobel.imagescaling.ResampleFilters;
+import com.mortennobel.imagescaling.ResampleOp;
+
+/**
+ * Checks the resampler produces the same images as the java-image-scaling
+ * <code>ResampleOp</code> it replaces, and the same images whatever the
+ * threading.
+ */
+class ResamplerTest {
+
+    private static final int[] IMAGE_TYPES = {
+        BufferedImage.TYPE_INT_RGB,
+        BufferedImage.TYPE_INT_ARGB,
+        BufferedImage.TYPE_INT_BGR,
+        BufferedImage.TYPE_3BYTE_BGR,
+        BufferedImage.TYPE_4BYTE_ABGR,
+        BufferedImage.TYPE_BYTE_GRAY,
+        BufferedImage.TYPE_BYTE_INDEXED
+    };
+
+    private static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    @AfterAll
+    static void shutdownPool() {
+        POOL.shutdown();
+    }
+
+    static Stream<Arguments> resampleOpCases() {
+        final ResampleFilter[] filters = {
+            ResampleFilters.getLanczos3Filter(),
+            ResampleFilters.getBoxFilter(),
+            ResampleFilters.getBiCubicFilter(),
+            ResampleFilters.getTriangleFilter(),
+            ResampleFilters.getMitchellFilter()
+        };
+        final Stream.Builder<Arguments> cases = Stream.builder();
+        for(final int imageType : IMAGE_TYPES) {
+            for(final ResampleFilter filter : filters) {
+                for(final AdvancedResizeOp.UnsharpenMask mask : new AdvancedResizeOp.UnsharpenMask[] {
+                    AdvancedResizeOp.UnsharpenMask.None, AdvancedResizeOp.UnsharpenMask.Soft }) {
+                    cases.add(Arguments.of(imageType, filter, mask, 61, 47));
+                    cases.add(Arguments.of(imageType, filter, mask, 250, 180));
+                }
+            }
+        }
+        return cases.build();
+    }
+
+    @ParameterizedTest(name = "type {0} {1} {2} -> {3}x{4}")
+    @MethodSource("resampleOpCases")
+    void matchesResampleOp(final int imageType, final ResampleFilter filter, final AdvancedResizeOp.UnsharpenMask mask,
+            final int width, final int height) {
+        final BufferedImage source = TestImages.create(157, 103, imageType);
+
+        final ResampleOp resampleOp = new ResampleOp(width, height);
+        resampleOp.setFilter(filter);
+        resampleOp.setUnsharpenMask(mask);
+        final BufferedImage expected = resampleOp.filter(source, null);
+
+        final BufferedImage actual = Resampler.getDefault().withFilter(filter).resample(source, width, height);
+        if(mask == AdvancedResizeOp.UnsharpenMask.Soft) {
+            Resampler.getDefault().sharpen(actual, TransformImage.UNSHARPEN_AMOUNT);
+        }
+        assertSamePixels(expected, actual, filter.getName() + " " + mask);
+    }
+
+    static Stream<Arguments> imageTypes() {
+        return IntStream.of(IMAGE_TYPES).mapToObj(Arguments::of);
+    }
+
+    @ParameterizedTest(name = "type {0}")
+    @MethodSource("imageTypes")
+    void parallelMatchesSequential(final int imageType) {
+        final BufferedImage source = TestImages.create(640, 480, imageType);
+        final ResampleFilter filter = ResampleFilters.getLanczos3Filter();
+        final Resampler sequential = new Resampler(filter, Long.MAX_VALUE, ForkJoinPool.commonPool());
+        final Resampler parallel = new Resampler(filter, 0, POOL);
+
+        assertSamePixels(sequential.resample(source, 211, 97), parallel.resample(source, 211, 97), "downscale");
+        assertSamePixels(sequential.resample(source, 1001, 777), parallel.resample(source, 1001, 777), "upscale");
+    }
+
+    @ParameterizedTest(name = "type {0}")
+    @MethodSource("imageTypes")
+    void reusedRowBuffersMatchFreshOnes(final int imageType) {
+        final BufferedImage source = TestImages.create(157, 103, imageType);
+        final Resampler sequential = new Resampler(ResampleFilters.getLanczos3Filter(), Long.MAX_VALUE,
+                ForkJoinPool.commonPool());
+        final BufferedImage expected = sequential.resample(source, 61, 47);
+
+        // the row buffers of the wider image are reused for the narrower one
+        sequential.resample(TestImages.create(1203, 31, imageType), 300, 20);
+        assertSamePixels(expected, sequential.resample(source, 61, 47), "after wider rows");
+    }
+}
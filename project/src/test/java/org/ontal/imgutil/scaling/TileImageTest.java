@@ -0,0 +1,90 @@
+package org.ontal.imgutil.scaling;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.ontal.imgutil.TestImages.assertSamePixels;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.Arguments;
+import org.junit.jupiter.params.provider.MethodSource;
+import org.ontal.imgutil.BaselineScaler;
+import org.ontal.imgutil.TestImages;
+import org.ontal.imgutil.TransformSpec;
+
+/**
+ * Checks the tiles replicated at the raster level match the tiles drawn one
+ * by one by the original implementation.
+ */
+class TileImageTest {
+
+    static Stream<Arguments> sources() {
+        final int[][] sizes = { { 1001, 667 }, { 640, 480 }, { 333, 999 }, { 7, 5 } };
+        final int[] imageTypes = {
+            BufferedImage.TYPE_INT_RGB,
+            BufferedImage.TYPE_INT_ARGB,
+            BufferedImage.TYPE_3BYTE_BGR,
+            BufferedImage.TYPE_4BYTE_ABGR,
+            BufferedImage.TYPE_BYTE_GRAY
+        };
+        final Stream.Builder<Arguments> sources = Stream.builder();
+        for(final int[] size : sizes) {
+            for(final int imageType : imageTypes) {
+                sources.add(Arguments.of(size[0], size[1], imageType));
+            }
+        }
+        return sources.build();
+    }
+
+    @ParameterizedTest(name = "{0}x{1} type {2}")
+    @MethodSource("sources")
+    void tileMatchesBaseline(final int width, final int height, final int imageType) {
+        final BufferedImage source = TestImages.create(width, height, imageType);
+
+        assertSamePixels(new BaselineScaler(source).tile(1500, 1500),
+                new TileImage().transform(source, TransformSpec.tile(1500, 1500)), "tile");
+        assertSamePixels(new BaselineScaler(source).tile(200, 100),
+                new TileImage().transform(source, TransformSpec.tile(200, 100)), "tile small");
+    }
+
+    @ParameterizedTest(name = "{0}x{1} type {2}")
+    @MethodSource("sources")
+    void scaledTileMatchesBaseline(final int width, final int height, final int imageType) {
+        final BufferedImage source = TestImages.create(width, height, imageType);
+        final BufferedImage tile = new ExpandImage().transform(source, TransformSpec.expand(30, 20));
+
+        assertSamePixels(new BaselineScaler(tile).tile(211, 97),
+                new TileImage().transform(source, TransformSpec.tile(211, 97, 30, 20)), "scaled tile");
+    }
+
+    @Test
+    void tileIntoOffsetDataBufferMatchesBaseline() {
+        final BufferedImage source = TestImages.create(33, 21, BufferedImage.TYPE_INT_RGB);
+        final int[] masks = { 0xff0000, 0xff00, 0xff };
+
+        // the destination pixels start at the data buffer offset, the elements before it must be left alone
+        final int offset = 500;
+        final DataBufferInt dataBuffer = new DataBufferInt(new int[offset + 100 * 70], 100 * 70, offset);
+        final WritableRaster raster = Raster.createWritableRaster(
+                new SinglePixelPackedSampleModel(dataBuffer.getDataType(), 100, 70, masks), dataBuffer, null);
+        final BufferedImage destination = new BufferedImage(new DirectColorModel(24, masks[0], masks[1], masks[2]),
+                raster, false, null);
+        final int[] data = dataBuffer.getData();
+        for(int i = 0; i < offset; i++) {
+            data[i] = i;
+        }
+
+        assertSamePixels(new BaselineScaler(source).tile(100, 70),
+                new TileImage().transform(source, TransformSpec.tile(100, 70), destination), "offset destination");
+        for(int i = 0; i < offset; i++) {
+            assertEquals(i, data[i], "element " + i + " before the offset");
+        }
+    }
+}
@@ -0,0 +1,676 @@
+package org.ontal.imgutil.server;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import org.ontal.imgutil.Dimension;
+import org.ontal.imgutil.EncodeOptions;
+import org.ontal.imgutil.ImageFormat;
+import org.ontal.imgutil.ImageScaler;
+import org.ontal.imgutil.PixelBudget;
+import org.ontal.imgutil.TransformSpec;
+import org.ontal.imgutil.metrics.Metrics;
+import org.ontal.imgutil.scaling.ScalingPlan;
+
+/**
+ * Long running scaling server built on the JDK HTTP server, so repeated
+ * resizes don't pay the JVM startup, the image plugin loading and the JIT
+ * warm-up every time.
+ * <br><br>
+ * Images are posted to <code>/scale</code> with the transformation in the
+ * query string and the transformed image is streamed back:
+ * <pre>
+ * curl --data-binary @original.jpg "http://localhost:8080/scale?mode=fit&amp;width=200&amp;height=200&amp;format=png"
+ * </pre>
+ * Query parameters:
+ * <ul>
+ * <li><code>mode</code> - <code>fit</code>, <code>expand</code>, <code>adjust</code>, <code>limit</code> or
+ * <code>tile</code></li>
+ * <li><code>width</code>, <code>height</code> - output dimensions, all the modes except limit</li>
+ * <li><code>rgb</code> - background color as <code>r,g,b</code> or <code>borderless=true</code>, fit only</li>
+ * <li><code>dimension</code>, <code>size</code> - limit dimension (<code>width</code> or <code>height</code>)
+ * and size, limit only</li>
+ * <li><code>tileWidth</code>, <code>tileHeight</code> - tile dimensions, tile only</li>
+ * <li><code>format</code> - output image format extension, <code>jpg</code> by default</li>
+ * <li><code>quality</code>, <code>sharpening</code> - {@link TransformSpec.Quality} and
+ * {@link TransformSpec.Sharpening} names</li>
+ * <li><code>jpegQuality</code>, <code>compression</code>, <code>progressive</code> - {@link EncodeOptions}</li>
+ * </ul>
+ * Requests are processed by a fixed number of worker threads. Requests
+ * arriving while all the workers are busy wait in a bounded queue and the
+ * ones not fitting into the queue are rejected right away with
+ * <code>503</code>, so an overloaded server sheds load instead of piling up
+ * decoded images. Requests producing images over the maximum output pixels
+ * are rejected with <code>400</code> and the decoded input images are
+ * limited by the {@link PixelBudget} installed while the server is running.
+ * Counters and the worker pool state are available from
+ * <code>/metrics</code> in the Prometheus text format.
+ */
+public class ScalingServer implements Closeable {
+
+    private final static Logger log = Logger.getLogger(ScalingServer.class.getName());
+
+    private static final int WARM_UP_WIDTH = 640;
+    private static final int WARM_UP_HEIGHT = 480;
+    private static final List<TransformSpec> WARM_UP_SPECS = Arrays.asList(
+            TransformSpec.fit(200, 200),
+            TransformSpec.expand(160, 120),
+            TransformSpec.adjust(100, 100),
+            TransformSpec.limit(Dimension.WIDTH, 320),
+            TransformSpec.tile(800, 600));
+
+    private final InetSocketAddress address;
+
+    private int workerThreads = Runtime.getRuntime().availableProcessors();
+    private int queueCapacity = 64;
+    private long maxRequestBytes = 32L * 1024 * 1024;
+    private int warmUpIterations = 3;
+    private long maxOutputPixels = 25_000_000L;
+    private PixelBudget pixelBudget = new PixelBudget(50_000_000L, 200_000_000L, PixelBudget.Policy.SUBSAMPLE);
+    private int gracePeriod = 30;
+
+    private HttpServer server;
+    private ThreadPoolExecutor workers;
+    private ServerStatistics statistics;
+    private PixelBudget previousBudget;
+
+    /**
+     * Creates server listening on the provided address once started.
+     *
+     * @param address socket address, port <code>0</code> for any free port
+     */
+    public ScalingServer(final InetSocketAddress address) {
+        if(address == null) {
+            throw new IllegalArgumentException("Address argument cannot be null");
+        }
+        this.address = address;
+    }
+
+    /**
+     * Sets the number of threads processing requests. Default is the number
+     * of available processors.
+     *
+     * @param threads number of threads
+     * @return scaling server
+     */
+    public ScalingServer workerThreads(final int threads) {
+        if(threads <= 0) {
+            throw new IllegalArgumentException("Invalid number of threads argument");
+        }
+        workerThreads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the number of requests waiting for a worker thread above which
+     * new requests are rejected. Default is 64.
+     *
+     * @param capacity queue capacity
+     * @return scaling server
+     */
+    public ScalingServer queueCapacity(final int capacity) {
+        if(capacity <= 0) {
+            throw new IllegalArgumentException("Invalid queue capacity argument");
+        }
+        queueCapacity = capacity;
+        return this;
+    }
+
+    /**
+     * Sets the maximum size of the posted images. Default is 32 MB.
+     *
+     * @param bytes maximum request body size in bytes
+     * @return scaling server
+     */
+    public ScalingServer maxRequestBytes(final long bytes) {
+        if(bytes <= 0) {
+            throw new IllegalArgumentException("Invalid maximum request size argument");
+        }
+        maxRequestBytes = bytes;
+        return this;
+    }
+
+    /**
+     * Sets the number of times every transformation is applied to a
+     * synthetic image in every format before the server starts accepting
+     * requests. Default is 3, <code>0</code> disables the warm-up.
+     *
+     * @param iterations number of warm-up iterations
+     * @return scaling server
+     */
+    public ScalingServer warmUpIterations(final int iterations) {
+        if(iterations < 0) {
+            throw new IllegalArgumentException("Invalid number of iterations argument");
+        }
+        warmUpIterations = iterations;
+        return this;
+    }
+
+    /**
+     * Sets the maximum number of pixels of the produced images, requests
+     * asking for bigger images are rejected with <code>400</code>. Default
+     * is 25 megapixels.
+     *
+     * @param pixels maximum output image pixels
+     * @return scaling server
+     */
+    public ScalingServer maxOutputPixels(final long pixels) {
+        if(pixels <= 0) {
+            throw new IllegalArgumentException("Invalid maximum output pixels argument");
+        }
+        maxOutputPixels = pixels;
+        return this;
+    }
+
+    /**
+     * Sets the pixel budget installed as the process wide default while the
+     * server is running, see {@link PixelBudget#setDefault(PixelBudget)}.
+     * Default is 50 megapixels per image, 200 megapixels in total and
+     * subsampling of the images over the limit.
+     *
+     * @param budget pixel budget
+     * @return scaling server
+     */
+    public ScalingServer pixelBudget(final PixelBudget budget) {
+        if(budget == null) {
+            throw new IllegalArgumentException("Pixel budget argument cannot be null");
+        }
+        pixelBudget = budget;
+        return this;
+    }
+
+    /**
+     * Sets the time the closing server waits for the requests being
+     * processed or queued to complete. Default is 30 seconds.
+     *
+     * @param seconds grace period in seconds
+     * @return scaling server
+     */
+    public ScalingServer gracePeriod(final int seconds) {
+        if(seconds < 0) {
+            throw new IllegalArgumentException("Invalid grace period argument");
+        }
+        gracePeriod = seconds;
+        return this;
+    }
+
+    /**
+     * Warms up the image processing and starts accepting requests.
+     *
+     * @return scaling server
+     * @throws IOException if the warm-up fails or the server can't be bound to its address
+     */
+    public synchronized ScalingServer start() throws IOException {
+        if(server != null) {
+            throw new IllegalStateException("Server already started");
+        }
+        warmUp();
+
+        workers = new ThreadPoolExecutor(workerThreads, workerThreads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new WorkerThreadFactory());
+        statistics = new ServerStatistics(Metrics.getListener());
+        server = HttpServer.create(address, 0);
+        server.createContext("/scale", this::dispatch);
+        server.createContext("/metrics", this::metrics);
+        Metrics.setListener(statistics);
+        previousBudget = PixelBudget.getDefault();
+        PixelBudget.setDefault(pixelBudget);
+        server.start();
+        log.info("Scaling server listening on " + server.getAddress());
+        return this;
+    }
+
+    /**
+     * Returns the address the server is listening on, e.g. to find out the
+     * port picked when started on port <code>0</code>.
+     *
+     * @return socket address
+     */
+    public synchronized InetSocketAddress getAddress() {
+        if(server == null) {
+            throw new IllegalStateException("Server not started");
+        }
+        return server.getAddress();
+    }
+
+    /**
+     * Rejects new requests with <code>503</code>, waits up to the grace
+     * period for the requests being processed or queued to complete, stops
+     * the server and restores the metrics listener and the pixel budget
+     * installed before the server started.
+     */
+    @Override
+    public synchronized void close() {
+        if(server == null) {
+            return;
+        }
+        workers.shutdown();
+        try {
+            if(!workers.awaitTermination(gracePeriod, TimeUnit.SECONDS)) {
+                log.warning("Scaling server stopped with " + workers.shutdownNow().size()
+                        + " queued and " + workers.getActiveCount() + " running requests");
+            }
+        }
+        catch(final InterruptedException e) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        server.stop(0);
+        if(Metrics.getListener() == statistics) {
+            Metrics.setListener(statistics.getNext());
+        }
+        if(PixelBudget.getDefault() == pixelBudget) {
+            PixelBudget.setDefault(previousBudget);
+        }
+        server = null;
+    }
+
+    /**
+     * Applies every warm-up transformation to a synthetic gradient encoded
+     * in every image format.
+     */
+    private void warmUp() throws IOException {
+        if(warmUpIterations == 0) {
+            return;
+        }
+        final long start = System.nanoTime();
+        final BufferedImage image = new BufferedImage(WARM_UP_WIDTH, WARM_UP_HEIGHT, BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, WARM_UP_WIDTH, WARM_UP_HEIGHT, Color.BLUE));
+        graphics.fillRect(0, 0, WARM_UP_WIDTH, WARM_UP_HEIGHT);
+        graphics.dispose();
+
+        for(final ImageFormat imageFormat : ImageFormat.values()) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            ImageIO.write(image, imageFormat.getName(), bytes);
+            final byte[] imageBytes = bytes.toByteArray();
+            for(int i = 0; i < warmUpIterations; i++) {
+                for(final TransformSpec spec : WARM_UP_SPECS) {
+                    new ImageScaler(imageBytes, spec).transform(spec).toByteArray(imageFormat);
+                }
+            }
+        }
+        log.info("Scaling server warmed up in " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) + " ms");
+    }
+
+    /**
+     * Hands the scaling request over to the worker pool or rejects it if
+     * the pool queue is full. Runs on the HTTP server dispatcher thread.
+     */
+    private void dispatch(final HttpExchange exchange) {
+        statistics.requests.incrementAndGet();
+        try {
+            workers.execute(() -> scale(exchange));
+        }
+        catch(final RejectedExecutionException e) {
+            statistics.rejected.incrementAndGet();
+            exchange.getResponseHeaders().set("Retry-After", "1");
+            respond(exchange, 503, "Server busy");
+        }
+    }
+
+    private void scale(final HttpExchange exchange) {
+        try {
+            if(!"POST".equals(exchange.getRequestMethod())) {
+                statistics.failed.incrementAndGet();
+                respond(exchange, 405, "Only POST requests are supported");
+                return;
+            }
+            final String contentLength = exchange.getRequestHeaders().getFirst("Content-Length");
+            if(contentLength != null && Long.parseLong(contentLength) > maxRequestBytes) {
+                statistics.failed.incrementAndGet();
+                respond(exchange, 413, "Image exceeds " + maxRequestBytes + " bytes");
+                return;
+            }
+
+            final Map<String, String> params = parseQuery(exchange.getRequestURI().getRawQuery());
+            final TransformSpec spec = parseSpec(params);
+            if(spec.getMode() != TransformSpec.Mode.LIMIT) {
+                checkOutputPixels(spec.getWidth(), spec.getHeight());
+            }
+            final String format = params.getOrDefault("format", ImageFormat.JPG.getFileExtension());
+            final ImageFormat imageFormat = ImageFormat.getByExtension(format);
+            if(imageFormat == null) {
+                throw new IllegalArgumentException("Unsupported image format " + format);
+            }
+            final EncodeOptions options = parseOptions(params);
+
+            final LimitedInputStream body = new LimitedInputStream(exchange.getRequestBody(), maxRequestBytes);
+            final ImageScaler decoded = new ImageScaler(body, spec);
+            final ScalingPlan plan = decoded.plan(spec);
+            checkOutputPixels(plan.getOutputWidth(), plan.getOutputHeight());
+            final ImageScaler scaler = decoded.transform(spec);
+            statistics.requestBytes.add(body.count);
+
+            exchange.getResponseHeaders().set("Content-Type", imageFormat.getMimeType());
+            exchange.sendResponseHeaders(200, 0);
+            try(final CountingOutputStream os = new CountingOutputStream(exchange.getResponseBody())) {
+                scaler.writeTo(imageFormat, options, os);
+                statistics.responseBytes.add(os.count);
+            }
+            statistics.completed.incrementAndGet();
+        }
+        catch(final IllegalArgumentException e) {
+            statistics.failed.incrementAndGet();
+            respond(exchange, 400, e.getMessage());
+        }
+        catch(final IOException e) {
+            statistics.failed.incrementAndGet();
+            // image readers may wrap the body limit failure
+            for(Throwable cause = e; cause != null; cause = cause.getCause()) {
+                if(cause instanceof RequestTooLargeException) {
+                    respond(exchange, 413, cause.getMessage());
+                    return;
+                }
+            }
+            respond(exchange, 422, e.getMessage());
+        }
+        catch(final RuntimeException | Error e) {
+            statistics.failed.incrementAndGet();
+            log.log(Level.SEVERE, e.getMessage(), e);
+            respond(exchange, 500, "Internal error");
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private void checkOutputPixels(final int width, final int height) {
+        if((long)width * height > maxOutputPixels) {
+            throw new IllegalArgumentException("Output image of " + width + "x" + height + " pixels exceeds "
+                    + maxOutputPixels + " pixels");
+        }
+    }
+
+    private void metrics(final HttpExchange exchange) {
+        try {
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4");
+            respond(exchange, 200, statistics.render(workers));
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    /**
+     * Sends a plain text response unless the response headers have already
+     * been sent, in which case the connection is closed so the client
+     * notices the truncated image.
+     */
+    private static void respond(final HttpExchange exchange, final int status, final String message) {
+        if(exchange.getResponseCode() != -1) {
+            return;
+        }
+        final byte[] body = String.valueOf(message).getBytes(StandardCharsets.UTF_8);
+        try {
+            if(!exchange.getResponseHeaders().containsKey("Content-Type")) {
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+            }
+            exchange.sendResponseHeaders(status, body.length);
+            try(final OutputStream os = exchange.getResponseBody()) {
+                os.write(body);
+            }
+        }
+        catch(final IOException e) {
+            log.log(Level.FINE, "Failed to send the response", e);
+        }
+        finally {
+            exchange.close();
+        }
+    }
+
+    private static Map<String, String> parseQuery(final String query) {
+        final Map<String, String> params = new HashMap<>();
+        if(query == null || query.isEmpty()) {
+            return params;
+        }
+        for(final String pair : query.split("&")) {
+            final int separator = pair.indexOf('=');
+            if(separator > 0) {
+                params.put(URLDecoder.decode(pair.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(pair.substring(separator + 1), StandardCharsets.UTF_8));
+            }
+        }
+        return params;
+    }
+
+    /**
+     * Builds the transformation spec from the query parameters.
+     *
+     * @param params query parameters
+     * @return transformation spec
+     */
+    static TransformSpec parseSpec(final Map<String, String> params) {
+        final String mode = required(params, "mode");
+        TransformSpec spec;
+        switch(mode.toLowerCase()) {
+            case "fit":
+                if(Boolean.parseBoolean(params.get("borderless"))) {
+                    spec = TransformSpec.fitBorderless(integer(params, "width"), integer(params, "height"));
+                }
+                else {
+                    spec = TransformSpec.fit(integer(params, "width"), integer(params, "height"), rgb(params.get("rgb")));
+                }
+                break;
+            case "expand":
+                spec = TransformSpec.expand(integer(params, "width"), integer(params, "height"));
+                break;
+            case "adjust":
+                spec = TransformSpec.adjust(integer(params, "width"), integer(params, "height"));
+                break;
+            case "limit":
+                spec = TransformSpec.limit(enumeration(Dimension.class, required(params, "dimension")),
+                        integer(params, "size"));
+                break;
+            case "tile":
+                if(params.containsKey("tileWidth") || params.containsKey("tileHeight")) {
+                    spec = TransformSpec.tile(integer(params, "width"), integer(params, "height"),
+                            integer(params, "tileWidth"), integer(params, "tileHeight"));
+                }
+                else {
+                    spec = TransformSpec.tile(integer(params, "width"), integer(params, "height"));
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid mode " + mode);
+        }
+        if(params.containsKey("quality")) {
+            spec = spec.quality(enumeration(TransformSpec.Quality.class, params.get("quality")));
+        }
+        if(params.containsKey("sharpening")) {
+            spec = spec.sharpening(enumeration(TransformSpec.Sharpening.class, params.get("sharpening")));
+        }
+        return spec;
+    }
+
+    private static EncodeOptions parseOptions(final Map<String, String> params) {
+        EncodeOptions options = EncodeOptions.DEFAULT;
+        try {
+            if(params.containsKey("jpegQuality")) {
+                options = options.quality(Float.parseFloat(params.get("jpegQuality")));
+            }
+            if(params.containsKey("compression")) {
+                options = options.compressionLevel(Integer.parseInt(params.get("compression")));
+            }
+        }
+        catch(final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid encoding option " + e.getMessage());
+        }
+        if(params.containsKey("progressive")) {
+            options = options.progressive(Boolean.parseBoolean(params.get("progressive")));
+        }
+        return options;
+    }
+
+    private static String required(final Map<String, String> params, final String name) {
+        final String value = params.get(name);
+        if(value == null || value.isEmpty()) {
+            throw new IllegalArgumentException("Missing " + name + " parameter");
+        }
+        return value;
+    }
+
+    private static int integer(final Map<String, String> params, final String name) {
+        final String value = required(params, name);
+        try {
+            return Integer.parseInt(value);
+        }
+        catch(final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + name + " parameter " + value);
+        }
+    }
+
+    private static <E extends Enum<E>> E enumeration(final Class<E> type, final String value) {
+        try {
+            return Enum.valueOf(type, value.toUpperCase());
+        }
+        catch(final IllegalArgumentException e) {
+            throw new IllegalArgumentException("Invalid " + type.getSimpleName().toLowerCase() + " " + value);
+        }
+    }
+
+    private static int[] rgb(final String value) {
+        if(value == null) {
+            return null;
+        }
+        final String[] parts = value.split(",");
+        final int[] rgb = new int[parts.length];
+        try {
+            for(int i = 0; i < parts.length; i++) {
+                rgb[i] = Integer.parseInt(parts[i].trim());
+            }
+        }
+        catch(final NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid rgb parameter " + value);
+        }
+        return rgb;
+    }
+
+    private static final class RequestTooLargeException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        RequestTooLargeException(final long limit) {
+            super("Image exceeds " + limit + " bytes");
+        }
+    }
+
+    /**
+     * Request body failing once more than the maximum number of bytes is
+     * read, for requests without a content length.
+     */
+    private static final class LimitedInputStream extends FilterInputStream {
+
+        private final long limit;
+        private long count;
+
+        LimitedInputStream(final InputStream in, final long limit) {
+            super(in);
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int b = super.read();
+            if(b >= 0) {
+                count(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int n = super.read(b, off, len);
+            if(n > 0) {
+                count(n);
+            }
+            return n;
+        }
+
+        @Override
+        public long skip(final long n) throws IOException {
+            final long skipped = super.skip(n);
+            count(skipped);
+            return skipped;
+        }
+
+        private void count(final long n) throws IOException {
+            count += n;
+            if(count > limit) {
+                throw new RequestTooLargeException(limit);
+            }
+        }
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+
+        private final OutputStream out;
+        private long count;
+
+        CountingOutputStream(final OutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+
+        @Override
+        public void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class WorkerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(final Runnable task) {
+            final Thread thread = new Thread(task, "scaling-server-worker-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package org.ontal.imgutil.server;
+
+import java.net.InetSocketAddress;
+
+/**
+ * Scaling server entry point. Accepts the port, the number of worker
+ * threads and the queue capacity as optional positional arguments and
+ * listens on the loopback interface unless the
+ * <code>imgutil.server.host</code> system property says otherwise. The
+ * <code>imgutil.server.maxOutputPixels</code> system property overrides the
+ * maximum number of pixels of the produced images.
+ * <pre>
+ * java -jar server.jar [port [workerThreads [queueCapacity]]]
+ * </pre>
+ */
+public final class ServerMain {
+
+    private static final int DEFAULT_PORT = 8080;
+
+    private ServerMain() {
+    }
+
+    public static void main(final String[] args) throws Exception {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        final String host = System.getProperty("imgutil.server.host", "127.0.0.1");
+        final ScalingServer server = new ScalingServer(new InetSocketAddress(host, port));
+        if(args.length > 1) {
+            server.workerThreads(Integer.parseInt(args[1]));
+        }
+        if(args.length > 2) {
+            server.queueCapacity(Integer.parseInt(args[2]));
+        }
+        final Long maxOutputPixels = Long.getLong("imgutil.server.maxOutputPixels");
+        if(maxOutputPixels != null) {
+            server.maxOutputPixels(maxOutputPixels);
+        }
+        Runtime.getRuntime().addShutdownHook(new Thread(server::close, "scaling-server-shutdown"));
+        server.start();
+    }
+}
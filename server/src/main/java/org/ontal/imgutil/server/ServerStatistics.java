@@ -0,0 +1,88 @@
+package org.ontal.imgutil.server;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.ontal.imgutil.metrics.MetricsListener;
+import org.ontal.imgutil.metrics.Stage;
+import org.ontal.imgutil.metrics.StageEvent;
+
+/**
+ * Request and processing stage counters of the scaling server, rendered in
+ * the Prometheus text exposition format by the metrics endpoint. Stage
+ * events are forwarded to the listener installed before the server started.
+ */
+final class ServerStatistics implements MetricsListener {
+
+    private static final double NANOS_PER_SECOND = 1_000_000_000d;
+
+    private final MetricsListener next;
+    private final long startNanos = System.nanoTime();
+
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong completed = new AtomicLong();
+    final AtomicLong rejected = new AtomicLong();
+    final AtomicLong failed = new AtomicLong();
+    final LongAdder requestBytes = new LongAdder();
+    final LongAdder responseBytes = new LongAdder();
+
+    private final Map<Stage, LongAdder> stageCounts = new EnumMap<>(Stage.class);
+    private final Map<Stage, LongAdder> stageNanos = new EnumMap<>(Stage.class);
+
+    ServerStatistics(final MetricsListener next) {
+        this.next = next;
+        for(final Stage stage : Stage.values()) {
+            stageCounts.put(stage, new LongAdder());
+            stageNanos.put(stage, new LongAdder());
+        }
+    }
+
+    MetricsListener getNext() {
+        return next;
+    }
+
+    @Override
+    public void stageCompleted(final StageEvent event) {
+        stageCounts.get(event.getStage()).increment();
+        stageNanos.get(event.getStage()).add(event.getElapsedNanos());
+        next.stageCompleted(event);
+    }
+
+    /**
+     * Renders the counters together with the current worker pool state.
+     *
+     * @param workers worker pool
+     * @return metrics text
+     */
+    String render(final ThreadPoolExecutor workers) {
+        final StringBuilder sb = new StringBuilder(1024);
+        append(sb, "scaling_uptime_seconds", null, (System.nanoTime() - startNanos) / NANOS_PER_SECOND);
+        append(sb, "scaling_requests_total", null, requests.get());
+        append(sb, "scaling_requests_completed_total", null, completed.get());
+        append(sb, "scaling_requests_rejected_total", null, rejected.get());
+        append(sb, "scaling_requests_failed_total", null, failed.get());
+        append(sb, "scaling_request_bytes_total", null, requestBytes.sum());
+        append(sb, "scaling_response_bytes_total", null, responseBytes.sum());
+        append(sb, "scaling_workers", null, workers.getMaximumPoolSize());
+        append(sb, "scaling_workers_active", null, workers.getActiveCount());
+        append(sb, "scaling_queue_size", null, workers.getQueue().size());
+        append(sb, "scaling_queue_capacity", null, workers.getQueue().size() + workers.getQueue().remainingCapacity());
+        for(final Stage stage : Stage.values()) {
+            final String label = stage.name().toLowerCase();
+            append(sb, "scaling_stage_total", label, stageCounts.get(stage).sum());
+            append(sb, "scaling_stage_seconds_total", label, stageNanos.get(stage).sum() / NANOS_PER_SECOND);
+        }
+        return sb.toString();
+    }
+
+    private static void append(final StringBuilder sb, final String name, final String stage, final Object value) {
+        sb.append(name);
+        if(stage != null) {
+            sb.append("{stage=\"").append(stage).append("\"}");
+        }
+        sb.append(' ').append(value).append('\n');
+    }
+}
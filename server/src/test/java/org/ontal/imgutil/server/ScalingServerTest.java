@@ -0,0 +1,143 @@
+package org.ontal.imgutil.server;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.awt.Color;
+import java.awt.GradientPaint;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.ontal.imgutil.PixelBudget;
+
+/**
+ * Runs the scaling server on an ephemeral port and checks the status codes,
+ * the content types and the produced images of the requests.
+ */
+class ScalingServerTest {
+
+    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    private static ScalingServer server;
+    private static byte[] imageBytes;
+
+    @BeforeAll
+    static void startServer() throws IOException {
+        final BufferedImage image = new BufferedImage(640, 480, BufferedImage.TYPE_3BYTE_BGR);
+        final Graphics2D graphics = image.createGraphics();
+        graphics.setPaint(new GradientPaint(0, 0, Color.ORANGE, 640, 480, Color.BLUE));
+        graphics.fillRect(0, 0, 640, 480);
+        graphics.dispose();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        ImageIO.write(image, "png", bytes);
+        imageBytes = bytes.toByteArray();
+
+        server = new ScalingServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))
+                .workerThreads(2)
+                .warmUpIterations(0)
+                .maxRequestBytes(40_000)
+                .maxOutputPixels(1_000_000)
+                .start();
+    }
+
+    @AfterAll
+    static void stopServer() {
+        server.close();
+        assertSame(PixelBudget.UNLIMITED, PixelBudget.getDefault());
+    }
+
+    @Test
+    void scalesImage() throws Exception {
+        final HttpResponse<byte[]> response = post("mode=fit&width=200&height=200&format=png", imageBytes);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("image/png", response.headers().firstValue("Content-Type").orElse(null));
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(response.body()));
+        assertEquals(200, image.getWidth());
+        assertEquals(200, image.getHeight());
+    }
+
+    @Test
+    void scalesImageToDefaultFormat() throws Exception {
+        final HttpResponse<byte[]> response = post("mode=adjust&width=300&height=100&sharpening=none", imageBytes);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("image/jpeg", response.headers().firstValue("Content-Type").orElse(null));
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(response.body()));
+        assertEquals(300, image.getWidth());
+        assertEquals(100, image.getHeight());
+    }
+
+    @Test
+    void limitsImage() throws Exception {
+        final HttpResponse<byte[]> response = post("mode=limit&dimension=height&size=240&format=bmp", imageBytes);
+
+        assertEquals(200, response.statusCode());
+        assertEquals("image/bmp", response.headers().firstValue("Content-Type").orElse(null));
+        final BufferedImage image = ImageIO.read(new ByteArrayInputStream(response.body()));
+        assertEquals(320, image.getWidth());
+        assertEquals(240, image.getHeight());
+    }
+
+    @Test
+    void rejectsInvalidRequests() throws Exception {
+        assertEquals(400, post("mode=stretch&width=200&height=200", imageBytes).statusCode());
+        assertEquals(400, post("mode=fit&width=200", imageBytes).statusCode());
+        assertEquals(400, post("mode=fit&width=200&height=200&format=tiff", imageBytes).statusCode());
+
+        final HttpResponse<byte[]> response = CLIENT.send(HttpRequest.newBuilder(uri("/scale?mode=fit&width=1&height=1"))
+                .GET().build(), HttpResponse.BodyHandlers.ofByteArray());
+        assertEquals(405, response.statusCode());
+        assertEquals("text/plain; charset=utf-8", response.headers().firstValue("Content-Type").orElse(null));
+    }
+
+    @Test
+    void rejectsOutputOverLimit() throws Exception {
+        assertEquals(400, post("mode=expand&width=2000&height=2000", imageBytes).statusCode());
+        assertEquals(400, post("mode=limit&dimension=width&size=5000", imageBytes).statusCode());
+    }
+
+    @Test
+    void rejectsInvalidImages() throws Exception {
+        assertEquals(422, post("mode=fit&width=200&height=200", "not an image".getBytes(StandardCharsets.UTF_8))
+                .statusCode());
+        assertEquals(413, post("mode=fit&width=200&height=200", new byte[50_000]).statusCode());
+    }
+
+    @Test
+    void exposesMetrics() throws Exception {
+        post("mode=fit&width=100&height=100", imageBytes);
+        final HttpResponse<String> response = CLIENT.send(HttpRequest.newBuilder(uri("/metrics")).GET().build(),
+                HttpResponse.BodyHandlers.ofString());
+
+        assertEquals(200, response.statusCode());
+        assertTrue(response.headers().firstValue("Content-Type").orElse("").startsWith("text/plain"));
+        assertTrue(response.body().contains("scaling_requests_total"), response.body());
+    }
+
+    private static HttpResponse<byte[]> post(final String query, final byte[] body) throws Exception {
+        return CLIENT.send(HttpRequest.newBuilder(uri("/scale?" + query))
+                .POST(HttpRequest.BodyPublishers.ofByteArray(body)).build(), HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static URI uri(final String path) {
+        final InetSocketAddress address = server.getAddress();
+        return URI.create("http://" + address.getHostString() + ":" + address.getPort() + path);
+    }
+}